@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs.benchmark;
+
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.trustedanalytics.utils.hdfs.HdfsConfig;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * HdfsConfig on top of local file system or embedded MiniDFSCluster, created the same way as
+ * by the "local" and "embedded" profiles.
+ */
+final class BenchmarkFileSystems implements Closeable {
+
+    static final String LOCAL = "local";
+
+    static final String EMBEDDED = "embedded";
+
+    private final File tmpDir;
+
+    private final MiniDFSCluster cluster;
+
+    private final HdfsConfig hdfsConfig;
+
+    private BenchmarkFileSystems(File tmpDir, MiniDFSCluster cluster, HdfsConfig hdfsConfig) {
+        this.tmpDir = tmpDir;
+        this.cluster = cluster;
+        this.hdfsConfig = hdfsConfig;
+    }
+
+    static BenchmarkFileSystems start(String kind) throws IOException {
+        return start(kind, 1, new Configuration(false));
+    }
+
+    static BenchmarkFileSystems start(String kind, int dataNodes, Configuration config)
+        throws IOException {
+        File tmpDir = Files.createTempDir();
+        MiniDFSCluster cluster = null;
+        FileSystem fileSystem;
+        if (LOCAL.equals(kind)) {
+            fileSystem = FileSystem.getLocal(config);
+        } else if (EMBEDDED.equals(kind)) {
+            config.set(MiniDFSCluster.HDFS_MINIDFS_BASEDIR, tmpDir.getAbsolutePath());
+            cluster = new MiniDFSCluster.Builder(config).numDataNodes(dataNodes).build();
+            fileSystem = cluster.getFileSystem();
+        } else {
+            throw new IllegalArgumentException("Unknown file system: " + kind);
+        }
+        Path folder = new Path(new File(tmpDir, "data").getAbsolutePath());
+        fileSystem.mkdirs(folder);
+        fileSystem.setWorkingDirectory(folder);
+        return new BenchmarkFileSystems(tmpDir, cluster,
+            new HdfsConfig(fileSystem, "hdfs", folder));
+    }
+
+    HdfsConfig getHdfsConfig() {
+        return hdfsConfig;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (cluster != null) {
+            cluster.shutdown();
+        }
+        FileUtils.deleteDirectory(tmpDir);
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Runs all benchmarks single threaded, then repeats the I/O benchmarks for every thread count
+ * from "benchmarks.threads" property. Results are written as JSON to "benchmarks.results"
+ * directory, one file per run, so they can be compared between releases.
+ */
+public final class BenchmarkRunner {
+
+    private static final List<String> THREADED = Arrays.asList(
+        FileSystemThroughputBenchmark.class.getSimpleName(),
+        GroupCommitBenchmark.class.getSimpleName());
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String include = System.getProperty("benchmarks.include", ".*");
+        File results = new File(System.getProperty("benchmarks.results", "target/jmh-results"));
+        String threads = System.getProperty("benchmarks.threads", "4,16");
+        if (!results.isDirectory() && !results.mkdirs()) {
+            throw new IllegalStateException("Cannot create results directory " + results);
+        }
+
+        run(include, 1, new File(results, "jmh-result.json"));
+        for (String count : threads.split(",")) {
+            int threadCount = Integer.parseInt(count.trim());
+            for (String benchmark : THREADED) {
+                if (Pattern.compile(include).matcher(benchmark).find()) {
+                    run(benchmark, threadCount,
+                        new File(results, "jmh-result-" + benchmark + "-t" + threadCount + ".json"));
+                }
+            }
+        }
+    }
+
+    private static void run(String include, int threads, File result) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(include)
+            .threads(threads)
+            .resultFormat(ResultFormatType.JSON)
+            .result(result.getPath())
+            .build();
+        new Runner(options).run();
+    }
+}
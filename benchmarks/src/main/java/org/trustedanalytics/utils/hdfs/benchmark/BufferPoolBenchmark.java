@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs.benchmark;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.trustedanalytics.utils.hdfs.HdfsBufferPool;
+import org.trustedanalytics.utils.hdfs.HdfsConfig;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copying a file per request: a new heap buffer per request versus {@link HdfsBufferPool} copies
+ * to a stream and to a channel. Run with {@code -prof gc} to compare allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BufferPoolBenchmark {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private static final OutputStream STREAM_SINK = Discarding.INSTANCE;
+
+    private static final WritableByteChannel CHANNEL_SINK = Discarding.INSTANCE;
+
+    @Param({BenchmarkFileSystems.LOCAL, BenchmarkFileSystems.EMBEDDED})
+    String fileSystem;
+
+    @Param({"65536", "1048576"})
+    int fileSize;
+
+    private BenchmarkFileSystems fileSystems;
+
+    private HdfsConfig hdfsConfig;
+
+    private HdfsBufferPool pool;
+
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fileSystems = BenchmarkFileSystems.start(fileSystem);
+        hdfsConfig = fileSystems.getHdfsConfig();
+        pool = new HdfsBufferPool(1024 * 1024, 64 * 1024 * 1024L, 4, true);
+        file = new Path(hdfsConfig.getPath(), "file");
+        try (FSDataOutputStream out = hdfsConfig.getFileSystem().create(file, true)) {
+            out.write(FileSystemThroughputBenchmark.randomBytes(fileSize));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fileSystems.close();
+    }
+
+    @Benchmark
+    public long heapBufferPerRequest() throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long copied = 0;
+        try (FSDataInputStream in = hdfsConfig.getFileSystem().open(file)) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                STREAM_SINK.write(buffer, 0, read);
+                copied += read;
+            }
+        }
+        return copied;
+    }
+
+    @Benchmark
+    public long pooledToStream() throws IOException {
+        try (FSDataInputStream in = hdfsConfig.getFileSystem().open(file)) {
+            return pool.copy(in, STREAM_SINK);
+        }
+    }
+
+    @Benchmark
+    public long pooledToChannel() throws IOException {
+        try (FSDataInputStream in = hdfsConfig.getFileSystem().open(file)) {
+            return pool.copy(in, CHANNEL_SINK);
+        }
+    }
+
+    /**
+     * Sink standing in for a socket, accepting both arrays and buffers.
+     */
+    private static final class Discarding extends OutputStream implements WritableByteChannel {
+
+        static final Discarding INSTANCE = new Discarding();
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int length = src.remaining();
+            src.position(src.limit());
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs.benchmark;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.trustedanalytics.utils.hdfs.HdfsByteBufferReader;
+import org.trustedanalytics.utils.hdfs.HdfsConfig;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a whole file and touching every byte: stream copy through HdfsConfig.getFileSystem()
+ * versus {@link HdfsByteBufferReader} with and without checksums.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ByteBufferReadBenchmark {
+
+    private static final int FILE_SIZE = 256 * 1024 * 1024;
+
+    private static final int CHUNK_SIZE = 8 * 1024 * 1024;
+
+    @Param({BenchmarkFileSystems.LOCAL, BenchmarkFileSystems.EMBEDDED})
+    String fileSystem;
+
+    private BenchmarkFileSystems fileSystems;
+
+    private HdfsConfig hdfsConfig;
+
+    private Path file;
+
+    private byte[] streamBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fileSystems = BenchmarkFileSystems.start(fileSystem);
+        hdfsConfig = fileSystems.getHdfsConfig();
+        file = new Path(hdfsConfig.getPath(), "file");
+        byte[] chunk = FileSystemThroughputBenchmark.randomBytes(1024 * 1024);
+        try (FSDataOutputStream out = hdfsConfig.getFileSystem().create(file, true)) {
+            for (int written = 0; written < FILE_SIZE; written += chunk.length) {
+                out.write(chunk);
+            }
+        }
+        streamBuffer = new byte[64 * 1024];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fileSystems.close();
+    }
+
+    @Benchmark
+    public long streamCopy() throws IOException {
+        long sum = 0;
+        try (FSDataInputStream in = hdfsConfig.getFileSystem().open(file)) {
+            ByteBuffer wrapped = ByteBuffer.wrap(streamBuffer);
+            int read;
+            while ((read = in.read(streamBuffer)) > 0) {
+                wrapped.clear().limit(read);
+                sum += touch(wrapped);
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long byteBuffersWithChecksums() throws IOException {
+        return readByteBuffers(false);
+    }
+
+    @Benchmark
+    public long byteBuffersSkippingChecksums() throws IOException {
+        return readByteBuffers(true);
+    }
+
+    private long readByteBuffers(boolean skipChecksums) throws IOException {
+        long[] sum = new long[1];
+        new HdfsByteBufferReader(hdfsConfig, skipChecksums, CHUNK_SIZE).read(file,
+            chunk -> sum[0] += touch(chunk));
+        return sum[0];
+    }
+
+    private static long touch(ByteBuffer chunk) {
+        long sum = 0;
+        int i = chunk.position();
+        for (; i + Long.BYTES <= chunk.limit(); i += Long.BYTES) {
+            sum += chunk.getLong(i);
+        }
+        for (; i < chunk.limit(); i++) {
+            sum += chunk.get(i);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.trustedanalytics.utils.hdfs.EnableHdfs;
+import org.trustedanalytics.utils.hdfs.HdfsConfig;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of creating HdfsConfig bean, including Spring context for the "local" profile and
+ * cluster startup for the embedded MiniDFSCluster.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class ConfigFactoryBenchmark {
+
+    @Configuration
+    @EnableHdfs
+    public static class LocalContext {
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 20)
+    public HdfsConfig configLocalFS() {
+        try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext()) {
+            context.getEnvironment().setActiveProfiles("local");
+            context.register(LocalContext.class);
+            context.refresh();
+            return context.getBean(HdfsConfig.class);
+        }
+    }
+
+    @Benchmark
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 5)
+    public HdfsConfig configEmbedded() throws IOException {
+        try (BenchmarkFileSystems fileSystems =
+                 BenchmarkFileSystems.start(BenchmarkFileSystems.EMBEDDED)) {
+            return fileSystems.getHdfsConfig();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs.benchmark;
+
+import com.google.common.base.Preconditions;
+import org.apache.hadoop.conf.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.trustedanalytics.hadoop.config.ConfigurationHelperImpl;
+import org.trustedanalytics.hadoop.config.ConfigurationLocator;
+import org.trustedanalytics.utils.hdfs.HadoopConfigurationCache;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building Hadoop Configuration from a synthetic VCAP_SERVICES binding, parsing the JSON and
+ * copying its entries the way HdfsConfigFactory does it for every application context, with and
+ * without {@link HadoopConfigurationCache}. The difference is the saving per context.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ConfigurationBuildingBenchmark {
+
+    @Param({"10", "100", "1000"})
+    int entries;
+
+    private Map<String, String> hadoopConfig;
+
+    private String payload;
+
+    @Setup
+    public void setUp() throws IOException {
+        hadoopConfig = new LinkedHashMap<>();
+        hadoopConfig.put("fs.defaultFS", "hdfs://nameservice1");
+        hadoopConfig.put("hadoop.security.authentication", "simple");
+        for (int i = hadoopConfig.size(); i < entries; i++) {
+            hadoopConfig.put("synthetic.property." + i, "value-" + i);
+        }
+
+        StringBuilder json = new StringBuilder("{\"hdfs\":[{\"credentials\":{\"HADOOP_CONFIG_KEY\":{");
+        hadoopConfig.forEach((key, value) ->
+            json.append('"').append(key).append("\":\"").append(value).append("\","));
+        json.setLength(json.length() - 1);
+        payload = json.append("}}}]}").toString();
+
+        Preconditions.checkState("hdfs://nameservice1".equals(uncached().get("fs.defaultFS")),
+            "Payload is not parsed as a Hadoop configuration binding");
+        HadoopConfigurationCache.getInstance().invalidateAll();
+    }
+
+    @Benchmark
+    public Configuration uncached() throws IOException {
+        Configuration config = new Configuration(true);
+        ConfigurationHelperImpl.getInstance()
+            .getConfigurationFromJson(payload, ConfigurationLocator.HADOOP)
+            .forEach(config::set);
+        config.size();
+        return config;
+    }
+
+    @Benchmark
+    public Configuration cached() throws IOException {
+        return HadoopConfigurationCache.getInstance().get(payload, "cloud", this::uncached);
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs.benchmark;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read and write throughput through HdfsConfig.getFileSystem(). Every operation transfers
+ * {@link #FILE_SIZE} bytes, so bytes per second are operations per second times file size.
+ * Thread count is set by {@link BenchmarkRunner}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class FileSystemThroughputBenchmark {
+
+    static final int FILE_SIZE = 16 * 1024 * 1024;
+
+    @Param({BenchmarkFileSystems.LOCAL, BenchmarkFileSystems.EMBEDDED})
+    String fileSystem;
+
+    @Param({"4096", "65536", "1048576"})
+    int bufferSize;
+
+    private BenchmarkFileSystems fileSystems;
+
+    private FileSystem fs;
+
+    private Path source;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fileSystems = BenchmarkFileSystems.start(fileSystem);
+        fs = fileSystems.getHdfsConfig().getFileSystem();
+        source = new Path(fileSystems.getHdfsConfig().getPath(), "source");
+        byte[] chunk = randomBytes(1024 * 1024);
+        try (FSDataOutputStream out = fs.create(source, true)) {
+            for (int written = 0; written < FILE_SIZE; written += chunk.length) {
+                out.write(chunk);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fileSystems.close();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        private byte[] buffer;
+
+        private Path target;
+
+        @Setup(Level.Trial)
+        public void setUp(FileSystemThroughputBenchmark benchmark) {
+            buffer = randomBytes(benchmark.bufferSize);
+            target = new Path(benchmark.fileSystems.getHdfsConfig().getPath(),
+                "target-" + UUID.randomUUID());
+        }
+    }
+
+    @Benchmark
+    public long read(ThreadState state) throws IOException {
+        long total = 0;
+        try (FSDataInputStream in = fs.open(source, bufferSize)) {
+            int read;
+            while ((read = in.read(state.buffer)) > 0) {
+                total += read;
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long write(ThreadState state) throws IOException {
+        long total = 0;
+        try (FSDataOutputStream out = fs.create(state.target, true, bufferSize)) {
+            while (total < FILE_SIZE) {
+                out.write(state.buffer);
+                total += state.buffer.length;
+            }
+        }
+        return total;
+    }
+
+    static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs.benchmark;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.trustedanalytics.utils.hdfs.GroupCommitWriter;
+import org.trustedanalytics.utils.hdfs.HdfsGroupCommit;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable appends of small records from all benchmark threads to one file: a shared stream
+ * synced after every record versus {@link GroupCommitWriter}. Throughput and latency
+ * percentiles are both reported; thread count is set by {@link BenchmarkRunner}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GroupCommitBenchmark {
+
+    @Param({BenchmarkFileSystems.LOCAL, BenchmarkFileSystems.EMBEDDED})
+    String fileSystem;
+
+    @Param({"HFLUSH", "HSYNC"})
+    GroupCommitWriter.Durability durability;
+
+    @Param({"128"})
+    int recordSize;
+
+    private BenchmarkFileSystems fileSystems;
+
+    private FSDataOutputStream perRecordStream;
+
+    private GroupCommitWriter writer;
+
+    private byte[] record;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fileSystems = BenchmarkFileSystems.start(fileSystem);
+        perRecordStream = fileSystems.getHdfsConfig().getFileSystem()
+            .create(new Path(fileSystems.getHdfsConfig().getPath(), "per-record.log"), true);
+        writer = new HdfsGroupCommit(fileSystems.getHdfsConfig(), durability, 4096,
+            1024 * 1024, 0).open("group-commit.log");
+        record = FileSystemThroughputBenchmark.randomBytes(recordSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        writer.close();
+        perRecordStream.close();
+        fileSystems.close();
+    }
+
+    @Benchmark
+    public long syncPerRecord() throws IOException {
+        synchronized (perRecordStream) {
+            perRecordStream.write(record);
+            if (durability == GroupCommitWriter.Durability.HSYNC) {
+                perRecordStream.hsync();
+            } else {
+                perRecordStream.hflush();
+            }
+            return perRecordStream.getPos();
+        }
+    }
+
+    @Benchmark
+    public long groupCommit() {
+        return writer.append(record).join();
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs.benchmark;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.trustedanalytics.utils.hdfs.HdfsConfig;
+import org.trustedanalytics.utils.hdfs.HdfsLister;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counting entries of a synthetic tree: recursive {@link FileSystem#listStatus(Path)}, which
+ * materializes every directory, versus lazy and parallel walks of {@link HdfsLister}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ListingBenchmark {
+
+    private static final int DIRS = 16;
+
+    @Param({BenchmarkFileSystems.LOCAL, BenchmarkFileSystems.EMBEDDED})
+    String fileSystem;
+
+    @Param({"2000"})
+    int filesPerDir;
+
+    private BenchmarkFileSystems fileSystems;
+
+    private HdfsConfig hdfsConfig;
+
+    private HdfsLister lister;
+
+    private Path root;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fileSystems = BenchmarkFileSystems.start(fileSystem);
+        hdfsConfig = fileSystems.getHdfsConfig();
+        lister = new HdfsLister(hdfsConfig, 1000, DIRS);
+        root = new Path(hdfsConfig.getPath(), "tree");
+        FileSystem fs = hdfsConfig.getFileSystem();
+        for (int d = 0; d < DIRS; d++) {
+            Path dir = new Path(root, "dir-" + d);
+            for (int f = 0; f < filesPerDir; f++) {
+                fs.createNewFile(new Path(dir, "file-" + f));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fileSystems.close();
+    }
+
+    @Benchmark
+    public long listStatusRecursive() throws IOException {
+        return countRecursive(hdfsConfig.getFileSystem(), root);
+    }
+
+    @Benchmark
+    public long walk() throws IOException {
+        return lister.walk(root, null).count();
+    }
+
+    @Benchmark
+    public long walkParallel() throws IOException {
+        return lister.walkParallel(root, null, status -> { });
+    }
+
+    private static long countRecursive(FileSystem fs, Path dir) throws IOException {
+        long count = 0;
+        for (FileStatus status : fs.listStatus(dir)) {
+            count++;
+            if (status.isDirectory()) {
+                count += countRecursive(fs, status.getPath());
+            }
+        }
+        return count;
+    }
+}
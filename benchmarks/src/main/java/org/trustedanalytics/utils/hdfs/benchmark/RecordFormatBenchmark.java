@@ -0,0 +1,168 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs.benchmark;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.trustedanalytics.utils.hdfs.HdfsRecordReader;
+import org.trustedanalytics.utils.hdfs.HdfsRecordWriter;
+import org.trustedanalytics.utils.hdfs.HdfsRecords;
+import org.trustedanalytics.utils.hdfs.RecordFormat;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing and reading {@link #VOLUME} bytes of CSV rows as newline separated text, which is what
+ * services do with plain streams, versus record files in given "codec/block size" formats.
+ * {@link HdfsRecords#calibrate} runs a shorter version of the same comparison at runtime.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RecordFormatBenchmark {
+
+    static final int VOLUME = 16 * 1024 * 1024;
+
+    private static final String TEXT = "text";
+
+    @Param({BenchmarkFileSystems.LOCAL, BenchmarkFileSystems.EMBEDDED})
+    String fileSystem;
+
+    @Param({TEXT, "none/1048576", "default/65536", "default/1048576", "bzip2/1048576"})
+    String format;
+
+    private BenchmarkFileSystems fileSystems;
+
+    private FileSystem fs;
+
+    private HdfsRecords records;
+
+    private RecordFormat recordFormat;
+
+    private List<byte[]> rows;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fileSystems = BenchmarkFileSystems.start(fileSystem);
+        fs = fileSystems.getHdfsConfig().getFileSystem();
+        if (!TEXT.equals(format)) {
+            String[] codecAndBlockSize = format.split("/");
+            recordFormat = new RecordFormat(codecAndBlockSize[0],
+                Integer.parseInt(codecAndBlockSize[1]));
+            records = new HdfsRecords(fileSystems.getHdfsConfig(), recordFormat, Long.MAX_VALUE,
+                0);
+        }
+        rows = rows(VOLUME);
+        write("source");
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteTarget() throws IOException {
+        fs.delete(path("target"), true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fileSystems.close();
+    }
+
+    @Benchmark
+    public long write() throws IOException {
+        return write("target");
+    }
+
+    @Benchmark
+    public long read() throws IOException {
+        long count = 0;
+        if (recordFormat == null) {
+            try (FSDataInputStream in = fs.open(new Path(path("source"), "rows.txt"));
+                 BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                while (reader.readLine() != null) {
+                    count++;
+                }
+            }
+        } else {
+            try (HdfsRecordReader reader = records.openReader("source")) {
+                while (reader.next() != null) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private long write(String dir) throws IOException {
+        if (recordFormat == null) {
+            try (OutputStream out = fs.create(new Path(path(dir), "rows.txt"), true)) {
+                for (byte[] row : rows) {
+                    out.write(row);
+                    out.write('\n');
+                }
+            }
+            return rows.size();
+        }
+        try (HdfsRecordWriter writer = records.openWriter(dir)) {
+            for (byte[] row : rows) {
+                writer.append(row);
+            }
+            return writer.getRecords();
+        }
+    }
+
+    private Path path(String dir) {
+        return new Path(fileSystems.getHdfsConfig().getPath(), dir);
+    }
+
+    static List<byte[]> rows(int volume) {
+        Random random = new Random(volume);
+        List<byte[]> rows = new ArrayList<>();
+        for (int size = 0; size < volume; ) {
+            byte[] row = String.format("%d,user-%d,%s,%d.%02d,%d", rows.size(),
+                random.nextInt(10_000), random.nextBoolean() ? "PL" : "US",
+                random.nextInt(1000), random.nextInt(100), System.currentTimeMillis())
+                .getBytes(StandardCharsets.UTF_8);
+            rows.add(row);
+            size += row.length;
+        }
+        return rows;
+    }
+}
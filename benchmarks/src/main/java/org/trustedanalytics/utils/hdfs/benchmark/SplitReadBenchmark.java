@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs.benchmark;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.trustedanalytics.utils.hdfs.HdfsSplitPlanner;
+import org.trustedanalytics.utils.hdfs.ReadSplit;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading {@link #FILES} files of {@link #FILE_SIZE} bytes, stored in blocks of
+ * {@link #BLOCK_SIZE} spread over {@link #DATA_NODES} DataNodes: one {@link FileSystem#open}
+ * stream after another, as batch workers do, versus {@link HdfsSplitPlanner} with ordered and
+ * unordered delivery. Planning itself is measured separately.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SplitReadBenchmark {
+
+    private static final int DATA_NODES = 3;
+
+    private static final int FILES = 4;
+
+    private static final int FILE_SIZE = 16 * 1024 * 1024;
+
+    private static final int BLOCK_SIZE = 4 * 1024 * 1024;
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    @Param({BenchmarkFileSystems.LOCAL, BenchmarkFileSystems.EMBEDDED})
+    String fileSystem;
+
+    private BenchmarkFileSystems fileSystems;
+
+    private FileSystem fs;
+
+    private HdfsSplitPlanner planner;
+
+    private Path dir;
+
+    private List<ReadSplit> splits;
+
+    private byte[] buffer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fileSystems = BenchmarkFileSystems.start(fileSystem, DATA_NODES,
+            new Configuration(false));
+        fs = fileSystems.getHdfsConfig().getFileSystem();
+        planner = new HdfsSplitPlanner(fileSystems.getHdfsConfig(), 8, BLOCK_SIZE, CHUNK_SIZE);
+        dir = new Path(fileSystems.getHdfsConfig().getPath(), "data");
+        byte[] content = FileSystemThroughputBenchmark.randomBytes(FILE_SIZE);
+        for (int i = 0; i < FILES; i++) {
+            try (FSDataOutputStream out = fs.create(new Path(dir, "file-" + i), true, CHUNK_SIZE,
+                (short) 1, BLOCK_SIZE)) {
+                out.write(content);
+            }
+        }
+        splits = planner.plan(dir);
+        buffer = new byte[CHUNK_SIZE];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        planner.close();
+        fileSystems.close();
+    }
+
+    @Benchmark
+    public long sequentialStreams() throws IOException {
+        long bytes = 0;
+        for (FileStatus file : fs.listStatus(dir)) {
+            try (FSDataInputStream in = fs.open(file.getPath())) {
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    bytes += read;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public long splitsOrdered() throws IOException {
+        return planner.read(splits, true, (split, position, data, length) -> { });
+    }
+
+    @Benchmark
+    public long splitsUnordered() throws IOException {
+        return planner.read(splits, false, (split, position, data, length) -> { });
+    }
+
+    @Benchmark
+    public int plan() throws IOException {
+        return planner.plan(dir).size();
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs.benchmark;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.trustedanalytics.utils.hdfs.HdfsConfig;
+import org.trustedanalytics.utils.hdfs.HdfsSync;
+import org.trustedanalytics.utils.hdfs.SyncReport;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Staging a local tree to the target file system: single-threaded {@link FileUtil#copy}, which
+ * copies everything every time, versus {@link HdfsSync} into an empty target and into a target
+ * that is already up to date.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SyncBenchmark {
+
+    private static final int DIRS = 4;
+
+    private static final int FILES_PER_DIR = 8;
+
+    @Param({BenchmarkFileSystems.LOCAL, BenchmarkFileSystems.EMBEDDED})
+    String fileSystem;
+
+    @Param({"1048576"})
+    int fileSize;
+
+    private BenchmarkFileSystems sourceFileSystems;
+
+    private BenchmarkFileSystems targetFileSystems;
+
+    private HdfsConfig source;
+
+    private HdfsConfig target;
+
+    private HdfsSync sync;
+
+    private Path tree;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        sourceFileSystems = BenchmarkFileSystems.start(BenchmarkFileSystems.LOCAL);
+        targetFileSystems = BenchmarkFileSystems.start(fileSystem);
+        source = sourceFileSystems.getHdfsConfig();
+        target = targetFileSystems.getHdfsConfig();
+        sync = new HdfsSync(8, 4 * 1024 * 1024, false);
+        tree = new Path(source.getPath(), "tree");
+        byte[] content = FileSystemThroughputBenchmark.randomBytes(fileSize);
+        for (int d = 0; d < DIRS; d++) {
+            for (int f = 0; f < FILES_PER_DIR; f++) {
+                try (FSDataOutputStream out = source.getFileSystem()
+                    .create(new Path(tree, "dir-" + d + "/file-" + f))) {
+                    out.write(content);
+                }
+            }
+        }
+        sync.sync(source, tree, target, new Path("mirror"));
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteCopy() throws IOException {
+        target.getFileSystem().delete(new Path(target.getPath(), "copy"), true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        sync.close();
+        sourceFileSystems.close();
+        targetFileSystems.close();
+    }
+
+    @Benchmark
+    public boolean fileUtilCopy() throws IOException {
+        FileSystem targetFs = target.getFileSystem();
+        return FileUtil.copy(source.getFileSystem(), tree, targetFs,
+            new Path(target.getPath(), "copy"), false, true, targetFs.getConf());
+    }
+
+    @Benchmark
+    public long syncToEmpty() throws IOException {
+        SyncReport report = sync.sync(source, tree, target, new Path("copy"));
+        return report.getBytesCopied();
+    }
+
+    @Benchmark
+    public long syncUnchanged() throws IOException {
+        SyncReport report = sync.sync(source, tree, target, new Path("mirror"));
+        return report.getFilesSkipped();
+    }
+}
@@ -0,0 +1,299 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking facade of {@link HdfsConfig#getFileSystem()} for event loop based applications.
+ *
+ * Calls run on a dedicated executor, as the calling user through
+ * {@link UserGroupInformation#doAs}, and complete returned futures. At most {@code maxPending}
+ * calls are accepted at a time, further ones fail with {@link RejectedExecutionException}. Each
+ * user runs at most {@code perUserConcurrency} calls at a time, the rest wait in a per-user queue
+ * without holding an executor thread, so one busy user cannot starve the others.
+ *
+ * Streams returned by {@link #open(Path)} and {@link #create(Path, boolean)} are blocking, read
+ * and write them off the event loop too.
+ */
+public class AsyncHdfs implements Closeable {
+
+    private static final Logger LOGGER = LogManager.getLogger(AsyncHdfs.class);
+
+    private static final long SHUTDOWN_TIMEOUT_MS = 10_000;
+
+    /**
+     * Queue and UGI of a user not seen for this long are dropped. Calls still queued or running
+     * complete normally, only a call outlasting it can let the user exceed its concurrency.
+     */
+    private static final long IDLE_USER_EXPIRY_MS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * Blocking call run on the I/O executor.
+     */
+    @FunctionalInterface
+    public interface Call<T> {
+        T run(FileSystem fileSystem) throws Exception;
+    }
+
+    private final HdfsConfig config;
+
+    private final HdfsFileSystemPool pool;
+
+    private final ExecutorService executor;
+
+    private final boolean virtualThreads;
+
+    private final Semaphore running;
+
+    private final Semaphore admitted;
+
+    private final int perUserConcurrency;
+
+    private final ConcurrentMap<String, Lane> lanes = CacheBuilder.newBuilder()
+        .expireAfterAccess(IDLE_USER_EXPIRY_MS, TimeUnit.MILLISECONDS)
+        .<String, Lane>build()
+        .asMap();
+
+    private final ConcurrentMap<String, UserGroupInformation> users = CacheBuilder.newBuilder()
+        .expireAfterAccess(IDLE_USER_EXPIRY_MS, TimeUnit.MILLISECONDS)
+        .<String, UserGroupInformation>build()
+        .asMap();
+
+    /**
+     * @param pool source of FileSystems for users other than {@link HdfsConfig#getUser()}, may be
+     *             null if only the configured user is used
+     * @param threads size of the executor, or limit of concurrently running calls with virtual
+     *                threads
+     * @param virtualThreads run calls on virtual threads, if the JVM supports them
+     */
+    public AsyncHdfs(HdfsConfig config, HdfsFileSystemPool pool, int threads, int maxPending,
+                     int perUserConcurrency, boolean virtualThreads) {
+        Preconditions.checkArgument(threads > 0, "threads must be positive");
+        Preconditions.checkArgument(maxPending > 0, "maxPending must be positive");
+        Preconditions.checkArgument(perUserConcurrency > 0, "perUserConcurrency must be positive");
+        this.config = config;
+        this.pool = pool;
+        this.perUserConcurrency = perUserConcurrency;
+        this.admitted = new Semaphore(maxPending);
+
+        ExecutorService virtual = virtualThreads ? newVirtualThreadExecutor() : null;
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : Executors.newFixedThreadPool(threads,
+            new ThreadFactoryBuilder()
+                .setNameFormat("hdfs-async-%d")
+                .setDaemon(true)
+                .build());
+        this.running = virtual != null ? new Semaphore(threads) : null;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public CompletableFuture<FSDataInputStream> open(Path path) {
+        return submit(config.getUser(), fs -> fs.open(path));
+    }
+
+    public CompletableFuture<FSDataOutputStream> create(Path path, boolean overwrite) {
+        return submit(config.getUser(), fs -> fs.create(path, overwrite));
+    }
+
+    public CompletableFuture<FileStatus[]> list(Path path) {
+        return submit(config.getUser(), fs -> fs.listStatus(path));
+    }
+
+    public CompletableFuture<Boolean> delete(Path path, boolean recursive) {
+        return submit(config.getUser(), fs -> fs.delete(path, recursive));
+    }
+
+    public CompletableFuture<Boolean> rename(Path src, Path dst) {
+        return submit(config.getUser(), fs -> fs.rename(src, dst));
+    }
+
+    /**
+     * Runs call as given user. Users other than {@link HdfsConfig#getUser()} get a FileSystem
+     * leased from the pool for the duration of the call only, so it must not leak out of it.
+     */
+    public <T> CompletableFuture<T> submit(String user, Call<T> call) {
+        Preconditions.checkNotNull(user, "user");
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (!admitted.tryAcquire()) {
+            result.completeExceptionally(
+                new RejectedExecutionException("Too many pending HDFS calls"));
+            return result;
+        }
+        result.whenComplete((value, error) -> admitted.release());
+        lanes.computeIfAbsent(user, u -> new Lane())
+            .submit(new PendingCall<>(user, call, result));
+        return result;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private <T> T run(String user, Call<T> call) throws Exception {
+        if (running != null) {
+            running.acquire();
+        }
+        try {
+            return ugi(user).doAs((PrivilegedExceptionAction<T>) () -> {
+                if (user.equals(config.getUser()) || pool == null) {
+                    return call.run(config.getFileSystem());
+                }
+                try (HdfsFileSystemPool.Lease lease = pool.acquire(user)) {
+                    return call.run(lease.getFileSystem());
+                }
+            });
+        } catch (UndeclaredThrowableException e) {
+            // doAs wraps checked exceptions other than IOException and InterruptedException
+            Throwables.propagateIfInstanceOf(e.getCause(), Exception.class);
+            throw e;
+        } finally {
+            if (running != null) {
+                running.release();
+            }
+        }
+    }
+
+    private UserGroupInformation ugi(String user) throws IOException {
+        UserGroupInformation cached = users.get(user);
+        if (cached != null) {
+            return cached;
+        }
+        UserGroupInformation login = UserGroupInformation.getLoginUser();
+        UserGroupInformation ugi;
+        if (login.getShortUserName().equals(user)) {
+            ugi = login;
+        } else if (UserGroupInformation.isSecurityEnabled()) {
+            ugi = UserGroupInformation.createProxyUser(user, login);
+        } else {
+            ugi = UserGroupInformation.createRemoteUser(user);
+        }
+        UserGroupInformation previous = users.putIfAbsent(user, ugi);
+        return previous != null ? previous : ugi;
+    }
+
+    /**
+     * Executor.newVirtualThreadPerTaskExecutor() looked up reflectively, so the library still
+     * runs on JVMs without virtual threads.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LOGGER.info("Virtual threads are not supported by this JVM, using platform threads");
+            return null;
+        }
+    }
+
+    private final class PendingCall<T> {
+
+        private final String user;
+
+        private final Call<T> call;
+
+        private final CompletableFuture<T> result;
+
+        PendingCall(String user, Call<T> call, CompletableFuture<T> result) {
+            this.user = user;
+            this.call = call;
+            this.result = result;
+        }
+
+        void run() {
+            try {
+                result.complete(AsyncHdfs.this.run(user, call));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Queue of calls of one user, handed to the executor as the user's permits allow.
+     */
+    private final class Lane {
+
+        private final Semaphore permits = new Semaphore(perUserConcurrency);
+
+        private final Queue<PendingCall<?>> waiting = new ConcurrentLinkedQueue<>();
+
+        void submit(PendingCall<?> call) {
+            waiting.add(call);
+            drain();
+        }
+
+        private void drain() {
+            while (!waiting.isEmpty() && permits.tryAcquire()) {
+                PendingCall<?> next = waiting.poll();
+                if (next == null) {
+                    permits.release();
+                    continue;
+                }
+                try {
+                    executor.execute(() -> {
+                        try {
+                            next.run();
+                        } finally {
+                            permits.release();
+                            drain();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                    next.result.completeExceptionally(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome and throughput of a single {@link HdfsBulkWriter} upload.
+ */
+public class BulkUploadReport {
+
+    private final long files;
+
+    private final long packedRecords;
+
+    private final long bytes;
+
+    private final long elapsedNanos;
+
+    private final List<String> failedPaths;
+
+    BulkUploadReport(long files, long packedRecords, long bytes, long elapsedNanos,
+                     List<String> failedPaths) {
+        this.files = files;
+        this.packedRecords = packedRecords;
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+        this.failedPaths = Collections.unmodifiableList(failedPaths);
+    }
+
+    /**
+     * @return number of items written as separate files
+     */
+    public long getFiles() {
+        return files;
+    }
+
+    /**
+     * @return number of items written as records of the container file
+     */
+    public long getPackedRecords() {
+        return packedRecords;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    public double getItemsPerSecond() {
+        return perSecond(files + packedRecords);
+    }
+
+    public double getBytesPerSecond() {
+        return perSecond(bytes);
+    }
+
+    /**
+     * @return relative paths of items that could not be written
+     */
+    public List<String> getFailedPaths() {
+        return failedPaths;
+    }
+
+    public boolean isSuccessful() {
+        return failedPaths.isEmpty();
+    }
+
+    private double perSecond(long count) {
+        return elapsedNanos == 0 ? 0 : count * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkUploadReport[files=" + files + ", packedRecords=" + packedRecords
+            + ", bytes=" + bytes + ", elapsedMs=" + getElapsedMillis()
+            + ", bytesPerSecond=" + (long) getBytesPerSecond()
+            + ", failed=" + failedPaths.size() + "]";
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import org.apache.hadoop.fs.ByteBufferReadable;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSInputStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.LongConsumer;
+
+/**
+ * Input stream that reports number of bytes read through it, sequentially or positionally.
+ * Created by {@link #wrap}, which declares {@link ByteBufferReadable} only when the wrapped stream
+ * implements it, so callers checking for it do not get {@link UnsupportedOperationException}.
+ */
+class ByteCountingInputStream extends FSInputStream {
+
+    private final FSDataInputStream in;
+
+    private final LongConsumer onBytes;
+
+    private ByteCountingInputStream(FSDataInputStream in, LongConsumer onBytes) {
+        this.in = in;
+        this.onBytes = onBytes;
+    }
+
+    static FSDataInputStream wrap(FSDataInputStream in, LongConsumer onBytes) {
+        return new FSDataInputStream(in.getWrappedStream() instanceof ByteBufferReadable
+            ? new ByteBufferCountingInputStream(in, onBytes)
+            : new ByteCountingInputStream(in, onBytes));
+    }
+
+    @Override
+    public int read() throws IOException {
+        int value = in.read();
+        if (value >= 0) {
+            onBytes.accept(1);
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        return count(in.read(b, off, len));
+    }
+
+    @Override
+    public int read(long position, byte[] buffer, int offset, int length) throws IOException {
+        return count(in.read(position, buffer, offset, length));
+    }
+
+    @Override
+    public void readFully(long position, byte[] buffer, int offset, int length)
+        throws IOException {
+        in.readFully(position, buffer, offset, length);
+        onBytes.accept(length);
+    }
+
+    @Override
+    public void readFully(long position, byte[] buffer) throws IOException {
+        readFully(position, buffer, 0, buffer.length);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        return in.skip(n);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return in.available();
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        in.seek(pos);
+    }
+
+    @Override
+    public long getPos() throws IOException {
+        return in.getPos();
+    }
+
+    @Override
+    public boolean seekToNewSource(long targetPos) throws IOException {
+        return in.seekToNewSource(targetPos);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private int count(int read) {
+        if (read > 0) {
+            onBytes.accept(read);
+        }
+        return read;
+    }
+
+    /**
+     * Counting stream over one that reads into byte buffers.
+     */
+    private static final class ByteBufferCountingInputStream extends ByteCountingInputStream
+        implements ByteBufferReadable {
+
+        ByteBufferCountingInputStream(FSDataInputStream in, LongConsumer onBytes) {
+            super(in, onBytes);
+        }
+
+        @Override
+        public int read(ByteBuffer buf) throws IOException {
+            return super.count(super.in.read(buf));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Syncable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.LongConsumer;
+
+/**
+ * Output stream that reports number of bytes written through it. Syncing is passed through
+ * to the wrapped stream. Wrap it in {@link FSDataOutputStream} before handing out.
+ */
+final class ByteCountingOutputStream extends OutputStream implements Syncable {
+
+    private final FSDataOutputStream out;
+
+    private final LongConsumer onBytes;
+
+    ByteCountingOutputStream(FSDataOutputStream out, LongConsumer onBytes) {
+        this.out = out;
+        this.onBytes = onBytes;
+    }
+
+    static FSDataOutputStream wrap(FSDataOutputStream out, LongConsumer onBytes)
+        throws IOException {
+        return new FSDataOutputStream(new ByteCountingOutputStream(out, onBytes), null,
+            out.getPos());
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        onBytes.accept(1);
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        onBytes.accept(len);
+        out.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void hflush() throws IOException {
+        out.hflush();
+    }
+
+    @Override
+    public void hsync() throws IOException {
+        out.hsync();
+    }
+
+    /**
+     * Deprecated part of {@link Syncable} in Hadoop 2, same as {@link #hflush()}.
+     */
+    @Deprecated
+    public void sync() throws IOException {
+        out.hflush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -23,6 +23,6 @@ import java.lang.annotation.RetentionPolicy;
 
 @Target(ElementType.TYPE)
 @Retention(RetentionPolicy.RUNTIME)
-@Import(HdfsConfigFactory.class)
+@Import({HdfsConfigFactory.class, HdfsComponentsFactory.class})
 public @interface EnableHdfs {
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import org.apache.hadoop.fs.ChecksumFileSystem;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+
+/**
+ * Helpers for FileSystems possibly wrapped in decorators of this package.
+ */
+final class FileSystemDecorators {
+
+    private FileSystemDecorators() {
+    }
+
+    /**
+     * Unwraps decorators that leave paths and content unchanged, so that the capabilities of
+     * the underlying FileSystem can be checked. Stops at ChecksumFileSystem, which changes the
+     * content, and at {@link TenantFileSystem}, which changes the paths.
+     */
+    static FileSystem unwrap(FileSystem fs) {
+        FileSystem unwrapped = fs;
+        while (unwrapped instanceof FilterFileSystem
+            && !(unwrapped instanceof ChecksumFileSystem)
+            && !(unwrapped instanceof TenantFileSystem)) {
+            unwrapped = ((FilterFileSystem) unwrapped).getRawFileSystem();
+        }
+        return unwrapped;
+    }
+}
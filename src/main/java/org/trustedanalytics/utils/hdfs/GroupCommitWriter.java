@@ -0,0 +1,365 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import com.google.common.base.Preconditions;
+import org.apache.hadoop.fs.ChecksumFileSystem;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Appends small records from many threads to a single file and makes them durable in groups,
+ * with one hflush or hsync per batch instead of one per record.
+ *
+ * Producers claim slots of a ring buffer with a single atomic increment and publish them with an
+ * ordered write, no lock is taken. A committer thread writes published records in claim order
+ * and commits when batchBytes are written or the oldest uncommitted record waited maxDelayMs,
+ * with 0 as soon as no more records are waiting. A full ring blocks producers until records are
+ * written. Futures complete, on the committer thread, with the file length covering the record
+ * once it is durable:
+ * <ul>
+ * <li>{@link Durability#HSYNC} - on DataNode disks,</li>
+ * <li>{@link Durability#HFLUSH} - in DataNode memory, visible to new readers,</li>
+ * <li>{@link Durability#NONE} - written to the client stream, not necessarily sent.</li>
+ * </ul>
+ * After a failed write or commit all pending and later records fail with the same exception,
+ * records appended after close fail without waiting for the ring.
+ */
+public class GroupCommitWriter implements Closeable {
+
+    private static final Logger LOGGER = LogManager.getLogger(GroupCommitWriter.class);
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    public enum Durability {
+        NONE, HFLUSH, HSYNC
+    }
+
+    private final Path path;
+
+    private final FSDataOutputStream out;
+
+    private final long startOffset;
+
+    private final Durability durability;
+
+    private final int batchBytes;
+
+    private final long maxDelayNanos;
+
+    private final int mask;
+
+    private final byte[][] records;
+
+    private final List<CompletableFuture<Long>> futures;
+
+    private final long[] enqueuedAt;
+
+    private final AtomicLongArray published;
+
+    private final AtomicLong claimed = new AtomicLong();
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final Thread committer;
+
+    private volatile long consumed;
+
+    private volatile boolean committerWaiting;
+
+    private volatile boolean closed;
+
+    private volatile IOException failure;
+
+    private volatile long committedRecords;
+
+    private volatile long committedBytes;
+
+    private volatile long commits;
+
+    /**
+     * @param ringSize number of records waiting to be written, a power of two
+     */
+    GroupCommitWriter(FileSystem fs, Path path, Durability durability, int ringSize,
+                      int batchBytes, long maxDelayMs) throws IOException {
+        Preconditions.checkArgument(Integer.bitCount(ringSize) == 1,
+            "ringSize must be a power of two");
+        Preconditions.checkArgument(batchBytes > 0, "batchBytes must be positive");
+        Preconditions.checkArgument(maxDelayMs >= 0, "maxDelayMs must not be negative");
+        this.path = path;
+        this.durability = Preconditions.checkNotNull(durability);
+        this.batchBytes = batchBytes;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMs);
+        this.mask = ringSize - 1;
+        this.records = new byte[ringSize][];
+        this.futures = new ArrayList<>(Collections.nCopies(ringSize, null));
+        this.enqueuedAt = new long[ringSize];
+        this.published = new AtomicLongArray(ringSize);
+        for (int i = 0; i < ringSize; i++) {
+            published.set(i, -1);
+        }
+        FileSystem data = fs;
+        FileSystem unwrapped = FileSystemDecorators.unwrap(fs);
+        if (unwrapped instanceof ChecksumFileSystem) {
+            // checksummed local files cannot be appended to, raw ones can
+            data = ((ChecksumFileSystem) unwrapped).getRawFileSystem();
+            data.delete(((ChecksumFileSystem) unwrapped).getChecksumFile(path), false);
+        }
+        long length = data.exists(path) ? data.getFileStatus(path).getLen() : -1;
+        this.out = length < 0 ? data.create(path, false) : data.append(path);
+        // appended local streams count from 0, HDFS ones from the file length
+        this.startOffset = Math.max(length, 0) - out.getPos();
+        this.committer = new Thread(this::commitLoop, "hdfs-group-commit-" + path.getName());
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    /**
+     * Queues the record, which must not be modified until the returned future completes.
+     */
+    public CompletableFuture<Long> append(byte[] record) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        if (failIfStopped(future)) {
+            return future;
+        }
+        long sequence = claimed.getAndIncrement();
+        while (sequence - consumed > mask) {
+            if (!committer.isAlive()) {
+                // claimed while closing, after the committer finished
+                failIfStopped(future);
+                return future;
+            }
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+        int index = (int) sequence & mask;
+        if (failIfStopped(future)) {
+            // published empty, so the committer does not wait for it
+            records[index] = null;
+        } else {
+            records[index] = record;
+            futures.set(index, future);
+            enqueuedAt[index] = System.nanoTime();
+        }
+        published.lazySet(index, sequence);
+        if (committerWaiting) {
+            LockSupport.unpark(committer);
+        }
+        return future;
+    }
+
+    /**
+     * Commits queued records and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(committer);
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing " + path);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private boolean failIfStopped(CompletableFuture<Long> future) {
+        IOException failure = this.failure;
+        if (failure == null && !closed) {
+            return false;
+        }
+        future.completeExceptionally(failure != null
+            ? failure
+            : new IOException("Writer of " + path + " is closed"));
+        return true;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getCommittedRecords() {
+        return committedRecords;
+    }
+
+    public long getCommittedBytes() {
+        return committedBytes;
+    }
+
+    public long getCommits() {
+        return commits;
+    }
+
+    /**
+     * @return time from append to completion of committed records
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    private void commitLoop() {
+        Batch batch = new Batch();
+        long next = 0;
+        while (true) {
+            int index;
+            while (published.get(index = (int) next & mask) == next) {
+                byte[] record = records[index];
+                CompletableFuture<Long> future = futures.get(index);
+                long enqueued = enqueuedAt[index];
+                records[index] = null;
+                futures.set(index, null);
+                consumed = ++next;
+                if (record != null) {
+                    write(batch, record, future, enqueued);
+                }
+            }
+            if (batch.size > 0 && (closed || System.nanoTime() - batch.oldest >= maxDelayNanos)) {
+                commit(batch);
+            }
+            if (closed && next == claimed.get()) {
+                break;
+            }
+            committerWaiting = true;
+            if (published.get((int) next & mask) != next && !closed) {
+                LockSupport.parkNanos(batch.size == 0
+                    ? IDLE_PARK_NANOS
+                    : batch.oldest + maxDelayNanos - System.nanoTime());
+            }
+            committerWaiting = false;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            LOGGER.warn("Cannot close " + path, e);
+            if (failure == null) {
+                failure = e;
+            }
+        }
+    }
+
+    private void write(Batch batch, byte[] record, CompletableFuture<Long> future, long enqueued) {
+        if (failure != null) {
+            future.completeExceptionally(failure);
+            return;
+        }
+        try {
+            out.write(record);
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+            fail(batch, e);
+            return;
+        }
+        batch.add(future, enqueued, record.length);
+        if (batch.bytes >= batchBytes) {
+            commit(batch);
+        }
+    }
+
+    private void commit(Batch batch) {
+        long position;
+        try {
+            switch (durability) {
+                case HSYNC:
+                    out.hsync();
+                    break;
+                case HFLUSH:
+                    out.hflush();
+                    break;
+                default:
+                    break;
+            }
+            position = startOffset + out.getPos();
+        } catch (IOException e) {
+            fail(batch, e);
+            return;
+        }
+        committedRecords += batch.size;
+        committedBytes += batch.bytes;
+        commits++;
+        long now = System.nanoTime();
+        for (int i = 0; i < batch.size; i++) {
+            latency.record(now - batch.enqueuedAt[i]);
+        }
+        for (CompletableFuture<Long> future : batch.futures) {
+            future.complete(position);
+        }
+        batch.clear();
+    }
+
+    private void fail(Batch batch, IOException e) {
+        LOGGER.error("Cannot write to " + path + ", failing pending records", e);
+        failure = e;
+        for (CompletableFuture<Long> future : batch.futures) {
+            future.completeExceptionally(e);
+        }
+        batch.clear();
+    }
+
+    /**
+     * Records written since the last commit, owned by the committer thread.
+     */
+    private static final class Batch {
+
+        private final List<CompletableFuture<Long>> futures = new ArrayList<>(64);
+
+        private long[] enqueuedAt = new long[64];
+
+        private int size;
+
+        private long bytes;
+
+        private long oldest;
+
+        void add(CompletableFuture<Long> future, long enqueued, int length) {
+            if (size == enqueuedAt.length) {
+                enqueuedAt = Arrays.copyOf(enqueuedAt, size * 2);
+            }
+            if (size == 0) {
+                oldest = enqueued;
+            }
+            futures.add(future);
+            enqueuedAt[size] = enqueued;
+            size++;
+            bytes += length;
+        }
+
+        void clear() {
+            futures.clear();
+            size = 0;
+            bytes = 0;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Process wide cache of parsed Hadoop configurations, addressed by hash of the service
+ * binding payload (VCAP_SERVICES) and active profiles.
+ *
+ * Cached snapshots are never handed out. Every read returns a copy, so changes made by
+ * callers do not leak into the cache nor to other application contexts.
+ */
+public class HadoopConfigurationCache {
+
+    private static final int MAX_SIZE = 16;
+
+    private static final HadoopConfigurationCache INSTANCE = new HadoopConfigurationCache(MAX_SIZE);
+
+    /**
+     * Builds new configuration when it is not cached yet. Returned instance becomes the cached
+     * snapshot, so the loader must not keep any reference to it.
+     */
+    @FunctionalInterface
+    public interface Loader {
+        Configuration load() throws IOException;
+    }
+
+    private final Cache<String, Configuration> snapshots;
+
+    HadoopConfigurationCache(int maxSize) {
+        snapshots = CacheBuilder.newBuilder()
+            .maximumSize(maxSize)
+            .recordStats()
+            .build();
+    }
+
+    public static HadoopConfigurationCache getInstance() {
+        return INSTANCE;
+    }
+
+    public Configuration get(String payload, String profile, Loader loader) throws IOException {
+        Configuration snapshot;
+        try {
+            snapshot = snapshots.get(key(payload, profile), () -> snapshot(loader.load()));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Cannot load Hadoop configuration", e.getCause());
+        }
+        return new Configuration(snapshot);
+    }
+
+    public CacheStats getStats() {
+        return snapshots.stats();
+    }
+
+    public void invalidateAll() {
+        snapshots.invalidateAll();
+    }
+
+    private static Configuration snapshot(Configuration loaded) {
+        // forces parsing of XML resources, so that copies do not repeat it
+        loaded.size();
+        return loaded;
+    }
+
+    private static String key(String payload, String profile) {
+        return Hashing.sha256().newHasher()
+            .putString(payload, StandardCharsets.UTF_8)
+            .putByte((byte) 0)
+            .putString(profile, StandardCharsets.UTF_8)
+            .hash()
+            .toString();
+    }
+}
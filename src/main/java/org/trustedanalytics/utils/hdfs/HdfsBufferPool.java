@@ -0,0 +1,373 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import com.google.common.base.Preconditions;
+import org.apache.hadoop.fs.ByteBufferReadable;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of direct buffers for copying data through HDFS streams without allocating per request.
+ *
+ * Buffers come in power of two size classes from {@value #MIN_BUFFER_SIZE} bytes up to
+ * {@code maxBufferSize}; larger requests get an unpooled buffer. Released buffers are kept in a
+ * small cache of the releasing thread, for classes up to {@value #THREAD_CACHE_MAX_SIZE} bytes,
+ * or in a shared queue of their class, as long as the pool holds less than
+ * {@code maxPooledBytes}. With leak detection on, buffers whose {@link PooledBuffer} becomes
+ * unreachable without being closed are counted and logged; they are not reused, as their memory
+ * may still be referenced.
+ */
+public class HdfsBufferPool {
+
+    private static final Logger LOGGER = LogManager.getLogger(HdfsBufferPool.class);
+
+    static final int MIN_BUFFER_SIZE = 4 * 1024;
+
+    static final int THREAD_CACHE_MAX_SIZE = 64 * 1024;
+
+    static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final int maxBufferSize;
+
+    private final long maxPooledBytes;
+
+    private final int threadCacheSize;
+
+    private final boolean leakDetection;
+
+    private final List<Queue<ByteBuffer>> shared;
+
+    private final ThreadLocal<ThreadCache> threadCaches;
+
+    /**
+     * Heap staging buffers for streams that cannot read into or write from direct buffers.
+     */
+    private final ThreadLocal<ByteBuffer> stagingBuffers =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocate(COPY_BUFFER_SIZE));
+
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    private final ReferenceQueue<PooledBuffer> unreleased = new ReferenceQueue<>();
+
+    private final Set<LeakReference> outstanding = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder allocations = new LongAdder();
+
+    private final LongAdder reuses = new LongAdder();
+
+    private final LongAdder unpooled = new LongAdder();
+
+    private final LongAdder leaks = new LongAdder();
+
+    /**
+     * @param threadCacheSize buffers of each small class cached per thread, 0 for none
+     */
+    @SuppressWarnings("unchecked")
+    public HdfsBufferPool(int maxBufferSize, long maxPooledBytes, int threadCacheSize,
+                          boolean leakDetection) {
+        Preconditions.checkArgument(maxBufferSize >= MIN_BUFFER_SIZE,
+            "maxBufferSize must be at least " + MIN_BUFFER_SIZE);
+        this.maxBufferSize = Integer.highestOneBit(maxBufferSize);
+        this.maxPooledBytes = maxPooledBytes;
+        this.threadCacheSize = threadCacheSize;
+        this.leakDetection = leakDetection;
+        this.shared = new ArrayList<>();
+        for (int i = 0; i <= sizeClass(this.maxBufferSize); i++) {
+            shared.add(new ConcurrentLinkedQueue<>());
+        }
+        int cachedClasses = sizeClass(Math.min(THREAD_CACHE_MAX_SIZE, this.maxBufferSize)) + 1;
+        this.threadCaches = ThreadLocal.withInitial(() -> new ThreadCache(cachedClasses));
+    }
+
+    /**
+     * @return cleared direct buffer with limit set to size; it must be closed after use
+     */
+    public PooledBuffer acquire(int size) {
+        Preconditions.checkArgument(size >= 0, "size must not be negative");
+        reportLeaks();
+        if (size > maxBufferSize) {
+            unpooled.increment();
+            return new PooledBuffer(ByteBuffer.allocateDirect(size), -1, size);
+        }
+        int sizeClass = sizeClass(size);
+        ByteBuffer buffer = threadCaches.get().poll(sizeClass);
+        if (buffer == null) {
+            buffer = shared.get(sizeClass).poll();
+            if (buffer != null) {
+                pooledBytes.addAndGet(-buffer.capacity());
+            }
+        }
+        if (buffer == null) {
+            allocations.increment();
+            buffer = ByteBuffer.allocateDirect(MIN_BUFFER_SIZE << sizeClass);
+        } else {
+            reuses.increment();
+        }
+        return new PooledBuffer(buffer, sizeClass, size);
+    }
+
+    /**
+     * Copies the rest of input to output. Data goes through a thread-local staging array rather
+     * than a pooled buffer: OutputStream accepts byte arrays only, so bytes read into a direct
+     * buffer, even by a {@link ByteBufferReadable} stream, would have to be copied to the heap
+     * once more.
+     *
+     * @return number of bytes copied
+     */
+    public long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] staging = stagingBuffers.get().array();
+        long copied = 0;
+        int read;
+        while ((read = in.read(staging)) >= 0) {
+            out.write(staging, 0, read);
+            copied += read;
+        }
+        return copied;
+    }
+
+    /**
+     * Copies the rest of input to channel. HDFS streams supporting {@link ByteBufferReadable}
+     * read straight into a pooled direct buffer; other streams are copied through the staging
+     * array, which channels copy from no worse than from a direct buffer.
+     *
+     * @return number of bytes copied
+     */
+    public long copy(InputStream in, WritableByteChannel out) throws IOException {
+        if (!(in instanceof FSDataInputStream
+            && ((FSDataInputStream) in).getWrappedStream() instanceof ByteBufferReadable)) {
+            return copyStaged(in, out);
+        }
+        try (PooledBuffer pooled = acquire(COPY_BUFFER_SIZE)) {
+            ByteBuffer buffer = pooled.buffer();
+            long copied = 0;
+            while (true) {
+                buffer.clear();
+                int read = ((FSDataInputStream) in).read(buffer);
+                if (read < 0) {
+                    return copied;
+                }
+                buffer.flip();
+                copied += writeFully(buffer, out);
+            }
+        }
+    }
+
+    /**
+     * Copies the rest of channel to output through the staging array, for the reason given at
+     * {@link #copy(InputStream, OutputStream)}.
+     *
+     * @return number of bytes copied
+     */
+    public long copy(ReadableByteChannel in, OutputStream out) throws IOException {
+        ByteBuffer staging = stagingBuffers.get();
+        long copied = 0;
+        while (true) {
+            staging.clear();
+            int read = in.read(staging);
+            if (read < 0) {
+                return copied;
+            }
+            out.write(staging.array(), 0, read);
+            copied += read;
+        }
+    }
+
+    public long getAllocations() {
+        return allocations.sum();
+    }
+
+    public long getReuses() {
+        return reuses.sum();
+    }
+
+    public long getUnpooled() {
+        return unpooled.sum();
+    }
+
+    public long getLeaks() {
+        reportLeaks();
+        return leaks.sum();
+    }
+
+    /**
+     * @return bytes held by shared queues, thread caches not included
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    private long copyStaged(InputStream in, WritableByteChannel out) throws IOException {
+        ByteBuffer staging = stagingBuffers.get();
+        long copied = 0;
+        int read;
+        while ((read = in.read(staging.array())) >= 0) {
+            staging.clear().limit(read);
+            copied += writeFully(staging, out);
+        }
+        return copied;
+    }
+
+    private static long writeFully(ByteBuffer buffer, WritableByteChannel out)
+        throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += out.write(buffer);
+        }
+        return written;
+    }
+
+    private void release(ByteBuffer buffer, int sizeClass) {
+        if (sizeClass < 0) {
+            return;
+        }
+        buffer.clear();
+        if (threadCaches.get().offer(sizeClass, buffer)) {
+            return;
+        }
+        if (pooledBytes.addAndGet(buffer.capacity()) <= maxPooledBytes) {
+            shared.get(sizeClass).offer(buffer);
+        } else {
+            pooledBytes.addAndGet(-buffer.capacity());
+        }
+    }
+
+    private void reportLeaks() {
+        Reference<? extends PooledBuffer> leaked;
+        while ((leaked = unreleased.poll()) != null) {
+            if (outstanding.remove(leaked)) {
+                leaks.increment();
+                LOGGER.warn("Pooled buffer of " + ((LeakReference) leaked).size
+                    + " bytes was not closed, it is left to garbage collection");
+            }
+        }
+    }
+
+    static int sizeClass(int size) {
+        if (size <= MIN_BUFFER_SIZE) {
+            return 0;
+        }
+        return Integer.SIZE - Integer.numberOfLeadingZeros(size - 1)
+            - Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+    }
+
+    /**
+     * Direct buffer borrowed from the pool until closed. The buffer must not be used afterwards.
+     */
+    public final class PooledBuffer implements Closeable {
+
+        private final ByteBuffer buffer;
+
+        private final int sizeClass;
+
+        private final LeakReference leakReference;
+
+        private boolean closed;
+
+        private PooledBuffer(ByteBuffer buffer, int sizeClass, int size) {
+            buffer.clear().limit(size);
+            this.buffer = buffer;
+            this.sizeClass = sizeClass;
+            if (leakDetection) {
+                leakReference = new LeakReference(this, unreleased, size);
+                outstanding.add(leakReference);
+            } else {
+                leakReference = null;
+            }
+        }
+
+        public ByteBuffer buffer() {
+            Preconditions.checkState(!closed, "Buffer already released");
+            return buffer;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (leakReference != null) {
+                outstanding.remove(leakReference);
+                leakReference.clear();
+            }
+            release(buffer, sizeClass);
+        }
+    }
+
+    private static final class LeakReference extends WeakReference<PooledBuffer> {
+
+        private final int size;
+
+        LeakReference(PooledBuffer referent, ReferenceQueue<PooledBuffer> queue, int size) {
+            super(referent, queue);
+            this.size = size;
+        }
+    }
+
+    /**
+     * Stacks of released buffers of small classes, used by one thread only.
+     */
+    private final class ThreadCache {
+
+        private final ByteBuffer[][] buffers;
+
+        private final int[] counts;
+
+        ThreadCache(int classes) {
+            buffers = new ByteBuffer[classes][threadCacheSize];
+            counts = new int[classes];
+        }
+
+        ByteBuffer poll(int sizeClass) {
+            if (sizeClass >= counts.length || counts[sizeClass] == 0) {
+                return null;
+            }
+            int top = --counts[sizeClass];
+            ByteBuffer buffer = buffers[sizeClass][top];
+            buffers[sizeClass][top] = null;
+            return buffer;
+        }
+
+        boolean offer(int sizeClass, ByteBuffer buffer) {
+            if (sizeClass >= counts.length || counts[sizeClass] == threadCacheSize) {
+                return false;
+            }
+            buffers[sizeClass][counts[sizeClass]++] = buffer;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.Closer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Uploads many files under {@link HdfsConfig#getPath()} with bounded concurrency.
+ *
+ * Items are taken from the stream only when there is room for them, so at most
+ * maxPending items are held in memory. Small items can be packed into a single SequenceFile
+ * container (relative path as Text key, content as BytesWritable value) to avoid a round trip
+ * to NameNode per item.
+ */
+public class HdfsBulkWriter implements Closeable {
+
+    private static final Logger LOGGER = LogManager.getLogger(HdfsBulkWriter.class);
+
+    private final HdfsConfig hdfsConfig;
+
+    private final int maxPending;
+
+    private final ExecutorService executor;
+
+    public HdfsBulkWriter(HdfsConfig hdfsConfig, int concurrency, int maxPending) {
+        Preconditions.checkArgument(concurrency > 0, "concurrency must be positive");
+        Preconditions.checkArgument(maxPending >= concurrency,
+            "maxPending must not be lower than concurrency");
+        this.hdfsConfig = hdfsConfig;
+        this.maxPending = maxPending;
+        this.executor = Executors.newFixedThreadPool(concurrency, new ThreadFactoryBuilder()
+            .setNameFormat("hdfs-bulk-writer-%d")
+            .setDaemon(true)
+            .build());
+    }
+
+    /**
+     * Single file to upload, path is relative to {@link HdfsConfig#getPath()}.
+     */
+    public static final class Item {
+
+        private final String relativePath;
+
+        private final byte[] content;
+
+        public Item(String relativePath, byte[] content) {
+            this.relativePath = Preconditions.checkNotNull(relativePath);
+            this.content = Preconditions.checkNotNull(content);
+        }
+
+        public String getRelativePath() {
+            return relativePath;
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+    }
+
+    /**
+     * Writes every item as a separate file, overwriting existing ones.
+     */
+    public BulkUploadReport upload(Stream<Item> items) throws IOException {
+        return upload(items, null, 0);
+    }
+
+    /**
+     * Writes items smaller than packThreshold bytes as records of the SequenceFile container
+     * and the remaining items as separate files.
+     */
+    public BulkUploadReport uploadPacked(String containerPath, Stream<Item> items,
+                                         int packThreshold) throws IOException {
+        Preconditions.checkNotNull(containerPath);
+        return upload(items, containerPath, packThreshold);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private BulkUploadReport upload(Stream<Item> items, String containerPath, int packThreshold)
+        throws IOException {
+        long start = System.nanoTime();
+        FileSystem fs = hdfsConfig.getFileSystem();
+        Upload upload = new Upload();
+
+        // closed in reverse order: pending uploads awaited, then container and its stream;
+        // their failures are suppressed by a failure of the upload itself
+        Closer closer = Closer.create();
+        SequenceFile.Writer container = null;
+        try {
+            if (containerPath != null) {
+                FSDataOutputStream containerStream =
+                    closer.register(fs.create(resolve(containerPath), true));
+                container = closer.register(SequenceFile.createWriter(
+                    hdfsConfig.getConfiguration(),
+                    SequenceFile.Writer.stream(containerStream),
+                    SequenceFile.Writer.keyClass(Text.class),
+                    SequenceFile.Writer.valueClass(BytesWritable.class)));
+            }
+            closer.register(upload::awaitPending);
+
+            Iterator<Item> iterator = items.iterator();
+            while (iterator.hasNext()) {
+                Item item = iterator.next();
+                if (container != null && item.content.length < packThreshold) {
+                    container.append(new Text(item.relativePath), new BytesWritable(item.content));
+                    upload.packed(item);
+                } else {
+                    upload.submit(fs, item);
+                }
+            }
+        } catch (Throwable e) {
+            throw closer.rethrow(e);
+        } finally {
+            closer.close();
+        }
+
+        BulkUploadReport report = new BulkUploadReport(upload.files.sum(),
+            upload.packedRecords.sum(), upload.bytes.sum(), System.nanoTime() - start,
+            new ArrayList<>(upload.failedPaths));
+        LOGGER.info(report);
+        return report;
+    }
+
+    private Path resolve(String relativePath) {
+        return new Path(hdfsConfig.getPath(), relativePath);
+    }
+
+    private void write(FileSystem fs, Item item) throws IOException {
+        try (FSDataOutputStream out = fs.create(resolve(item.relativePath), true)) {
+            out.write(item.content);
+        }
+    }
+
+    /**
+     * Progress of a single upload call.
+     */
+    private final class Upload {
+
+        private final Semaphore pending = new Semaphore(maxPending);
+
+        private final LongAdder files = new LongAdder();
+
+        private final LongAdder packedRecords = new LongAdder();
+
+        private final LongAdder bytes = new LongAdder();
+
+        private final List<String> failedPaths = Collections.synchronizedList(new ArrayList<>());
+
+        void packed(Item item) {
+            packedRecords.increment();
+            bytes.add(item.content.length);
+        }
+
+        void submit(FileSystem fs, Item item) throws IOException {
+            acquire(1);
+            try {
+                executor.execute(() -> {
+                    try {
+                        write(fs, item);
+                        files.increment();
+                        bytes.add(item.content.length);
+                    } catch (IOException | RuntimeException e) {
+                        LOGGER.warn("Cannot write " + item.relativePath, e);
+                        failedPaths.add(item.relativePath);
+                    } finally {
+                        pending.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                pending.release();
+                throw e;
+            }
+        }
+
+        void awaitPending() throws IOException {
+            acquire(maxPending);
+            pending.release(maxPending);
+        }
+
+        private void acquire(int permits) throws IOException {
+            try {
+                pending.acquire(permits);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for uploads");
+            }
+        }
+    }
+}
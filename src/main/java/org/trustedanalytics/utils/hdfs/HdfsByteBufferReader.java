@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import com.google.common.base.Preconditions;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.fs.ReadOption;
+import org.apache.hadoop.io.ByteBufferPool;
+import org.apache.hadoop.io.ElasticByteBufferPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+
+/**
+ * Reads files of {@link HdfsConfig} as a sequence of ByteBuffers.
+ *
+ * On local file system with checksums skipped the file is memory mapped, without copying and
+ * without ChecksumFileSystem overhead, also when wrapped in metrics, caching or resilience
+ * decorators, which the mapped read bypasses. Otherwise the enhanced byte buffer read of
+ * FSDataInputStream is used, which on HDFS is zero-copy for short-circuit reads of cached
+ * blocks and falls back to ByteBufferReadable copying into pooled direct buffers.
+ *
+ * Chunks are valid only during {@link ChunkConsumer#accept(ByteBuffer)} call.
+ */
+public class HdfsByteBufferReader {
+
+    private static final ByteBufferPool BUFFER_POOL = new ElasticByteBufferPool();
+
+    @FunctionalInterface
+    public interface ChunkConsumer {
+        void accept(ByteBuffer chunk) throws IOException;
+    }
+
+    private final HdfsConfig hdfsConfig;
+
+    private final boolean skipChecksums;
+
+    private final int chunkSize;
+
+    public HdfsByteBufferReader(HdfsConfig hdfsConfig, boolean skipChecksums, int chunkSize) {
+        Preconditions.checkArgument(chunkSize > 0, "chunkSize must be positive");
+        this.hdfsConfig = hdfsConfig;
+        this.skipChecksums = skipChecksums;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return number of bytes read
+     */
+    public long read(Path path, ChunkConsumer consumer) throws IOException {
+        return read(path, chunkSize, consumer);
+    }
+
+    /**
+     * @return number of bytes read
+     */
+    public long read(Path path, int maxChunkSize, ChunkConsumer consumer) throws IOException {
+        FileSystem fs = hdfsConfig.getFileSystem();
+        File localFile = skipChecksums ? localFile(fs, path) : null;
+        if (localFile != null) {
+            return readMapped(localFile, maxChunkSize, consumer);
+        }
+        return readStream(fs, path, maxChunkSize, consumer);
+    }
+
+    private long readMapped(File file, int maxChunkSize, ChunkConsumer consumer)
+        throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(maxChunkSize, size - position);
+                consumer.accept(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+                position += length;
+            }
+            return size;
+        }
+    }
+
+    private long readStream(FileSystem fs, Path path, int maxChunkSize, ChunkConsumer consumer)
+        throws IOException {
+        EnumSet<ReadOption> options = skipChecksums
+            ? EnumSet.of(ReadOption.SKIP_CHECKSUMS)
+            : EnumSet.noneOf(ReadOption.class);
+        long total = 0;
+        try (FSDataInputStream in = fs.open(path)) {
+            while (true) {
+                ByteBuffer chunk = in.read(BUFFER_POOL, maxChunkSize, options);
+                if (chunk == null) {
+                    return total;
+                }
+                try {
+                    total += chunk.remaining();
+                    consumer.accept(chunk);
+                } finally {
+                    in.releaseBuffer(chunk);
+                }
+            }
+        }
+    }
+
+    private static File localFile(FileSystem fs, Path path) {
+        FileSystem unwrapped = FileSystemDecorators.unwrap(fs);
+        if (unwrapped instanceof LocalFileSystem) {
+            return ((LocalFileSystem) unwrapped).pathToFile(path);
+        }
+        if (unwrapped instanceof RawLocalFileSystem) {
+            return ((RawLocalFileSystem) unwrapped).pathToFile(path);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import org.apache.hadoop.fs.Path;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Beans built on top of {@link HdfsConfig}, registered together with it by {@link EnableHdfs}.
+ */
+@org.springframework.context.annotation.Configuration
+public class HdfsComponentsFactory {
+
+    static final int DEFAULT_POOL_MAX_SIZE = 32;
+
+    static final long DEFAULT_POOL_IDLE_TIMEOUT_MS = 5 * 60 * 1000L;
+
+    private static final int DEFAULT_BULK_WRITER_CONCURRENCY = 8;
+
+    private static final int DEFAULT_BULK_WRITER_MAX_PENDING = 64;
+
+    private static final int DEFAULT_READ_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    private static final int DEFAULT_LISTING_PAGE_SIZE = 1000;
+
+    private static final int DEFAULT_LISTING_PARALLELISM = 8;
+
+    private static final int DEFAULT_ASYNC_THREADS = 16;
+
+    private static final int DEFAULT_ASYNC_MAX_PENDING = 1024;
+
+    private static final int DEFAULT_ASYNC_PER_USER_CONCURRENCY = 8;
+
+    private static final int DEFAULT_BUFFER_POOL_MAX_BUFFER_SIZE = 1024 * 1024;
+
+    private static final long DEFAULT_BUFFER_POOL_MAX_POOLED_BYTES = 64 * 1024 * 1024L;
+
+    private static final int DEFAULT_BUFFER_POOL_THREAD_CACHE_SIZE = 4;
+
+    private static final long DEFAULT_TENANT_BURST_MS = 1000;
+
+    private static final long DEFAULT_HEALTH_INTERVAL_MS = 30_000;
+
+    private static final int DEFAULT_HEALTH_WINDOW = 120;
+
+    private static final int DEFAULT_SYNC_PARALLELISM = 8;
+
+    private static final int DEFAULT_SYNC_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private static final String DEFAULT_RECORDS_CODEC = "default";
+
+    private static final int DEFAULT_RECORDS_BLOCK_SIZE = 1024 * 1024;
+
+    private static final long DEFAULT_RECORDS_ROLL_SIZE = 128 * 1024 * 1024L;
+
+    private static final long DEFAULT_RECORDS_ROLL_INTERVAL_MS = 60 * 60 * 1000L;
+
+    private static final int DEFAULT_GROUP_COMMIT_RING_SIZE = 4096;
+
+    private static final int DEFAULT_GROUP_COMMIT_BATCH_BYTES = 1024 * 1024;
+
+    private static final int DEFAULT_SPLITS_PARALLELISM = 8;
+
+    private static final long DEFAULT_SPLITS_MAX_SPLIT_SIZE = 128 * 1024 * 1024;
+
+    private static final int DEFAULT_SPLITS_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    @Autowired
+    private Environment env;
+
+    @Bean
+    public HdfsFileSystemPool hdfsFileSystemPool(HdfsConfig hdfsConfig) {
+        int maxSize = env.getProperty("hdfs.pool.max-size", Integer.class, DEFAULT_POOL_MAX_SIZE);
+        long idleTimeoutMs = env.getProperty("hdfs.pool.idle-timeout-ms", Long.class,
+            DEFAULT_POOL_IDLE_TIMEOUT_MS);
+        if (!(hdfsConfig instanceof RefreshableHdfsConfig)) {
+            return new HdfsFileSystemPool(hdfsConfig, maxSize, idleTimeoutMs);
+        }
+        // instances of a replaced configuration carry its credentials, they are not reused
+        RefreshableHdfsConfig refreshable = (RefreshableHdfsConfig) hdfsConfig;
+        HdfsFileSystemPool pool = new HdfsFileSystemPool(refreshable,
+            refreshable::getLoginUser, maxSize, idleTimeoutMs);
+        refreshable.addSwapListener(pool::invalidateAll);
+        return pool;
+    }
+
+    @Bean
+    public HdfsBulkWriter hdfsBulkWriter(HdfsConfig hdfsConfig) {
+        return new HdfsBulkWriter(hdfsConfig,
+            env.getProperty("hdfs.bulk-writer.concurrency", Integer.class,
+                DEFAULT_BULK_WRITER_CONCURRENCY),
+            env.getProperty("hdfs.bulk-writer.max-pending", Integer.class,
+                DEFAULT_BULK_WRITER_MAX_PENDING));
+    }
+
+    @Bean
+    public HdfsByteBufferReader hdfsByteBufferReader(HdfsConfig hdfsConfig) {
+        return new HdfsByteBufferReader(hdfsConfig,
+            env.getProperty("hdfs.read.skip-checksums", Boolean.class, false),
+            env.getProperty("hdfs.read.chunk-size", Integer.class, DEFAULT_READ_CHUNK_SIZE));
+    }
+
+    @Bean
+    public HdfsBufferPool hdfsBufferPool() {
+        return new HdfsBufferPool(
+            env.getProperty("hdfs.buffer-pool.max-buffer-size", Integer.class,
+                DEFAULT_BUFFER_POOL_MAX_BUFFER_SIZE),
+            env.getProperty("hdfs.buffer-pool.max-pooled-bytes", Long.class,
+                DEFAULT_BUFFER_POOL_MAX_POOLED_BYTES),
+            env.getProperty("hdfs.buffer-pool.thread-cache-size", Integer.class,
+                DEFAULT_BUFFER_POOL_THREAD_CACHE_SIZE),
+            env.getProperty("hdfs.buffer-pool.leak-detection", Boolean.class, true));
+    }
+
+    @Bean
+    public HdfsLister hdfsLister(HdfsConfig hdfsConfig) {
+        return new HdfsLister(hdfsConfig,
+            env.getProperty("hdfs.listing.page-size", Integer.class, DEFAULT_LISTING_PAGE_SIZE),
+            env.getProperty("hdfs.listing.parallelism", Integer.class,
+                DEFAULT_LISTING_PARALLELISM));
+    }
+
+    @Bean
+    public HdfsTenants hdfsTenants(HdfsConfig hdfsConfig) {
+        return new HdfsTenants(hdfsConfig,
+            env.getProperty("hdfs.tenants.bytes-per-second", Long.class, 0L),
+            env.getProperty("hdfs.tenants.ops-per-second", Long.class, 0L),
+            env.getProperty("hdfs.tenants.burst-ms", Long.class, DEFAULT_TENANT_BURST_MS));
+    }
+
+    @Bean
+    public AsyncHdfs asyncHdfs(HdfsConfig hdfsConfig, HdfsFileSystemPool hdfsFileSystemPool) {
+        return new AsyncHdfs(hdfsConfig, hdfsFileSystemPool,
+            env.getProperty("hdfs.async.threads", Integer.class, DEFAULT_ASYNC_THREADS),
+            env.getProperty("hdfs.async.max-pending", Integer.class, DEFAULT_ASYNC_MAX_PENDING),
+            env.getProperty("hdfs.async.per-user-concurrency", Integer.class,
+                DEFAULT_ASYNC_PER_USER_CONCURRENCY),
+            env.getProperty("hdfs.async.virtual-threads", Boolean.class, true));
+    }
+
+    @Bean
+    public HdfsWarmup hdfsWarmup(HdfsConfig hdfsConfig, HdfsStartupMetrics hdfsStartupMetrics) {
+        List<Path> hotFiles = Stream.of(
+            env.getProperty("hdfs.warmup.hot-files", String[].class, new String[0]))
+            .map(String::trim)
+            .filter(file -> !file.isEmpty())
+            .map(Path::new)
+            .collect(Collectors.toList());
+        return new HdfsWarmup(hdfsConfig, hotFiles, hdfsStartupMetrics,
+            env.getProperty("hdfs.warmup.enabled", Boolean.class, false));
+    }
+
+    @Bean
+    public HdfsHealthProbe hdfsHealthProbe(HdfsConfig hdfsConfig) {
+        HdfsHealthProbe probe = new HdfsHealthProbe(hdfsConfig,
+            env.getProperty("hdfs.health.window", Integer.class, DEFAULT_HEALTH_WINDOW));
+        if (env.getProperty("hdfs.health.enabled", Boolean.class, false)) {
+            probe.start(env.getProperty("hdfs.health.interval-ms", Long.class,
+                DEFAULT_HEALTH_INTERVAL_MS));
+        }
+        return probe;
+    }
+
+    @Bean
+    public HdfsSync hdfsSync() {
+        return new HdfsSync(
+            env.getProperty("hdfs.sync.parallelism", Integer.class, DEFAULT_SYNC_PARALLELISM),
+            env.getProperty("hdfs.sync.chunk-size", Integer.class, DEFAULT_SYNC_CHUNK_SIZE),
+            env.getProperty("hdfs.sync.compare-checksums", Boolean.class, false));
+    }
+
+    @Bean
+    public HdfsRecords hdfsRecords(HdfsConfig hdfsConfig) {
+        return new HdfsRecords(hdfsConfig,
+            new RecordFormat(
+                env.getProperty("hdfs.records.codec", DEFAULT_RECORDS_CODEC),
+                env.getProperty("hdfs.records.block-size", Integer.class,
+                    DEFAULT_RECORDS_BLOCK_SIZE)),
+            env.getProperty("hdfs.records.roll-size", Long.class, DEFAULT_RECORDS_ROLL_SIZE),
+            env.getProperty("hdfs.records.roll-interval-ms", Long.class,
+                DEFAULT_RECORDS_ROLL_INTERVAL_MS));
+    }
+
+    @Bean
+    public HdfsGroupCommit hdfsGroupCommit(HdfsConfig hdfsConfig) {
+        return new HdfsGroupCommit(hdfsConfig,
+            env.getProperty("hdfs.group-commit.durability", GroupCommitWriter.Durability.class,
+                GroupCommitWriter.Durability.HFLUSH),
+            env.getProperty("hdfs.group-commit.ring-size", Integer.class,
+                DEFAULT_GROUP_COMMIT_RING_SIZE),
+            env.getProperty("hdfs.group-commit.batch-bytes", Integer.class,
+                DEFAULT_GROUP_COMMIT_BATCH_BYTES),
+            env.getProperty("hdfs.group-commit.max-delay-ms", Long.class, 0L));
+    }
+
+    @Bean
+    public HdfsSplitPlanner hdfsSplitPlanner(HdfsConfig hdfsConfig) {
+        return new HdfsSplitPlanner(hdfsConfig,
+            env.getProperty("hdfs.splits.parallelism", Integer.class, DEFAULT_SPLITS_PARALLELISM),
+            env.getProperty("hdfs.splits.max-split-size", Long.class,
+                DEFAULT_SPLITS_MAX_SPLIT_SIZE),
+            env.getProperty("hdfs.splits.chunk-size", Integer.class, DEFAULT_SPLITS_CHUNK_SIZE));
+    }
+}
@@ -33,6 +33,13 @@ public class HdfsConfig {
         this.path = path;
     }
 
+    /**
+     * For subclasses that resolve all properties from another instance.
+     */
+    protected HdfsConfig() {
+        this(null, null, null);
+    }
+
     public Configuration getConfiguration() {
         return fileSystem.getConf();
     }
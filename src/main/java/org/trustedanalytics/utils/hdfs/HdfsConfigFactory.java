@@ -17,11 +17,18 @@ package org.trustedanalytics.utils.hdfs;
 
 import com.google.common.io.Files;
 import com.google.common.base.Strings;
+import com.google.common.io.Closer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.context.annotation.Profile;
 import org.springframework.core.env.Environment;
 import org.trustedanalytics.hadoop.config.ConfigurationHelper;
@@ -32,18 +39,87 @@ import org.trustedanalytics.hadoop.config.PropertyLocator;
 import javax.security.auth.login.LoginException;
 import java.io.File;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
 import java.nio.file.Paths;
+import java.security.PrivilegedExceptionAction;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 
 
 @org.springframework.context.annotation.Configuration
-public class HdfsConfigFactory {
+public class HdfsConfigFactory implements DisposableBean {
+
+    private static final Logger LOGGER = LogManager.getLogger(HdfsConfigFactory.class);
+
+    private static final long DEFAULT_RESILIENCE_TIMEOUT_MS = 60_000;
+
+    private static final int DEFAULT_RESILIENCE_MAX_ATTEMPTS = 3;
+
+    private static final long DEFAULT_RESILIENCE_BACKOFF_MS = 100;
+
+    private static final long DEFAULT_RESILIENCE_MAX_BACKOFF_MS = 5_000;
+
+    private static final long DEFAULT_RESILIENCE_HEDGE_DELAY_MS = 500;
+
+    private static final int DEFAULT_BREAKER_FAILURE_THRESHOLD = 5;
+
+    private static final long DEFAULT_BREAKER_OPEN_MS = 30_000;
+
+    private static final int DEFAULT_RESILIENCE_MAX_THREADS = 64;
+
+    private static final long DEFAULT_METADATA_CACHE_SIZE = 10_000;
+
+    private static final long DEFAULT_METADATA_CACHE_TTL_MS = 5_000;
+
+    private static final String VCAP_SERVICES = "VCAP_SERVICES";
+
+    private static final String HDFS_SERVICE_LABEL = "hdfs";
+
+    private static final int DEFAULT_REGISTRY_PARALLELISM = 4;
+
+    private static final long DEFAULT_REFRESH_INTERVAL_MS = 30_000;
+
+    private static final long DEFAULT_REFRESH_DRAIN_TIMEOUT_MS = 30_000;
+
+    private static final String PHASE_CONFIGURATION = "configuration";
+
+    private static final String PHASE_CREDENTIALS = "credentials";
+
+    private static final String PHASE_LOGIN = "kerberos-login";
+
+    private static final String PHASE_NAMENODE_RESOLVE = "namenode-resolve";
+
+    private static final String PHASE_FILE_SYSTEM = "filesystem";
+
+    private static final double DEFAULT_RENEWAL_FRACTION = 0.8;
+
+    private static final double DEFAULT_RENEWAL_JITTER = 0.05;
+
+    private static final long DEFAULT_CREDENTIAL_CACHE_MIN_REMAINING_MS = 600_000;
+
+    private static final long DEFAULT_DELEGATION_TOKEN_LIFETIME_MS = 86_400_000;
 
     private final ConfigurationHelper confHelper;
 
     private final KerberosHelper kerberosHelper;
 
+    private final KerberosRenewalStats renewalStats = new KerberosRenewalStats();
+
+    private final HdfsStartupMetrics startupMetrics = new HdfsStartupMetrics();
+
+    private final HdfsRefreshStats refreshStats = new HdfsRefreshStats();
+
+    private volatile KerberosTicketRenewer ticketRenewer;
+
     @Autowired
     private Environment env;
 
@@ -55,10 +131,87 @@ public class HdfsConfigFactory {
     @Bean
     @Profile("cloud")
     public HdfsConfig configFromBroker() throws Exception {
-        return createConfig(getConfigFromCf(), getHdfsUriFromConfig());
+        if (env.getProperty("hdfs.refresh.enabled", Boolean.class, false)) {
+            return createRefreshableConfig();
+        }
+        if (env.getProperty("hdfs.lazy", Boolean.class, false)) {
+            return new LazyHdfsConfig(createConfigInBackground());
+        }
+        Configuration config = timed(PHASE_CONFIGURATION, this::getConfigFromCf);
+        timed(PHASE_LOGIN, () -> {
+            loginIfNeeded(config);
+            return null;
+        });
+        HdfsConfig hdfsConfig =
+            timed(PHASE_FILE_SYSTEM, () -> createConfig(config, getHdfsUriFromConfig()));
+        LOGGER.info(startupMetrics);
+        return hdfsConfig;
+    }
+
+    /**
+     * All bound HDFS service instances by name, initialized on first use.
+     */
+    @Bean
+    @Lazy
+    @Profile("cloud")
+    public HdfsConfigRegistry hdfsConfigRegistry() throws IOException {
+        String services = Strings.nullToEmpty(env.getProperty(VCAP_SERVICES));
+        Map<String, HdfsConfigRegistry.InstanceFactory> factories = new LinkedHashMap<>();
+        HdfsConfigRegistry.splitServiceInstances(services, HDFS_SERVICE_LABEL)
+            .forEach((name, json) -> factories.put(name, closer -> createInstance(json, closer)));
+        return new HdfsConfigRegistry(factories,
+            env.getProperty("hdfs.pool.max-size", Integer.class,
+                HdfsComponentsFactory.DEFAULT_POOL_MAX_SIZE),
+            env.getProperty("hdfs.pool.idle-timeout-ms", Long.class,
+                HdfsComponentsFactory.DEFAULT_POOL_IDLE_TIMEOUT_MS),
+            env.getProperty("hdfs.registry.parallelism", Integer.class,
+                DEFAULT_REGISTRY_PARALLELISM));
+    }
+
+    /**
+     * Default registry for {@link InstrumentedFileSystem}. Can be replaced by declaring another
+     * bean with the same name.
+     */
+    @Bean
+    public HdfsMetricsRegistry hdfsMetricsRegistry() {
+        return new SimpleHdfsMetricsRegistry();
+    }
+
+    @Bean
+    public HdfsStartupMetrics hdfsStartupMetrics() {
+        return startupMetrics;
+    }
+
+    @Bean
+    @Profile("cloud")
+    public KerberosRenewalStats kerberosRenewalStats() {
+        return renewalStats;
+    }
+
+    @Bean
+    @Profile("cloud")
+    public HdfsRefreshStats hdfsRefreshStats() {
+        return refreshStats;
+    }
+
+    @Override
+    public void destroy() {
+        if (ticketRenewer != null) {
+            ticketRenewer.close();
+        }
     }
 
     private Configuration getConfigFromCf() throws IOException {
+        if (!env.getProperty("hdfs.configuration-cache.enabled", Boolean.class, true)) {
+            return loadConfigFromCf();
+        }
+        return HadoopConfigurationCache.getInstance().get(
+            Strings.nullToEmpty(env.getProperty(VCAP_SERVICES)),
+            String.join(",", env.getActiveProfiles()),
+            this::loadConfigFromCf);
+    }
+
+    private Configuration loadConfigFromCf() throws IOException {
         Configuration hadoopConfig = new Configuration(true);
 
         Map<String, String> config =
@@ -72,7 +225,7 @@ public class HdfsConfigFactory {
     @Profile("local")
     public HdfsConfig configLocalFS() throws Exception {
         Configuration configuration = new Configuration();
-        FileSystem fileSystem = FileSystem.getLocal(configuration);
+        FileSystem fileSystem = timed(PHASE_FILE_SYSTEM, () -> FileSystem.getLocal(configuration));
         String folder = env.getProperty("FOLDER");
         if (Strings.isNullOrEmpty(folder)) {
             return createConfig(fileSystem, createTmpDir(), "hdfs");
@@ -92,20 +245,145 @@ public class HdfsConfigFactory {
         return getPropertyFromCredentials(PropertyLocator.HDFS_URI);
     }
 
+    /**
+     * Initialization of {@link #configFromBroker()} done on background threads. Configuration
+     * and credentials parsing, then Kerberos login and resolution of NameNode host name run in
+     * parallel, the latter only warming the DNS cache. The FileSystem is created and connected to
+     * NameNode when both are done.
+     */
+    private CompletableFuture<HdfsConfig> createConfigInBackground() {
+        ExecutorService executor = Executors.newFixedThreadPool(2, new ThreadFactoryBuilder()
+            .setNameFormat("hdfs-config-init-%d")
+            .setDaemon(true)
+            .build());
+
+        CompletableFuture<Configuration> config = CompletableFuture.supplyAsync(
+            inPhase(PHASE_CONFIGURATION, this::getConfigFromCf), executor);
+        CompletableFuture<String> hdfsUri = CompletableFuture.supplyAsync(
+            inPhase(PHASE_CREDENTIALS, this::getHdfsUriFromConfig), executor);
+
+        CompletableFuture<Void> login = config.thenAcceptAsync(
+            conf -> inPhase(PHASE_LOGIN, () -> {
+                loginIfNeeded(conf);
+                return null;
+            }).get(), executor);
+        CompletableFuture<Void> resolve = hdfsUri.thenAcceptAsync(
+            uri -> inPhase(PHASE_NAMENODE_RESOLVE, () -> resolveNameNode(uri)).get(), executor);
+
+        CompletableFuture<HdfsConfig> hdfsConfig = login
+            .thenCombine(resolve, (l, r) -> r)
+            .thenApplyAsync(ignored -> inPhase(PHASE_FILE_SYSTEM,
+                () -> connect(config.join(), hdfsUri.join())).get(), executor);
+
+        hdfsConfig.whenComplete((result, error) -> {
+            executor.shutdown();
+            if (error == null) {
+                LOGGER.info(startupMetrics);
+            } else {
+                LOGGER.error("Background HDFS configuration failed", error);
+            }
+        });
+        return hdfsConfig;
+    }
+
+    private Void resolveNameNode(String hdfsUri) throws URISyntaxException {
+        String host = new URI(hdfsUri).getHost();
+        if (host == null) {
+            return null;
+        }
+        try {
+            InetAddress.getByName(host);
+        } catch (UnknownHostException e) {
+            // logical name of HA nameservice, resolved by the client from configuration
+            LOGGER.debug("NameNode host " + host + " is not resolvable", e);
+        }
+        return null;
+    }
+
+    private HdfsConfig connect(Configuration config, String hdfsUri) throws Exception {
+        HdfsConfig hdfsConfig = createConfig(config, hdfsUri);
+        hdfsConfig.getFileSystem().exists(hdfsConfig.getPath());
+        return hdfsConfig;
+    }
+
+    private <T> T timed(String phase, Phase<T> action) throws Exception {
+        long start = System.nanoTime();
+        try {
+            return action.run();
+        } finally {
+            startupMetrics.record(phase, System.nanoTime() - start);
+        }
+    }
+
+    private <T> Supplier<T> inPhase(String phase, Phase<T> action) {
+        return () -> {
+            try {
+                return timed(phase, action);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        };
+    }
+
+    @FunctionalInterface
+    private interface Phase<T> {
+        T run() throws Exception;
+    }
+
     private HdfsConfig createConfig(Configuration config, String hdfsUri) throws Exception {
-        loginIfNeeded(config);
         FileSystem fs =
-            FileSystem.get(new URI(hdfsUri), config,
-                           getPropertyFromCredentials(PropertyLocator.USER));
+            kerberosHelper.getFileSystem(new URI(hdfsUri), config,
+                                         getPropertyFromCredentials(PropertyLocator.USER));
         return createConfig(fs, hdfsUri, getPropertyFromCredentials(PropertyLocator.USER));
     }
 
     private HdfsConfig createConfig(FileSystem fileSystem, String hdfsUri, String hdfsUser)
         throws IOException, LoginException {
         Path folder = new Path(hdfsUri);
-        fileSystem.setWorkingDirectory(folder);
+        FileSystem decorated = decorate(fileSystem, hdfsUser);
+        decorated.setWorkingDirectory(folder);
 
-        return new HdfsConfig(fileSystem, hdfsUser, folder);
+        return new HdfsConfig(decorated, hdfsUser, folder);
+    }
+
+    /**
+     * Wraps FileSystem with optional decorators enabled by hdfs.* properties.
+     */
+    private FileSystem decorate(FileSystem fileSystem, String hdfsUser) {
+        FileSystem decorated = fileSystem;
+        if (env.getProperty("hdfs.resilience.enabled", Boolean.class, false)) {
+            decorated = new ResilientFileSystem(decorated,
+                env.getProperty("hdfs.resilience.timeout-ms", Long.class,
+                    DEFAULT_RESILIENCE_TIMEOUT_MS),
+                env.getProperty("hdfs.resilience.max-attempts", Integer.class,
+                    DEFAULT_RESILIENCE_MAX_ATTEMPTS),
+                env.getProperty("hdfs.resilience.backoff-ms", Long.class,
+                    DEFAULT_RESILIENCE_BACKOFF_MS),
+                env.getProperty("hdfs.resilience.max-backoff-ms", Long.class,
+                    DEFAULT_RESILIENCE_MAX_BACKOFF_MS),
+                env.getProperty("hdfs.resilience.hedge-delay-ms", Long.class,
+                    DEFAULT_RESILIENCE_HEDGE_DELAY_MS),
+                env.getProperty("hdfs.resilience.breaker.failure-threshold", Integer.class,
+                    DEFAULT_BREAKER_FAILURE_THRESHOLD),
+                env.getProperty("hdfs.resilience.breaker.open-ms", Long.class,
+                    DEFAULT_BREAKER_OPEN_MS),
+                env.getProperty("hdfs.resilience.max-threads", Integer.class,
+                    DEFAULT_RESILIENCE_MAX_THREADS));
+        }
+        if (env.getProperty("hdfs.metrics.enabled", Boolean.class, false)) {
+            decorated = new InstrumentedFileSystem(decorated, hdfsUser,
+                env.getProperty("hdfs.metrics.path-prefixes", String[].class, new String[0]),
+                hdfsMetricsRegistry());
+        }
+        if (env.getProperty("hdfs.metadata-cache.enabled", Boolean.class, false)) {
+            decorated = new MetadataCachingFileSystem(decorated,
+                env.getProperty("hdfs.metadata-cache.max-entries", Long.class,
+                    DEFAULT_METADATA_CACHE_SIZE),
+                env.getProperty("hdfs.metadata-cache.ttl-ms", Long.class,
+                    DEFAULT_METADATA_CACHE_TTL_MS),
+                env.getProperty("hdfs.metadata-cache.strict", Boolean.class, false));
+        }
+        return decorated;
     }
 
     /**
@@ -114,11 +392,91 @@ public class HdfsConfigFactory {
      * @throws LoginException
      */
     private void loginIfNeeded(Configuration config) throws IOException, LoginException {
-        if (kerberosHelper.isClusterIsSecuredByKerberos(config)) {
-            kerberosHelper.login(config,
-                                 getPropertyFromCredentials(PropertyLocator.USER),
-                                 getPropertyFromCredentials(PropertyLocator.PASSWORD));
+        if (!kerberosHelper.isClusterIsSecuredByKerberos(config)) {
+            return;
         }
+        String user = getPropertyFromCredentials(PropertyLocator.USER);
+        String password = getPropertyFromCredentials(PropertyLocator.PASSWORD);
+        if (env.getProperty("hdfs.kerberos.cache.enabled", Boolean.class, false)) {
+            kerberosHelper.setCredentialCache(new KerberosCredentialCache(
+                Paths.get(env.getProperty("hdfs.kerberos.cache.dir",
+                    new File(System.getProperty("java.io.tmpdir"),
+                        "hdfs-credentials-" + System.getProperty("user.name")).getPath())),
+                env.getProperty("hdfs.kerberos.cache.min-remaining-ms", Long.class,
+                    DEFAULT_CREDENTIAL_CACHE_MIN_REMAINING_MS),
+                env.getProperty("hdfs.kerberos.cache.token-lifetime-ms", Long.class,
+                    DEFAULT_DELEGATION_TOKEN_LIFETIME_MS)));
+        }
+        if (env.getProperty("hdfs.kerberos.renewal.enabled", Boolean.class, true)) {
+            ticketRenewer = kerberosHelper.loginWithRenewal(config, user, password,
+                env.getProperty("hdfs.kerberos.renewal.fraction", Double.class,
+                    DEFAULT_RENEWAL_FRACTION),
+                env.getProperty("hdfs.kerberos.renewal.jitter", Double.class,
+                    DEFAULT_RENEWAL_JITTER),
+                renewalStats);
+        } else {
+            kerberosHelper.login(config, user, password);
+        }
+    }
+
+    /**
+     * HdfsConfig rebuilt whenever the VCAP_SERVICES document in the file given by
+     * hdfs.refresh.file changes. The environment of a running process never changes, so the
+     * file is required.
+     */
+    private HdfsConfig createRefreshableConfig() throws Exception {
+        String file = env.getProperty("hdfs.refresh.file");
+        if (Strings.isNullOrEmpty(file)) {
+            throw new IllegalStateException(
+                "hdfs.refresh.file is required when hdfs.refresh.enabled is true");
+        }
+        return new RefreshableHdfsConfig(RefreshableHdfsConfig.fileSource(Paths.get(file)),
+            this::createInstance,
+            env.getProperty("hdfs.refresh.interval-ms", Long.class, DEFAULT_REFRESH_INTERVAL_MS),
+            env.getProperty("hdfs.refresh.drain-timeout-ms", Long.class,
+                DEFAULT_REFRESH_DRAIN_TIMEOUT_MS),
+            refreshStats);
+    }
+
+    /**
+     * Creates HdfsConfig of one service instance from its own VCAP_SERVICES document. Secured
+     * clusters get a separate login user, process-wide Hadoop login is not changed.
+     */
+    private HdfsConfigRegistry.Instance createInstance(String servicesJson, Closer closer)
+        throws Exception {
+        Configuration config = new Configuration(true);
+        confHelper.getConfigurationFromJson(servicesJson, ConfigurationLocator.HADOOP)
+            .forEach(config::set);
+        String hdfsUri = required(
+            confHelper.getPropertyFromJson(servicesJson, PropertyLocator.HDFS_URI),
+            PropertyLocator.HDFS_URI);
+        String user = required(confHelper.getPropertyFromJson(servicesJson, PropertyLocator.USER),
+            PropertyLocator.USER);
+
+        if (!kerberosHelper.isClusterIsSecuredByKerberos(config)) {
+            FileSystem fs = FileSystem.newInstance(new URI(hdfsUri), config, user);
+            return new HdfsConfigRegistry.Instance(createConfig(fs, hdfsUri, user), null);
+        }
+        String password = required(
+            confHelper.getPropertyFromJson(servicesJson, PropertyLocator.PASSWORD),
+            PropertyLocator.PASSWORD);
+        KerberosTicketRenewer renewer = closer.register(kerberosHelper.loginIsolated(
+            servicesJson, config, user, password,
+            env.getProperty("hdfs.kerberos.renewal.fraction", Double.class,
+                DEFAULT_RENEWAL_FRACTION),
+            env.getProperty("hdfs.kerberos.renewal.jitter", Double.class,
+                DEFAULT_RENEWAL_JITTER),
+            renewalStats));
+        UserGroupInformation loginUser =
+            UserGroupInformation.getUGIFromSubject(renewer.getSubject());
+        FileSystem fs = loginUser.doAs((PrivilegedExceptionAction<FileSystem>)
+            () -> FileSystem.newInstance(new URI(hdfsUri), config));
+        return new HdfsConfigRegistry.Instance(createConfig(fs, hdfsUri, user), loginUser);
+    }
+
+    private static String required(Optional<String> value, PropertyLocator property) {
+        return value.orElseThrow(() -> new IllegalStateException(
+            property.name() + " not found in VCAP_SERVICES"));
     }
 
     private String getPropertyFromCredentials(PropertyLocator property) throws IOException{
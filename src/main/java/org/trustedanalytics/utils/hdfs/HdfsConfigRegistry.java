@@ -0,0 +1,271 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Closer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Named {@link HdfsConfig} instances, one for each bound HDFS service instance.
+ *
+ * Instances are initialized in parallel when the registry is created. Each one owns its
+ * FileSystem, login user and {@link HdfsFileSystemPool}, all released by {@link #close()}.
+ * Requests can be routed either by instance name or by the URI of a path.
+ */
+public class HdfsConfigRegistry implements Closeable {
+
+    private static final Logger LOGGER = LogManager.getLogger(HdfsConfigRegistry.class);
+
+    /**
+     * Creates one instance. Resources to release together with the registry are registered in
+     * given closer.
+     */
+    @FunctionalInterface
+    public interface InstanceFactory {
+        Instance create(Closer closer) throws Exception;
+    }
+
+    /**
+     * Configuration of one instance, with the user it has been logged in as, or null when the
+     * cluster is not secured.
+     */
+    public static final class Instance {
+
+        private final HdfsConfig config;
+
+        private final UserGroupInformation loginUser;
+
+        public Instance(HdfsConfig config, UserGroupInformation loginUser) {
+            this.config = Objects.requireNonNull(config, "config");
+            this.loginUser = loginUser;
+        }
+
+        public HdfsConfig getConfig() {
+            return config;
+        }
+
+        public UserGroupInformation getLoginUser() {
+            return loginUser;
+        }
+    }
+
+    private final Map<String, Entry> entries;
+
+    public HdfsConfigRegistry(Map<String, InstanceFactory> factories, int poolMaxSize,
+                              long poolIdleTimeoutMs, int parallelism) throws IOException {
+        Preconditions.checkArgument(parallelism > 0, "parallelism must be positive");
+        if (factories.isEmpty()) {
+            entries = ImmutableMap.of();
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Math.min(parallelism, factories.size()), new ThreadFactoryBuilder()
+                .setNameFormat("hdfs-registry-init-%d")
+                .setDaemon(true)
+                .build());
+        try {
+            Map<String, CompletableFuture<Entry>> pending = new LinkedHashMap<>();
+            factories.forEach((name, factory) -> pending.put(name, CompletableFuture.supplyAsync(
+                () -> create(name, factory, poolMaxSize, poolIdleTimeoutMs), executor)));
+            entries = collect(pending);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public Set<String> getNames() {
+        return entries.keySet();
+    }
+
+    public HdfsConfig get(String name) {
+        return entry(name).config;
+    }
+
+    public HdfsFileSystemPool getPool(String name) {
+        return entry(name).pool;
+    }
+
+    public Optional<UserGroupInformation> getLoginUser(String name) {
+        return Optional.ofNullable(entry(name).loginUser);
+    }
+
+    /**
+     * Name of the instance serving given URI, matched by scheme and authority. Relative URIs
+     * are not matched.
+     */
+    public Optional<String> findName(URI uri) {
+        if (uri.getScheme() == null) {
+            return Optional.empty();
+        }
+        return entries.entrySet().stream()
+            .filter(e -> sameFileSystem(e.getValue().uri, uri))
+            .map(Map.Entry::getKey)
+            .findFirst();
+    }
+
+    /**
+     * Configuration of the instance serving given fully qualified path.
+     */
+    public HdfsConfig forPath(Path path) {
+        URI uri = path.toUri();
+        return get(findName(uri).orElseThrow(() -> new IllegalArgumentException(
+            "No HDFS instance registered for " + uri)));
+    }
+
+    @Override
+    public void close() throws IOException {
+        Closer closer = Closer.create();
+        entries.values().forEach(entry -> closer.register(entry.closer));
+        closer.close();
+    }
+
+    /**
+     * Splits VCAP_SERVICES document into one document for each instance of given service label.
+     * Other services are kept in every document, so each can be passed to
+     * {@link org.trustedanalytics.hadoop.config.ConfigurationHelper} methods reading JSON. The
+     * instance goes first, so its properties win lookups matching the first occurrence.
+     */
+    static Map<String, String> splitServiceInstances(String servicesJson, String label)
+        throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode root = mapper.readTree(servicesJson);
+        JsonNode instances = root == null ? null : root.get(label);
+        if (instances == null || !instances.isArray()) {
+            return ImmutableMap.of();
+        }
+        Map<String, String> split = new LinkedHashMap<>();
+        for (JsonNode instance : instances) {
+            String name = instance.path("name").asText();
+            Preconditions.checkArgument(!name.isEmpty(),
+                "Instance of " + label + " service has no name");
+            Preconditions.checkArgument(!split.containsKey(name),
+                "Duplicated " + label + " service instance " + name);
+            ObjectNode single = mapper.createObjectNode();
+            single.putArray(label).add(instance);
+            root.fields().forEachRemaining(service -> {
+                if (!label.equals(service.getKey())) {
+                    single.set(service.getKey(), service.getValue());
+                }
+            });
+            split.put(name, mapper.writeValueAsString(single));
+        }
+        return split;
+    }
+
+    private static Entry create(String name, InstanceFactory factory, int poolMaxSize,
+                                long poolIdleTimeoutMs) {
+        long start = System.nanoTime();
+        Closer closer = Closer.create();
+        try {
+            Instance instance = factory.create(closer);
+            closer.register(instance.config.getFileSystem());
+            HdfsFileSystemPool pool = closer.register(new HdfsFileSystemPool(instance.config,
+                instance.loginUser, poolMaxSize, poolIdleTimeoutMs));
+            LOGGER.info("HDFS instance " + name + " initialized in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+            return new Entry(instance, pool, closer);
+        } catch (Exception e) {
+            closeQuietly(closer);
+            throw new CompletionException(
+                new IOException("Cannot initialize HDFS instance " + name, e));
+        }
+    }
+
+    private static Map<String, Entry> collect(Map<String, CompletableFuture<Entry>> pending)
+        throws IOException {
+        Map<String, Entry> created = new LinkedHashMap<>();
+        List<Throwable> errors = new ArrayList<>();
+        pending.forEach((name, future) -> {
+            try {
+                created.put(name, future.join());
+            } catch (CompletionException e) {
+                errors.add(e.getCause());
+            }
+        });
+        if (errors.isEmpty()) {
+            return ImmutableMap.copyOf(created);
+        }
+        created.values().forEach(entry -> closeQuietly(entry.closer));
+        IOException error = errors.get(0) instanceof IOException
+            ? (IOException) errors.get(0) : new IOException(errors.get(0));
+        errors.stream().skip(1).forEach(error::addSuppressed);
+        throw error;
+    }
+
+    private static boolean sameFileSystem(URI instance, URI uri) {
+        return instance.getScheme().equalsIgnoreCase(uri.getScheme())
+            && Objects.equals(instance.getAuthority(), uri.getAuthority());
+    }
+
+    private static void closeQuietly(Closer closer) {
+        try {
+            closer.close();
+        } catch (IOException e) {
+            LOGGER.warn("Cannot release HDFS instance resources", e);
+        }
+    }
+
+    private Entry entry(String name) {
+        Entry entry = entries.get(name);
+        Preconditions.checkArgument(entry != null, "Unknown HDFS instance " + name);
+        return entry;
+    }
+
+    private static final class Entry {
+
+        private final HdfsConfig config;
+
+        private final UserGroupInformation loginUser;
+
+        private final URI uri;
+
+        private final HdfsFileSystemPool pool;
+
+        private final Closer closer;
+
+        Entry(Instance instance, HdfsFileSystemPool pool, Closer closer) {
+            this.config = instance.config;
+            this.loginUser = instance.loginUser;
+            this.uri = instance.config.getFileSystem().getUri();
+            this.pool = pool;
+            this.closer = closer;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.PrivilegedExceptionAction;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of FileSystem instances keyed by (URI, user, configuration fingerprint).
+ *
+ * Instances are created with {@link FileSystem#newInstance(URI, Configuration, String)}, so
+ * they are owned by the pool and not shared through Hadoop's FileSystem cache. Callers borrow
+ * an instance through a {@link Lease} and must close it when done. Instances evicted on size
+ * or idle timeout are closed once the last outstanding lease is released.
+ *
+ * When the pool has an owner, instances are opened as the owner (or as a user impersonated by
+ * the owner) instead of as a plain remote user, so they carry the owner's Kerberos credentials.
+ * The owner and the default configuration are looked up on every acquire, instances opened
+ * with a replaced owner or configuration are not reused.
+ */
+public class HdfsFileSystemPool implements Closeable {
+
+    private static final Logger LOGGER = LogManager.getLogger(HdfsFileSystemPool.class);
+
+    private final HdfsConfig defaults;
+
+    private volatile Fingerprint defaultFingerprint;
+
+    private final Cache<Key, PooledFileSystem> cache;
+
+    private final ScheduledExecutorService cleaner;
+
+    private final Supplier<UserGroupInformation> owner;
+
+    public HdfsFileSystemPool(HdfsConfig defaults, int maxSize, long idleTimeoutMs) {
+        this(defaults, (UserGroupInformation) null, maxSize, idleTimeoutMs);
+    }
+
+    public HdfsFileSystemPool(HdfsConfig defaults, UserGroupInformation owner, int maxSize,
+                              long idleTimeoutMs) {
+        this(defaults, Suppliers.ofInstance(owner), maxSize, idleTimeoutMs);
+    }
+
+    /**
+     * @param owner current owner, e.g. login user of a {@link RefreshableHdfsConfig}; may supply
+     *              null
+     */
+    public HdfsFileSystemPool(HdfsConfig defaults, Supplier<UserGroupInformation> owner,
+                              int maxSize, long idleTimeoutMs) {
+        Preconditions.checkArgument(maxSize > 0, "maxSize must be positive");
+        Preconditions.checkArgument(idleTimeoutMs > 0, "idleTimeoutMs must be positive");
+        this.defaults = defaults;
+        this.owner = Preconditions.checkNotNull(owner);
+        this.cache = CacheBuilder.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterAccess(idleTimeoutMs, TimeUnit.MILLISECONDS)
+            .<Key, PooledFileSystem>removalListener(
+                notification -> notification.getValue().retire())
+            .build();
+
+        // Guava evicts expired entries lazily, so idle instances are also swept periodically
+        this.cleaner = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("hdfs-fs-pool-cleaner")
+            .setDaemon(true)
+            .build());
+        long sweepInterval = Math.max(1, idleTimeoutMs / 2);
+        cleaner.scheduleWithFixedDelay(cache::cleanUp, sweepInterval, sweepInterval,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a FileSystem for given user, connected to the URI and configuration of the
+     * default {@link HdfsConfig}.
+     */
+    public Lease acquire(String user) throws IOException {
+        return acquire(defaults.getFileSystem().getUri(), user);
+    }
+
+    public Lease acquire(URI uri, String user) throws IOException {
+        Fingerprint fingerprint = defaultFingerprint();
+        return acquire(new Key(uri, user, fingerprint.value, owner.get()), fingerprint.config);
+    }
+
+    public Lease acquire(URI uri, Configuration config, String user) throws IOException {
+        return acquire(new Key(uri, user, fingerprint(config), owner.get()), config);
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Drops all instances, e.g. after the default configuration was replaced. Leased ones are
+     * closed when their last lease is released.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public void close() {
+        cleaner.shutdownNow();
+        cache.invalidateAll();
+        cache.cleanUp();
+    }
+
+    private Lease acquire(Key key, Configuration config) throws IOException {
+        Preconditions.checkNotNull(key.user, "user");
+        while (true) {
+            PooledFileSystem pooled;
+            try {
+                pooled = cache.get(key, () -> open(key, config));
+            } catch (ExecutionException | UncheckedExecutionException e) {
+                throw toIOException(e.getCause());
+            }
+            if (pooled.tryAcquire()) {
+                return new Lease(pooled);
+            }
+            // evicted and closed between lookup and acquire, next lookup opens a new instance
+            cache.asMap().remove(key, pooled);
+        }
+    }
+
+    /**
+     * Fingerprint of the default configuration, computed again only when
+     * {@link HdfsConfig#getConfiguration()} returns another instance.
+     */
+    private Fingerprint defaultFingerprint() {
+        Configuration config = defaults.getConfiguration();
+        Fingerprint cached = defaultFingerprint;
+        if (cached == null || cached.config != config) {
+            cached = new Fingerprint(config, fingerprint(config));
+            defaultFingerprint = cached;
+        }
+        return cached;
+    }
+
+    private PooledFileSystem open(Key key, Configuration config)
+        throws IOException, InterruptedException {
+        LOGGER.debug("Opening pooled FileSystem for " + key);
+        if (key.owner == null) {
+            return new PooledFileSystem(key, FileSystem.newInstance(key.uri, config, key.user));
+        }
+        UserGroupInformation ugi = key.user.equals(key.owner.getShortUserName())
+            ? key.owner : UserGroupInformation.createProxyUser(key.user, key.owner);
+        return new PooledFileSystem(key, ugi.doAs(
+            (PrivilegedExceptionAction<FileSystem>) () -> FileSystem.newInstance(key.uri, config)));
+    }
+
+    private static IOException toIOException(Throwable cause) {
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+        }
+        return new IOException("Cannot create FileSystem", cause);
+    }
+
+    static String fingerprint(Configuration config) {
+        Map<String, String> sorted = new TreeMap<>();
+        for (Map.Entry<String, String> entry : config) {
+            sorted.put(entry.getKey(), entry.getValue());
+        }
+        Hasher hasher = Hashing.sha256().newHasher();
+        sorted.forEach((k, v) -> hasher
+            .putString(k, StandardCharsets.UTF_8).putByte((byte) 0)
+            .putString(v, StandardCharsets.UTF_8).putByte((byte) 0));
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Borrowed FileSystem. The FileSystem must not be closed directly, close the lease instead.
+     */
+    public static final class Lease implements Closeable {
+
+        private final PooledFileSystem pooled;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease(PooledFileSystem pooled) {
+            this.pooled = pooled;
+        }
+
+        public FileSystem getFileSystem() {
+            Preconditions.checkState(!released.get(), "Lease has been already released");
+            return pooled.fileSystem;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                pooled.release();
+            }
+        }
+    }
+
+    private static final class PooledFileSystem {
+
+        private static final int CLOSED = -1;
+
+        private final Key key;
+
+        private final FileSystem fileSystem;
+
+        private final AtomicInteger leases = new AtomicInteger();
+
+        private volatile boolean retired;
+
+        PooledFileSystem(Key key, FileSystem fileSystem) {
+            this.key = key;
+            this.fileSystem = fileSystem;
+        }
+
+        boolean tryAcquire() {
+            while (true) {
+                int current = leases.get();
+                if (current == CLOSED) {
+                    return false;
+                }
+                if (leases.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            if (leases.decrementAndGet() == 0 && retired) {
+                closeIfIdle();
+            }
+        }
+
+        void retire() {
+            retired = true;
+            closeIfIdle();
+        }
+
+        private void closeIfIdle() {
+            if (leases.compareAndSet(0, CLOSED)) {
+                LOGGER.debug("Closing pooled FileSystem for " + key);
+                try {
+                    fileSystem.close();
+                } catch (IOException e) {
+                    LOGGER.warn("Cannot close pooled FileSystem for " + key, e);
+                }
+            }
+        }
+    }
+
+    private static final class Fingerprint {
+
+        private final Configuration config;
+
+        private final String value;
+
+        Fingerprint(Configuration config, String value) {
+            this.config = config;
+            this.value = value;
+        }
+    }
+
+    private static final class Key {
+
+        private final URI uri;
+
+        private final String user;
+
+        private final String fingerprint;
+
+        private final UserGroupInformation owner;
+
+        Key(URI uri, String user, String fingerprint, UserGroupInformation owner) {
+            this.uri = uri;
+            this.user = user;
+            this.fingerprint = fingerprint;
+            this.owner = owner;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return uri.equals(other.uri)
+                && user.equals(other.user)
+                && fingerprint.equals(other.fingerprint)
+                && Objects.equals(owner, other.owner);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(uri, user, fingerprint, owner);
+        }
+
+        @Override
+        public String toString() {
+            return user + "@" + uri;
+        }
+    }
+}
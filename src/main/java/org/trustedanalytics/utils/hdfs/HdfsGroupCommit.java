@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import com.google.common.base.Preconditions;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+
+/**
+ * Opens {@link GroupCommitWriter}s for files given relative to {@link HdfsConfig#getPath()}.
+ * Existing files are appended to. HDFS allows one writer per file, so a writer is meant to be
+ * shared by all threads of a process logging to the file.
+ */
+public class HdfsGroupCommit {
+
+    private final HdfsConfig hdfsConfig;
+
+    private final GroupCommitWriter.Durability durability;
+
+    private final int ringSize;
+
+    private final int batchBytes;
+
+    private final long maxDelayMs;
+
+    public HdfsGroupCommit(HdfsConfig hdfsConfig, GroupCommitWriter.Durability durability,
+                           int ringSize, int batchBytes, long maxDelayMs) {
+        this.hdfsConfig = hdfsConfig;
+        this.durability = Preconditions.checkNotNull(durability);
+        this.ringSize = ringSize;
+        this.batchBytes = batchBytes;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    public GroupCommitWriter open(String relativePath) throws IOException {
+        return open(relativePath, durability);
+    }
+
+    public GroupCommitWriter open(String relativePath, GroupCommitWriter.Durability durability)
+        throws IOException {
+        return new GroupCommitWriter(hdfsConfig.getFileSystem(),
+            new Path(hdfsConfig.getPath(), relativePath), durability, ringSize, batchBytes,
+            maxDelayMs);
+    }
+}
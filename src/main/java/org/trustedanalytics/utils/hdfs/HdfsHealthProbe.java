@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodic NameNode round trip, a getFileStatus of {@link HdfsConfig#getPath()}, keeping
+ * latencies of the last {@code window} successful probes.
+ *
+ * The probe is healthy when its last round trip succeeded. {@link #getDetails()} can be exposed
+ * by an application health endpoint as is.
+ */
+public class HdfsHealthProbe implements Closeable {
+
+    private static final Logger LOGGER = LogManager.getLogger(HdfsHealthProbe.class);
+
+    private final HdfsConfig config;
+
+    private final long[] latencies;
+
+    private int next;
+
+    private int size;
+
+    private long probes;
+
+    private long failures;
+
+    private long consecutiveFailures;
+
+    private long lastProbeTime;
+
+    private String lastError;
+
+    private ScheduledExecutorService scheduler;
+
+    public HdfsHealthProbe(HdfsConfig config, int window) {
+        Preconditions.checkArgument(window > 0, "window must be positive");
+        this.config = config;
+        this.latencies = new long[window];
+    }
+
+    /**
+     * Probes every {@code intervalMs} milliseconds in background, starting immediately.
+     */
+    public synchronized HdfsHealthProbe start(long intervalMs) {
+        Preconditions.checkState(scheduler == null, "Probe already started");
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("hdfs-health-probe")
+            .setDaemon(true)
+            .build());
+        scheduler.scheduleWithFixedDelay(this::probe, 0, intervalMs, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    /**
+     * Runs a single round trip.
+     *
+     * @return whether it succeeded
+     */
+    public boolean probe() {
+        long start = System.nanoTime();
+        try {
+            config.getFileSystem().getFileStatus(config.getPath());
+            recordSuccess(System.nanoTime() - start);
+            return true;
+        } catch (Exception e) {
+            LOGGER.warn("HDFS health probe failed", e);
+            recordFailure(e);
+            return false;
+        }
+    }
+
+    private synchronized void recordSuccess(long latencyNanos) {
+        latencies[next] = latencyNanos;
+        next = (next + 1) % latencies.length;
+        size = Math.min(size + 1, latencies.length);
+        probes++;
+        consecutiveFailures = 0;
+        lastProbeTime = System.currentTimeMillis();
+    }
+
+    private synchronized void recordFailure(Exception e) {
+        probes++;
+        failures++;
+        consecutiveFailures++;
+        lastError = e.toString();
+        lastProbeTime = System.currentTimeMillis();
+    }
+
+    public synchronized boolean isHealthy() {
+        return probes > 0 && consecutiveFailures == 0;
+    }
+
+    public synchronized long getProbes() {
+        return probes;
+    }
+
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    public synchronized long getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public synchronized String getLastError() {
+        return lastError;
+    }
+
+    /**
+     * @return latencies in milliseconds of the last successful probes, oldest first
+     */
+    public synchronized double[] getLatencyMillis() {
+        double[] millis = new double[size];
+        int first = (next - size + latencies.length) % latencies.length;
+        for (int i = 0; i < size; i++) {
+            millis[i] = latencies[(first + i) % latencies.length] / 1e6;
+        }
+        return millis;
+    }
+
+    /**
+     * @param percentile value between 0 and 1
+     * @return latency in milliseconds at given percentile of the window, 0 if empty
+     */
+    public double getPercentileMillis(double percentile) {
+        double[] millis = getLatencyMillis();
+        if (millis.length == 0) {
+            return 0;
+        }
+        Arrays.sort(millis);
+        int rank = (int) Math.ceil(percentile * millis.length);
+        return millis[Math.max(0, Math.min(rank, millis.length) - 1)];
+    }
+
+    public synchronized Map<String, Object> getDetails() {
+        double[] millis = getLatencyMillis();
+        Map<String, Object> details = new LinkedHashMap<>();
+        details.put("status", isHealthy() ? "UP" : "DOWN");
+        details.put("probes", probes);
+        details.put("failures", failures);
+        details.put("consecutiveFailures", consecutiveFailures);
+        details.put("lastProbeTime", lastProbeTime);
+        details.put("lastLatencyMillis", millis.length == 0 ? 0 : millis[millis.length - 1]);
+        details.put("p50LatencyMillis", getPercentileMillis(0.5));
+        details.put("p99LatencyMillis", getPercentileMillis(0.99));
+        details.put("maxLatencyMillis", getPercentileMillis(1));
+        if (lastError != null) {
+            details.put("lastError", lastError);
+        }
+        return details;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
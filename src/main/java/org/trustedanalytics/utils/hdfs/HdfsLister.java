@@ -0,0 +1,408 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import com.google.common.base.Preconditions;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Incremental listing of directories under {@link HdfsConfig#getPath()}.
+ *
+ * On HDFS entries are read incrementally, served by NameNode in batches of {@code dfs.ls.limit}
+ * entries, so no listing is materialized as a whole. A DistributedFileSystem is listed by its
+ * client without block locations, a decorated one through
+ * {@link FileSystem#listLocatedStatus(Path)}. Other file systems have no incremental listing,
+ * their directories are read with {@link FileSystem#listStatus(Path)}, one at a time. Relative
+ * paths are resolved against {@link HdfsConfig#getPath()}. Filters are applied to entries as
+ * they are read; directories are traversed whether or not they are accepted.
+ *
+ * Failures while iterating lazily are rethrown as {@link UncheckedIOException}.
+ */
+public class HdfsLister implements Closeable {
+
+    private static final PathFilter ALL = path -> true;
+
+    private static final String HDFS_SCHEME = "hdfs";
+
+    private final HdfsConfig config;
+
+    private final int pageSize;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param pageSize entries per page of {@link #forEachPage}, and subtree tasks of one
+     *                 directory pending at a time in {@link #walkParallel}; NameNode batches are
+     *                 sized by its own {@code dfs.ls.limit}
+     * @param parallelism threads of the pool shared by {@link #walkParallel} calls
+     */
+    public HdfsLister(HdfsConfig config, int pageSize, int parallelism) {
+        Preconditions.checkArgument(pageSize > 0, "pageSize must be positive");
+        Preconditions.checkArgument(parallelism > 0, "parallelism must be positive");
+        this.config = config;
+        this.pageSize = pageSize;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Lazy stream of accepted entries of one directory.
+     */
+    public Stream<FileStatus> list(Path dir, PathFilter filter) throws IOException {
+        return stream(new Listing(open(resolve(dir)), filter));
+    }
+
+    /**
+     * Passes accepted entries of one directory to consumer in pages of at most
+     * {@code pageSize} entries. Only one page is held in memory at a time.
+     *
+     * @return number of entries passed
+     */
+    public long forEachPage(Path dir, PathFilter filter, Consumer<List<FileStatus>> consumer)
+        throws IOException {
+        Listing listing = new Listing(open(resolve(dir)), filter);
+        List<FileStatus> page = new ArrayList<>(pageSize);
+        long count = 0;
+        while (listing.advance()) {
+            page.add(listing.take());
+            if (page.size() == pageSize) {
+                count += flush(page, consumer);
+            }
+        }
+        return count + flush(page, consumer);
+    }
+
+    /**
+     * Lazy depth-first stream of accepted entries of the whole tree, root excluded. Memory use
+     * grows with depth of the tree, not with size of directories.
+     */
+    public Stream<FileStatus> walk(Path root, PathFilter filter) throws IOException {
+        return stream(new TreeWalk(resolve(root), filter));
+    }
+
+    /**
+     * Visits accepted entries of the whole tree in parallel, subtrees being listed by separate
+     * fork-join tasks. Consumer is called concurrently. At most {@code pageSize} subtree tasks of
+     * one directory are pending at a time.
+     *
+     * @return number of entries visited
+     */
+    public long walkParallel(Path root, PathFilter filter, Consumer<FileStatus> consumer)
+        throws IOException {
+        LongAdder count = new LongAdder();
+        try {
+            pool.invoke(new SubtreeTask(resolve(root), filter, consumer, count));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return count.sum();
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    private Path resolve(Path path) {
+        return path.isAbsolute() ? path : new Path(config.getPath(), path);
+    }
+
+    private RemoteIterator<? extends FileStatus> open(Path dir) throws IOException {
+        FileSystem fs = config.getFileSystem();
+        if (fs instanceof DistributedFileSystem) {
+            return listWithoutLocations((DistributedFileSystem) fs, dir);
+        }
+        if (HDFS_SCHEME.equals(fs.getUri().getScheme())) {
+            return fs.listLocatedStatus(dir);
+        }
+        // located statuses of local files load permissions of each entry by a shell command
+        FileStatus[] statuses = fs.listStatus(dir);
+        return new RemoteIterator<FileStatus>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < statuses.length;
+            }
+
+            @Override
+            public FileStatus next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return statuses[next++];
+            }
+        };
+    }
+
+    /**
+     * Incremental listing as {@link DistributedFileSystem#listLocatedStatus(Path)}, but without
+     * resolving block locations of every file.
+     */
+    private static RemoteIterator<FileStatus> listWithoutLocations(DistributedFileSystem fs,
+                                                                   Path dir) throws IOException {
+        Path qualified = fs.makeQualified(dir);
+        String src = qualified.toUri().getPath();
+        DirectoryListing first = fs.getClient().listPaths(src, HdfsFileStatus.EMPTY_NAME, false);
+        if (first == null) {
+            throw new FileNotFoundException("File " + dir + " does not exist.");
+        }
+        return new RemoteIterator<FileStatus>() {
+            private DirectoryListing batch = first;
+
+            private int next;
+
+            @Override
+            public boolean hasNext() throws IOException {
+                while (next == batch.getPartialListing().length && batch.hasMore()) {
+                    DirectoryListing more =
+                        fs.getClient().listPaths(src, batch.getLastName(), false);
+                    if (more == null) {
+                        throw new FileNotFoundException("File " + dir + " does not exist.");
+                    }
+                    batch = more;
+                    next = 0;
+                }
+                return next < batch.getPartialListing().length;
+            }
+
+            @Override
+            public FileStatus next() throws IOException {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return batch.getPartialListing()[next++].makeQualified(fs.getUri(), qualified);
+            }
+        };
+    }
+
+    private static long flush(List<FileStatus> page, Consumer<List<FileStatus>> consumer) {
+        if (page.isEmpty()) {
+            return 0;
+        }
+        int size = page.size();
+        consumer.accept(page);
+        page.clear();
+        return size;
+    }
+
+    private static Stream<FileStatus> stream(Iterator<FileStatus> iterator) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+            Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Entries of one directory read on demand.
+     */
+    private static class Listing implements Iterator<FileStatus> {
+
+        private final RemoteIterator<? extends FileStatus> entries;
+
+        private final PathFilter filter;
+
+        private FileStatus next;
+
+        Listing(RemoteIterator<? extends FileStatus> entries, PathFilter filter) {
+            this.entries = entries;
+            this.filter = filter == null ? ALL : filter;
+        }
+
+        /**
+         * Reads entries up to the next accepted one.
+         */
+        boolean advance() throws IOException {
+            while (next == null && entries.hasNext()) {
+                FileStatus candidate = entries.next();
+                if (filter.accept(candidate.getPath())) {
+                    next = candidate;
+                }
+            }
+            return next != null;
+        }
+
+        FileStatus take() {
+            FileStatus taken = next;
+            next = null;
+            return taken;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                return advance();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public FileStatus next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return take();
+        }
+    }
+
+    /**
+     * Depth-first traversal keeping one open listing per level.
+     */
+    private class TreeWalk implements Iterator<FileStatus> {
+
+        private final Deque<RemoteIterator<? extends FileStatus>> levels = new ArrayDeque<>();
+
+        private final PathFilter filter;
+
+        private FileStatus next;
+
+        TreeWalk(Path root, PathFilter filter) throws IOException {
+            this.filter = filter == null ? ALL : filter;
+            levels.push(open(root));
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null && !levels.isEmpty()) {
+                    RemoteIterator<? extends FileStatus> level = levels.peek();
+                    if (!level.hasNext()) {
+                        levels.pop();
+                        continue;
+                    }
+                    FileStatus entry = level.next();
+                    if (entry.isDirectory()) {
+                        levels.push(open(entry.getPath()));
+                    }
+                    if (filter.accept(entry.getPath())) {
+                        next = entry;
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return next != null;
+        }
+
+        @Override
+        public FileStatus next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            FileStatus taken = next;
+            next = null;
+            return taken;
+        }
+    }
+
+    private class SubtreeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+
+        private final PathFilter filter;
+
+        private final Consumer<FileStatus> consumer;
+
+        private final LongAdder count;
+
+        SubtreeTask(Path dir, PathFilter filter, Consumer<FileStatus> consumer, LongAdder count) {
+            this.dir = dir;
+            this.filter = filter == null ? ALL : filter;
+            this.consumer = consumer;
+            this.count = count;
+        }
+
+        @Override
+        protected void compute() {
+            List<SubtreeTask> pending = new ArrayList<>();
+            try {
+                RemoteIterator<? extends FileStatus> entries = open(dir);
+                while (entries.hasNext()) {
+                    FileStatus entry = entries.next();
+                    if (filter.accept(entry.getPath())) {
+                        consumer.accept(entry);
+                        count.increment();
+                    }
+                    if (entry.isDirectory()) {
+                        SubtreeTask subtree =
+                            new SubtreeTask(entry.getPath(), filter, consumer, count);
+                        subtree.fork();
+                        pending.add(subtree);
+                        if (pending.size() == pageSize) {
+                            joinAll(pending);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                UncheckedIOException failure = new UncheckedIOException(e);
+                joinAll(pending, failure);
+                throw failure;
+            } catch (RuntimeException | Error e) {
+                joinAll(pending, e);
+                throw e;
+            }
+            joinAll(pending);
+        }
+
+        private void joinAll(List<SubtreeTask> pending) {
+            try {
+                pending.forEach(SubtreeTask::join);
+            } finally {
+                pending.clear();
+            }
+        }
+
+        /**
+         * Waits for subtrees forked before the failure, keeping theirs as suppressed by it.
+         */
+        private void joinAll(List<SubtreeTask> pending, Throwable failure) {
+            for (SubtreeTask subtree : pending) {
+                try {
+                    subtree.join();
+                } catch (RuntimeException | Error e) {
+                    failure.addSuppressed(e);
+                }
+            }
+            pending.clear();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+/**
+ * Metrics backend used by {@link InstrumentedFileSystem}.
+ *
+ * Handles are requested once, when the file system is created, and then updated on every
+ * operation, so implementations should keep {@link OperationMetrics} allocation free.
+ */
+public interface HdfsMetricsRegistry {
+
+    OperationMetrics operation(String operation, String user, String pathPrefix);
+
+    interface OperationMetrics {
+
+        void record(long latencyNanos, boolean failed);
+
+        void addBytes(long bytes);
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.SequenceFile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads records of completed files written by {@link HdfsRecordWriter}, in the order they were
+ * written. Codec of each file is taken from its header. Files completed after the reader was
+ * opened are not read.
+ *
+ * Values are taken with {@link SequenceFile.Reader#nextRaw}, which decompresses each of them in
+ * one call instead of field by field as {@link SequenceFile.Reader#next} does.
+ */
+public class HdfsRecordReader implements Closeable {
+
+    private final FileSystem fs;
+
+    private final Iterator<FileStatus> files;
+
+    private final DataOutputBuffer key = new DataOutputBuffer();
+
+    private final DataOutputBuffer value = new DataOutputBuffer();
+
+    private SequenceFile.ValueBytes rawValue;
+
+    private FSDataInputStream in;
+
+    private SequenceFile.Reader reader;
+
+    HdfsRecordReader(FileSystem fs, Path dir) throws IOException {
+        this.fs = fs;
+        FileStatus[] completed = fs.listStatus(dir, HdfsRecordWriter::isCompleted);
+        Arrays.sort(completed, Comparator.comparing(status -> status.getPath().getName()));
+        this.files = Arrays.asList(completed).iterator();
+    }
+
+    /**
+     * @return next record or null when all files were read
+     */
+    public byte[] next() throws IOException {
+        while (reader != null || files.hasNext()) {
+            if (reader == null) {
+                open(files.next());
+            }
+            key.reset();
+            if (reader.nextRaw(key, rawValue) >= 0) {
+                value.reset();
+                rawValue.writeUncompressedBytes(value);
+                // serialized BytesWritable: length followed by content
+                return Arrays.copyOfRange(value.getData(), Integer.BYTES, value.getLength());
+            }
+            closeFile();
+        }
+        return null;
+    }
+
+    /**
+     * Lazy stream of remaining records, closing it closes the reader. Read failures are rethrown
+     * as {@link UncheckedIOException}.
+     */
+    public Stream<byte[]> stream() {
+        Iterator<byte[]> records = new Iterator<byte[]>() {
+
+            private byte[] next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = HdfsRecordReader.this.next();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public byte[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                byte[] record = next;
+                next = null;
+                return record;
+            }
+        };
+        return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(records, Spliterator.ORDERED | Spliterator.NONNULL),
+            false)
+            .onClose(() -> {
+                try {
+                    close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (reader != null) {
+            closeFile();
+        }
+    }
+
+    private void open(FileStatus file) throws IOException {
+        in = fs.open(file.getPath());
+        try {
+            reader = new SequenceFile.Reader(fs.getConf(),
+                SequenceFile.Reader.stream(in),
+                SequenceFile.Reader.length(file.getLen()));
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            in = null;
+            throw e;
+        }
+        if (reader.getValueClass() != BytesWritable.class) {
+            closeFile();
+            throw new IOException(file.getPath() + " is not a record file");
+        }
+        rawValue = reader.createValueBytes();
+    }
+
+    private void closeFile() throws IOException {
+        try {
+            reader.close();
+        } finally {
+            reader = null;
+            in.close();
+            in = null;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends records to a directory of block compressed SequenceFiles ({@link NullWritable} keys,
+ * {@link BytesWritable} values), rolling to a new file by size or age.
+ *
+ * A file is written under a hidden name and renamed to "part-&lt;start time&gt;-..." once
+ * complete, so readers and MapReduce jobs never see it half written. Size is checked after every
+ * append; a file reaching its age is completed in background, also when the writer is idle.
+ * One writer instance is safe for concurrent use.
+ */
+public class HdfsRecordWriter implements Closeable, Flushable {
+
+    private static final Logger LOGGER = LogManager.getLogger(HdfsRecordWriter.class);
+
+    static final String FILE_PREFIX = "part-";
+
+    static final String FILE_EXTENSION = ".seq";
+
+    private static final String IN_PROGRESS_PREFIX = ".";
+
+    private static final String BLOCK_SIZE_KEY = "io.seqfile.compress.blocksize";
+
+    private static final ScheduledThreadPoolExecutor ROLL_SCHEDULER = createRollScheduler();
+
+    private final FileSystem fs;
+
+    private final Path dir;
+
+    private final Configuration conf;
+
+    private final CompressionCodec codec;
+
+    private final long rollSize;
+
+    private final long rollIntervalMs;
+
+    private final String writerId = UUID.randomUUID().toString().substring(0, 8);
+
+    private final BytesWritable value = new BytesWritable();
+
+    private int fileIndex;
+
+    private Path file;
+
+    private FSDataOutputStream out;
+
+    private SequenceFile.Writer writer;
+
+    private ScheduledFuture<?> scheduledRoll;
+
+    private long openedAt;
+
+    private long records;
+
+    private long bytes;
+
+    private long filesCompleted;
+
+    private boolean closed;
+
+    /**
+     * @param rollSize       compressed size after which a file is completed
+     * @param rollIntervalMs age after which a file is completed, 0 to roll by size only
+     */
+    HdfsRecordWriter(FileSystem fs, Path dir, RecordFormat format, long rollSize,
+                     long rollIntervalMs) {
+        Preconditions.checkArgument(rollSize > 0, "rollSize must be positive");
+        Preconditions.checkArgument(rollIntervalMs >= 0, "rollIntervalMs must not be negative");
+        this.fs = fs;
+        this.dir = dir;
+        this.conf = new Configuration(fs.getConf());
+        this.conf.setInt(BLOCK_SIZE_KEY, format.getBlockSize());
+        this.codec = format.createCodec(conf);
+        this.rollSize = rollSize;
+        this.rollIntervalMs = rollIntervalMs;
+    }
+
+    public void append(byte[] record) throws IOException {
+        append(record, 0, record.length);
+    }
+
+    public synchronized void append(byte[] record, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("Writer of " + dir + " is closed");
+        }
+        if (writer != null && rollIntervalMs > 0
+            && System.currentTimeMillis() - openedAt >= rollIntervalMs) {
+            complete();
+        }
+        if (writer == null) {
+            open();
+        }
+        value.set(record, offset, length);
+        writer.append(NullWritable.get(), value);
+        records++;
+        bytes += length;
+        if (out.getPos() >= rollSize) {
+            complete();
+        }
+    }
+
+    /**
+     * Completes current file, next record starts a new one.
+     */
+    public synchronized void roll() throws IOException {
+        if (writer != null) {
+            complete();
+        }
+    }
+
+    /**
+     * Compresses buffered records and flushes them to DataNodes, the file stays in progress.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (writer != null) {
+            writer.hflush();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            roll();
+        }
+    }
+
+    /**
+     * @return number of records appended
+     */
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    /**
+     * @return uncompressed size of appended records
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getFilesCompleted() {
+        return filesCompleted;
+    }
+
+    private static ScheduledThreadPoolExecutor createRollScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+            new ThreadFactoryBuilder()
+                .setNameFormat("hdfs-records-roll")
+                .setDaemon(true)
+                .build());
+        // files rolled by size cancel their timed roll, which should not stay queued
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    static boolean isCompleted(Path path) {
+        String name = path.getName();
+        return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_EXTENSION);
+    }
+
+    private void open() throws IOException {
+        openedAt = System.currentTimeMillis();
+        file = new Path(dir, String.format("%s%013d-%s-%05d%s",
+            FILE_PREFIX, openedAt, writerId, fileIndex++, FILE_EXTENSION));
+        out = fs.create(inProgress(file), false);
+        try {
+            writer = SequenceFile.createWriter(conf,
+                SequenceFile.Writer.stream(out),
+                SequenceFile.Writer.keyClass(NullWritable.class),
+                SequenceFile.Writer.valueClass(BytesWritable.class),
+                codec == null
+                    ? SequenceFile.Writer.compression(SequenceFile.CompressionType.NONE)
+                    : SequenceFile.Writer.compression(SequenceFile.CompressionType.BLOCK,
+                        codec));
+        } catch (IOException | RuntimeException | LinkageError e) {
+            out.close();
+            fs.delete(inProgress(file), false);
+            out = null;
+            throw e;
+        }
+        if (rollIntervalMs > 0) {
+            Path opened = file;
+            scheduledRoll = ROLL_SCHEDULER.schedule(() -> rollExpired(opened), rollIntervalMs,
+                TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void rollExpired(Path expired) {
+        if (writer == null || !expired.equals(file)) {
+            return;
+        }
+        try {
+            complete();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Cannot complete " + expired, e);
+        }
+    }
+
+    private void complete() throws IOException {
+        if (scheduledRoll != null) {
+            scheduledRoll.cancel(false);
+            scheduledRoll = null;
+        }
+        try {
+            writer.close();
+        } finally {
+            writer = null;
+            out.close();
+            out = null;
+        }
+        if (!fs.rename(inProgress(file), file)) {
+            throw new IOException("Cannot rename " + inProgress(file) + " to " + file);
+        }
+        filesCompleted++;
+        LOGGER.debug("Completed " + file);
+    }
+
+    private static Path inProgress(Path file) {
+        return new Path(file.getParent(), IN_PROGRESS_PREFIX + file.getName());
+    }
+}
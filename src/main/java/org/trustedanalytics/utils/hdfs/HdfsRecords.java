@@ -0,0 +1,234 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import com.google.common.base.Preconditions;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Record files under {@link HdfsConfig#getPath()}: opens {@link HdfsRecordWriter}s and
+ * {@link HdfsRecordReader}s for directories given relative to it.
+ *
+ * {@link #calibrate(List)} writes and reads a sample payload in every available codec and
+ * block size and returns the format with the best throughput on this file system.
+ */
+public class HdfsRecords {
+
+    private static final Logger LOGGER = LogManager.getLogger(HdfsRecords.class);
+
+    static final List<String> CALIBRATION_CODECS = Arrays.asList(
+        RecordFormat.NO_COMPRESSION, "default", "gzip", "bzip2", "snappy", "lz4");
+
+    static final List<Integer> CALIBRATION_BLOCK_SIZES = Arrays.asList(
+        64 * 1024, 256 * 1024, 1024 * 1024, 4 * 1024 * 1024);
+
+    static final long CALIBRATION_VOLUME = 8 * 1024 * 1024L;
+
+    private final HdfsConfig hdfsConfig;
+
+    private final RecordFormat format;
+
+    private final long rollSize;
+
+    private final long rollIntervalMs;
+
+    public HdfsRecords(HdfsConfig hdfsConfig, RecordFormat format, long rollSize,
+                       long rollIntervalMs) {
+        this.hdfsConfig = hdfsConfig;
+        this.format = Preconditions.checkNotNull(format);
+        this.rollSize = rollSize;
+        this.rollIntervalMs = rollIntervalMs;
+    }
+
+    public RecordFormat getFormat() {
+        return format;
+    }
+
+    public HdfsRecordWriter openWriter(String relativeDir) {
+        return openWriter(relativeDir, format);
+    }
+
+    public HdfsRecordWriter openWriter(String relativeDir, RecordFormat format) {
+        return new HdfsRecordWriter(hdfsConfig.getFileSystem(), resolve(relativeDir), format,
+            rollSize, rollIntervalMs);
+    }
+
+    public HdfsRecordReader openReader(String relativeDir) throws IOException {
+        return new HdfsRecordReader(hdfsConfig.getFileSystem(), resolve(relativeDir));
+    }
+
+    /**
+     * Measures all default codecs and block sizes, skipping codecs not available in this JVM.
+     */
+    public RecordFormat calibrate(List<byte[]> sample) throws IOException {
+        RecordFormat best = measure(sample, CALIBRATION_CODECS, CALIBRATION_BLOCK_SIZES,
+            CALIBRATION_VOLUME).get(0).getFormat();
+        LOGGER.info("Calibrated record format: " + best);
+        return best;
+    }
+
+    /**
+     * Writes sample records, repeated up to volume bytes, in every combination of given codecs
+     * and block sizes and reads them back, after a warm-up pass of an eighth of the volume.
+     *
+     * @return measurements of available formats, best throughput first
+     */
+    public List<Measurement> measure(List<byte[]> sample, Collection<String> codecs,
+                                     Collection<Integer> blockSizes, long volume)
+        throws IOException {
+        Preconditions.checkArgument(sample.stream().anyMatch(record -> record.length > 0),
+            "sample must not be empty");
+        FileSystem fs = hdfsConfig.getFileSystem();
+        Path dir = new Path(hdfsConfig.getPath(), "_calibration-" + UUID.randomUUID());
+        List<Measurement> measurements = new ArrayList<>();
+        Throwable lastFailure = null;
+        try {
+            for (String codec : codecs) {
+                for (int blockSize : blockSizes) {
+                    RecordFormat candidate = new RecordFormat(codec, blockSize);
+                    try {
+                        run(fs, new Path(dir, "warmup"), candidate, sample, volume / 8);
+                        Measurement measurement =
+                            run(fs, new Path(dir, "run"), candidate, sample, volume);
+                        LOGGER.debug(measurement);
+                        measurements.add(measurement);
+                    } catch (IOException | RuntimeException | LinkageError e) {
+                        // native codecs fail with UnsatisfiedLinkError without libhadoop
+                        LOGGER.debug("Record format " + candidate + " is not available", e);
+                        lastFailure = e;
+                    }
+                }
+            }
+        } finally {
+            fs.delete(dir, true);
+        }
+        if (measurements.isEmpty()) {
+            throw new IOException("None of the record formats could be measured", lastFailure);
+        }
+        measurements.sort(Comparator.comparingDouble(Measurement::getBytesPerSecond).reversed());
+        return measurements;
+    }
+
+    private Measurement run(FileSystem fs, Path dir, RecordFormat candidate, List<byte[]> sample,
+                            long volume) throws IOException {
+        long start = System.nanoTime();
+        HdfsRecordWriter writer = new HdfsRecordWriter(fs, dir, candidate, Long.MAX_VALUE, 0);
+        try {
+            while (writer.getBytes() < volume) {
+                for (byte[] record : sample) {
+                    writer.append(record);
+                }
+            }
+        } finally {
+            writer.close();
+        }
+        long written = System.nanoTime();
+        try (HdfsRecordReader reader = new HdfsRecordReader(fs, dir)) {
+            while (reader.next() != null) {
+                // reading is measured only
+            }
+        }
+        long read = System.nanoTime();
+
+        long stored = 0;
+        for (FileStatus file : fs.listStatus(dir)) {
+            stored += file.getLen();
+        }
+        fs.delete(dir, true);
+        return new Measurement(candidate, writer.getBytes(), stored, written - start,
+            read - written);
+    }
+
+    private Path resolve(String relativeDir) {
+        return new Path(hdfsConfig.getPath(), relativeDir);
+    }
+
+    /**
+     * Write and read throughput of a single record format.
+     */
+    public static final class Measurement {
+
+        private final RecordFormat format;
+
+        private final long bytes;
+
+        private final long storedBytes;
+
+        private final long writeNanos;
+
+        private final long readNanos;
+
+        Measurement(RecordFormat format, long bytes, long storedBytes, long writeNanos,
+                    long readNanos) {
+            this.format = format;
+            this.bytes = bytes;
+            this.storedBytes = storedBytes;
+            this.writeNanos = writeNanos;
+            this.readNanos = readNanos;
+        }
+
+        public RecordFormat getFormat() {
+            return format;
+        }
+
+        /**
+         * @return uncompressed size of written records
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return size of written files
+         */
+        public long getStoredBytes() {
+            return storedBytes;
+        }
+
+        public double getCompressionRatio() {
+            return storedBytes == 0 ? 0 : bytes / (double) storedBytes;
+        }
+
+        /**
+         * @return uncompressed bytes written and read back per second
+         */
+        public double getBytesPerSecond() {
+            return bytes * (double) TimeUnit.SECONDS.toNanos(1) / (writeNanos + readNanos);
+        }
+
+        @Override
+        public String toString() {
+            return "Measurement[format=" + format
+                + ", bytesPerSecond=" + (long) getBytesPerSecond()
+                + ", compressionRatio=" + String.format("%.2f", getCompressionRatio())
+                + ", writeMs=" + TimeUnit.NANOSECONDS.toMillis(writeNanos)
+                + ", readMs=" + TimeUnit.NANOSECONDS.toMillis(readNanos) + "]";
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing configuration swaps done by {@link RefreshableHdfsConfig}.
+ */
+public class HdfsRefreshStats {
+
+    private final AtomicLong swaps = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    private final AtomicLong forcedCloses = new AtomicLong();
+
+    private final AtomicLong maxSwapLatencyNanos = new AtomicLong();
+
+    private final AtomicLong maxInFlightAtSwap = new AtomicLong();
+
+    private volatile long lastSwapLatencyNanos;
+
+    private volatile long lastInFlightAtSwap;
+
+    private volatile long lastDrainNanos;
+
+    private volatile long lastSwapTime;
+
+    void recordSwap(long latencyNanos, long inFlight) {
+        swaps.incrementAndGet();
+        lastSwapLatencyNanos = latencyNanos;
+        maxSwapLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+        lastInFlightAtSwap = inFlight;
+        maxInFlightAtSwap.accumulateAndGet(inFlight, Math::max);
+        lastSwapTime = System.currentTimeMillis();
+    }
+
+    void recordDrain(long drainNanos, boolean forced) {
+        lastDrainNanos = drainNanos;
+        if (forced) {
+            forcedCloses.incrementAndGet();
+        }
+    }
+
+    void recordFailure() {
+        failures.incrementAndGet();
+    }
+
+    public long getSwaps() {
+        return swaps.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return number of replaced configurations closed with operations still in flight, after
+     * the drain timeout elapsed
+     */
+    public long getForcedCloses() {
+        return forcedCloses.get();
+    }
+
+    /**
+     * @return time from detecting a change to serving new configuration, in the last swap
+     */
+    public long getLastSwapLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastSwapLatencyNanos);
+    }
+
+    public long getMaxSwapLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxSwapLatencyNanos.get());
+    }
+
+    /**
+     * @return operations and open streams of the replaced configuration at the moment of the
+     * last swap
+     */
+    public long getLastInFlightAtSwap() {
+        return lastInFlightAtSwap;
+    }
+
+    public long getMaxInFlightAtSwap() {
+        return maxInFlightAtSwap.get();
+    }
+
+    public long getLastDrainMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastDrainNanos);
+    }
+
+    /**
+     * @return epoch millis of last swap, 0 if there was none yet
+     */
+    public long getLastSwapTime() {
+        return lastSwapTime;
+    }
+}
@@ -0,0 +1,535 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Plans and runs parallel reads of files under {@link HdfsConfig#getPath()}.
+ *
+ * {@link #plan(Path)} lists files with {@link FileSystem#listFiles}, which HDFS serves together
+ * with block locations in batches of {@code dfs.ls.limit} files, and cuts them into
+ * {@link ReadSplit}s along block boundaries: consecutive blocks are combined up to
+ * {@code maxSplitSize} bytes, larger blocks are cut into {@code maxSplitSize} pieces. Files and
+ * directories starting with "." or "_" are skipped, as MapReduce does. Hosts of the splits can be
+ * used to {@link #assign} them to workers running next to the DataNodes.
+ *
+ * {@link #read} reads splits in chunks of {@code chunkSize} bytes by positional reads on a pool
+ * of {@code parallelism} threads, sharing one stream per file. At most two chunks per thread are
+ * held in memory, buffers are reused.
+ */
+public class HdfsSplitPlanner implements Closeable {
+
+    private static final Logger LOGGER = LogManager.getLogger(HdfsSplitPlanner.class);
+
+    private static final int CHUNKS_PER_THREAD = 2;
+
+    /**
+     * Receives chunks of read splits.
+     */
+    @FunctionalInterface
+    public interface ChunkConsumer {
+
+        /**
+         * @param position offset of the chunk in the file
+         * @param data buffer with the chunk at offset 0, valid only until this method returns
+         */
+        void accept(ReadSplit split, long position, byte[] data, int length) throws IOException;
+    }
+
+    private final HdfsConfig config;
+
+    private final long maxSplitSize;
+
+    private final int chunkSize;
+
+    private final int chunksInFlight;
+
+    private final ExecutorService executor;
+
+    public HdfsSplitPlanner(HdfsConfig config, int parallelism, long maxSplitSize,
+                            int chunkSize) {
+        Preconditions.checkArgument(parallelism > 0, "parallelism must be positive");
+        Preconditions.checkArgument(maxSplitSize > 0, "maxSplitSize must be positive");
+        Preconditions.checkArgument(chunkSize > 0, "chunkSize must be positive");
+        this.config = config;
+        this.maxSplitSize = maxSplitSize;
+        this.chunkSize = chunkSize;
+        this.chunksInFlight = parallelism * CHUNKS_PER_THREAD;
+        this.executor = Executors.newFixedThreadPool(parallelism, new ThreadFactoryBuilder()
+            .setNameFormat("hdfs-split-%d")
+            .setDaemon(true)
+            .build());
+    }
+
+    /**
+     * Splits of all files under {@link HdfsConfig#getPath()}.
+     */
+    public List<ReadSplit> plan() throws IOException {
+        return plan(config.getPath());
+    }
+
+    /**
+     * Splits of a file, or of files in a directory tree ordered by path. Relative paths are
+     * resolved against {@link HdfsConfig#getPath()}. Empty files have no splits.
+     *
+     * @throws java.io.FileNotFoundException when path does not exist
+     */
+    public List<ReadSplit> plan(Path path) throws IOException {
+        FileSystem fs = config.getFileSystem();
+        Path root = fs.makeQualified(new Path(config.getPath(), path));
+        List<LocatedFileStatus> files = new ArrayList<>();
+        RemoteIterator<LocatedFileStatus> listing = fs.listFiles(root, true);
+        while (listing.hasNext()) {
+            LocatedFileStatus file = listing.next();
+            if (file.getLen() > 0 && !isHidden(file.getPath(), root)) {
+                files.add(file);
+            }
+        }
+        files.sort(Comparator.comparing(file -> file.getPath().toString()));
+
+        List<ReadSplit> splits = new ArrayList<>();
+        for (LocatedFileStatus file : files) {
+            split(file, splits);
+        }
+        return splits;
+    }
+
+    /**
+     * Reads splits in parallel. Ordered, chunks are passed to the consumer on the calling thread,
+     * in order of the splits and of positions within them. Unordered, they are passed as soon as
+     * they are read, concurrently from pool threads, so the consumer must be thread-safe.
+     *
+     * @return number of bytes read
+     * @throws IOException first read or consumer failure; remaining chunks are not read
+     */
+    public long read(List<ReadSplit> splits, boolean ordered, ChunkConsumer consumer)
+        throws IOException {
+        Read read = new Read(splits, consumer);
+        try {
+            if (ordered) {
+                read.ordered();
+            } else {
+                read.unordered();
+            }
+        } finally {
+            read.finish();
+        }
+        return read.bytes;
+    }
+
+    /**
+     * Assigns splits to workers by host name. First each split goes to the least loaded of the
+     * workers on its hosts that has less than an even share of all bytes, then the remaining ones
+     * go to the least loaded workers.
+     *
+     * @return splits of each worker, in planned order; workers without splits get empty lists
+     */
+    public static Map<String, List<ReadSplit>> assign(List<ReadSplit> splits,
+                                                      Collection<String> workers) {
+        Preconditions.checkArgument(!workers.isEmpty(), "workers must not be empty");
+        Map<String, List<ReadSplit>> assigned = new LinkedHashMap<>();
+        Map<String, Long> loads = new HashMap<>();
+        for (String worker : workers) {
+            assigned.put(worker, new ArrayList<>());
+            loads.put(worker, 0L);
+        }
+        long total = splits.stream().mapToLong(ReadSplit::getLength).sum();
+        long share = (total + assigned.size() - 1) / assigned.size();
+        Comparator<String> byLoad = Comparator.comparing(loads::get);
+        List<ReadSplit> largestFirst = new ArrayList<>(splits);
+        largestFirst.sort(Comparator.comparing(ReadSplit::getLength).reversed());
+        List<ReadSplit> remaining = new ArrayList<>();
+        for (ReadSplit split : largestFirst) {
+            String local = split.getHosts().stream()
+                .filter(assigned::containsKey)
+                .filter(host -> loads.get(host) < share)
+                .min(byLoad)
+                .orElse(null);
+            if (local != null) {
+                assigned.get(local).add(split);
+                loads.merge(local, split.getLength(), Long::sum);
+            } else {
+                remaining.add(split);
+            }
+        }
+        for (ReadSplit split : remaining) {
+            String least = assigned.keySet().stream().min(byLoad).get();
+            assigned.get(least).add(split);
+            loads.merge(least, split.getLength(), Long::sum);
+        }
+        Map<ReadSplit, Integer> planned = new IdentityHashMap<>();
+        for (int i = 0; i < splits.size(); i++) {
+            planned.put(splits.get(i), i);
+        }
+        assigned.values().forEach(list -> list.sort(Comparator.comparing(planned::get)));
+        return assigned;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private void split(LocatedFileStatus file, List<ReadSplit> splits) throws IOException {
+        BlockLocation[] blocks = file.getBlockLocations().clone();
+        Arrays.sort(blocks, Comparator.comparing(BlockLocation::getOffset));
+        Map<String, Long> hostBytes = new HashMap<>();
+        long start = 0;
+        long end = 0;
+        for (BlockLocation block : blocks) {
+            long blockEnd = Math.min(block.getOffset() + block.getLength(), file.getLen());
+            if (end > start && blockEnd - start > maxSplitSize) {
+                splits.add(new ReadSplit(file.getPath(), start, end - start, hosts(hostBytes)));
+                hostBytes.clear();
+                start = end;
+            }
+            if (blockEnd - block.getOffset() > maxSplitSize) {
+                List<String> hosts = Arrays.asList(block.getHosts());
+                for (long piece = block.getOffset(); piece < blockEnd; piece += maxSplitSize) {
+                    splits.add(new ReadSplit(file.getPath(), piece,
+                        Math.min(maxSplitSize, blockEnd - piece), hosts));
+                }
+                start = blockEnd;
+            } else {
+                for (String host : block.getHosts()) {
+                    hostBytes.merge(host, blockEnd - block.getOffset(), Long::sum);
+                }
+            }
+            end = blockEnd;
+        }
+        if (end > start) {
+            splits.add(new ReadSplit(file.getPath(), start, end - start, hosts(hostBytes)));
+        }
+    }
+
+    private static List<String> hosts(Map<String, Long> hostBytes) {
+        return hostBytes.entrySet().stream()
+            .sorted(Map.Entry.<String, Long>comparingByValue().reversed()
+                .thenComparing(Map.Entry.comparingByKey()))
+            .map(Map.Entry::getKey)
+            .collect(Collectors.toList());
+    }
+
+    private static boolean isHidden(Path path, Path root) {
+        for (Path p = path; p != null && !p.equals(root); p = p.getParent()) {
+            if (p.getName().startsWith(".") || p.getName().startsWith("_")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static IOException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
+    }
+
+    /**
+     * State of a single {@link #read} call.
+     */
+    private final class Read {
+
+        private final List<ReadSplit> splits;
+
+        private final ChunkConsumer consumer;
+
+        private final Map<Path, Integer> chunksPerFile = new HashMap<>();
+
+        private final Map<Path, OpenFile> files = new HashMap<>();
+
+        private final BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<>(chunksInFlight);
+
+        private final Set<Future<Chunk>> inFlight = new HashSet<>();
+
+        private volatile boolean stopped;
+
+        private int allocated;
+
+        private long bytes;
+
+        Read(List<ReadSplit> splits, ChunkConsumer consumer) {
+            this.splits = splits;
+            this.consumer = consumer;
+            for (ReadSplit split : splits) {
+                int chunks = (int) ((split.getLength() + chunkSize - 1) / chunkSize);
+                chunksPerFile.merge(split.getPath(), chunks, Integer::sum);
+            }
+        }
+
+        void ordered() throws IOException {
+            Deque<Future<Chunk>> window = new ArrayDeque<>();
+            for (ReadSplit split : splits) {
+                for (long position = split.getStart(); position < split.getEnd();
+                     position += chunkSize) {
+                    if (window.size() == chunksInFlight) {
+                        consume(await(window.poll()));
+                    }
+                    Chunk chunk = chunk(split, position);
+                    Future<Chunk> future = executor.submit(() -> run(chunk, false));
+                    inFlight.add(future);
+                    window.add(future);
+                }
+            }
+            while (!window.isEmpty()) {
+                consume(await(window.poll()));
+            }
+        }
+
+        void unordered() throws IOException {
+            CompletionService<Chunk> completion = new ExecutorCompletionService<>(executor);
+            int pending = 0;
+            for (ReadSplit split : splits) {
+                for (long position = split.getStart(); position < split.getEnd();
+                     position += chunkSize) {
+                    Future<Chunk> done;
+                    while ((done = completion.poll()) != null) {
+                        pending--;
+                        await(done);
+                    }
+                    Chunk chunk = chunk(split, position);
+                    inFlight.add(completion.submit(() -> run(chunk, true)));
+                    pending++;
+                }
+            }
+            for (; pending > 0; pending--) {
+                try {
+                    await(completion.take());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while reading splits");
+                }
+            }
+        }
+
+        /**
+         * Skips chunks not started yet and waits for running ones, so that no buffer, stream or
+         * consumer is used after return, then closes streams of files not read to the end.
+         */
+        void finish() {
+            stopped = true;
+            boolean interrupted = false;
+            for (Future<Chunk> future : inFlight) {
+                while (!future.isDone()) {
+                    try {
+                        future.get();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        break;
+                    }
+                }
+            }
+            files.values().forEach(OpenFile::close);
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private Chunk chunk(ReadSplit split, long position) throws IOException {
+            byte[] buffer = buffers.poll();
+            if (buffer == null && allocated < chunksInFlight) {
+                buffer = new byte[chunkSize];
+                allocated++;
+            }
+            if (buffer == null) {
+                try {
+                    buffer = buffers.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while reading splits");
+                }
+            }
+            OpenFile file = files.get(split.getPath());
+            if (file == null) {
+                file = new OpenFile(split.getPath(), chunksPerFile.get(split.getPath()));
+                files.put(split.getPath(), file);
+            }
+            int length = (int) Math.min(chunkSize, split.getEnd() - position);
+            return new Chunk(split, position, length, file, buffer);
+        }
+
+        /**
+         * Reads the chunk on a pool thread, unless an earlier one failed.
+         */
+        private Chunk run(Chunk chunk, boolean consume) throws IOException {
+            try {
+                if (!stopped) {
+                    chunk.read();
+                    if (consume) {
+                        consumer.accept(chunk.split, chunk.position, chunk.buffer, chunk.length);
+                    }
+                }
+                return chunk;
+            } catch (IOException | RuntimeException | Error e) {
+                stopped = true;
+                throw e;
+            } finally {
+                if (consume) {
+                    chunk.release();
+                }
+            }
+        }
+
+        private Chunk await(Future<Chunk> future) throws IOException {
+            inFlight.remove(future);
+            try {
+                Chunk chunk = future.get();
+                bytes += chunk.length;
+                return chunk;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading splits");
+            } catch (ExecutionException e) {
+                throw unwrap(e);
+            }
+        }
+
+        private void consume(Chunk chunk) throws IOException {
+            try {
+                consumer.accept(chunk.split, chunk.position, chunk.buffer, chunk.length);
+            } finally {
+                chunk.release();
+            }
+        }
+
+        /**
+         * One chunk of a split, read into a buffer borrowed from the read.
+         */
+        private final class Chunk {
+
+            private final ReadSplit split;
+
+            private final long position;
+
+            private final int length;
+
+            private final OpenFile file;
+
+            private final byte[] buffer;
+
+            Chunk(ReadSplit split, long position, int length, OpenFile file, byte[] buffer) {
+                this.split = split;
+                this.position = position;
+                this.length = length;
+                this.file = file;
+                this.buffer = buffer;
+            }
+
+            void read() throws IOException {
+                file.stream().readFully(position, buffer, 0, length);
+            }
+
+            void release() {
+                buffers.add(buffer);
+                file.chunkDone();
+            }
+        }
+    }
+
+    /**
+     * Stream of a file shared by its chunks, opened by the first one to read and closed after
+     * the last one.
+     */
+    private final class OpenFile {
+
+        private final Path path;
+
+        private final AtomicInteger remaining;
+
+        private FSDataInputStream in;
+
+        private boolean closed;
+
+        OpenFile(Path path, int chunks) {
+            this.path = path;
+            this.remaining = new AtomicInteger(chunks);
+        }
+
+        synchronized FSDataInputStream stream() throws IOException {
+            if (closed) {
+                throw new IOException(path + " is closed");
+            }
+            if (in == null) {
+                in = config.getFileSystem().open(path);
+            }
+            return in;
+        }
+
+        void chunkDone() {
+            if (remaining.decrementAndGet() == 0) {
+                close();
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    LOGGER.warn("Cannot close " + path, e);
+                }
+                in = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durations of {@link HdfsConfig} initialization phases, in order of completion.
+ */
+public class HdfsStartupMetrics {
+
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+
+    synchronized void record(String phase, long nanos) {
+        phaseNanos.put(phase, nanos);
+    }
+
+    /**
+     * @return phase name to duration in milliseconds
+     */
+    public synchronized Map<String, Long> getPhaseMillis() {
+        Map<String, Long> millis = new LinkedHashMap<>();
+        phaseNanos.forEach((phase, nanos) -> millis.put(phase, TimeUnit.NANOSECONDS.toMillis(nanos)));
+        return Collections.unmodifiableMap(millis);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "HDFS startup phases (ms): " + getPhaseMillis();
+    }
+}
@@ -0,0 +1,459 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.hadoop.fs.ChecksumFileSystem;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Options;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Copies a file or directory tree from one {@link HdfsConfig} to another, e.g. between the
+ * local profile's folder and HDFS, skipping files that did not change.
+ *
+ * Directories and files are processed by tasks of a work-stealing pool. Files larger than
+ * {@code chunkSize} are read in chunks by parallel positional reads, a few chunks ahead of the
+ * one being written. A file is unchanged when the target has the same length and modification
+ * time, or, with {@code compareChecksums}, the same checksum; file system checksums are used
+ * when both sides provide comparable ones, otherwise contents are hashed. Files are written to
+ * a {@code .partial} sibling, named after source modification time, and renamed when complete;
+ * a partial copy left by an interrupted run is continued by appending, where the target
+ * supports it. Copied files get the source modification time.
+ */
+public class HdfsSync implements Closeable {
+
+    private static final Logger LOGGER = LogManager.getLogger(HdfsSync.class);
+
+    static final String PARTIAL_SUFFIX = ".partial";
+
+    /**
+     * Chunks of one file read ahead of the chunk being written.
+     */
+    private static final int CHUNKS_IN_FLIGHT = 4;
+
+    /**
+     * Local file systems may keep modification times with one second precision.
+     */
+    private static final long MTIME_TOLERANCE_MS = 1000;
+
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    private final ForkJoinPool pool;
+
+    private final int chunkSize;
+
+    private final boolean compareChecksums;
+
+    public HdfsSync(int parallelism, int chunkSize, boolean compareChecksums) {
+        Preconditions.checkArgument(parallelism > 0, "parallelism must be positive");
+        Preconditions.checkArgument(chunkSize > 0, "chunkSize must be positive");
+        this.pool = new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread worker =
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            worker.setName("hdfs-sync-" + worker.getPoolIndex());
+            return worker;
+        }, null, false);
+        this.chunkSize = chunkSize;
+        this.compareChecksums = compareChecksums;
+    }
+
+    /**
+     * Synchronizes {@link HdfsConfig#getPath()} of source into the one of target.
+     */
+    public SyncReport sync(HdfsConfig source, HdfsConfig target) throws IOException {
+        return sync(source, source.getPath(), target, target.getPath());
+    }
+
+    /**
+     * Synchronizes a file or directory. Relative paths are resolved against
+     * {@link HdfsConfig#getPath()} of their config.
+     *
+     * @throws FileNotFoundException when source path does not exist
+     */
+    public SyncReport sync(HdfsConfig source, Path sourcePath, HdfsConfig target,
+                           Path targetPath) throws IOException {
+        long start = System.nanoTime();
+        Run run = new Run(source.getFileSystem(), target.getFileSystem());
+        FileStatus root = run.source.getFileStatus(new Path(source.getPath(), sourcePath));
+        Path to = new Path(target.getPath(), targetPath);
+        if (root.isDirectory()) {
+            pool.invoke(run.new DirectoryTask(root.getPath(), to));
+        } else {
+            run.target.mkdirs(to.getParent());
+            pool.invoke(run.new FileTask(root, to, run.listTarget(to.getParent())));
+        }
+
+        SyncReport report = new SyncReport(run.filesCopied.sum(), run.filesResumed.sum(),
+            run.filesSkipped.sum(), run.bytesCopied.sum(), run.bytesSkipped.sum(),
+            System.nanoTime() - start, new ArrayList<>(run.failedPaths));
+        LOGGER.info(report);
+        return report;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * State of a single sync call.
+     */
+    private final class Run {
+
+        private final FileSystem source;
+
+        private final FileSystem target;
+
+        /**
+         * Writes partial copies; raw local file system, as checksummed one cannot append.
+         */
+        private final FileSystem targetData;
+
+        /**
+         * Target below decorators which leave paths and content unchanged.
+         */
+        private final FileSystem targetUnwrapped;
+
+        private final LongAdder filesCopied = new LongAdder();
+
+        private final LongAdder filesResumed = new LongAdder();
+
+        private final LongAdder filesSkipped = new LongAdder();
+
+        private final LongAdder bytesCopied = new LongAdder();
+
+        private final LongAdder bytesSkipped = new LongAdder();
+
+        private final List<String> failedPaths = Collections.synchronizedList(new ArrayList<>());
+
+        Run(FileSystem source, FileSystem target) {
+            this.source = source;
+            this.target = target;
+            this.targetUnwrapped = FileSystemDecorators.unwrap(target);
+            this.targetData = targetUnwrapped instanceof ChecksumFileSystem
+                ? ((ChecksumFileSystem) targetUnwrapped).getRawFileSystem()
+                : target;
+        }
+
+        Map<String, FileStatus> listTarget(Path directory) throws IOException {
+            Map<String, FileStatus> entries = new HashMap<>();
+            try {
+                for (FileStatus status : target.listStatus(directory)) {
+                    entries.put(status.getPath().getName(), status);
+                }
+            } catch (FileNotFoundException e) {
+                // nothing synchronized yet
+            }
+            return entries;
+        }
+
+        void failed(Path path, Exception e) {
+            LOGGER.warn("Cannot synchronize " + path, e);
+            failedPaths.add(path.toString());
+        }
+
+        private final class DirectoryTask extends RecursiveAction {
+
+            private static final long serialVersionUID = 1L;
+
+            private final Path from;
+
+            private final Path to;
+
+            DirectoryTask(Path from, Path to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                FileStatus[] children;
+                Map<String, FileStatus> existing;
+                try {
+                    children = source.listStatus(from);
+                    target.mkdirs(to);
+                    existing = listTarget(to);
+                } catch (IOException | RuntimeException e) {
+                    failed(from, e);
+                    return;
+                }
+                List<ForkJoinTask<?>> tasks = new ArrayList<>(children.length);
+                for (FileStatus child : children) {
+                    Path childTarget = new Path(to, child.getPath().getName());
+                    tasks.add(child.isDirectory()
+                        ? new DirectoryTask(child.getPath(), childTarget)
+                        : new FileTask(child, childTarget, existing));
+                }
+                invokeAll(tasks);
+            }
+        }
+
+        private final class FileTask extends RecursiveAction {
+
+            private static final long serialVersionUID = 1L;
+
+            private final FileStatus from;
+
+            private final Path to;
+
+            private final Map<String, FileStatus> existing;
+
+            FileTask(FileStatus from, Path to, Map<String, FileStatus> existing) {
+                this.from = from;
+                this.to = to;
+                this.existing = existing;
+            }
+
+            @Override
+            protected void compute() {
+                try {
+                    synchronize();
+                } catch (IOException | RuntimeException e) {
+                    failed(from.getPath(), e);
+                }
+            }
+
+            private void synchronize() throws IOException {
+                String name = to.getName();
+                FileStatus current = existing.get(name);
+                if (current != null && current.isDirectory()) {
+                    throw new IOException("Target is a directory: " + to);
+                }
+                if (current != null && isUnchanged(current)) {
+                    filesSkipped.increment();
+                    bytesSkipped.add(from.getLen());
+                    return;
+                }
+
+                String partialName = name + "." + from.getModificationTime() + PARTIAL_SUFFIX;
+                Path partial = new Path(to.getParent(), partialName);
+                removeStalePartials(name, partialName);
+                FileStatus partialStatus = existing.get(partialName);
+                long offset = partialStatus != null && partialStatus.getLen() <= from.getLen()
+                    ? partialStatus.getLen()
+                    : 0;
+                dropChecksum(partial);
+                OutputStream out = offset > 0 ? append(partial) : null;
+                if (out == null) {
+                    offset = 0;
+                    out = targetData.create(partial, true);
+                }
+                try (FSDataInputStream in = source.open(from.getPath())) {
+                    copy(in, out, offset, from.getLen());
+                } finally {
+                    out.close();
+                }
+
+                replace(partial, current != null);
+                target.setTimes(to, from.getModificationTime(), -1);
+                filesCopied.increment();
+                if (offset > 0) {
+                    filesResumed.increment();
+                }
+                bytesCopied.add(from.getLen() - offset);
+            }
+
+            private boolean isUnchanged(FileStatus current) throws IOException {
+                if (current.getLen() != from.getLen()) {
+                    return false;
+                }
+                if (!compareChecksums) {
+                    return Math.abs(current.getModificationTime() - from.getModificationTime())
+                        < MTIME_TOLERANCE_MS;
+                }
+                FileChecksum sourceChecksum = source.getFileChecksum(from.getPath());
+                FileChecksum targetChecksum = target.getFileChecksum(to);
+                boolean unchanged = sourceChecksum != null && targetChecksum != null
+                    ? sourceChecksum.equals(targetChecksum)
+                    : hash(source, from.getPath()).equals(hash(target, to));
+                if (unchanged && current.getModificationTime() != from.getModificationTime()) {
+                    target.setTimes(to, from.getModificationTime(), -1);
+                }
+                return unchanged;
+            }
+
+            /**
+             * Renames partial copy to the target file, replacing the previous copy atomically
+             * where the file system supports it, so that readers never miss the file.
+             */
+            private void replace(Path partial, boolean exists) throws IOException {
+                if (exists && targetUnwrapped instanceof DistributedFileSystem) {
+                    ((DistributedFileSystem) targetUnwrapped).rename(partial, to,
+                        Options.Rename.OVERWRITE);
+                    return;
+                }
+                // local renames replace existing files, together with their checksums
+                if (exists && !(targetUnwrapped instanceof LocalFileSystem)) {
+                    target.delete(to, false);
+                }
+                if (!target.rename(partial, to)) {
+                    throw new IOException("Cannot rename " + partial + " to " + to);
+                }
+            }
+
+            private void removeStalePartials(String name, String partialName) {
+                Pattern partials = Pattern.compile(
+                    Pattern.quote(name) + "\\.-?\\d+" + Pattern.quote(PARTIAL_SUFFIX));
+                for (String entry : existing.keySet()) {
+                    if (!entry.equals(partialName) && partials.matcher(entry).matches()) {
+                        try {
+                            target.delete(new Path(to.getParent(), entry), false);
+                        } catch (IOException e) {
+                            LOGGER.warn("Cannot remove stale partial copy " + entry, e);
+                        }
+                    }
+                }
+            }
+
+            /**
+             * Partial copies are written around the checksummed file system, any checksum of
+             * theirs would be stale.
+             */
+            private void dropChecksum(Path partial) throws IOException {
+                if (targetUnwrapped instanceof ChecksumFileSystem) {
+                    targetData.delete(
+                        ((ChecksumFileSystem) targetUnwrapped).getChecksumFile(partial), false);
+                }
+            }
+
+            private OutputStream append(Path partial) {
+                try {
+                    return targetData.append(partial);
+                } catch (IOException | UnsupportedOperationException e) {
+                    LOGGER.info("Cannot resume " + partial + ", copying from start: " + e);
+                    return null;
+                }
+            }
+        }
+    }
+
+    private void copy(FSDataInputStream in, OutputStream out, long from, long length)
+        throws IOException {
+        if (length - from <= chunkSize) {
+            in.seek(from);
+            IOUtils.copyBytes(in, out, length - from, false);
+            return;
+        }
+        Deque<ChunkRead> window = new ArrayDeque<>();
+        Deque<byte[]> spare = new ArrayDeque<>();
+        long next = from;
+        try {
+            while (next < length || !window.isEmpty()) {
+                while (window.size() < CHUNKS_IN_FLIGHT && next < length) {
+                    int size = (int) Math.min(chunkSize, length - next);
+                    byte[] buffer = spare.isEmpty() ? new byte[chunkSize] : spare.pop();
+                    ChunkRead chunk = new ChunkRead(in, next, buffer, size);
+                    chunk.fork();
+                    window.add(chunk);
+                    next += size;
+                }
+                ChunkRead chunk = window.poll();
+                out.write(chunk.read(), 0, chunk.size);
+                spare.push(chunk.buffer);
+            }
+        } finally {
+            window.forEach(ChunkRead::quietlyJoin);
+        }
+    }
+
+    private static HashCode hash(FileSystem fs, Path path) throws IOException {
+        Hasher hasher = Hashing.md5().newHasher();
+        byte[] buffer = new byte[HASH_BUFFER_SIZE];
+        try (InputStream in = fs.open(path)) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                hasher.putBytes(buffer, 0, read);
+            }
+        }
+        return hasher.hash();
+    }
+
+    /**
+     * Positional read of one chunk; the stream position is not changed, so chunks of one stream
+     * can be read concurrently.
+     */
+    private static final class ChunkRead extends RecursiveTask<byte[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final FSDataInputStream in;
+
+        private final long position;
+
+        private final byte[] buffer;
+
+        private final int size;
+
+        private IOException error;
+
+        ChunkRead(FSDataInputStream in, long position, byte[] buffer, int size) {
+            this.in = in;
+            this.position = position;
+            this.buffer = buffer;
+            this.size = size;
+        }
+
+        @Override
+        protected byte[] compute() {
+            try {
+                in.readFully(position, buffer, 0, size);
+            } catch (IOException e) {
+                error = e;
+            }
+            return buffer;
+        }
+
+        byte[] read() throws IOException {
+            byte[] read = join();
+            if (error != null) {
+                throw error;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import com.google.common.base.Preconditions;
+import org.apache.hadoop.fs.Path;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-tenant views of one {@link HdfsConfig}, sharing its FileSystem.
+ *
+ * The view of a tenant is rooted at the tenant's subdirectory of {@link HdfsConfig#getPath()},
+ * which becomes its "/". Operations and bytes transferred through a view are limited by
+ * tenant's token buckets of {@code opsPerSecond} and {@code bytesPerSecond}, allowing bursts of
+ * {@code burstMs} worth of tokens; callers over quota are delayed, not rejected. Views are
+ * created once per tenant and cached.
+ */
+public class HdfsTenants {
+
+    private final HdfsConfig config;
+
+    private final long bytesPerSecond;
+
+    private final long opsPerSecond;
+
+    private final long burstMs;
+
+    private final Map<String, HdfsConfig> views = new ConcurrentHashMap<>();
+
+    private final Map<String, TenantStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * @param bytesPerSecond byte quota of each tenant, 0 for unlimited
+     * @param opsPerSecond operation quota of each tenant, 0 for unlimited
+     */
+    public HdfsTenants(HdfsConfig config, long bytesPerSecond, long opsPerSecond, long burstMs) {
+        Preconditions.checkArgument(burstMs > 0, "burstMs must be positive");
+        this.config = config;
+        this.bytesPerSecond = bytesPerSecond;
+        this.opsPerSecond = opsPerSecond;
+        this.burstMs = burstMs;
+    }
+
+    /**
+     * @param tenant name of the tenant, a single path component
+     */
+    public HdfsConfig forTenant(String tenant) {
+        Preconditions.checkArgument(tenant != null && !tenant.isEmpty()
+            && !tenant.contains(Path.SEPARATOR) && !tenant.equals(".") && !tenant.equals(".."),
+            "Invalid tenant name: %s", tenant);
+        return views.computeIfAbsent(tenant, this::createView);
+    }
+
+    public Optional<TenantStats> getStats(String tenant) {
+        return Optional.ofNullable(stats.get(tenant));
+    }
+
+    /**
+     * @return counters of tenants whose views were created, by tenant name
+     */
+    public Map<String, TenantStats> getStats() {
+        return Collections.unmodifiableMap(stats);
+    }
+
+    private HdfsConfig createView(String tenant) {
+        TenantStats tenantStats = new TenantStats();
+        TenantFileSystem fileSystem = new TenantFileSystem(config.getFileSystem(),
+            new Path(config.getPath(), tenant),
+            opsPerSecond > 0 ? new TokenBucket(opsPerSecond, burstMs) : null,
+            bytesPerSecond > 0 ? new TokenBucket(bytesPerSecond, burstMs) : null,
+            tenantStats);
+        stats.put(tenant, tenantStats);
+        return new HdfsConfig(fileSystem, config.getUser(), fileSystem.getWorkingDirectory());
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Warms up {@link HdfsConfig#getFileSystem()} once all singletons are created, so that the first
+ * real request does not pay for client setup.
+ *
+ * Creates the FileSystem (which for {@link LazyHdfsConfig} waits for the connection), opens the
+ * NameNode connection, authenticating it on Kerberos clusters, with a getFileStatus of
+ * {@link HdfsConfig#getPath()} and fetches block locations of configured hot files. Durations are
+ * recorded in {@link HdfsStartupMetrics}. Failures are logged and do not stop the application.
+ */
+public class HdfsWarmup implements SmartInitializingSingleton {
+
+    private static final Logger LOGGER = LogManager.getLogger(HdfsWarmup.class);
+
+    static final String PHASE_CONNECT = "warmup-connect";
+
+    static final String PHASE_HOT_FILES = "warmup-hot-files";
+
+    private final HdfsConfig config;
+
+    private final List<Path> hotFiles;
+
+    private final HdfsStartupMetrics startupMetrics;
+
+    private final boolean enabled;
+
+    private volatile int blocksLocated;
+
+    /**
+     * @param hotFiles files whose block locations are fetched, relative ones resolved against
+     *                 {@link HdfsConfig#getPath()}
+     */
+    public HdfsWarmup(HdfsConfig config, Collection<Path> hotFiles,
+                      HdfsStartupMetrics startupMetrics, boolean enabled) {
+        this.config = config;
+        this.hotFiles = new ArrayList<>(hotFiles);
+        this.startupMetrics = startupMetrics;
+        this.enabled = enabled;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            warmUp();
+            LOGGER.info(startupMetrics);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("HDFS warm-up failed, first requests may be slow", e);
+        }
+    }
+
+    /**
+     * Runs the warm-up regardless of configuration.
+     */
+    public void warmUp() throws IOException {
+        long start = System.nanoTime();
+        FileSystem fs = config.getFileSystem();
+        fs.getFileStatus(config.getPath());
+        startupMetrics.record(PHASE_CONNECT, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        int blocks = 0;
+        for (Path hotFile : hotFiles) {
+            Path path = hotFile.isAbsolute() ? hotFile : new Path(config.getPath(), hotFile);
+            try {
+                FileStatus status = fs.getFileStatus(path);
+                blocks += fs.getFileBlockLocations(status, 0, status.getLen()).length;
+            } catch (IOException e) {
+                LOGGER.warn("Cannot fetch block locations of hot file " + path, e);
+            }
+        }
+        blocksLocated = blocks;
+        startupMetrics.record(PHASE_HOT_FILES, System.nanoTime() - start);
+    }
+
+    /**
+     * @return number of hot file blocks located by the last warm-up
+     */
+    public int getBlocksLocated() {
+        return blocksLocated;
+    }
+}
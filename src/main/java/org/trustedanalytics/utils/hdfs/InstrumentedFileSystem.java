@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.util.Progressable;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.function.LongConsumer;
+
+/**
+ * FileSystem decorator recording latency, errors and transferred bytes of the main operations
+ * in {@link HdfsMetricsRegistry}, tagged by user and the longest path prefix matching whole path
+ * components, e.g. "/data" matches "/data/x" but not "/database".
+ *
+ * Metric handles and byte counters are resolved when the decorator is created, so recording does
+ * not allocate.
+ * Relative paths are attributed to the prefix of the working directory.
+ */
+public class InstrumentedFileSystem extends FilterFileSystem {
+
+    static final String OTHER_PREFIX = "*";
+
+    enum Operation {
+        OPEN, CREATE, APPEND, LIST_STATUS, GET_FILE_STATUS, MKDIRS, DELETE, RENAME
+    }
+
+    private final String[] prefixes;
+
+    private final HdfsMetricsRegistry.OperationMetrics[][] metrics;
+
+    private final LongConsumer[][] byteCounters;
+
+    private volatile int workingDirectoryPrefix;
+
+    public InstrumentedFileSystem(FileSystem fs, String user, String[] pathPrefixes,
+                                  HdfsMetricsRegistry registry) {
+        super(fs);
+        prefixes = pathPrefixes.clone();
+        Arrays.sort(prefixes, Comparator.comparingInt(String::length).reversed());
+
+        Operation[] operations = Operation.values();
+        metrics = new HdfsMetricsRegistry.OperationMetrics[operations.length][prefixes.length + 1];
+        byteCounters = new LongConsumer[operations.length][prefixes.length + 1];
+        for (Operation operation : operations) {
+            String name = operation.name().toLowerCase(Locale.ROOT);
+            for (int i = 0; i <= prefixes.length; i++) {
+                HdfsMetricsRegistry.OperationMetrics m = registry.operation(name, user,
+                    i < prefixes.length ? prefixes[i] : OTHER_PREFIX);
+                metrics[operation.ordinal()][i] = m;
+                byteCounters[operation.ordinal()][i] = m::addBytes;
+            }
+        }
+        workingDirectoryPrefix = prefixIndex(fs.getWorkingDirectory());
+    }
+
+    @Override
+    public void setWorkingDirectory(Path newDir) {
+        super.setWorkingDirectory(newDir);
+        workingDirectoryPrefix = prefixIndex(getWorkingDirectory());
+    }
+
+    @Override
+    public FSDataInputStream open(Path f, int bufferSize) throws IOException {
+        int prefix = prefixIndexOf(f);
+        HdfsMetricsRegistry.OperationMetrics m = metrics[Operation.OPEN.ordinal()][prefix];
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            FSDataInputStream in = ByteCountingInputStream.wrap(super.open(f, bufferSize),
+                byteCounters[Operation.OPEN.ordinal()][prefix]);
+            failed = false;
+            return in;
+        } finally {
+            m.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public FSDataOutputStream create(Path f, FsPermission permission, boolean overwrite,
+                                     int bufferSize, short replication, long blockSize,
+                                     Progressable progress) throws IOException {
+        int prefix = prefixIndexOf(f);
+        HdfsMetricsRegistry.OperationMetrics m = metrics[Operation.CREATE.ordinal()][prefix];
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            FSDataOutputStream out = ByteCountingOutputStream.wrap(super.create(f, permission,
+                overwrite, bufferSize, replication, blockSize, progress),
+                byteCounters[Operation.CREATE.ordinal()][prefix]);
+            failed = false;
+            return out;
+        } finally {
+            m.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public FSDataOutputStream append(Path f, int bufferSize, Progressable progress)
+        throws IOException {
+        int prefix = prefixIndexOf(f);
+        HdfsMetricsRegistry.OperationMetrics m = metrics[Operation.APPEND.ordinal()][prefix];
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            FSDataOutputStream out = ByteCountingOutputStream.wrap(
+                super.append(f, bufferSize, progress),
+                byteCounters[Operation.APPEND.ordinal()][prefix]);
+            failed = false;
+            return out;
+        } finally {
+            m.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public FileStatus[] listStatus(Path f) throws IOException {
+        HdfsMetricsRegistry.OperationMetrics m = metrics(Operation.LIST_STATUS, f);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            FileStatus[] statuses = super.listStatus(f);
+            failed = false;
+            return statuses;
+        } finally {
+            m.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public FileStatus getFileStatus(Path f) throws IOException {
+        HdfsMetricsRegistry.OperationMetrics m = metrics(Operation.GET_FILE_STATUS, f);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            FileStatus status = super.getFileStatus(f);
+            failed = false;
+            return status;
+        } finally {
+            m.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public boolean mkdirs(Path f, FsPermission permission) throws IOException {
+        HdfsMetricsRegistry.OperationMetrics m = metrics(Operation.MKDIRS, f);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            boolean result = super.mkdirs(f, permission);
+            failed = false;
+            return result;
+        } finally {
+            m.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public boolean delete(Path f, boolean recursive) throws IOException {
+        HdfsMetricsRegistry.OperationMetrics m = metrics(Operation.DELETE, f);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            boolean result = super.delete(f, recursive);
+            failed = false;
+            return result;
+        } finally {
+            m.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public boolean rename(Path src, Path dst) throws IOException {
+        HdfsMetricsRegistry.OperationMetrics m = metrics(Operation.RENAME, src);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            boolean result = super.rename(src, dst);
+            failed = false;
+            return result;
+        } finally {
+            m.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    private HdfsMetricsRegistry.OperationMetrics metrics(Operation operation, Path path) {
+        return metrics[operation.ordinal()][prefixIndexOf(path)];
+    }
+
+    private int prefixIndexOf(Path path) {
+        return path.isAbsolute() ? prefixIndex(path) : workingDirectoryPrefix;
+    }
+
+    private int prefixIndex(Path path) {
+        String pathString = path.toUri().getPath();
+        for (int i = 0; i < prefixes.length; i++) {
+            if (isUnder(pathString, prefixes[i])) {
+                return i;
+            }
+        }
+        return prefixes.length;
+    }
+
+    private static boolean isUnder(String path, String prefix) {
+        return path.startsWith(prefix) && (path.length() == prefix.length()
+            || prefix.endsWith("/") || path.charAt(prefix.length()) == '/');
+    }
+}
@@ -0,0 +1,482 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import com.google.common.base.Preconditions;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.security.Credentials;
+import org.apache.hadoop.security.token.Token;
+import org.apache.hadoop.security.token.TokenIdentifier;
+import org.apache.hadoop.security.token.delegation.AbstractDelegationTokenIdentifier;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * Kerberos ticket and delegation tokens of a user, shared by processes on one node through a
+ * file in {@code directory}, so that only the first of them has to contact the KDC.
+ *
+ * Each user and realm has its own file, readable by the owner only, holding the ticket-granting
+ * ticket and delegation tokens in Hadoop's token storage format. Readers and writers hold a
+ * shared or exclusive lock of a sibling lock file. Credentials expiring within
+ * {@code minRemainingMs} are not returned; delegation tokens are assumed to expire
+ * {@code tokenLifetimeMs} after they were issued, as the renewal deadline is known to the
+ * NameNode only. Files or directories accessible to other users are ignored.
+ */
+public class KerberosCredentialCache {
+
+    private static final Logger LOGGER = LogManager.getLogger(KerberosCredentialCache.class);
+
+    private static final Text TICKET_KEY = new Text("kerberos.tgt");
+
+    private static final int TICKET_FORMAT_VERSION = 1;
+
+    private static final int CCACHE_VERSION = 0x0504;
+
+    private static final Set<PosixFilePermission> OWNER_ONLY =
+        EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE);
+
+    private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY =
+        EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE,
+            PosixFilePermission.OWNER_EXECUTE);
+
+    /**
+     * File locks are held by the whole JVM, so instances of one process take turns before
+     * locking.
+     */
+    private static final Object PROCESS_LOCK = new Object();
+
+    private final Path directory;
+
+    private final long minRemainingMs;
+
+    private final long tokenLifetimeMs;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    public KerberosCredentialCache(Path directory, long minRemainingMs, long tokenLifetimeMs) {
+        Preconditions.checkArgument(minRemainingMs >= 0, "minRemainingMs must not be negative");
+        Preconditions.checkArgument(tokenLifetimeMs > 0, "tokenLifetimeMs must be positive");
+        this.directory = directory;
+        this.minRemainingMs = minRemainingMs;
+        this.tokenLifetimeMs = tokenLifetimeMs;
+    }
+
+    /**
+     * @return cached credentials valid for at least {@code minRemainingMs}, empty when there
+     *     are none or the cache cannot be read
+     */
+    public Optional<Entry> load(String user, String realm) {
+        try {
+            Optional<Entry> entry = read(user, realm).map(this::valid)
+                .filter(valid -> valid.getTicket().isPresent() || valid.hasTokens());
+            (entry.isPresent() ? hits : misses).increment();
+            return entry;
+        } catch (IOException e) {
+            LOGGER.warn("Cannot read cached Kerberos credentials of " + user, e);
+            misses.increment();
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Replaces cached ticket of the user, keeping cached delegation tokens.
+     */
+    public void storeTicket(String user, String realm, KerberosTicket ticket) {
+        update(user, realm, cached -> new Entry(ticket, cached.getTokens()));
+    }
+
+    /**
+     * Replaces cached delegation tokens of the user, keeping cached ticket.
+     */
+    public void storeTokens(String user, String realm, Credentials tokens) {
+        update(user, realm, cached -> new Entry(cached.getTicket().orElse(null), tokens));
+    }
+
+    /**
+     * Removes cached delegation tokens of the user, e.g. after they were rejected.
+     */
+    public void invalidateTokens(String user, String realm) {
+        storeTokens(user, realm, new Credentials());
+    }
+
+    public long getTokenLifetimeMs() {
+        return tokenLifetimeMs;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private void update(String user, String realm, UnaryOperator<Entry> update) {
+        try {
+            if (!prepareDirectory()) {
+                return;
+            }
+            synchronized (PROCESS_LOCK) {
+                updateLocked(user, realm, update);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Cannot cache Kerberos credentials of " + user, e);
+        }
+    }
+
+    private void updateLocked(String user, String realm, UnaryOperator<Entry> update)
+        throws IOException {
+        try (FileChannel lock = openLock(user, realm)) {
+            // released when the channel is closed
+            lock.lock();
+            Entry cached;
+            try {
+                cached = readLocked(file(user, realm)).orElse(null);
+            } catch (IOException e) {
+                LOGGER.warn("Overwriting unreadable credential cache of " + user, e);
+                cached = null;
+            }
+            write(file(user, realm),
+                update.apply(cached == null ? new Entry(null, new Credentials()) : cached));
+        }
+    }
+
+    private Optional<Entry> read(String user, String realm) throws IOException {
+        if (!Files.isDirectory(directory) || !isPrivate(directory)) {
+            return Optional.empty();
+        }
+        synchronized (PROCESS_LOCK) {
+            try (FileChannel lock = openLock(user, realm)) {
+                lock.lock(0, Long.MAX_VALUE, true);
+                return readLocked(file(user, realm));
+            }
+        }
+    }
+
+    private Optional<Entry> readLocked(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+        if (!isPrivate(file)) {
+            LOGGER.warn("Ignoring credential cache accessible to other users: " + file);
+            return Optional.empty();
+        }
+        Credentials credentials = new Credentials();
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            credentials.readTokenStorageStream(in);
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+        byte[] ticket = credentials.getSecretKey(TICKET_KEY);
+        credentials.removeSecretKey(TICKET_KEY);
+        return Optional.of(new Entry(ticket == null ? null : decodeTicket(ticket), credentials));
+    }
+
+    private void write(Path file, Entry entry) throws IOException {
+        Credentials credentials = new Credentials();
+        credentials.addAll(entry.getTokens());
+        if (entry.getTicket().isPresent()) {
+            credentials.addSecretKey(TICKET_KEY, encodeTicket(entry.getTicket().get()));
+        }
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(temporary);
+        Files.createFile(temporary, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temporary))) {
+            credentials.writeTokenStorageToStream(out);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Entry valid(Entry entry) {
+        long deadline = System.currentTimeMillis() + minRemainingMs;
+        KerberosTicket ticket = entry.getTicket()
+            .filter(t -> t.getEndTime().getTime() > deadline)
+            .orElse(null);
+        // aliases are not stored, tokens are keyed by service as FileSystem does
+        Credentials tokens = new Credentials();
+        for (Token<? extends TokenIdentifier> token : entry.getTokens().getAllTokens()) {
+            if (tokenExpiry(token) > deadline) {
+                tokens.addToken(token.getService(), token);
+            }
+        }
+        return new Entry(ticket, tokens);
+    }
+
+    private long tokenExpiry(Token<? extends TokenIdentifier> token) {
+        TokenIdentifier identifier;
+        try {
+            identifier = token.decodeIdentifier();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Cannot decode identifier of " + token.getKind() + " token", e);
+            return 0;
+        }
+        if (!(identifier instanceof AbstractDelegationTokenIdentifier)) {
+            return 0;
+        }
+        AbstractDelegationTokenIdentifier delegation =
+            (AbstractDelegationTokenIdentifier) identifier;
+        return Math.min(delegation.getMaxDate(), delegation.getIssueDate() + tokenLifetimeMs);
+    }
+
+    private boolean prepareDirectory() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            Files.createDirectories(directory,
+                PosixFilePermissions.asFileAttribute(OWNER_ONLY_DIRECTORY));
+        }
+        if (!isPrivate(directory)) {
+            LOGGER.warn("Not caching credentials in directory accessible to other users: "
+                + directory);
+            return false;
+        }
+        return true;
+    }
+
+    private FileChannel openLock(String user, String realm) throws IOException {
+        Path lock = directory.resolve(fileName(user, realm) + ".lock");
+        if (!Files.exists(lock)) {
+            try {
+                Files.createFile(lock, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+            } catch (FileAlreadyExistsException e) {
+                // created by another process meanwhile
+            }
+        }
+        return FileChannel.open(lock, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private Path file(String user, String realm) {
+        return directory.resolve(fileName(user, realm) + ".creds");
+    }
+
+    private static String fileName(String user, String realm) {
+        return fileName(user + "@" + realm);
+    }
+
+    private static String fileName(String name) {
+        return name.replaceAll("[^A-Za-z0-9._@-]", "_");
+    }
+
+    /**
+     * Owned by the current user and neither readable nor writable by others.
+     */
+    private static boolean isPrivate(Path path) throws IOException {
+        if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            return true;
+        }
+        PosixFileAttributes attributes = Files.readAttributes(path, PosixFileAttributes.class);
+        return attributes.owner().getName().equals(System.getProperty("user.name"))
+            && OWNER_ONLY_DIRECTORY.containsAll(attributes.permissions());
+    }
+
+    /**
+     * Writes ticket to a credential cache file of its client principal in {@code directory}.
+     *
+     * @return path of the written file
+     */
+    public Path writeTicketCache(KerberosTicket ticket) throws IOException {
+        Path file = directory.resolve(fileName(ticket.getClient().getName()) + ".ccache");
+        writeTicketCache(ticket, file);
+        return file;
+    }
+
+    /**
+     * Writes ticket to an MIT credential cache file (format version 4), where Hadoop and the JDK
+     * login module expect tickets of the login user.
+     */
+    public static void writeTicketCache(KerberosTicket ticket, Path file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeShort(CCACHE_VERSION);
+            out.writeShort(0);
+            writePrincipal(out, ticket.getClient(), KerberosPrincipal.KRB_NT_PRINCIPAL);
+            writePrincipal(out, ticket.getClient(), KerberosPrincipal.KRB_NT_PRINCIPAL);
+            writePrincipal(out, ticket.getServer(), KerberosPrincipal.KRB_NT_SRV_INST);
+            out.writeShort(ticket.getSessionKeyType());
+            writeBytes(out, ticket.getSessionKey().getEncoded());
+            out.writeInt(seconds(ticket.getAuthTime() == null
+                ? ticket.getStartTime() : ticket.getAuthTime()));
+            out.writeInt(seconds(ticket.getStartTime()));
+            out.writeInt(seconds(ticket.getEndTime()));
+            out.writeInt(seconds(ticket.getRenewTill()));
+            out.writeByte(0);
+            int flags = 0;
+            boolean[] ticketFlags = ticket.getFlags();
+            for (int i = 0; ticketFlags != null && i < Math.min(ticketFlags.length, 32); i++) {
+                flags |= ticketFlags[i] ? 1 << (31 - i) : 0;
+            }
+            out.writeInt(flags);
+            out.writeInt(0);
+            out.writeInt(0);
+            writeBytes(out, ticket.getEncoded());
+            writeBytes(out, new byte[0]);
+        }
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(temporary);
+        Files.createFile(temporary, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+        Files.write(temporary, bytes.toByteArray());
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writePrincipal(DataOutputStream out, KerberosPrincipal principal,
+                                       int nameType) throws IOException {
+        String name = principal.getName();
+        int at = name.lastIndexOf('@');
+        String[] components = (at < 0 ? name : name.substring(0, at)).split("/");
+        out.writeInt(nameType);
+        out.writeInt(components.length);
+        writeBytes(out, principal.getRealm().getBytes(StandardCharsets.UTF_8));
+        for (String component : components) {
+            writeBytes(out, component.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static int seconds(Date date) {
+        return date == null ? 0 : (int) (date.getTime() / 1000);
+    }
+
+    static byte[] encodeTicket(KerberosTicket ticket) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(TICKET_FORMAT_VERSION);
+            writeBytes(out, ticket.getEncoded());
+            out.writeUTF(ticket.getClient().getName());
+            out.writeUTF(ticket.getServer().getName());
+            out.writeInt(ticket.getSessionKeyType());
+            writeBytes(out, ticket.getSessionKey().getEncoded());
+            boolean[] flags = ticket.getFlags();
+            out.writeInt(flags == null ? -1 : flags.length);
+            for (int i = 0; flags != null && i < flags.length; i++) {
+                out.writeBoolean(flags[i]);
+            }
+            writeDate(out, ticket.getAuthTime());
+            writeDate(out, ticket.getStartTime());
+            writeDate(out, ticket.getEndTime());
+            writeDate(out, ticket.getRenewTill());
+        }
+        return bytes.toByteArray();
+    }
+
+    static KerberosTicket decodeTicket(byte[] encoded) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded))) {
+            int version = in.readInt();
+            if (version != TICKET_FORMAT_VERSION) {
+                throw new IOException("Unsupported cached ticket format: " + version);
+            }
+            byte[] asn1 = readBytes(in);
+            KerberosPrincipal client = new KerberosPrincipal(in.readUTF());
+            KerberosPrincipal server = new KerberosPrincipal(in.readUTF());
+            int keyType = in.readInt();
+            byte[] sessionKey = readBytes(in);
+            int flagCount = in.readInt();
+            boolean[] flags = flagCount < 0 ? null : new boolean[flagCount];
+            for (int i = 0; i < flagCount; i++) {
+                flags[i] = in.readBoolean();
+            }
+            return new KerberosTicket(asn1, client, server, sessionKey, keyType, flags,
+                readDate(in), readDate(in), readDate(in), readDate(in), null);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid cached ticket", e);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeDate(DataOutputStream out, Date date) throws IOException {
+        out.writeLong(date == null ? Long.MIN_VALUE : date.getTime());
+    }
+
+    private static Date readDate(DataInputStream in) throws IOException {
+        long time = in.readLong();
+        return time == Long.MIN_VALUE ? null : new Date(time);
+    }
+
+    /**
+     * Credentials read from the cache; ticket may be missing when only tokens are still valid.
+     */
+    public static final class Entry {
+
+        private final KerberosTicket ticket;
+
+        private final Credentials tokens;
+
+        Entry(KerberosTicket ticket, Credentials tokens) {
+            this.ticket = ticket;
+            this.tokens = tokens;
+        }
+
+        public Optional<KerberosTicket> getTicket() {
+            return Optional.ofNullable(ticket);
+        }
+
+        public Credentials getTokens() {
+            return tokens;
+        }
+
+        public boolean hasTokens() {
+            return tokens.numberOfTokens() > 0;
+        }
+
+        /**
+         * @return subject holding the ticket and its client principal
+         */
+        public Subject toSubject() {
+            Preconditions.checkState(ticket != null, "No cached ticket");
+            Subject subject = new Subject();
+            subject.getPrincipals().add(ticket.getClient());
+            subject.getPrivateCredentials().add(ticket);
+            return subject;
+        }
+    }
+}
@@ -17,7 +17,15 @@ package org.trustedanalytics.utils.hdfs;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.security.Credentials;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.security.token.Token;
+import org.apache.hadoop.security.token.TokenIdentifier;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 import org.trustedanalytics.hadoop.config.ConfigurationHelper;
@@ -25,8 +33,18 @@ import org.trustedanalytics.hadoop.config.PropertyLocator;
 import org.trustedanalytics.hadoop.kerberos.KrbLoginManager;
 import org.trustedanalytics.hadoop.kerberos.KrbLoginManagerFactory;
 
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosTicket;
 import javax.security.auth.login.LoginException;
 import java.io.IOException;
+import java.net.URI;
+import java.security.PrivilegedExceptionAction;
+import java.util.Date;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class KerberosHelper {
 
@@ -36,33 +54,313 @@ public class KerberosHelper {
 
     private static final String AUTHENTICATION_METHOD_PROPERTY = "hadoop.security.authentication";
 
+    private static final String KINIT_COMMAND_PROPERTY = "hadoop.kerberos.kinit.command";
+
+    /**
+     * Delegation tokens in use are renewed after this fraction of their remaining lifetime.
+     */
+    private static final double TOKEN_RENEWAL_FRACTION = 0.75;
+
+    private static final long TOKEN_RENEWAL_RETRY_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final ScheduledExecutorService TOKEN_RENEWAL =
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("hdfs-token-renewal")
+            .setDaemon(true)
+            .build());
+
     private final ConfigurationHelper confHelper;
 
+    private volatile KerberosCredentialCache credentialCache;
+
     public KerberosHelper(ConfigurationHelper confHelper) {
         this.confHelper = confHelper;
     }
 
+    /**
+     * Makes logins and {@link #getFileSystem(URI, Configuration, String)} reuse credentials
+     * cached by other processes on the node. Isolated logins do not use the cache.
+     */
+    public void setCredentialCache(KerberosCredentialCache credentialCache) {
+        this.credentialCache = credentialCache;
+    }
+
     public boolean isClusterIsSecuredByKerberos(org.apache.hadoop.conf.Configuration config) {
         return AUTHENTICATION_METHOD.equals(config.get(AUTHENTICATION_METHOD_PROPERTY));
     }
 
     public void login(Configuration config, String kerberosUser, String kerberosPass)
         throws IOException, LoginException {
+        loginCached(createLoginManager(), config, kerberosUser, kerberosPass);
+    }
+
+    /**
+     * Logs in and keeps the credentials fresh in background, see {@link KerberosTicketRenewer}.
+     */
+    public KerberosTicketRenewer loginWithRenewal(Configuration config, String kerberosUser,
+                                                  String kerberosPass, double renewFraction,
+                                                  double jitterFraction,
+                                                  KerberosRenewalStats stats)
+        throws IOException, LoginException {
+
+        KrbLoginManager loginManager = createLoginManager();
+        KerberosTicketRenewer.Login login =
+            () -> loginAndCache(loginManager, config, kerberosUser, kerberosPass);
+        Subject subject = loginCached(loginManager, config, kerberosUser, kerberosPass);
 
-        String kdc = confHelper.getPropertyFromEnv(PropertyLocator.KRB_KDC)
+        KerberosTicketRenewer renewer =
+            new KerberosTicketRenewer(login, renewFraction, jitterFraction, stats);
+        renewer.start(subject);
+        return renewer;
+    }
+
+    /**
+     * Logs in with KDC and realm taken from given VCAP_SERVICES document, without replacing
+     * Hadoop's process-wide login user. The returned renewer keeps refreshing tickets of one
+     * subject in place, so a UGI created from {@link KerberosTicketRenewer#getSubject()} stays
+     * valid.
+     */
+    public KerberosTicketRenewer loginIsolated(String servicesJson, Configuration config,
+                                               String kerberosUser, String kerberosPass,
+                                               double renewFraction, double jitterFraction,
+                                               KerberosRenewalStats stats)
+        throws IOException, LoginException {
+
+        KrbLoginManager loginManager = createLoginManager(
+            confHelper.getPropertyFromJson(servicesJson, PropertyLocator.KRB_KDC),
+            confHelper.getPropertyFromJson(servicesJson, PropertyLocator.KRB_REALM));
+        enableSecurity(config);
+        Subject subject = new Subject();
+        KerberosTicketRenewer.Login login = () -> {
+            checkCredentials(kerberosUser, kerberosPass);
+            Subject fresh =
+                loginManager.loginWithCredentials(kerberosUser, kerberosPass.toCharArray());
+            Set<Object> credentials = fresh.getPrivateCredentials();
+            // fresh tickets are added before stale ones are removed, so that the subject
+            // never is without a ticket
+            synchronized (subject) {
+                subject.getPrincipals().addAll(fresh.getPrincipals());
+                subject.getPrivateCredentials().addAll(credentials);
+                subject.getPrivateCredentials().removeIf(
+                    credential -> credential instanceof KerberosTicket
+                        && !credentials.contains(credential));
+            }
+            return subject;
+        };
+        login.login();
+
+        KerberosTicketRenewer renewer =
+            new KerberosTicketRenewer(login, renewFraction, jitterFraction, stats);
+        renewer.start(subject);
+        return renewer;
+    }
+
+    /**
+     * FileSystem of given user, as {@link FileSystem#get(URI, Configuration, String)}. With a
+     * credential cache on a secured cluster NameNode connections authenticate with cached
+     * delegation tokens instead of Kerberos service tickets. When there are none, or they are
+     * rejected, new tokens are fetched and cached for other processes. Tokens in use are renewed
+     * in background before they expire and replaced by new ones when renewal fails.
+     */
+    public FileSystem getFileSystem(URI uri, Configuration config, String user)
+        throws IOException, InterruptedException {
+        KerberosCredentialCache cache = credentialCache;
+        if (cache == null || !isClusterIsSecuredByKerberos(config)) {
+            return FileSystem.get(uri, config, user);
+        }
+        String realm = getRealm();
+        Credentials tokens = cache.load(user, realm)
+            .map(KerberosCredentialCache.Entry::getTokens)
+            .orElseGet(Credentials::new);
+        if (tokens.numberOfTokens() > 0) {
+            UserGroupInformation ugi = getUgi(config, user);
+            ugi.addCredentials(tokens);
+            FileSystem fs = getFileSystem(uri, config, ugi);
+            try {
+                fs.getFileStatus(new Path(Path.SEPARATOR));
+                LOGGER.info("Using cached delegation tokens of " + user);
+                TOKEN_RENEWAL.execute(() -> renewTokens(ugi, uri, config, user, realm, cache));
+                return fs;
+            } catch (IOException e) {
+                LOGGER.warn("Cached delegation tokens of " + user + " were rejected", e);
+                fs.close();
+                cache.invalidateTokens(user, realm);
+            }
+        }
+        FileSystem fs = getFileSystem(uri, config, getUgi(config, user));
+        try {
+            Credentials fetched = new Credentials();
+            fs.addDelegationTokens(user, fetched);
+            cache.storeTokens(user, realm, fetched);
+        } catch (IOException e) {
+            LOGGER.warn("Cannot fetch delegation tokens of " + user, e);
+        }
+        return fs;
+    }
+
+    /**
+     * Renews delegation tokens of given UGI and schedules the next renewal. Tokens which cannot
+     * be renewed, e.g. past their maximum lifetime, are replaced by new ones, which NameNode
+     * connections opened afterwards use.
+     */
+    private static void renewTokens(UserGroupInformation ugi, URI uri, Configuration config,
+                                    String user, String realm, KerberosCredentialCache cache) {
+        long delayMs;
+        try {
+            // a token cannot be renewed over a connection authenticated with a token
+            long expiry = getUgi(config, user).doAs((PrivilegedExceptionAction<Long>) () -> {
+                long earliest = Long.MAX_VALUE;
+                for (Token<? extends TokenIdentifier> token : ugi.getTokens()) {
+                    if (token.isManaged()) {
+                        earliest = Math.min(earliest, token.renew(config));
+                    }
+                }
+                return earliest;
+            });
+            if (expiry == Long.MAX_VALUE) {
+                return;
+            }
+            delayMs = (long) ((expiry - System.currentTimeMillis()) * TOKEN_RENEWAL_FRACTION);
+            LOGGER.debug("Renewed delegation tokens of " + user + " until " + new Date(expiry));
+        } catch (IOException | InterruptedException e) {
+            LOGGER.warn("Cannot renew delegation tokens of " + user + ", fetching new ones", e);
+            delayMs = fetchTokens(ugi, uri, config, user, realm, cache);
+        }
+        TOKEN_RENEWAL.schedule(() -> renewTokens(ugi, uri, config, user, realm, cache),
+            Math.max(delayMs, 0), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return delay of the next renewal
+     */
+    private static long fetchTokens(UserGroupInformation ugi, URI uri, Configuration config,
+                                    String user, String realm, KerberosCredentialCache cache) {
+        try {
+            Credentials fetched = getUgi(config, user).doAs(
+                (PrivilegedExceptionAction<Credentials>) () -> {
+                    try (FileSystem fs = FileSystem.newInstance(uri, config)) {
+                        Credentials credentials = new Credentials();
+                        fs.addDelegationTokens(user, credentials);
+                        return credentials;
+                    }
+                });
+            ugi.addCredentials(fetched);
+            cache.storeTokens(user, realm, fetched);
+            return (long) (cache.getTokenLifetimeMs() * TOKEN_RENEWAL_FRACTION);
+        } catch (IOException | InterruptedException e) {
+            LOGGER.warn("Cannot fetch delegation tokens of " + user, e);
+            return TOKEN_RENEWAL_RETRY_MS;
+        }
+    }
+
+    private static UserGroupInformation getUgi(Configuration config, String user)
+        throws IOException {
+        return UserGroupInformation.getBestUGI(
+            config.get(CommonConfigurationKeys.KERBEROS_TICKET_CACHE_PATH), user);
+    }
+
+    private static FileSystem getFileSystem(URI uri, Configuration config,
+                                            UserGroupInformation ugi)
+        throws IOException, InterruptedException {
+        return ugi.doAs((PrivilegedExceptionAction<FileSystem>) () -> FileSystem.get(uri, config));
+    }
+
+    /**
+     * Switches Hadoop's process-wide authentication to Kerberos, once. Isolated logins run in
+     * parallel and must not reset it for each other.
+     */
+    private static void enableSecurity(Configuration config) {
+        synchronized (KerberosHelper.class) {
+            if (!UserGroupInformation.isSecurityEnabled()) {
+                UserGroupInformation.setConfiguration(config);
+            }
+        }
+    }
+
+    private KrbLoginManager createLoginManager() throws IOException {
+        return createLoginManager(confHelper.getPropertyFromEnv(PropertyLocator.KRB_KDC),
+            confHelper.getPropertyFromEnv(PropertyLocator.KRB_REALM));
+    }
+
+    private KrbLoginManager createLoginManager(Optional<String> kdcProperty,
+                                               Optional<String> realmProperty) {
+        String kdc = kdcProperty
             .orElseThrow(() -> new IllegalStateException("KRB_KDC not found in configuration"));
-        String realm = confHelper.getPropertyFromEnv(PropertyLocator.KRB_REALM)
+        String realm = realmProperty
             .orElseThrow(() -> new IllegalStateException("KRB_REALM not found in configuration"));
+
+        LOGGER.info("Setting kerberos kdc and realm : " + kdc + ", " + realm);
+        return KrbLoginManagerFactory.getInstance().getKrbLoginManagerInstance(kdc, realm);
+    }
+
+    private Subject login(KrbLoginManager loginManager, Configuration config,
+                          String kerberosUser, String kerberosPass)
+        throws IOException, LoginException {
+        checkCredentials(kerberosUser, kerberosPass);
+
+        Subject subject = loginManager.loginWithCredentials(kerberosUser, kerberosPass.toCharArray());
+        loginManager.loginInHadoop(subject, config);
+        return subject;
+    }
+
+    /**
+     * Logs in with a ticket from the credential cache, if there is one valid long enough.
+     */
+    private Subject loginCached(KrbLoginManager loginManager, Configuration config,
+                                String kerberosUser, String kerberosPass)
+        throws IOException, LoginException {
+        KerberosCredentialCache cache = credentialCache;
+        if (cache == null) {
+            return login(loginManager, config, kerberosUser, kerberosPass);
+        }
+        Optional<KerberosCredentialCache.Entry> cached = cache.load(kerberosUser, getRealm())
+            .filter(entry -> entry.getTicket().isPresent());
+        if (!cached.isPresent()) {
+            return loginAndCache(loginManager, config, kerberosUser, kerberosPass);
+        }
+        KerberosTicket ticket = cached.get().getTicket().get();
+        LOGGER.info("Using cached Kerberos ticket of " + ticket.getClient()
+            + ", valid until " + ticket.getEndTime());
+        loginInHadoop(cache.writeTicketCache(ticket).toString(), ticket.getClient().getName(),
+            config);
+        return cached.get().toSubject();
+    }
+
+    /**
+     * As {@link KrbLoginManager#loginInHadoop(Subject, Configuration)}, but with the ticket
+     * cache file written to the private credential cache directory.
+     */
+    private static void loginInHadoop(String ticketCache, String principal,
+                                      Configuration config) throws IOException {
+        config.set(CommonConfigurationKeys.KERBEROS_TICKET_CACHE_PATH, ticketCache);
+        config.set(KINIT_COMMAND_PROPERTY, "kinit -c " + ticketCache);
+        UserGroupInformation.getUGIFromTicketCache(ticketCache, principal);
+        UserGroupInformation.setConfiguration(config);
+    }
+
+    private Subject loginAndCache(KrbLoginManager loginManager, Configuration config,
+                                  String kerberosUser, String kerberosPass)
+        throws IOException, LoginException {
+        Subject subject = login(loginManager, config, kerberosUser, kerberosPass);
+        KerberosCredentialCache cache = credentialCache;
+        if (cache != null) {
+            String realm = getRealm();
+            subject.getPrivateCredentials(KerberosTicket.class).stream()
+                .filter(ticket -> ticket.getServer().getName().startsWith("krbtgt/"))
+                .findFirst()
+                .ifPresent(ticket -> cache.storeTicket(kerberosUser, realm, ticket));
+        }
+        return subject;
+    }
+
+    private String getRealm() throws IOException {
+        return confHelper.getPropertyFromEnv(PropertyLocator.KRB_REALM).orElse("");
+    }
+
+    private static void checkCredentials(String kerberosUser, String kerberosPass) {
         Preconditions.checkArgument(!Strings.isNullOrEmpty(kerberosUser),
             "KERBEROS_USER not found in configuration");
         Preconditions.checkArgument(!Strings.isNullOrEmpty(kerberosPass),
             "KERBEROS_PASS not found in configuration");
-
-        LOGGER.info("Setting kerberos kdc and realm : " + kdc + ", " + realm);
-        KrbLoginManager loginManager = KrbLoginManagerFactory.getInstance().getKrbLoginManagerInstance(
-                kdc, realm);
-
-        loginManager.loginInHadoop(
-            loginManager.loginWithCredentials(kerberosUser, kerberosPass.toCharArray()), config);
     }
 }
@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing background Kerberos ticket renewal done by {@link KerberosTicketRenewer}.
+ */
+public class KerberosRenewalStats {
+
+    private final AtomicLong renewals = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    private final AtomicLong consecutiveFailures = new AtomicLong();
+
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    private volatile long lastLatencyNanos;
+
+    private volatile long lastRenewalTime;
+
+    private volatile long nextRenewalTime;
+
+    void recordSuccess(long latencyNanos) {
+        renewals.incrementAndGet();
+        consecutiveFailures.set(0);
+        recordLatency(latencyNanos);
+        lastRenewalTime = System.currentTimeMillis();
+    }
+
+    long recordFailure(long latencyNanos) {
+        failures.incrementAndGet();
+        recordLatency(latencyNanos);
+        return consecutiveFailures.incrementAndGet();
+    }
+
+    void setNextRenewalTime(long nextRenewalTime) {
+        this.nextRenewalTime = nextRenewalTime;
+    }
+
+    private void recordLatency(long latencyNanos) {
+        lastLatencyNanos = latencyNanos;
+        totalLatencyNanos.addAndGet(latencyNanos);
+        maxLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+    }
+
+    public long getRenewals() {
+        return renewals.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    public long getLastLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastLatencyNanos);
+    }
+
+    public long getMaxLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos.get());
+    }
+
+    public long getAverageLatencyMillis() {
+        long attempts = renewals.get() + failures.get();
+        return attempts == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalLatencyNanos.get() / attempts);
+    }
+
+    /**
+     * @return epoch millis of last successful renewal, 0 if there was none yet
+     */
+    public long getLastRenewalTime() {
+        return lastRenewalTime;
+    }
+
+    /**
+     * @return epoch millis of next scheduled renewal attempt, 0 if renewal is not scheduled
+     */
+    public long getNextRenewalTime() {
+        return nextRenewalTime;
+    }
+}
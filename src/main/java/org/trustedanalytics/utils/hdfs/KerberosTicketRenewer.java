@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosTicket;
+import javax.security.auth.login.LoginException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renews Kerberos credentials in background, before the ticket reaches configured fraction of
+ * its lifetime. Renewal runs on a dedicated thread and the renewed subject is handed over by
+ * replacing a volatile reference, so request threads never wait for the KDC.
+ */
+public class KerberosTicketRenewer implements Closeable {
+
+    private static final Logger LOGGER = LogManager.getLogger(KerberosTicketRenewer.class);
+
+    private static final String TGT_SERVER_PREFIX = "krbtgt/";
+
+    private static final long DEFAULT_LIFETIME_MS = TimeUnit.HOURS.toMillis(1);
+
+    private static final long MIN_RETRY_DELAY_MS = TimeUnit.SECONDS.toMillis(1);
+
+    private static final long MAX_RETRY_DELAY_MS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Performs full login and returns the logged in subject.
+     */
+    @FunctionalInterface
+    public interface Login {
+        Subject login() throws IOException, LoginException;
+    }
+
+    private final Login login;
+
+    private final double renewFraction;
+
+    private final double jitterFraction;
+
+    private final long minRetryDelayMs;
+
+    private final long maxRetryDelayMs;
+
+    private final KerberosRenewalStats stats;
+
+    private final ScheduledExecutorService scheduler;
+
+    private volatile Subject subject;
+
+    public KerberosTicketRenewer(Login login, double renewFraction, double jitterFraction,
+                                 KerberosRenewalStats stats) {
+        this(login, renewFraction, jitterFraction, stats, MIN_RETRY_DELAY_MS, MAX_RETRY_DELAY_MS);
+    }
+
+    @VisibleForTesting
+    KerberosTicketRenewer(Login login, double renewFraction, double jitterFraction,
+                          KerberosRenewalStats stats, long minRetryDelayMs, long maxRetryDelayMs) {
+        Preconditions.checkArgument(renewFraction > 0 && renewFraction < 1,
+            "renewFraction must be between 0 and 1");
+        Preconditions.checkArgument(jitterFraction >= 0 && jitterFraction < renewFraction,
+            "jitterFraction must be between 0 and renewFraction");
+        Preconditions.checkArgument(renewFraction + jitterFraction < 1,
+            "renewFraction + jitterFraction must be below 1, renewal would follow expiry");
+        this.login = login;
+        this.renewFraction = renewFraction;
+        this.jitterFraction = jitterFraction;
+        this.stats = stats;
+        this.minRetryDelayMs = minRetryDelayMs;
+        this.maxRetryDelayMs = maxRetryDelayMs;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("kerberos-ticket-renewer")
+            .setDaemon(true)
+            .build());
+    }
+
+    /**
+     * Starts renewal cycle for a subject that has been just logged in.
+     */
+    public void start(Subject initial) {
+        subject = initial;
+        scheduleRenewal(initial);
+    }
+
+    public Subject getSubject() {
+        return subject;
+    }
+
+    public KerberosRenewalStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        stats.setNextRenewalTime(0);
+    }
+
+    private void renew() {
+        long start = System.nanoTime();
+        try {
+            Subject renewed = login.login();
+            long latency = System.nanoTime() - start;
+            subject = renewed;
+            // counted once the next renewal is known, so stats are consistent when observed
+            scheduleRenewal(renewed);
+            stats.recordSuccess(latency);
+            LOGGER.info("Kerberos credentials renewed in " + stats.getLastLatencyMillis() + " ms");
+        } catch (IOException | LoginException | RuntimeException e) {
+            long failures = stats.recordFailure(System.nanoTime() - start);
+            long delay = Math.min(maxRetryDelayMs, minRetryDelayMs << Math.min(failures - 1, 20));
+            LOGGER.warn("Kerberos credentials renewal failed (attempt " + failures
+                + "), retrying in " + delay + " ms", e);
+            schedule(delay);
+        }
+    }
+
+    private void scheduleRenewal(Subject renewed) {
+        long now = System.currentTimeMillis();
+        KerberosTicket ticket = findTicket(renewed);
+        long startTime = ticket == null ? now : ticket.getStartTime().getTime();
+        long lifetime = ticket == null
+            ? DEFAULT_LIFETIME_MS
+            : ticket.getEndTime().getTime() - startTime;
+        double jitter = jitterFraction * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        long renewAt = startTime + (long) (lifetime * (renewFraction + jitter));
+        schedule(Math.max(0, renewAt - now));
+    }
+
+    private void schedule(long delayMs) {
+        try {
+            scheduler.schedule(this::renew, delayMs, TimeUnit.MILLISECONDS);
+            stats.setNextRenewalTime(System.currentTimeMillis() + delayMs);
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Renewer closed, renewal not scheduled");
+        }
+    }
+
+    private static KerberosTicket findTicket(Subject subject) {
+        if (subject == null) {
+            return null;
+        }
+        Set<KerberosTicket> tickets = subject.getPrivateCredentials(KerberosTicket.class);
+        KerberosTicket any = null;
+        for (KerberosTicket ticket : tickets) {
+            if (ticket.getEndTime() == null || ticket.getStartTime() == null) {
+                continue;
+            }
+            if (ticket.getServer().getName().startsWith(TGT_SERVER_PREFIX)) {
+                return ticket;
+            }
+            any = ticket;
+        }
+        return any;
+    }
+}
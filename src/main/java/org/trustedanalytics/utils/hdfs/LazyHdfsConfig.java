@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import com.google.common.base.Throwables;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * HdfsConfig initialized in background. Accessors block until initialization is finished and
+ * rethrow its failure, if any.
+ */
+public class LazyHdfsConfig extends HdfsConfig {
+
+    private final CompletableFuture<HdfsConfig> delegate;
+
+    public LazyHdfsConfig(CompletableFuture<HdfsConfig> delegate) {
+        this.delegate = delegate;
+    }
+
+    public boolean isInitialized() {
+        return delegate.isDone() && !delegate.isCompletedExceptionally();
+    }
+
+    @Override
+    public Configuration getConfiguration() {
+        return resolve().getConfiguration();
+    }
+
+    @Override
+    public FileSystem getFileSystem() {
+        return resolve().getFileSystem();
+    }
+
+    @Override
+    public String getUser() {
+        return resolve().getUser();
+    }
+
+    @Override
+    public Path getPath() {
+        return resolve().getPath();
+    }
+
+    private HdfsConfig resolve() {
+        try {
+            return delegate.join();
+        } catch (CompletionException e) {
+            Throwables.propagateIfPossible(e.getCause());
+            throw new IllegalStateException("HDFS configuration failed", e.getCause());
+        }
+    }
+}
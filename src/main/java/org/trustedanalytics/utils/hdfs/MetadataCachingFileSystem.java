@@ -0,0 +1,352 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.apache.hadoop.fs.CreateFlag;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Options;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.util.Progressable;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FileSystem decorator caching results of getFileStatus (including missing files, so exists
+ * is cached too) and listStatus. Entries expire after TTL and are evicted in LRU order when
+ * the cache is full.
+ *
+ * Writes, deletes and renames done through this instance invalidate affected entries, including
+ * missing ancestors a create, mkdirs or rename creates implicitly. A result
+ * is cached only if its entry was not invalidated while it was loaded, so results overlapping a
+ * change are not cached and changes of other paths do not prevent caching. Changes made by other
+ * clients become visible after TTL, unless strict mode is on, in which case the cache is
+ * bypassed.
+ */
+public class MetadataCachingFileSystem extends FilterFileSystem {
+
+    private final Cache<Path, Entry<Optional<FileStatus>>> statuses;
+
+    private final Cache<Path, Entry<FileStatus[]>> listings;
+
+    private volatile boolean strict;
+
+    public MetadataCachingFileSystem(FileSystem fs, long maxEntries, long ttlMs, boolean strict) {
+        super(fs);
+        this.strict = strict;
+        this.statuses = CacheBuilder.newBuilder()
+            .maximumSize(maxEntries)
+            .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+            .recordStats()
+            .build();
+        this.listings = CacheBuilder.newBuilder()
+            .maximumSize(maxEntries)
+            .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+            .recordStats()
+            .build();
+    }
+
+    public boolean isStrict() {
+        return strict;
+    }
+
+    public void setStrict(boolean strict) {
+        this.strict = strict;
+    }
+
+    public CacheStats getStatusStats() {
+        return statuses.stats();
+    }
+
+    public CacheStats getListingStats() {
+        return listings.stats();
+    }
+
+    public void invalidateAll() {
+        statuses.invalidateAll();
+        listings.invalidateAll();
+    }
+
+    @Override
+    public FileStatus getFileStatus(Path f) throws IOException {
+        if (strict) {
+            return super.getFileStatus(f);
+        }
+        Optional<FileStatus> status = cached(statuses, makeQualified(f), () -> {
+            try {
+                return Optional.of(super.getFileStatus(f));
+            } catch (FileNotFoundException e) {
+                return Optional.empty();
+            }
+        });
+        if (!status.isPresent()) {
+            throw new FileNotFoundException("File " + f + " does not exist");
+        }
+        return status.get();
+    }
+
+    @Override
+    public FileStatus[] listStatus(Path f) throws IOException {
+        if (strict) {
+            return super.listStatus(f);
+        }
+        return cached(listings, makeQualified(f), () -> super.listStatus(f)).clone();
+    }
+
+    @Override
+    public FSDataOutputStream create(Path f, FsPermission permission, boolean overwrite,
+                                     int bufferSize, short replication, long blockSize,
+                                     Progressable progress) throws IOException {
+        Path key = makeQualified(f);
+        invalidate(key);
+        FSDataOutputStream out = super.create(f, permission, overwrite, bufferSize, replication,
+            blockSize, progress);
+        invalidateAncestors(key);
+        return invalidatingOnClose(key, out);
+    }
+
+    @Override
+    public FSDataOutputStream create(Path f, FsPermission permission, EnumSet<CreateFlag> flags,
+                                     int bufferSize, short replication, long blockSize,
+                                     Progressable progress, Options.ChecksumOpt checksumOpt)
+        throws IOException {
+        Path key = makeQualified(f);
+        invalidate(key);
+        FSDataOutputStream out = super.create(f, permission, flags, bufferSize, replication,
+            blockSize, progress, checksumOpt);
+        invalidateAncestors(key);
+        return invalidatingOnClose(key, out);
+    }
+
+    @Override
+    @Deprecated
+    public FSDataOutputStream createNonRecursive(Path f, FsPermission permission,
+                                                 EnumSet<CreateFlag> flags, int bufferSize,
+                                                 short replication, long blockSize,
+                                                 Progressable progress) throws IOException {
+        Path key = makeQualified(f);
+        invalidate(key);
+        return invalidatingOnClose(key, super.createNonRecursive(f, permission, flags,
+            bufferSize, replication, blockSize, progress));
+    }
+
+    @Override
+    public FSDataOutputStream append(Path f, int bufferSize, Progressable progress)
+        throws IOException {
+        Path key = makeQualified(f);
+        invalidate(key);
+        return invalidatingOnClose(key, super.append(f, bufferSize, progress));
+    }
+
+    @Override
+    public boolean mkdirs(Path f, FsPermission permission) throws IOException {
+        try {
+            return super.mkdirs(f, permission);
+        } finally {
+            invalidateTree(makeQualified(f));
+            invalidateAncestors(makeQualified(f));
+        }
+    }
+
+    @Override
+    public boolean delete(Path f, boolean recursive) throws IOException {
+        try {
+            return super.delete(f, recursive);
+        } finally {
+            invalidateTree(makeQualified(f));
+        }
+    }
+
+    @Override
+    public boolean rename(Path src, Path dst) throws IOException {
+        try {
+            return super.rename(src, dst);
+        } finally {
+            invalidateTree(makeQualified(src));
+            invalidateTree(makeQualified(dst));
+            invalidateAncestors(makeQualified(dst));
+        }
+    }
+
+    @Override
+    public void concat(Path trg, Path[] psrcs) throws IOException {
+        try {
+            super.concat(trg, psrcs);
+        } finally {
+            invalidate(makeQualified(trg));
+            for (Path src : psrcs) {
+                invalidate(makeQualified(src));
+            }
+        }
+    }
+
+    @Override
+    public void createSymlink(Path target, Path link, boolean createParent) throws IOException {
+        try {
+            super.createSymlink(target, link, createParent);
+        } finally {
+            invalidate(makeQualified(link));
+        }
+    }
+
+    @Override
+    public void setPermission(Path p, FsPermission permission) throws IOException {
+        try {
+            super.setPermission(p, permission);
+        } finally {
+            invalidate(makeQualified(p));
+        }
+    }
+
+    @Override
+    public void setOwner(Path p, String username, String groupname) throws IOException {
+        try {
+            super.setOwner(p, username, groupname);
+        } finally {
+            invalidate(makeQualified(p));
+        }
+    }
+
+    @Override
+    public void setTimes(Path p, long mtime, long atime) throws IOException {
+        try {
+            super.setTimes(p, mtime, atime);
+        } finally {
+            invalidate(makeQualified(p));
+        }
+    }
+
+    @Override
+    public boolean setReplication(Path src, short replication) throws IOException {
+        try {
+            return super.setReplication(src, replication);
+        } finally {
+            invalidate(makeQualified(src));
+        }
+    }
+
+    private FSDataOutputStream invalidatingOnClose(Path key, FSDataOutputStream out)
+        throws IOException {
+        return new FSDataOutputStream(out, null, out.getPos()) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    invalidate(key);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns cached value or loads it. A marker entry is put before loading and replaced by the
+     * result only if it is still there, i.e. the path was not invalidated in the meantime.
+     */
+    private static <T> T cached(Cache<Path, Entry<T>> cache, Path key, Loader<T> loader)
+        throws IOException {
+        Entry<T> entry = cache.getIfPresent(key);
+        if (entry != null && entry.isLoaded()) {
+            return entry.value;
+        }
+        if (entry == null) {
+            entry = new Entry<>(null);
+            Entry<T> raced = cache.asMap().putIfAbsent(key, entry);
+            if (raced != null) {
+                if (raced.isLoaded()) {
+                    return raced.value;
+                }
+                entry = raced;
+            }
+        }
+        T value;
+        try {
+            value = loader.load();
+        } catch (IOException | RuntimeException e) {
+            cache.asMap().remove(key, entry);
+            throw e;
+        }
+        cache.asMap().replace(key, entry, new Entry<>(value));
+        return value;
+    }
+
+    private void invalidate(Path path) {
+        statuses.invalidate(path);
+        listings.invalidate(path);
+        if (path.getParent() != null) {
+            listings.invalidate(path.getParent());
+        }
+    }
+
+    /**
+     * Invalidates ancestors of path, which may have been created together with it, up to the
+     * first one cached as existing.
+     */
+    private void invalidateAncestors(Path path) {
+        for (Path dir = path.getParent(); dir != null; dir = dir.getParent()) {
+            Entry<Optional<FileStatus>> entry = statuses.getIfPresent(dir);
+            if (entry != null && entry.isLoaded() && entry.value.isPresent()) {
+                return;
+            }
+            invalidate(dir);
+        }
+    }
+
+    /**
+     * Invalidates path, all entries under it and listing of its parent.
+     */
+    private void invalidateTree(Path root) {
+        if (root.getParent() == null) {
+            invalidateAll();
+            return;
+        }
+        invalidate(root);
+        String prefix = root.toString() + Path.SEPARATOR;
+        statuses.asMap().keySet().removeIf(path -> path.toString().startsWith(prefix));
+        listings.asMap().keySet().removeIf(path -> path.toString().startsWith(prefix));
+    }
+
+    @FunctionalInterface
+    private interface Loader<T> {
+        T load() throws IOException;
+    }
+
+    /**
+     * Cached value, or a marker of a load in progress when null. Compared by identity.
+     */
+    private static final class Entry<T> {
+
+        private final T value;
+
+        Entry(T value) {
+            this.value = value;
+        }
+
+        boolean isLoaded() {
+            return value != null;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import com.google.common.base.Preconditions;
+import org.apache.hadoop.fs.Path;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Byte range of one file planned by {@link HdfsSplitPlanner}, with hosts storing its blocks,
+ * those holding most of its bytes first.
+ */
+public class ReadSplit {
+
+    private final Path path;
+
+    private final long start;
+
+    private final long length;
+
+    private final List<String> hosts;
+
+    public ReadSplit(Path path, long start, long length, List<String> hosts) {
+        Preconditions.checkArgument(start >= 0, "start must not be negative");
+        Preconditions.checkArgument(length > 0, "length must be positive");
+        this.path = Preconditions.checkNotNull(path);
+        this.start = start;
+        this.length = length;
+        this.hosts = Collections.unmodifiableList(hosts);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return offset of the first byte after this split
+     */
+    public long getEnd() {
+        return start + length;
+    }
+
+    public List<String> getHosts() {
+        return hosts;
+    }
+
+    public boolean isLocalTo(String host) {
+        return hosts.contains(host);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ReadSplit)) {
+            return false;
+        }
+        ReadSplit other = (ReadSplit) o;
+        return path.equals(other.path) && start == other.start && length == other.length
+            && hosts.equals(other.hosts);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(path, start, length, hosts);
+    }
+
+    @Override
+    public String toString() {
+        return path + ":" + start + "+" + length + " " + hosts;
+    }
+}
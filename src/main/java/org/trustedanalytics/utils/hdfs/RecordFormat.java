@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import com.google.common.base.Preconditions;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+
+import java.util.Objects;
+
+/**
+ * Compression codec and block size of files written by {@link HdfsRecordWriter}.
+ *
+ * Codec is given by a name understood by {@link CompressionCodecFactory} ("default", "gzip",
+ * "bzip2", "snappy", "lz4", or a class name) or {@link #NO_COMPRESSION}. Records are buffered
+ * until blockSize bytes are collected and each block is compressed as a whole.
+ */
+public final class RecordFormat {
+
+    public static final String NO_COMPRESSION = "none";
+
+    private final String codec;
+
+    private final int blockSize;
+
+    public RecordFormat(String codec, int blockSize) {
+        Preconditions.checkArgument(blockSize > 0, "blockSize must be positive");
+        this.codec = Preconditions.checkNotNull(codec);
+        this.blockSize = blockSize;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public boolean isCompressed() {
+        return !NO_COMPRESSION.equals(codec);
+    }
+
+    CompressionCodec createCodec(Configuration conf) {
+        if (!isCompressed()) {
+            return null;
+        }
+        CompressionCodec compressionCodec =
+            new CompressionCodecFactory(conf).getCodecByName(codec);
+        if (compressionCodec == null) {
+            throw new IllegalArgumentException("Unknown compression codec: " + codec);
+        }
+        return compressionCodec;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RecordFormat)) {
+            return false;
+        }
+        RecordFormat other = (RecordFormat) o;
+        return codec.equals(other.codec) && blockSize == other.blockSize;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(codec, blockSize);
+    }
+
+    @Override
+    public String toString() {
+        return codec + "/" + blockSize;
+    }
+}
@@ -0,0 +1,904 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.Closer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.CreateFlag;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.FsServerDefaults;
+import org.apache.hadoop.fs.FsStatus;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Options;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.fs.XAttrSetFlag;
+import org.apache.hadoop.fs.permission.AclEntry;
+import org.apache.hadoop.fs.permission.AclStatus;
+import org.apache.hadoop.fs.permission.FsAction;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.security.token.Token;
+import org.apache.hadoop.util.Progressable;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * HdfsConfig rebuilt in background when its source changes.
+ *
+ * The source is polled periodically. When its snapshot differs from the one the current
+ * configuration was built from, a new configuration is built off the calling threads and
+ * published with a single reference swap. {@link #getFileSystem()} returns a stable FileSystem
+ * that routes every call, and every stream and listing it opens, to the configuration current
+ * at that moment, so callers never block on a swap. A working directory set on it is carried
+ * over to every later configuration. The replaced configuration is closed once its in-flight
+ * operations and open streams are done, or after the drain timeout.
+ */
+public class RefreshableHdfsConfig extends HdfsConfig implements Closeable {
+
+    private static final Logger LOGGER = LogManager.getLogger(RefreshableHdfsConfig.class);
+
+    private static final long DRAIN_POLL_MS = 10;
+
+    /**
+     * Watched state, for example VCAP_SERVICES document. Reading it should be cheap, it is
+     * compared with the previous snapshot on every poll.
+     */
+    @FunctionalInterface
+    public interface Source {
+        String snapshot() throws IOException;
+    }
+
+    /**
+     * Builds configuration for given snapshot, with the login user it was opened as, if any.
+     * Resources to release together with this configuration, besides its FileSystem, are
+     * registered in given closer.
+     */
+    @FunctionalInterface
+    public interface Builder {
+        HdfsConfigRegistry.Instance build(String snapshot, Closer closer) throws Exception;
+    }
+
+    private final Source source;
+
+    private final Builder builder;
+
+    private final long drainTimeoutMs;
+
+    private final HdfsRefreshStats stats;
+
+    private final AtomicReference<Generation> current;
+
+    private final RoutingFileSystem fileSystem;
+
+    private final ScheduledExecutorService watcher;
+
+    private final List<Runnable> swapListeners = new CopyOnWriteArrayList<>();
+
+    private boolean closed;
+
+    public RefreshableHdfsConfig(Source source, Builder builder, long intervalMs,
+                                 long drainTimeoutMs, HdfsRefreshStats stats) throws Exception {
+        Preconditions.checkArgument(intervalMs > 0, "intervalMs must be positive");
+        Preconditions.checkArgument(drainTimeoutMs >= 0, "drainTimeoutMs must not be negative");
+        this.source = source;
+        this.builder = builder;
+        this.drainTimeoutMs = drainTimeoutMs;
+        this.stats = stats;
+
+        Generation initial = build(1, source.snapshot());
+        this.current = new AtomicReference<>(initial);
+        this.fileSystem = new RoutingFileSystem(initial.getFileSystem());
+
+        this.watcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("hdfs-config-refresh")
+            .setDaemon(true)
+            .build());
+        watcher.scheduleWithFixedDelay(this::refreshQuietly, intervalMs, intervalMs,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Source reading whole content of given file.
+     */
+    public static Source fileSource(java.nio.file.Path file) {
+        return () -> new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Configuration getConfiguration() {
+        return current.get().instance.getConfig().getConfiguration();
+    }
+
+    /**
+     * FileSystem following configuration swaps. Closing it has no effect, underlying instances
+     * are closed when they are replaced or when this config is closed.
+     */
+    @Override
+    public FileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    @Override
+    public String getUser() {
+        return current.get().instance.getConfig().getUser();
+    }
+
+    @Override
+    public Path getPath() {
+        return current.get().instance.getConfig().getPath();
+    }
+
+    /**
+     * @return user the current configuration logged in as, null when it uses the process-wide
+     * login
+     */
+    public UserGroupInformation getLoginUser() {
+        return current.get().instance.getLoginUser();
+    }
+
+    /**
+     * Registers listener called after each swap, on the refreshing thread, so that state
+     * derived from the replaced configuration can be dropped.
+     */
+    public void addSwapListener(Runnable listener) {
+        swapListeners.add(Preconditions.checkNotNull(listener));
+    }
+
+    public long getGeneration() {
+        return current.get().number;
+    }
+
+    /**
+     * @return operations and open streams of the current configuration
+     */
+    public long getInFlight() {
+        return current.get().inFlight.get();
+    }
+
+    public HdfsRefreshStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Checks the source now and swaps configuration if it changed. Returns after the replaced
+     * configuration has been drained and closed. The drain does not block other refreshes.
+     *
+     * @return true if configuration has been replaced
+     */
+    public boolean refresh() throws Exception {
+        Generation previous;
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            previous = current.get();
+            String snapshot = source.snapshot();
+            if (snapshot.equals(previous.snapshot)) {
+                return false;
+            }
+            long start = System.nanoTime();
+            Generation next;
+            try {
+                next = build(previous.number + 1, snapshot);
+            } catch (Exception e) {
+                stats.recordFailure();
+                throw e;
+            }
+            Path workingDirectory = fileSystem.workingDirectory;
+            if (workingDirectory != null) {
+                next.getFileSystem().setWorkingDirectory(workingDirectory);
+            }
+            current.set(next);
+            stats.recordSwap(System.nanoTime() - start, previous.inFlight.get());
+            LOGGER.info("HDFS configuration replaced with generation " + next.number);
+        }
+        for (Runnable listener : swapListeners) {
+            try {
+                listener.run();
+            } catch (RuntimeException e) {
+                LOGGER.warn("HDFS configuration swap listener failed", e);
+            }
+        }
+        drainAndClose(previous);
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watcher.shutdownNow();
+        synchronized (this) {
+            closed = true;
+            current.get().closer.close();
+        }
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            LOGGER.error("Cannot refresh HDFS configuration, keeping the current one", e);
+        }
+    }
+
+    private Generation build(long number, String snapshot) throws Exception {
+        Closer closer = Closer.create();
+        try {
+            HdfsConfigRegistry.Instance instance = builder.build(snapshot, closer);
+            closer.register(instance.getConfig().getFileSystem());
+            return new Generation(number, snapshot, instance, closer);
+        } catch (Exception e) {
+            closer.close();
+            throw e;
+        }
+    }
+
+    private void drainAndClose(Generation previous) {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(drainTimeoutMs);
+        try {
+            while (previous.inFlight.get() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(DRAIN_POLL_MS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long remaining = previous.inFlight.get();
+        stats.recordDrain(System.nanoTime() - start, remaining > 0);
+        if (remaining > 0) {
+            LOGGER.warn("Closing HDFS configuration generation " + previous.number + " with "
+                + remaining + " operations in flight");
+        }
+        try {
+            previous.closer.close();
+        } catch (IOException e) {
+            LOGGER.warn("Cannot close HDFS configuration generation " + previous.number, e);
+        }
+    }
+
+    /**
+     * Pins the current generation for one operation. A generation replaced concurrently is
+     * released and the lookup repeated, so nothing is started on a generation being drained.
+     */
+    private Generation acquire() {
+        while (true) {
+            Generation generation = current.get();
+            generation.inFlight.incrementAndGet();
+            if (current.get() == generation) {
+                return generation;
+            }
+            generation.inFlight.decrementAndGet();
+        }
+    }
+
+    private static final class Generation {
+
+        private final long number;
+
+        private final String snapshot;
+
+        private final HdfsConfigRegistry.Instance instance;
+
+        private final Closer closer;
+
+        private final AtomicLong inFlight = new AtomicLong();
+
+        Generation(long number, String snapshot, HdfsConfigRegistry.Instance instance,
+                   Closer closer) {
+            this.number = number;
+            this.snapshot = snapshot;
+            this.instance = instance;
+            this.closer = closer;
+        }
+
+        FileSystem getFileSystem() {
+            return instance.getConfig().getFileSystem();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Call<T> {
+        T run(FileSystem target) throws IOException;
+    }
+
+    /**
+     * Every operation is routed to the FileSystem of a pinned generation, the one inherited
+     * from FilterFileSystem is never used. Streams and listing iterators keep their generation
+     * pinned until closed or exhausted; an iterator abandoned earlier holds it until the drain
+     * timeout.
+     */
+    private final class RoutingFileSystem extends FilterFileSystem {
+
+        /**
+         * Working directory set by the caller, null while the configuration's default is used.
+         */
+        private volatile Path workingDirectory;
+
+        RoutingFileSystem(FileSystem initial) {
+            super(initial);
+        }
+
+        /**
+         * @return FileSystem of the current configuration
+         */
+        @Override
+        public FileSystem getRawFileSystem() {
+            return current.get().getFileSystem();
+        }
+
+        @Override
+        public Configuration getConf() {
+            return getRawFileSystem().getConf();
+        }
+
+        @Override
+        public URI getUri() {
+            return getRawFileSystem().getUri();
+        }
+
+        @Override
+        public Path makeQualified(Path path) {
+            return getRawFileSystem().makeQualified(path);
+        }
+
+        @Override
+        public Path getHomeDirectory() {
+            return getRawFileSystem().getHomeDirectory();
+        }
+
+        @Override
+        public Path getWorkingDirectory() {
+            return getRawFileSystem().getWorkingDirectory();
+        }
+
+        @Override
+        public void setWorkingDirectory(Path dir) {
+            synchronized (RefreshableHdfsConfig.this) {
+                FileSystem target = getRawFileSystem();
+                target.setWorkingDirectory(dir);
+                workingDirectory = target.getWorkingDirectory();
+            }
+        }
+
+        @Override
+        public void setVerifyChecksum(boolean verifyChecksum) {
+            getRawFileSystem().setVerifyChecksum(verifyChecksum);
+        }
+
+        @Override
+        public void setWriteChecksum(boolean writeChecksum) {
+            getRawFileSystem().setWriteChecksum(writeChecksum);
+        }
+
+        @Override
+        @Deprecated
+        public long getDefaultBlockSize() {
+            return getRawFileSystem().getDefaultBlockSize();
+        }
+
+        @Override
+        @Deprecated
+        public short getDefaultReplication() {
+            return getRawFileSystem().getDefaultReplication();
+        }
+
+        @Override
+        public long getDefaultBlockSize(Path f) {
+            return getRawFileSystem().getDefaultBlockSize(f);
+        }
+
+        @Override
+        public short getDefaultReplication(Path f) {
+            return getRawFileSystem().getDefaultReplication(f);
+        }
+
+        @Override
+        public boolean supportsSymlinks() {
+            return getRawFileSystem().supportsSymlinks();
+        }
+
+        @Override
+        public FileSystem[] getChildFileSystems() {
+            return getRawFileSystem().getChildFileSystems();
+        }
+
+        @Override
+        public String getCanonicalServiceName() {
+            return getRawFileSystem().getCanonicalServiceName();
+        }
+
+        @Override
+        public Token<?> getDelegationToken(String renewer) throws IOException {
+            return call(target -> target.getDelegationToken(renewer));
+        }
+
+        @Override
+        public FSDataInputStream open(Path f, int bufferSize) throws IOException {
+            Generation generation = acquire();
+            try {
+                return releasingOnClose(generation,
+                    generation.getFileSystem().open(f, bufferSize));
+            } catch (IOException | RuntimeException e) {
+                generation.inFlight.decrementAndGet();
+                throw e;
+            }
+        }
+
+        @Override
+        public FSDataOutputStream create(Path f, FsPermission permission, boolean overwrite,
+                                         int bufferSize, short replication, long blockSize,
+                                         Progressable progress) throws IOException {
+            return writing(target -> target.create(f, permission, overwrite, bufferSize,
+                replication, blockSize, progress));
+        }
+
+        @Override
+        public FSDataOutputStream create(Path f, FsPermission permission,
+                                         EnumSet<CreateFlag> flags, int bufferSize,
+                                         short replication, long blockSize,
+                                         Progressable progress,
+                                         Options.ChecksumOpt checksumOpt) throws IOException {
+            return writing(target -> target.create(f, permission, flags, bufferSize,
+                replication, blockSize, progress, checksumOpt));
+        }
+
+        @Override
+        @Deprecated
+        public FSDataOutputStream createNonRecursive(Path f, FsPermission permission,
+                                                     EnumSet<CreateFlag> flags, int bufferSize,
+                                                     short replication, long blockSize,
+                                                     Progressable progress) throws IOException {
+            return writing(target -> target.createNonRecursive(f, permission, flags,
+                bufferSize, replication, blockSize, progress));
+        }
+
+        @Override
+        public FSDataOutputStream append(Path f, int bufferSize, Progressable progress)
+            throws IOException {
+            return writing(target -> target.append(f, bufferSize, progress));
+        }
+
+        @Override
+        public void concat(Path trg, Path[] psrcs) throws IOException {
+            call(target -> {
+                target.concat(trg, psrcs);
+                return null;
+            });
+        }
+
+        @Override
+        public boolean rename(Path src, Path dst) throws IOException {
+            return call(target -> target.rename(src, dst));
+        }
+
+        @Override
+        public boolean delete(Path f, boolean recursive) throws IOException {
+            return call(target -> target.delete(f, recursive));
+        }
+
+        @Override
+        public FileStatus[] listStatus(Path f) throws IOException {
+            return call(target -> target.listStatus(f));
+        }
+
+        @Override
+        public RemoteIterator<LocatedFileStatus> listLocatedStatus(Path f) throws IOException {
+            return iterating(target -> target.listLocatedStatus(f));
+        }
+
+        @Override
+        public RemoteIterator<Path> listCorruptFileBlocks(Path path) throws IOException {
+            return iterating(target -> target.listCorruptFileBlocks(path));
+        }
+
+        @Override
+        public boolean mkdirs(Path f, FsPermission permission) throws IOException {
+            return call(target -> target.mkdirs(f, permission));
+        }
+
+        @Override
+        public FileStatus getFileStatus(Path f) throws IOException {
+            return call(target -> target.getFileStatus(f));
+        }
+
+        @Override
+        public Path resolvePath(Path p) throws IOException {
+            return call(target -> target.resolvePath(p));
+        }
+
+        @Override
+        public void access(Path path, FsAction mode) throws IOException {
+            call(target -> {
+                target.access(path, mode);
+                return null;
+            });
+        }
+
+        @Override
+        public FsStatus getStatus(Path p) throws IOException {
+            return call(target -> target.getStatus(p));
+        }
+
+        @Override
+        public long getUsed() throws IOException {
+            return call(FileSystem::getUsed);
+        }
+
+        @Override
+        @Deprecated
+        public FsServerDefaults getServerDefaults() throws IOException {
+            return call(target -> target.getServerDefaults());
+        }
+
+        @Override
+        public FsServerDefaults getServerDefaults(Path p) throws IOException {
+            return call(target -> target.getServerDefaults(p));
+        }
+
+        @Override
+        public BlockLocation[] getFileBlockLocations(FileStatus file, long start, long len)
+            throws IOException {
+            return call(target -> target.getFileBlockLocations(file, start, len));
+        }
+
+        @Override
+        public ContentSummary getContentSummary(Path f) throws IOException {
+            return call(target -> target.getContentSummary(f));
+        }
+
+        @Override
+        public FileChecksum getFileChecksum(Path f) throws IOException {
+            return call(target -> target.getFileChecksum(f));
+        }
+
+        @Override
+        public FileChecksum getFileChecksum(Path f, long length) throws IOException {
+            return call(target -> target.getFileChecksum(f, length));
+        }
+
+        @Override
+        public boolean setReplication(Path f, short replication) throws IOException {
+            return call(target -> target.setReplication(f, replication));
+        }
+
+        @Override
+        public void setPermission(Path f, FsPermission permission) throws IOException {
+            call(target -> {
+                target.setPermission(f, permission);
+                return null;
+            });
+        }
+
+        @Override
+        public void setOwner(Path f, String user, String group) throws IOException {
+            call(target -> {
+                target.setOwner(f, user, group);
+                return null;
+            });
+        }
+
+        @Override
+        public void setTimes(Path f, long mtime, long atime) throws IOException {
+            call(target -> {
+                target.setTimes(f, mtime, atime);
+                return null;
+            });
+        }
+
+        @Override
+        public void createSymlink(Path linkTarget, Path link, boolean createParent)
+            throws IOException {
+            call(target -> {
+                target.createSymlink(linkTarget, link, createParent);
+                return null;
+            });
+        }
+
+        @Override
+        public FileStatus getFileLinkStatus(Path f) throws IOException {
+            return call(target -> target.getFileLinkStatus(f));
+        }
+
+        @Override
+        public Path getLinkTarget(Path f) throws IOException {
+            return call(target -> target.getLinkTarget(f));
+        }
+
+        @Override
+        public void copyFromLocalFile(boolean delSrc, Path src, Path dst) throws IOException {
+            call(target -> {
+                target.copyFromLocalFile(delSrc, src, dst);
+                return null;
+            });
+        }
+
+        @Override
+        public void copyFromLocalFile(boolean delSrc, boolean overwrite, Path[] srcs, Path dst)
+            throws IOException {
+            call(target -> {
+                target.copyFromLocalFile(delSrc, overwrite, srcs, dst);
+                return null;
+            });
+        }
+
+        @Override
+        public void copyFromLocalFile(boolean delSrc, boolean overwrite, Path src, Path dst)
+            throws IOException {
+            call(target -> {
+                target.copyFromLocalFile(delSrc, overwrite, src, dst);
+                return null;
+            });
+        }
+
+        @Override
+        public void copyToLocalFile(boolean delSrc, Path src, Path dst) throws IOException {
+            call(target -> {
+                target.copyToLocalFile(delSrc, src, dst);
+                return null;
+            });
+        }
+
+        @Override
+        public Path startLocalOutput(Path fsOutputFile, Path tmpLocalFile) throws IOException {
+            return call(target -> target.startLocalOutput(fsOutputFile, tmpLocalFile));
+        }
+
+        @Override
+        public void completeLocalOutput(Path fsOutputFile, Path tmpLocalFile)
+            throws IOException {
+            call(target -> {
+                target.completeLocalOutput(fsOutputFile, tmpLocalFile);
+                return null;
+            });
+        }
+
+        @Override
+        public Path createSnapshot(Path path, String snapshotName) throws IOException {
+            return call(target -> target.createSnapshot(path, snapshotName));
+        }
+
+        @Override
+        public void renameSnapshot(Path path, String snapshotOldName, String snapshotNewName)
+            throws IOException {
+            call(target -> {
+                target.renameSnapshot(path, snapshotOldName, snapshotNewName);
+                return null;
+            });
+        }
+
+        @Override
+        public void deleteSnapshot(Path path, String snapshotName) throws IOException {
+            call(target -> {
+                target.deleteSnapshot(path, snapshotName);
+                return null;
+            });
+        }
+
+        @Override
+        public void modifyAclEntries(Path path, List<AclEntry> aclSpec) throws IOException {
+            call(target -> {
+                target.modifyAclEntries(path, aclSpec);
+                return null;
+            });
+        }
+
+        @Override
+        public void removeAclEntries(Path path, List<AclEntry> aclSpec) throws IOException {
+            call(target -> {
+                target.removeAclEntries(path, aclSpec);
+                return null;
+            });
+        }
+
+        @Override
+        public void removeDefaultAcl(Path path) throws IOException {
+            call(target -> {
+                target.removeDefaultAcl(path);
+                return null;
+            });
+        }
+
+        @Override
+        public void removeAcl(Path path) throws IOException {
+            call(target -> {
+                target.removeAcl(path);
+                return null;
+            });
+        }
+
+        @Override
+        public void setAcl(Path path, List<AclEntry> aclSpec) throws IOException {
+            call(target -> {
+                target.setAcl(path, aclSpec);
+                return null;
+            });
+        }
+
+        @Override
+        public AclStatus getAclStatus(Path path) throws IOException {
+            return call(target -> target.getAclStatus(path));
+        }
+
+        @Override
+        public void setXAttr(Path path, String name, byte[] value) throws IOException {
+            call(target -> {
+                target.setXAttr(path, name, value);
+                return null;
+            });
+        }
+
+        @Override
+        public void setXAttr(Path path, String name, byte[] value, EnumSet<XAttrSetFlag> flag)
+            throws IOException {
+            call(target -> {
+                target.setXAttr(path, name, value, flag);
+                return null;
+            });
+        }
+
+        @Override
+        public byte[] getXAttr(Path path, String name) throws IOException {
+            return call(target -> target.getXAttr(path, name));
+        }
+
+        @Override
+        public Map<String, byte[]> getXAttrs(Path path) throws IOException {
+            return call(target -> target.getXAttrs(path));
+        }
+
+        @Override
+        public Map<String, byte[]> getXAttrs(Path path, List<String> names) throws IOException {
+            return call(target -> target.getXAttrs(path, names));
+        }
+
+        @Override
+        public List<String> listXAttrs(Path path) throws IOException {
+            return call(target -> target.listXAttrs(path));
+        }
+
+        @Override
+        public void removeXAttr(Path path, String name) throws IOException {
+            call(target -> {
+                target.removeXAttr(path, name);
+                return null;
+            });
+        }
+
+        @Override
+        public void close() {
+            // underlying FileSystems are owned by the enclosing config
+        }
+
+        private <T> T call(Call<T> call) throws IOException {
+            Generation generation = acquire();
+            try {
+                return call.run(generation.getFileSystem());
+            } finally {
+                generation.inFlight.decrementAndGet();
+            }
+        }
+
+        private FSDataOutputStream writing(Call<FSDataOutputStream> create) throws IOException {
+            Generation generation = acquire();
+            try {
+                return releasingOnClose(generation,
+                    create.run(generation.getFileSystem()));
+            } catch (IOException | RuntimeException e) {
+                generation.inFlight.decrementAndGet();
+                throw e;
+            }
+        }
+
+        private <T> RemoteIterator<T> iterating(Call<RemoteIterator<T>> list)
+            throws IOException {
+            Generation generation = acquire();
+            AtomicBoolean released = new AtomicBoolean();
+            RemoteIterator<T> iterator;
+            try {
+                iterator = list.run(generation.getFileSystem());
+            } catch (IOException | RuntimeException e) {
+                release(generation, released);
+                throw e;
+            }
+            return new RemoteIterator<T>() {
+                @Override
+                public boolean hasNext() throws IOException {
+                    try {
+                        boolean hasNext = iterator.hasNext();
+                        if (!hasNext) {
+                            release(generation, released);
+                        }
+                        return hasNext;
+                    } catch (IOException | RuntimeException e) {
+                        release(generation, released);
+                        throw e;
+                    }
+                }
+
+                @Override
+                public T next() throws IOException {
+                    try {
+                        return iterator.next();
+                    } catch (IOException | RuntimeException e) {
+                        release(generation, released);
+                        throw e;
+                    }
+                }
+            };
+        }
+
+        private FSDataInputStream releasingOnClose(Generation generation,
+                                                   FSDataInputStream in) {
+            AtomicBoolean released = new AtomicBoolean();
+            return new FSDataInputStream(in) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        release(generation, released);
+                    }
+                }
+            };
+        }
+
+        private FSDataOutputStream releasingOnClose(Generation generation,
+                                                    FSDataOutputStream out) throws IOException {
+            AtomicBoolean released = new AtomicBoolean();
+            return new FSDataOutputStream(out, null, out.getPos()) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        release(generation, released);
+                    }
+                }
+            };
+        }
+
+        private void release(Generation generation, AtomicBoolean released) {
+            if (released.compareAndSet(false, true)) {
+                generation.inFlight.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,633 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.ByteBufferReadable;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.HasEnhancedByteBufferAccess;
+import org.apache.hadoop.fs.ParentNotDirectoryException;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.ReadOption;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.io.ByteBufferPool;
+import org.apache.hadoop.security.AccessControlException;
+import org.apache.hadoop.util.Progressable;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * FileSystem decorator bounding the time of each call and retrying idempotent ones.
+ *
+ * Calls are run on a pool of at most {@code maxThreads} threads and abandoned after
+ * {@code timeoutMs}, time spent waiting for a free thread included; a stream returned by an
+ * abandoned open, create or append is closed as soon as it arrives. getFileStatus, listStatus,
+ * getFileBlockLocations, open and mkdirs are retried on I/O errors, after backoff of random
+ * length up to {@code backoffMs} doubled with each attempt and capped at
+ * {@code maxBackoffMs}. Errors saying the path is missing, exists or is not accessible are never
+ * retried. Consecutive failures of {@code breakerThreshold} calls to one file system (scheme and
+ * authority) open its circuit: further calls fail fast with {@link CircuitOpenException} for
+ * {@code breakerOpenMs}, then a single trial call decides whether to close it again.
+ *
+ * Positional reads of opened streams not completed within {@code hedgeDelayMs} are issued once
+ * more on a second stream of the same file, which on HDFS gets its own replica order, and the
+ * first result wins. Sequential reads and writes of opened streams are delegated as they are,
+ * without a time limit.
+ */
+public class ResilientFileSystem extends FilterFileSystem {
+
+    private static final Logger LOGGER = LogManager.getLogger(ResilientFileSystem.class);
+
+    private static final long IDLE_THREAD_TIMEOUT_MS = 60_000;
+
+    /**
+     * Thrown instead of calling a file system whose circuit is open.
+     */
+    public static class CircuitOpenException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        CircuitOpenException(String target) {
+            super("Circuit of " + target + " is open, failing fast");
+        }
+    }
+
+    @FunctionalInterface
+    private interface Call<T> {
+        T run() throws IOException;
+    }
+
+    private final long timeoutMs;
+
+    private final int maxAttempts;
+
+    private final long backoffMs;
+
+    private final long maxBackoffMs;
+
+    private final long hedgeDelayMs;
+
+    private final int breakerThreshold;
+
+    private final long breakerOpenMs;
+
+    private final ExecutorService executor;
+
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    private final LongAdder retries = new LongAdder();
+
+    private final LongAdder timeouts = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder hedgedReads = new LongAdder();
+
+    private final LongAdder hedgeWins = new LongAdder();
+
+    /**
+     * @param timeoutMs limit of a single call, 0 for none
+     * @param maxAttempts attempts of idempotent calls, 1 for no retries
+     * @param hedgeDelayMs delay of the second positional read, 0 for no hedging
+     * @param breakerThreshold consecutive failures opening the circuit, 0 for no breaker
+     * @param maxThreads threads running timed calls and hedged reads; calls still running when
+     *                   abandoned keep their threads
+     */
+    public ResilientFileSystem(FileSystem fs, long timeoutMs, int maxAttempts, long backoffMs,
+                               long maxBackoffMs, long hedgeDelayMs, int breakerThreshold,
+                               long breakerOpenMs, int maxThreads) {
+        super(fs);
+        Preconditions.checkArgument(maxAttempts > 0, "maxAttempts must be positive");
+        Preconditions.checkArgument(maxThreads > 0, "maxThreads must be positive");
+        this.timeoutMs = timeoutMs;
+        this.maxAttempts = maxAttempts;
+        this.backoffMs = backoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.hedgeDelayMs = hedgeDelayMs;
+        this.breakerThreshold = breakerThreshold;
+        this.breakerOpenMs = breakerOpenMs;
+        this.executor = timeoutMs > 0 || hedgeDelayMs > 0 ? newExecutor(maxThreads) : null;
+    }
+
+    private static ExecutorService newExecutor(int maxThreads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+            IDLE_THREAD_TIMEOUT_MS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder()
+                .setNameFormat("hdfs-resilience-%d")
+                .setDaemon(true)
+                .build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * @return calls failed fast because of an open circuit
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getHedgedReads() {
+        return hedgedReads.sum();
+    }
+
+    /**
+     * @return hedged reads completed by the second stream first
+     */
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    /**
+     * @return file systems, as scheme://authority, whose circuits are open
+     */
+    public Set<String> getOpenCircuits() {
+        return breakers.entrySet().stream()
+            .filter(entry -> entry.getValue().isOpen())
+            .map(Map.Entry::getKey)
+            .collect(Collectors.toSet());
+    }
+
+    @Override
+    public FileStatus getFileStatus(Path f) throws IOException {
+        return call(f, true, () -> super.getFileStatus(f));
+    }
+
+    @Override
+    public FileStatus[] listStatus(Path f) throws IOException {
+        return call(f, true, () -> super.listStatus(f));
+    }
+
+    @Override
+    public BlockLocation[] getFileBlockLocations(FileStatus file, long start, long len)
+        throws IOException {
+        return call(file.getPath(), true, () -> super.getFileBlockLocations(file, start, len));
+    }
+
+    @Override
+    public boolean mkdirs(Path f, FsPermission permission) throws IOException {
+        return call(f, true, () -> super.mkdirs(f, permission));
+    }
+
+    @Override
+    public FSDataInputStream open(Path f, int bufferSize) throws IOException {
+        FSDataInputStream in = call(f, true, () -> super.open(f, bufferSize));
+        if (executor == null) {
+            return in;
+        }
+        return new FSDataInputStream(new ResilientInputStream(f, bufferSize, in));
+    }
+
+    @Override
+    public FSDataOutputStream create(Path f, FsPermission permission, boolean overwrite,
+                                     int bufferSize, short replication, long blockSize,
+                                     Progressable progress) throws IOException {
+        return call(f, false, () -> super.create(f, permission, overwrite, bufferSize,
+            replication, blockSize, progress));
+    }
+
+    @Override
+    public FSDataOutputStream append(Path f, int bufferSize, Progressable progress)
+        throws IOException {
+        return call(f, false, () -> super.append(f, bufferSize, progress));
+    }
+
+    @Override
+    public boolean delete(Path f, boolean recursive) throws IOException {
+        return call(f, false, () -> super.delete(f, recursive));
+    }
+
+    @Override
+    public boolean rename(Path src, Path dst) throws IOException {
+        return call(src, false, () -> super.rename(src, dst));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        super.close();
+    }
+
+    private <T> T call(Path path, boolean idempotent, Call<T> call) throws IOException {
+        return withRetries(path, idempotent, () -> timed(call));
+    }
+
+    private <T> T withRetries(Path path, boolean idempotent, Call<T> call) throws IOException {
+        CircuitBreaker breaker = breakerThreshold > 0
+            ? breakers.computeIfAbsent(target(path), CircuitBreaker::new)
+            : null;
+        for (int attempt = 1; ; attempt++) {
+            if (breaker != null) {
+                breaker.acquire();
+            }
+            try {
+                T result = call.run();
+                if (breaker != null) {
+                    breaker.recordSuccess();
+                }
+                return result;
+            } catch (IOException e) {
+                if (!isRetriable(e)) {
+                    // the file system answered, only the request was wrong
+                    if (breaker != null) {
+                        breaker.recordSuccess();
+                    }
+                    throw e;
+                }
+                if (breaker != null) {
+                    breaker.recordFailure();
+                }
+                if (!idempotent || attempt >= maxAttempts
+                    || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                retries.increment();
+                backoff(attempt);
+            } catch (RuntimeException | Error e) {
+                // also ends a trial call, which would otherwise keep the circuit open forever
+                if (breaker != null) {
+                    breaker.recordFailure();
+                }
+                throw e;
+            }
+        }
+    }
+
+    private <T> T timed(Call<T> call) throws IOException {
+        if (timeoutMs <= 0) {
+            return call.run();
+        }
+        // whichever side sets it first owns the result: the caller, or the call that outlived it
+        // and has to close the stream nobody is going to use
+        AtomicBoolean settled = new AtomicBoolean();
+        Future<T> future = executor.submit(() -> {
+            T result = call.run();
+            if (!settled.compareAndSet(false, true)) {
+                closeQuietly(result);
+            }
+            return result;
+        });
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            if (settled.compareAndSet(false, true)) {
+                throw timedOut();
+            }
+            return getSettled(future);
+        } catch (ExecutionException e) {
+            throw asIOException(e.getCause());
+        } catch (InterruptedException e) {
+            if (!settled.compareAndSet(false, true)) {
+                closeQuietly(getSettled(future));
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for HDFS call");
+        } finally {
+            future.cancel(true);
+        }
+    }
+
+    private static <T> T getSettled(Future<T> future) throws IOException {
+        try {
+            return Uninterruptibles.getUninterruptibly(future);
+        } catch (ExecutionException e) {
+            throw asIOException(e.getCause());
+        }
+    }
+
+    private static void closeQuietly(Object result) {
+        if (result instanceof Closeable) {
+            try {
+                ((Closeable) result).close();
+            } catch (IOException e) {
+                LOGGER.warn("Cannot close result of abandoned HDFS call", e);
+            }
+        }
+    }
+
+    private void backoff(int attempt) throws InterruptedIOException {
+        long cap = Math.min(maxBackoffMs, backoffMs << Math.min(attempt - 1, 30));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while backing off");
+        }
+    }
+
+    private InterruptedIOException timedOut() {
+        timeouts.increment();
+        return new InterruptedIOException("HDFS call timed out after " + timeoutMs + " ms");
+    }
+
+    private String target(Path path) {
+        URI uri = makeQualified(path).toUri();
+        return uri.getScheme() + "://" + Strings.nullToEmpty(uri.getAuthority());
+    }
+
+    @SuppressWarnings("deprecation")
+    static boolean isRetriable(IOException e) {
+        return !(e instanceof FileNotFoundException
+            || e instanceof FileAlreadyExistsException
+            || e instanceof ParentNotDirectoryException
+            || e instanceof AccessControlException
+            // deprecated superclass of the above, still thrown by parts of Hadoop
+            || e instanceof org.apache.hadoop.fs.permission.AccessControlException
+            || e instanceof CircuitOpenException);
+    }
+
+    private static IOException asIOException(Throwable e) {
+        if (e instanceof IOException) {
+            return (IOException) e;
+        }
+        throw Throwables.propagate(e);
+    }
+
+    private final class CircuitBreaker {
+
+        private final String target;
+
+        private int consecutiveFailures;
+
+        private long openUntil;
+
+        private boolean trial;
+
+        CircuitBreaker(String target) {
+            this.target = target;
+        }
+
+        synchronized void acquire() throws CircuitOpenException {
+            if (consecutiveFailures < breakerThreshold) {
+                return;
+            }
+            if (trial || System.currentTimeMillis() < openUntil) {
+                rejected.increment();
+                throw new CircuitOpenException(target);
+            }
+            trial = true;
+        }
+
+        synchronized void recordSuccess() {
+            consecutiveFailures = 0;
+            trial = false;
+        }
+
+        synchronized void recordFailure() {
+            consecutiveFailures++;
+            trial = false;
+            if (consecutiveFailures >= breakerThreshold) {
+                openUntil = System.currentTimeMillis() + breakerOpenMs;
+            }
+        }
+
+        synchronized boolean isOpen() {
+            return consecutiveFailures >= breakerThreshold;
+        }
+    }
+
+    /**
+     * Stream whose positional reads are bounded by the call timeout, retried and hedged.
+     * Positional reads go to buffers of their own, so that an abandoned read cannot overwrite
+     * caller's buffer after it gets a result.
+     */
+    private final class ResilientInputStream extends FSInputStream
+        implements ByteBufferReadable, HasEnhancedByteBufferAccess {
+
+        private final Path path;
+
+        private final int bufferSize;
+
+        private final FSDataInputStream primary;
+
+        private FSDataInputStream hedge;
+
+        private boolean closed;
+
+        ResilientInputStream(Path path, int bufferSize, FSDataInputStream primary) {
+            this.path = path;
+            this.bufferSize = bufferSize;
+            this.primary = primary;
+        }
+
+        @Override
+        public int read(long position, byte[] buffer, int offset, int length)
+            throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            return withRetries(path, true, () -> hedgedRead(position, buffer, offset, length));
+        }
+
+        private int hedgedRead(long position, byte[] buffer, int offset, int length)
+            throws IOException {
+            CompletionService<PositionalRead> reads = new ExecutorCompletionService<>(executor);
+            List<Future<PositionalRead>> started = new ArrayList<>(2);
+            long deadline = timeoutMs > 0 ? System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(timeoutMs) : Long.MAX_VALUE;
+            try {
+                started.add(reads.submit(() -> read(false, position, length)));
+                Future<PositionalRead> done = null;
+                if (hedgeDelayMs > 0) {
+                    done = reads.poll(Math.min(hedgeDelayMs, remainingMs(deadline)),
+                        TimeUnit.MILLISECONDS);
+                    if (done == null && remainingMs(deadline) > 0) {
+                        hedgedReads.increment();
+                        started.add(reads.submit(() -> read(true, position, length)));
+                    }
+                }
+                int pending = started.size();
+                while (true) {
+                    if (done == null) {
+                        done = reads.poll(remainingMs(deadline), TimeUnit.MILLISECONDS);
+                        if (done == null) {
+                            throw timedOut();
+                        }
+                    }
+                    pending--;
+                    try {
+                        PositionalRead result = done.get();
+                        if (result.hedged) {
+                            hedgeWins.increment();
+                        }
+                        if (result.bytes > 0) {
+                            System.arraycopy(result.buffer, 0, buffer, offset, result.bytes);
+                        }
+                        return result.bytes;
+                    } catch (ExecutionException e) {
+                        if (pending == 0) {
+                            throw asIOException(e.getCause());
+                        }
+                        done = null;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for HDFS read");
+            } finally {
+                started.forEach(future -> future.cancel(true));
+            }
+        }
+
+        private PositionalRead read(boolean hedged, long position, int length)
+            throws IOException {
+            byte[] own = new byte[length];
+            FSDataInputStream in = hedged ? hedge() : primary;
+            return new PositionalRead(hedged, own, in.read(position, own, 0, length));
+        }
+
+        private synchronized FSDataInputStream hedge() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (hedge == null) {
+                hedge = fs.open(path, bufferSize);
+            }
+            return hedge;
+        }
+
+        private long remainingMs(long deadline) {
+            if (deadline == Long.MAX_VALUE) {
+                return Long.MAX_VALUE;
+            }
+            return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+        }
+
+        @Override
+        public void seek(long pos) throws IOException {
+            primary.seek(pos);
+        }
+
+        @Override
+        public long getPos() throws IOException {
+            return primary.getPos();
+        }
+
+        @Override
+        public boolean seekToNewSource(long targetPos) throws IOException {
+            return primary.seekToNewSource(targetPos);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return primary.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return primary.read(b, off, len);
+        }
+
+        @Override
+        public int read(ByteBuffer buf) throws IOException {
+            return primary.read(buf);
+        }
+
+        @Override
+        public ByteBuffer read(ByteBufferPool factory, int maxLength, EnumSet<ReadOption> opts)
+            throws IOException {
+            return primary.read(factory, maxLength, opts);
+        }
+
+        @Override
+        public void releaseBuffer(ByteBuffer buffer) {
+            primary.releaseBuffer(buffer);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return primary.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            FSDataInputStream opened;
+            synchronized (this) {
+                closed = true;
+                opened = hedge;
+            }
+            try {
+                primary.close();
+            } finally {
+                if (opened != null) {
+                    opened.close();
+                }
+            }
+        }
+    }
+
+    private static final class PositionalRead {
+
+        private final boolean hedged;
+
+        private final byte[] buffer;
+
+        private final int bytes;
+
+        PositionalRead(boolean hedged, byte[] buffer, int bytes) {
+            this.hedged = hedged;
+            this.buffer = buffer;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory {@link HdfsMetricsRegistry}, used when application does not provide its own
+ * registry. Metrics can be read and exported by the application, e.g. from a scheduled task.
+ */
+public class SimpleHdfsMetricsRegistry implements HdfsMetricsRegistry {
+
+    private final ConcurrentMap<String, Metrics> metrics = new ConcurrentHashMap<>();
+
+    @Override
+    public Metrics operation(String operation, String user, String pathPrefix) {
+        return metrics.computeIfAbsent(operation + '|' + user + '|' + pathPrefix,
+            key -> new Metrics(operation, user, pathPrefix));
+    }
+
+    public Collection<Metrics> getMetrics() {
+        return Collections.unmodifiableCollection(new ArrayList<>(metrics.values()));
+    }
+
+    public static class Metrics implements OperationMetrics {
+
+        private final String operation;
+
+        private final String user;
+
+        private final String pathPrefix;
+
+        private final LongAdder errors = new LongAdder();
+
+        private final LongAdder bytes = new LongAdder();
+
+        private final LongAdder totalNanos = new LongAdder();
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        Metrics(String operation, String user, String pathPrefix) {
+            this.operation = operation;
+            this.user = user;
+            this.pathPrefix = pathPrefix;
+        }
+
+        @Override
+        public void record(long latencyNanos, boolean failed) {
+            latency.record(latencyNanos);
+            totalNanos.add(latencyNanos);
+            if (failed) {
+                errors.increment();
+            }
+        }
+
+        @Override
+        public void addBytes(long count) {
+            bytes.add(count);
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public String getUser() {
+            return user;
+        }
+
+        public String getPathPrefix() {
+            return pathPrefix;
+        }
+
+        public long getCount() {
+            return latency.getCount();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        @Override
+        public String toString() {
+            return operation + "[user=" + user + ", prefix=" + pathPrefix + ", count=" + getCount()
+                + ", errors=" + getErrors() + ", bytes=" + getBytes()
+                + ", p99=" + latency.getPercentileNanos(0.99) + "ns]";
+        }
+    }
+}
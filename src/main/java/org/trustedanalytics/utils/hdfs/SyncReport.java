@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome and throughput of a single {@link HdfsSync} run.
+ */
+public class SyncReport {
+
+    private final long filesCopied;
+
+    private final long filesResumed;
+
+    private final long filesSkipped;
+
+    private final long bytesCopied;
+
+    private final long bytesSkipped;
+
+    private final long elapsedNanos;
+
+    private final List<String> failedPaths;
+
+    SyncReport(long filesCopied, long filesResumed, long filesSkipped, long bytesCopied,
+               long bytesSkipped, long elapsedNanos, List<String> failedPaths) {
+        this.filesCopied = filesCopied;
+        this.filesResumed = filesResumed;
+        this.filesSkipped = filesSkipped;
+        this.bytesCopied = bytesCopied;
+        this.bytesSkipped = bytesSkipped;
+        this.elapsedNanos = elapsedNanos;
+        this.failedPaths = Collections.unmodifiableList(failedPaths);
+    }
+
+    /**
+     * @return number of files transferred, including resumed ones
+     */
+    public long getFilesCopied() {
+        return filesCopied;
+    }
+
+    /**
+     * @return number of files whose transfer continued from an earlier partial copy
+     */
+    public long getFilesResumed() {
+        return filesResumed;
+    }
+
+    /**
+     * @return number of files found unchanged on target
+     */
+    public long getFilesSkipped() {
+        return filesSkipped;
+    }
+
+    /**
+     * @return bytes transferred by this run, not counting resumed prefixes
+     */
+    public long getBytesCopied() {
+        return bytesCopied;
+    }
+
+    public long getBytesSkipped() {
+        return bytesSkipped;
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    public double getBytesPerSecond() {
+        return perSecond(bytesCopied);
+    }
+
+    public double getFilesPerSecond() {
+        return perSecond(filesCopied + filesSkipped);
+    }
+
+    /**
+     * @return source paths that could not be synchronized
+     */
+    public List<String> getFailedPaths() {
+        return failedPaths;
+    }
+
+    public boolean isSuccessful() {
+        return failedPaths.isEmpty();
+    }
+
+    private double perSecond(long count) {
+        return elapsedNanos == 0 ? 0 : count * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "SyncReport[copied=" + filesCopied + ", resumed=" + filesResumed
+            + ", skipped=" + filesSkipped + ", bytes=" + bytesCopied
+            + ", elapsedMs=" + getElapsedMillis()
+            + ", bytesPerSecond=" + (long) getBytesPerSecond()
+            + ", failed=" + failedPaths.size() + "]";
+    }
+}
@@ -0,0 +1,574 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.CreateFlag;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.FsServerDefaults;
+import org.apache.hadoop.fs.FsStatus;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Options;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.fs.XAttrSetFlag;
+import org.apache.hadoop.fs.permission.AclEntry;
+import org.apache.hadoop.fs.permission.AclStatus;
+import org.apache.hadoop.fs.permission.FsAction;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.util.Progressable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * View of a shared FileSystem rooted at a tenant directory. Paths are interpreted relative to
+ * the root, also absolute ones, and paths leaving it are rejected. Statuses and paths returned
+ * are relative to the root again.
+ *
+ * Each call takes one operation token and each byte read or written one byte token of the
+ * tenant's buckets, waiting when they are exhausted. Only getDefaultBlockSize and
+ * getDefaultReplication, answered from client configuration, are free. Closing the view only
+ * deletes its delete-on-exit paths, it does not close the shared FileSystem.
+ */
+final class TenantFileSystem extends FilterFileSystem {
+
+    private final Path root;
+
+    private final String rootPath;
+
+    private final TokenBucket operations;
+
+    private final TokenBucket bytes;
+
+    private final TenantStats stats;
+
+    private volatile Path workingDirectory;
+
+    /**
+     * @param operations bucket of operation tokens, null for unlimited
+     * @param bytes bucket of byte tokens, null for unlimited
+     */
+    TenantFileSystem(FileSystem fs, Path root, TokenBucket operations, TokenBucket bytes,
+                     TenantStats stats) {
+        super(fs);
+        this.root = fs.makeQualified(root);
+        this.rootPath = this.root.toUri().getPath();
+        this.operations = operations;
+        this.bytes = bytes;
+        this.stats = stats;
+        this.workingDirectory = makeQualified(new Path(Path.SEPARATOR));
+    }
+
+    @Override
+    public Path makeQualified(Path path) {
+        return path.makeQualified(getUri(), getWorkingDirectory());
+    }
+
+    @Override
+    public Path getWorkingDirectory() {
+        return workingDirectory;
+    }
+
+    @Override
+    public void setWorkingDirectory(Path dir) {
+        workingDirectory = tenant(full(dir));
+    }
+
+    @Override
+    public Path getHomeDirectory() {
+        return makeQualified(new Path(Path.SEPARATOR));
+    }
+
+    @Override
+    public Path resolvePath(Path p) throws IOException {
+        admit();
+        return tenant(fs.resolvePath(full(p)));
+    }
+
+    @Override
+    public FSDataInputStream open(Path f, int bufferSize) throws IOException {
+        admit();
+        return ByteCountingInputStream.wrap(fs.open(full(f), bufferSize), this::read);
+    }
+
+    @Override
+    public FSDataOutputStream create(Path f, FsPermission permission, boolean overwrite,
+                                     int bufferSize, short replication, long blockSize,
+                                     Progressable progress) throws IOException {
+        admit();
+        return ByteCountingOutputStream.wrap(fs.create(full(f), permission, overwrite,
+            bufferSize, replication, blockSize, progress), this::written);
+    }
+
+    @Override
+    public FSDataOutputStream create(Path f, FsPermission permission, EnumSet<CreateFlag> flags,
+                                     int bufferSize, short replication, long blockSize,
+                                     Progressable progress, Options.ChecksumOpt checksumOpt)
+        throws IOException {
+        admit();
+        return ByteCountingOutputStream.wrap(fs.create(full(f), permission, flags, bufferSize,
+            replication, blockSize, progress, checksumOpt), this::written);
+    }
+
+    @Override
+    @Deprecated
+    public FSDataOutputStream createNonRecursive(Path f, FsPermission permission,
+                                                 EnumSet<CreateFlag> flags, int bufferSize,
+                                                 short replication, long blockSize,
+                                                 Progressable progress) throws IOException {
+        admit();
+        return ByteCountingOutputStream.wrap(fs.createNonRecursive(full(f), permission, flags,
+            bufferSize, replication, blockSize, progress), this::written);
+    }
+
+    @Override
+    protected FSDataOutputStream primitiveCreate(Path f, FsPermission absolutePermission,
+                                                 EnumSet<CreateFlag> flag, int bufferSize,
+                                                 short replication, long blockSize,
+                                                 Progressable progress,
+                                                 Options.ChecksumOpt checksumOpt)
+        throws IOException {
+        return create(f, absolutePermission, flag, bufferSize, replication, blockSize, progress,
+            checksumOpt);
+    }
+
+    @Override
+    public FSDataOutputStream append(Path f, int bufferSize, Progressable progress)
+        throws IOException {
+        admit();
+        return ByteCountingOutputStream.wrap(fs.append(full(f), bufferSize, progress),
+            this::written);
+    }
+
+    @Override
+    public void concat(Path trg, Path[] psrcs) throws IOException {
+        admit();
+        Path[] sources = new Path[psrcs.length];
+        for (int i = 0; i < psrcs.length; i++) {
+            sources[i] = full(psrcs[i]);
+        }
+        fs.concat(full(trg), sources);
+    }
+
+    @Override
+    public boolean setReplication(Path src, short replication) throws IOException {
+        admit();
+        return fs.setReplication(full(src), replication);
+    }
+
+    @Override
+    public boolean rename(Path src, Path dst) throws IOException {
+        admit();
+        return fs.rename(full(src), full(dst));
+    }
+
+    @Override
+    public boolean delete(Path f, boolean recursive) throws IOException {
+        admit();
+        return fs.delete(full(f), recursive);
+    }
+
+    @Override
+    public FileStatus[] listStatus(Path f) throws IOException {
+        admit();
+        FileStatus[] statuses = fs.listStatus(full(f));
+        FileStatus[] translated = new FileStatus[statuses.length];
+        for (int i = 0; i < statuses.length; i++) {
+            translated[i] = tenant(statuses[i]);
+        }
+        return translated;
+    }
+
+    @Override
+    public RemoteIterator<LocatedFileStatus> listLocatedStatus(Path f) throws IOException {
+        admit();
+        RemoteIterator<LocatedFileStatus> statuses = fs.listLocatedStatus(full(f));
+        return new RemoteIterator<LocatedFileStatus>() {
+            @Override
+            public boolean hasNext() throws IOException {
+                return statuses.hasNext();
+            }
+
+            @Override
+            public LocatedFileStatus next() throws IOException {
+                LocatedFileStatus status = statuses.next();
+                return new LocatedFileStatus(tenant(status), status.getBlockLocations());
+            }
+        };
+    }
+
+    @Override
+    public RemoteIterator<Path> listCorruptFileBlocks(Path path) throws IOException {
+        admit();
+        RemoteIterator<Path> paths = fs.listCorruptFileBlocks(full(path));
+        return new RemoteIterator<Path>() {
+            @Override
+            public boolean hasNext() throws IOException {
+                return paths.hasNext();
+            }
+
+            @Override
+            public Path next() throws IOException {
+                return tenant(paths.next());
+            }
+        };
+    }
+
+    @Override
+    public boolean mkdirs(Path f, FsPermission permission) throws IOException {
+        admit();
+        return fs.mkdirs(full(f), permission);
+    }
+
+    @Override
+    protected boolean primitiveMkdir(Path f, FsPermission absolutePermission)
+        throws IOException {
+        return mkdirs(f, absolutePermission);
+    }
+
+    @Override
+    public FileStatus getFileStatus(Path f) throws IOException {
+        admit();
+        return tenant(fs.getFileStatus(full(f)));
+    }
+
+    @Override
+    public FileStatus getFileLinkStatus(Path f) throws IOException {
+        admit();
+        return tenant(fs.getFileLinkStatus(full(f)));
+    }
+
+    @Override
+    public BlockLocation[] getFileBlockLocations(FileStatus file, long start, long len)
+        throws IOException {
+        return getFileBlockLocations(file.getPath(), start, len);
+    }
+
+    @Override
+    public BlockLocation[] getFileBlockLocations(Path p, long start, long len)
+        throws IOException {
+        admit();
+        return fs.getFileBlockLocations(full(p), start, len);
+    }
+
+    @Override
+    public FsStatus getStatus(Path p) throws IOException {
+        admit();
+        return fs.getStatus(full(p));
+    }
+
+    // answered from client configuration, like getDefaultReplication, so not throttled; the
+    // signature could not report an interrupted wait anyway
+    @Override
+    public long getDefaultBlockSize(Path f) {
+        return fs.getDefaultBlockSize(full(f));
+    }
+
+    @Override
+    public short getDefaultReplication(Path path) {
+        return fs.getDefaultReplication(full(path));
+    }
+
+    @Override
+    public FsServerDefaults getServerDefaults(Path f) throws IOException {
+        admit();
+        return fs.getServerDefaults(full(f));
+    }
+
+    @Override
+    public void access(Path path, FsAction mode) throws IOException {
+        admit();
+        fs.access(full(path), mode);
+    }
+
+    @Override
+    public void createSymlink(Path target, Path link, boolean createParent)
+        throws IOException {
+        admit();
+        fs.createSymlink(full(target), full(link), createParent);
+    }
+
+    @Override
+    public Path getLinkTarget(Path f) throws IOException {
+        admit();
+        return tenant(fs.getLinkTarget(full(f)));
+    }
+
+    @Override
+    protected Path resolveLink(Path f) throws IOException {
+        return getLinkTarget(f);
+    }
+
+    @Override
+    public FileChecksum getFileChecksum(Path f) throws IOException {
+        admit();
+        return fs.getFileChecksum(full(f));
+    }
+
+    @Override
+    public FileChecksum getFileChecksum(Path f, long length) throws IOException {
+        admit();
+        return fs.getFileChecksum(full(f), length);
+    }
+
+    @Override
+    public void setOwner(Path p, String username, String groupname) throws IOException {
+        admit();
+        fs.setOwner(full(p), username, groupname);
+    }
+
+    @Override
+    public void setTimes(Path p, long mtime, long atime) throws IOException {
+        admit();
+        fs.setTimes(full(p), mtime, atime);
+    }
+
+    @Override
+    public void setPermission(Path p, FsPermission permission) throws IOException {
+        admit();
+        fs.setPermission(full(p), permission);
+    }
+
+    @Override
+    public void copyFromLocalFile(boolean delSrc, Path src, Path dst) throws IOException {
+        admit();
+        fs.copyFromLocalFile(delSrc, src, full(dst));
+    }
+
+    @Override
+    public void copyFromLocalFile(boolean delSrc, boolean overwrite, Path[] srcs, Path dst)
+        throws IOException {
+        admit();
+        fs.copyFromLocalFile(delSrc, overwrite, srcs, full(dst));
+    }
+
+    @Override
+    public void copyFromLocalFile(boolean delSrc, boolean overwrite, Path src, Path dst)
+        throws IOException {
+        admit();
+        fs.copyFromLocalFile(delSrc, overwrite, src, full(dst));
+    }
+
+    @Override
+    public void copyToLocalFile(boolean delSrc, Path src, Path dst) throws IOException {
+        admit();
+        fs.copyToLocalFile(delSrc, full(src), dst);
+    }
+
+    @Override
+    public Path startLocalOutput(Path fsOutputFile, Path tmpLocalFile) throws IOException {
+        admit();
+        return fs.startLocalOutput(full(fsOutputFile), tmpLocalFile);
+    }
+
+    @Override
+    public void completeLocalOutput(Path fsOutputFile, Path tmpLocalFile) throws IOException {
+        admit();
+        fs.completeLocalOutput(full(fsOutputFile), tmpLocalFile);
+    }
+
+    @Override
+    public Path createSnapshot(Path path, String snapshotName) throws IOException {
+        admit();
+        return tenant(fs.createSnapshot(full(path), snapshotName));
+    }
+
+    @Override
+    public void renameSnapshot(Path path, String snapshotOldName, String snapshotNewName)
+        throws IOException {
+        admit();
+        fs.renameSnapshot(full(path), snapshotOldName, snapshotNewName);
+    }
+
+    @Override
+    public void deleteSnapshot(Path path, String snapshotName) throws IOException {
+        admit();
+        fs.deleteSnapshot(full(path), snapshotName);
+    }
+
+    @Override
+    public void modifyAclEntries(Path path, List<AclEntry> aclSpec) throws IOException {
+        admit();
+        fs.modifyAclEntries(full(path), aclSpec);
+    }
+
+    @Override
+    public void removeAclEntries(Path path, List<AclEntry> aclSpec) throws IOException {
+        admit();
+        fs.removeAclEntries(full(path), aclSpec);
+    }
+
+    @Override
+    public void removeDefaultAcl(Path path) throws IOException {
+        admit();
+        fs.removeDefaultAcl(full(path));
+    }
+
+    @Override
+    public void removeAcl(Path path) throws IOException {
+        admit();
+        fs.removeAcl(full(path));
+    }
+
+    @Override
+    public void setAcl(Path path, List<AclEntry> aclSpec) throws IOException {
+        admit();
+        fs.setAcl(full(path), aclSpec);
+    }
+
+    @Override
+    public AclStatus getAclStatus(Path path) throws IOException {
+        admit();
+        return fs.getAclStatus(full(path));
+    }
+
+    @Override
+    public void setXAttr(Path path, String name, byte[] value) throws IOException {
+        admit();
+        fs.setXAttr(full(path), name, value);
+    }
+
+    @Override
+    public void setXAttr(Path path, String name, byte[] value, EnumSet<XAttrSetFlag> flag)
+        throws IOException {
+        admit();
+        fs.setXAttr(full(path), name, value, flag);
+    }
+
+    @Override
+    public byte[] getXAttr(Path path, String name) throws IOException {
+        admit();
+        return fs.getXAttr(full(path), name);
+    }
+
+    @Override
+    public Map<String, byte[]> getXAttrs(Path path) throws IOException {
+        admit();
+        return fs.getXAttrs(full(path));
+    }
+
+    @Override
+    public Map<String, byte[]> getXAttrs(Path path, List<String> names) throws IOException {
+        admit();
+        return fs.getXAttrs(full(path), names);
+    }
+
+    @Override
+    public List<String> listXAttrs(Path path) throws IOException {
+        admit();
+        return fs.listXAttrs(full(path));
+    }
+
+    @Override
+    public void removeXAttr(Path path, String name) throws IOException {
+        admit();
+        fs.removeXAttr(full(path), name);
+    }
+
+    /**
+     * Deletes paths marked with {@link #deleteOnExit(Path)} on this view. The shared FileSystem
+     * is owned by the base HdfsConfig and stays open.
+     */
+    @Override
+    public void close() {
+        processDeleteOnExit();
+    }
+
+    /**
+     * Path of the shared FileSystem for a path of this view.
+     */
+    private Path full(Path path) {
+        checkPath(path);
+        Path absolute = path.isUriPathAbsolute() ? path : new Path(workingDirectory, path);
+        String relative = absolute.toUri().getPath();
+        if (relative.equals("/..") || relative.startsWith("/../")) {
+            throw new IllegalArgumentException("Path " + path + " is outside of tenant root");
+        }
+        return relative.equals(Path.SEPARATOR) ? root : new Path(root, relative.substring(1));
+    }
+
+    /**
+     * Path of this view for a path of the shared FileSystem.
+     */
+    private Path tenant(Path full) {
+        String path = full.toUri().getPath();
+        String relative;
+        if (path.equals(rootPath)) {
+            relative = Path.SEPARATOR;
+        } else if (path.startsWith(rootPath + Path.SEPARATOR)) {
+            relative = path.substring(rootPath.length());
+        } else {
+            throw new IllegalStateException("Path " + full + " is outside of tenant root");
+        }
+        return new Path(getUri().getScheme(), getUri().getAuthority(), relative);
+    }
+
+    private FileStatus tenant(FileStatus status) throws IOException {
+        FileStatus translated = new FileStatus(status);
+        translated.setPath(tenant(status.getPath()));
+        return translated;
+    }
+
+    private void admit() throws InterruptedIOException {
+        stats.recordOperation();
+        if (operations != null) {
+            try {
+                waitFor(operations.reserve(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttled");
+            }
+        }
+    }
+
+    private void read(long count) {
+        stats.recordRead(count);
+        transferred(count);
+    }
+
+    private void written(long count) {
+        stats.recordWrite(count);
+        transferred(count);
+    }
+
+    private void transferred(long count) {
+        if (bytes != null) {
+            try {
+                waitFor(bytes.reserve(count));
+            } catch (InterruptedException e) {
+                // stream callbacks cannot throw, leave it to the caller
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void waitFor(long nanos) throws InterruptedException {
+        if (nanos > 0) {
+            stats.recordThrottled(nanos);
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+    }
+}
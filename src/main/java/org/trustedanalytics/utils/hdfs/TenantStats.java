@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a single tenant of {@link HdfsTenants}.
+ */
+public class TenantStats {
+
+    private final LongAdder operations = new LongAdder();
+
+    private final LongAdder bytesRead = new LongAdder();
+
+    private final LongAdder bytesWritten = new LongAdder();
+
+    private final LongAdder throttled = new LongAdder();
+
+    private final LongAdder throttledNanos = new LongAdder();
+
+    void recordOperation() {
+        operations.increment();
+    }
+
+    void recordRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    void recordWrite(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    void recordThrottled(long nanos) {
+        throttled.increment();
+        throttledNanos.add(nanos);
+    }
+
+    public long getOperations() {
+        return operations.sum();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * @return number of operations and transfers delayed by quotas
+     */
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    public long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos.sum());
+    }
+
+    @Override
+    public String toString() {
+        return "operations=" + getOperations() + ", bytesRead=" + getBytesRead()
+            + ", bytesWritten=" + getBytesWritten() + ", throttled=" + getThrottled()
+            + ", throttledMillis=" + getThrottledMillis();
+    }
+}
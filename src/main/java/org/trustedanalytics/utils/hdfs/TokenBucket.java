@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket, refilled at a constant rate and holding at most {@code burstMs} worth
+ * of tokens.
+ *
+ * State is a single timestamp until which all reserved tokens are paid for, advanced by
+ * compare-and-set. Reservations always succeed; callers wait the returned time, so concurrent
+ * callers queue up fairly without a lock.
+ */
+final class TokenBucket {
+
+    private final double nanosPerToken;
+
+    private final long burstNanos;
+
+    private final AtomicLong paidUntil;
+
+    TokenBucket(long tokensPerSecond, long burstMs) {
+        this.nanosPerToken = (double) TimeUnit.SECONDS.toNanos(1) / tokensPerSecond;
+        this.burstNanos = TimeUnit.MILLISECONDS.toNanos(burstMs);
+        this.paidUntil = new AtomicLong(System.nanoTime() - burstNanos);
+    }
+
+    /**
+     * @return nanoseconds to wait before using the tokens, 0 if they are available now
+     */
+    long reserve(long tokens) {
+        long cost = (long) (tokens * nanosPerToken);
+        while (true) {
+            long now = System.nanoTime();
+            long current = paidUntil.get();
+            long next = Math.max(current, now - burstNanos) + cost;
+            if (paidUntil.compareAndSet(current, next)) {
+                return Math.max(0, next - now);
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class AsyncHdfsTest {
+
+    private TestFileSystems fileSystems;
+
+    private HdfsFileSystemPool pool;
+
+    private AsyncHdfs async;
+
+    @Before
+    public void setUp() throws IOException {
+        fileSystems = TestFileSystems.local();
+        pool = new HdfsFileSystemPool(fileSystems.getHdfsConfig(), 4, 60_000);
+        async = create(2, 16, 1);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        async.close();
+        pool.close();
+        fileSystems.close();
+    }
+
+    @Test
+    public void operations_completeFutures() throws Exception {
+        Path dir = fileSystems.getHdfsConfig().getPath();
+        Path file = new Path(dir, "file.txt");
+        Path renamed = new Path(dir, "renamed.txt");
+
+        try (FSDataOutputStream out = async.create(file, true).get(10, TimeUnit.SECONDS)) {
+            out.writeUTF("content");
+        }
+        assertThat(async.rename(file, renamed).get(10, TimeUnit.SECONDS), is(true));
+        FileStatus[] listed = async.list(dir).get(10, TimeUnit.SECONDS);
+        assertThat(listed.length, equalTo(1));
+        assertThat(listed[0].getPath().getName(), equalTo("renamed.txt"));
+        assertThat(async.open(renamed).thenApply(in -> {
+            try {
+                return in.readUTF();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }).get(10, TimeUnit.SECONDS), equalTo("content"));
+        assertThat(async.delete(renamed, false).get(10, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void submit_runsAsGivenUser() throws Exception {
+        assertThat(async.submit("alice",
+            fs -> UserGroupInformation.getCurrentUser().getShortUserName())
+            .get(10, TimeUnit.SECONDS), equalTo("alice"));
+    }
+
+    @Test
+    public void submit_perUserLimitReached_otherUsersNotBlocked() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean secondStarted = new AtomicBoolean();
+        CompletableFuture<Boolean> first = async.submit("alice", fs -> release.await(10,
+            TimeUnit.SECONDS));
+        CompletableFuture<Boolean> second = async.submit("alice", fs -> {
+            secondStarted.set(true);
+            return true;
+        });
+
+        assertThat("other user is not blocked by a busy one",
+            async.submit("bob", fs -> true).get(10, TimeUnit.SECONDS), is(true));
+        assertThat(secondStarted.get(), is(false));
+
+        release.countDown();
+        assertThat(first.get(10, TimeUnit.SECONDS), is(true));
+        assertThat(second.get(10, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void submit_tooManyPending_rejected() throws Exception {
+        async.close();
+        async = create(1, 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Boolean> blocked =
+            async.submit("alice", fs -> release.await(10, TimeUnit.SECONDS));
+
+        CompletableFuture<Boolean> rejected = async.submit("bob", fs -> true);
+
+        assertThat(causeOf(rejected), instanceOf(RejectedExecutionException.class));
+        release.countDown();
+        assertThat(blocked.get(10, TimeUnit.SECONDS), is(true));
+        assertThat("permit returned after completion",
+            async.submit("bob", fs -> true).get(10, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void submit_callThrowsCheckedException_futureFailsWithIt() throws Exception {
+        Exception failure = new Exception("call failed");
+
+        assertThat(causeOf(async.submit("alice", fs -> {
+            throw failure;
+        })), is(failure));
+    }
+
+    @Test
+    public void virtualThreadsRequested_callsCompleteOnAnyJvm() throws Exception {
+        async.close();
+        async = new AsyncHdfs(fileSystems.getHdfsConfig(), pool, 2, 16, 1, true);
+
+        Path dir = fileSystems.getHdfsConfig().getPath();
+        assertThat(async.submit("alice", fs -> fs.mkdirs(dir)).get(10, TimeUnit.SECONDS),
+            is(true));
+    }
+
+    private AsyncHdfs create(int threads, int maxPending, int perUserConcurrency) {
+        return new AsyncHdfs(fileSystems.getHdfsConfig(), pool, threads, maxPending,
+            perUserConcurrency, false);
+    }
+
+    private static Throwable causeOf(CompletableFuture<?> future) throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        throw new AssertionError("future completed normally");
+    }
+}
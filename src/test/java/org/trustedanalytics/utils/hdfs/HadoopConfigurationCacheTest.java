@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HadoopConfigurationCacheTest {
+
+    private static final String PAYLOAD = "{\"hdfs\":[{\"credentials\":{}}]}";
+
+    private final HadoopConfigurationCache cache = new HadoopConfigurationCache(4);
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    public void get_samePayloadAndProfile_loadsOnce() throws IOException {
+        Configuration first = cache.get(PAYLOAD, "cloud", this::load);
+        Configuration second = cache.get(PAYLOAD, "cloud", this::load);
+
+        assertThat(loads.get(), equalTo(1));
+        assertThat(second, not(sameInstance(first)));
+        assertThat(second.get("fs.defaultFS"), equalTo("hdfs://nameservice1"));
+    }
+
+    @Test
+    public void get_differentPayloadOrProfile_loadsAgain() throws IOException {
+        cache.get(PAYLOAD, "cloud", this::load);
+        cache.get(PAYLOAD + " ", "cloud", this::load);
+        cache.get(PAYLOAD, "cloud,test", this::load);
+
+        assertThat(loads.get(), equalTo(3));
+    }
+
+    @Test
+    public void get_callerMutations_doNotLeakIntoCache() throws IOException {
+        Configuration first = cache.get(PAYLOAD, "cloud", this::load);
+        first.set("fs.defaultFS", "file:///");
+        first.set("some.new.property", "value");
+
+        Configuration second = cache.get(PAYLOAD, "cloud", this::load);
+        assertThat(second.get("fs.defaultFS"), equalTo("hdfs://nameservice1"));
+        assertThat(second.get("some.new.property"), nullValue());
+    }
+
+    private Configuration load() {
+        loads.incrementAndGet();
+        Configuration config = new Configuration(true);
+        config.set("fs.defaultFS", "hdfs://nameservice1");
+        return config;
+    }
+}
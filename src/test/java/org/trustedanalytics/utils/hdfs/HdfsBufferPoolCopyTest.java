@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Collection;
+import java.util.Random;
+
+@RunWith(Parameterized.class)
+public class HdfsBufferPoolCopyTest {
+
+    @ClassRule
+    public static final TestFileSystems.Shared FILE_SYSTEMS = new TestFileSystems.Shared();
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> fileSystems() {
+        return TestFileSystems.names();
+    }
+
+    @Parameterized.Parameter
+    public String fileSystem;
+
+    private HdfsConfig hdfsConfig;
+
+    private HdfsBufferPool pool;
+
+    @Before
+    public void setUp() {
+        hdfsConfig = FILE_SYSTEMS.get(fileSystem);
+        pool = new HdfsBufferPool(64 * 1024, 1024 * 1024, 2, true);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FILE_SYSTEMS.clean();
+    }
+
+    @Test
+    public void copy_fileToChannelAndStream_copiesWholeContent() throws IOException {
+        byte[] content = new byte[300 * 1024 + 17];
+        new Random(1).nextBytes(content);
+        Path file = new Path(hdfsConfig.getPath(), "file");
+        try (FSDataOutputStream out = hdfsConfig.getFileSystem().create(file)) {
+            assertThat(pool.copy(new ByteArrayInputStream(content), out),
+                equalTo((long) content.length));
+        }
+
+        ByteArrayOutputStream toChannel = new ByteArrayOutputStream();
+        try (FSDataInputStream in = hdfsConfig.getFileSystem().open(file)) {
+            pool.copy(in, Channels.newChannel(toChannel));
+        }
+        ByteArrayOutputStream fromChannel = new ByteArrayOutputStream();
+        try (FSDataInputStream in = hdfsConfig.getFileSystem().open(file)) {
+            pool.copy(Channels.newChannel(in), fromChannel);
+        }
+
+        assertThat(toChannel.toByteArray(), equalTo(content));
+        assertThat(fromChannel.toByteArray(), equalTo(content));
+        // only the HDFS stream reads into a pooled buffer, the local one is not ByteBufferReadable
+        assertThat(pool.getAllocations(),
+            equalTo(TestFileSystems.EMBEDDED.equals(fileSystem) ? 1L : 0L));
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+public class HdfsBufferPoolTest {
+
+    private HdfsBufferPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new HdfsBufferPool(64 * 1024, 1024 * 1024, 2, true);
+    }
+
+    @Test
+    public void acquire_released_reusedFromSameSizeClass() {
+        HdfsBufferPool.PooledBuffer first = pool.acquire(5000);
+        ByteBuffer buffer = first.buffer();
+        assertThat(buffer.isDirect(), is(true));
+        assertThat(buffer.limit(), equalTo(5000));
+        assertThat(buffer.capacity(), equalTo(8192));
+        first.close();
+
+        try (HdfsBufferPool.PooledBuffer second = pool.acquire(6000)) {
+            assertThat(second.buffer(), sameInstance(buffer));
+            assertThat(second.buffer().limit(), equalTo(6000));
+        }
+        assertThat(pool.getAllocations(), equalTo(1L));
+        assertThat(pool.getReuses(), equalTo(1L));
+    }
+
+    @Test
+    public void acquire_releasedOnOtherThread_reusedThroughSharedQueue() throws Exception {
+        pool = new HdfsBufferPool(64 * 1024, 1024 * 1024, 0, true);
+        ByteBuffer buffer = CompletableFuture.supplyAsync(() -> {
+            HdfsBufferPool.PooledBuffer pooled = pool.acquire(100);
+            pooled.close();
+            return pooled;
+        }).thenApply(pooled -> pool.acquire(100).buffer()).get();
+
+        assertThat(pool.getReuses(), equalTo(1L));
+        assertThat(buffer.capacity(), equalTo(HdfsBufferPool.MIN_BUFFER_SIZE));
+    }
+
+    @Test
+    public void acquire_aboveMaxBufferSize_notPooled() {
+        try (HdfsBufferPool.PooledBuffer large = pool.acquire(100 * 1024)) {
+            assertThat(large.buffer().capacity(), equalTo(100 * 1024));
+        }
+        try (HdfsBufferPool.PooledBuffer large = pool.acquire(100 * 1024)) {
+            assertThat(large.buffer().capacity(), equalTo(100 * 1024));
+            assertThat(pool.getUnpooled(), equalTo(2L));
+            assertThat(pool.getPooledBytes(), equalTo(0L));
+        }
+    }
+
+    @Test
+    public void bufferNotClosed_reportedAsLeak() throws InterruptedException {
+        pool.acquire(100);
+        pool.acquire(200).close();
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (pool.getLeaks() == 0 && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertThat(pool.getLeaks(), equalTo(1L));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void buffer_afterClose_throws() {
+        HdfsBufferPool.PooledBuffer pooled = pool.acquire(10);
+        pooled.close();
+        pooled.buffer();
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+@RunWith(Parameterized.class)
+public class HdfsBulkWriterTest {
+
+    private static TestFileSystems local;
+
+    private static TestFileSystems embedded;
+
+    @BeforeClass
+    public static void startFileSystems() throws IOException {
+        local = TestFileSystems.local();
+        embedded = TestFileSystems.embedded(1);
+    }
+
+    @AfterClass
+    public static void stopFileSystems() throws IOException {
+        local.close();
+        embedded.close();
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> fileSystems() {
+        return Arrays.asList(new Object[] {"local"}, new Object[] {"embedded"});
+    }
+
+    @Parameterized.Parameter
+    public String fileSystem;
+
+    private HdfsConfig hdfsConfig;
+
+    private HdfsBulkWriter writer;
+
+    @Before
+    public void setUp() {
+        hdfsConfig = ("local".equals(fileSystem) ? local : embedded).getHdfsConfig();
+        writer = new HdfsBulkWriter(hdfsConfig, 4, 8);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        writer.close();
+        hdfsConfig.getFileSystem().delete(hdfsConfig.getPath(), true);
+    }
+
+    @Test
+    public void upload_writesEveryItemAsFile() throws IOException {
+        BulkUploadReport report = writer.upload(items(50, 100));
+
+        assertThat(report.isSuccessful(), is(true));
+        assertThat(report.getFiles(), equalTo(50L));
+        assertThat(report.getBytes(), equalTo(50L * 100));
+        for (int i = 0; i < 50; i++) {
+            assertThat(read(new Path(hdfsConfig.getPath(), "dir-" + i % 5 + "/item-" + i)),
+                equalTo(content(i, 100)));
+        }
+    }
+
+    @Test
+    public void uploadPacked_packsSmallItemsIntoContainer() throws IOException {
+        Stream<HdfsBulkWriter.Item> items = Stream.concat(items(20, 10),
+            Stream.of(new HdfsBulkWriter.Item("large", content(99, 1000))));
+
+        BulkUploadReport report = writer.uploadPacked("container.seq", items, 100);
+
+        assertThat(report.getPackedRecords(), equalTo(20L));
+        assertThat(report.getFiles(), equalTo(1L));
+        assertThat(read(new Path(hdfsConfig.getPath(), "large")), equalTo(content(99, 1000)));
+
+        Map<String, byte[]> packed = new HashMap<>();
+        FileSystem fs = hdfsConfig.getFileSystem();
+        Path container = fs.makeQualified(new Path(hdfsConfig.getPath(), "container.seq"));
+        try (SequenceFile.Reader reader = new SequenceFile.Reader(hdfsConfig.getConfiguration(),
+            SequenceFile.Reader.stream(fs.open(container)),
+            SequenceFile.Reader.length(fs.getFileStatus(container).getLen()))) {
+            Text key = new Text();
+            BytesWritable value = new BytesWritable();
+            while (reader.next(key, value)) {
+                packed.put(key.toString(), value.copyBytes());
+            }
+        }
+        assertThat(packed.size(), equalTo(20));
+        assertThat(packed.get("dir-3/item-3"), equalTo(content(3, 10)));
+    }
+
+    @Test
+    public void upload_sourceFailsAndWaitingIsInterrupted_throwsSourceFailure()
+        throws IOException {
+        Stream<HdfsBulkWriter.Item> items = Stream.concat(items(5, 10),
+            Stream.of(0).map(i -> {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("source failed");
+            }));
+
+        IllegalStateException failure = null;
+        try {
+            writer.upload(items);
+        } catch (IllegalStateException e) {
+            failure = e;
+        } finally {
+            Thread.interrupted();
+        }
+
+        assertThat(failure.getMessage(), equalTo("source failed"));
+        assertThat(failure.getSuppressed()[0], instanceOf(InterruptedIOException.class));
+    }
+
+    private static Stream<HdfsBulkWriter.Item> items(int count, int size) {
+        return IntStream.range(0, count)
+            .mapToObj(i -> new HdfsBulkWriter.Item("dir-" + i % 5 + "/item-" + i, content(i, size)));
+    }
+
+    private static byte[] content(int seed, int size) {
+        byte[] content = new byte[size];
+        Arrays.fill(content, (byte) seed);
+        return content;
+    }
+
+    private byte[] read(Path path) throws IOException {
+        try (FSDataInputStream in = hdfsConfig.getFileSystem().open(path)) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+}
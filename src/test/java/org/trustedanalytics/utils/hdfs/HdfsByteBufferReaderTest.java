@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+public class HdfsByteBufferReaderTest {
+
+    private static final int FILE_SIZE = 3 * 1024 * 1024 + 17;
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    @Test
+    public void read_localWithoutChecksums_memoryMapsFile() throws IOException {
+        try (TestFileSystems local = TestFileSystems.local()) {
+            verifyRead(local.getHdfsConfig(), true);
+        }
+    }
+
+    @Test
+    public void read_decoratedLocalWithoutChecksums_memoryMapsFile() throws IOException {
+        try (TestFileSystems local = TestFileSystems.local()) {
+            HdfsConfig plain = local.getHdfsConfig();
+            FileSystem decorated = new MetadataCachingFileSystem(new InstrumentedFileSystem(
+                plain.getFileSystem(), plain.getUser(), new String[0],
+                new SimpleHdfsMetricsRegistry()), 100, 60_000, false);
+            HdfsConfig hdfsConfig = new HdfsConfig(decorated, plain.getUser(), plain.getPath());
+            List<ByteBuffer> chunks = new ArrayList<>();
+
+            verifyRead(hdfsConfig, true, chunks::add);
+
+            assertThat(chunks.stream().allMatch(chunk -> chunk instanceof MappedByteBuffer),
+                equalTo(true));
+        }
+    }
+
+    @Test
+    public void read_localWithChecksums_readsThroughFileSystem() throws IOException {
+        try (TestFileSystems local = TestFileSystems.local()) {
+            verifyRead(local.getHdfsConfig(), false);
+        }
+    }
+
+    @Test
+    public void read_embedded_readsByteBuffers() throws IOException {
+        try (TestFileSystems embedded = TestFileSystems.embedded(1)) {
+            verifyRead(embedded.getHdfsConfig(), true);
+        }
+    }
+
+    private void verifyRead(HdfsConfig hdfsConfig, boolean skipChecksums) throws IOException {
+        verifyRead(hdfsConfig, skipChecksums, chunk -> { });
+    }
+
+    private void verifyRead(HdfsConfig hdfsConfig, boolean skipChecksums,
+                            Consumer<ByteBuffer> chunks) throws IOException {
+        byte[] content = new byte[FILE_SIZE];
+        new Random(FILE_SIZE).nextBytes(content);
+        Path file = new Path(hdfsConfig.getPath(), "file");
+        try (FSDataOutputStream out = hdfsConfig.getFileSystem().create(file)) {
+            out.write(content);
+        }
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        HdfsByteBufferReader reader = new HdfsByteBufferReader(hdfsConfig, skipChecksums, CHUNK_SIZE);
+        long read = reader.read(file, chunk -> {
+            assertThat(chunk.remaining() <= CHUNK_SIZE, equalTo(true));
+            received.write(toArray(chunk), 0, chunk.remaining());
+            chunks.accept(chunk);
+        });
+
+        assertThat(read, equalTo((long) FILE_SIZE));
+        assertThat(received.toByteArray(), equalTo(content));
+    }
+
+    private static byte[] toArray(ByteBuffer chunk) {
+        byte[] bytes = new byte[chunk.remaining()];
+        chunk.duplicate().get(bytes);
+        return bytes;
+    }
+}
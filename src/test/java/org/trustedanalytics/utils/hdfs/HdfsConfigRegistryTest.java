@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.trustedanalytics.hadoop.config.ConfigurationHelperImpl;
+import org.trustedanalytics.hadoop.config.ConfigurationLocator;
+import org.trustedanalytics.hadoop.config.PropertyLocator;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class HdfsConfigRegistryTest {
+
+    private static final String VCAP_SERVICES = "{"
+        + "\"user-provided\":[{\"name\":\"kerberos-service\","
+        + "\"credentials\":{\"kdc\":\"kdc.example\",\"krealm\":\"EXAMPLE\"}}],"
+        + "\"hdfs\":["
+        + "{\"name\":\"source\",\"credentials\":{\"uri\":\"hdfs://source/data\","
+        + "\"HADOOP_CONFIG_KEY\":{\"dfs.replication\":\"1\"}}},"
+        + "{\"name\":\"target\",\"credentials\":{\"uri\":\"hdfs://target/data\","
+        + "\"HADOOP_CONFIG_KEY\":{\"dfs.replication\":\"3\"}}}]}";
+
+    private static TestFileSystems local;
+
+    private static TestFileSystems embedded;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        local = TestFileSystems.local();
+        embedded = TestFileSystems.embedded(1);
+    }
+
+    @AfterClass
+    public static void tearDown() throws IOException {
+        local.close();
+        embedded.close();
+    }
+
+    @Test
+    public void splitServiceInstances_eachInstanceReadableByConfigurationHelper()
+        throws IOException {
+        Map<String, String> split =
+            HdfsConfigRegistry.splitServiceInstances(VCAP_SERVICES, "hdfs");
+
+        assertThat(split.keySet(), equalTo(Sets.newHashSet("source", "target")));
+        ConfigurationHelperImpl helper = ConfigurationHelperImpl.getInstance();
+        String target = split.get("target");
+        assertThat(helper.getPropertyFromJson(target, PropertyLocator.HDFS_URI),
+            equalTo(Optional.of("hdfs://target/data")));
+        assertThat(helper.getConfigurationFromJson(target, ConfigurationLocator.HADOOP)
+            .get("dfs.replication"), equalTo("3"));
+        assertThat(helper.getPropertyFromJson(target, PropertyLocator.KRB_KDC),
+            equalTo(Optional.of("kdc.example")));
+    }
+
+    @Test
+    public void splitServiceInstances_noInstancesBound_returnsEmpty() throws IOException {
+        assertThat(HdfsConfigRegistry.splitServiceInstances("{}", "hdfs").isEmpty(), is(true));
+    }
+
+    @Test
+    public void registry_instancesInitializedInParallel_routedByNameAndUri() throws Exception {
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        HdfsConfigRegistry.InstanceFactory localFactory = closer -> {
+            awaitOther(bothStarted);
+            return new HdfsConfigRegistry.Instance(copy(local.getHdfsConfig()), null);
+        };
+        HdfsConfigRegistry.InstanceFactory embeddedFactory = closer -> {
+            awaitOther(bothStarted);
+            return new HdfsConfigRegistry.Instance(copy(embedded.getHdfsConfig()), null);
+        };
+
+        try (HdfsConfigRegistry registry = new HdfsConfigRegistry(
+            ImmutableMap.of("local", localFactory, "embedded", embeddedFactory), 4, 60_000, 2)) {
+
+            HdfsConfig cluster = registry.get("embedded");
+            Path file = cluster.getFileSystem().makeQualified(new Path("routed.txt"));
+            assertThat(registry.findName(file.toUri()), equalTo(Optional.of("embedded")));
+            assertThat(registry.forPath(file), sameInstance(cluster));
+            assertThat(registry.findName(URI.create("file:///tmp")),
+                equalTo(Optional.of("local")));
+            assertThat(registry.findName(URI.create("hdfs://unknown:8020/")),
+                equalTo(Optional.empty()));
+
+            try (HdfsFileSystemPool.Lease lease = registry.getPool("embedded").acquire("hdfs")) {
+                assertThat(lease.getFileSystem().getUri(),
+                    equalTo(cluster.getFileSystem().getUri()));
+            }
+            assertThat(registry.getLoginUser("local").isPresent(), is(false));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void registry_instanceFails_failsAndReleasesOthers() throws Exception {
+        new HdfsConfigRegistry(ImmutableMap.of(
+            "local", closer -> new HdfsConfigRegistry.Instance(copy(local.getHdfsConfig()), null),
+            "broken", closer -> {
+                throw new IllegalStateException("HDFS_URI not found in VCAP_SERVICES");
+            }), 4, 60_000, 2).close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void get_unknownName_throws() throws IOException {
+        try (HdfsConfigRegistry registry =
+                 new HdfsConfigRegistry(ImmutableMap.of(), 4, 60_000, 1)) {
+            registry.get("missing");
+        }
+    }
+
+    private static void awaitOther(CountDownLatch latch) throws InterruptedException {
+        latch.countDown();
+        assertThat("instances were not initialized in parallel",
+            latch.await(10, TimeUnit.SECONDS), is(true));
+    }
+
+    /**
+     * Registry closes instance FileSystems, so each gets its own rather than the shared one.
+     */
+    private static HdfsConfig copy(HdfsConfig config) throws IOException {
+        FileSystem shared = config.getFileSystem();
+        FileSystem own =
+            FileSystem.newInstance(shared.getUri(), new Configuration(shared.getConf()));
+        own.setWorkingDirectory(config.getPath());
+        return new HdfsConfig(own, config.getUser(), config.getPath());
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.google.common.io.Files;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class HdfsFileSystemPoolTest {
+
+    private HdfsConfig hdfsConfig;
+
+    private HdfsFileSystemPool pool;
+
+    @Before
+    public void setUp() throws IOException {
+        File tmpFolder = Files.createTempDir();
+        tmpFolder.deleteOnExit();
+        hdfsConfig = new HdfsConfig(FileSystem.getLocal(new Configuration()), "hdfs",
+            new Path(tmpFolder.getAbsolutePath()));
+        pool = new HdfsFileSystemPool(hdfsConfig, 1, 60_000);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    public void acquire_sameUser_reusesFileSystem() throws IOException {
+        FileSystem first;
+        try (HdfsFileSystemPool.Lease lease = pool.acquire("alice")) {
+            first = lease.getFileSystem();
+        }
+        try (HdfsFileSystemPool.Lease lease = pool.acquire("alice")) {
+            assertThat(lease.getFileSystem(), sameInstance(first));
+        }
+        assertThat(pool.size(), equalTo(1L));
+    }
+
+    @Test
+    public void acquire_overLimit_evictsLeastRecentlyUsed() throws IOException {
+        FileSystem alice;
+        try (HdfsFileSystemPool.Lease lease = pool.acquire("alice")) {
+            alice = lease.getFileSystem();
+        }
+        try (HdfsFileSystemPool.Lease lease = pool.acquire("bob")) {
+            assertThat(lease.getFileSystem(), not(sameInstance(alice)));
+        }
+        try (HdfsFileSystemPool.Lease lease = pool.acquire("alice")) {
+            assertThat("evicted instance was handed out again",
+                lease.getFileSystem(), not(sameInstance(alice)));
+        }
+        assertThat(pool.size(), equalTo(1L));
+    }
+
+    @Test
+    public void evictedFileSystem_stillUsableWhileLeased() throws IOException {
+        try (HdfsFileSystemPool.Lease alice = pool.acquire("alice")) {
+            pool.acquire("bob").close();
+            assertThat(alice.getFileSystem().exists(hdfsConfig.getPath()), is(true));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void releasedLease_rejectsAccess() throws IOException {
+        HdfsFileSystemPool.Lease lease = pool.acquire("alice");
+        lease.close();
+        lease.getFileSystem();
+    }
+}
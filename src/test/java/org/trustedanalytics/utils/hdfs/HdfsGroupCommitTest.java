@@ -0,0 +1,240 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(Parameterized.class)
+public class HdfsGroupCommitTest {
+
+    @ClassRule
+    public static final TestFileSystems.Shared FILE_SYSTEMS = new TestFileSystems.Shared();
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> fileSystems() {
+        return TestFileSystems.names();
+    }
+
+    @Parameterized.Parameter
+    public String fileSystem;
+
+    private HdfsConfig hdfsConfig;
+
+    @Before
+    public void setUp() {
+        hdfsConfig = FILE_SYSTEMS.get(fileSystem);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FILE_SYSTEMS.clean();
+    }
+
+    @Test
+    public void append_manyThreads_allRecordsWrittenInFewerCommits() throws Exception {
+        HdfsGroupCommit groupCommit = groupCommit(1024 * 1024, 0);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> producers = new ArrayList<>();
+        try (GroupCommitWriter writer = groupCommit.open("events.log")) {
+            for (int thread = 0; thread < 8; thread++) {
+                int id = thread;
+                producers.add(executor.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        writer.append(bytes(id + "-" + i + "\n")).join();
+                    }
+                }));
+            }
+            for (Future<?> producer : producers) {
+                producer.get(60, TimeUnit.SECONDS);
+            }
+
+            assertThat(writer.getCommittedRecords(), equalTo(1600L));
+            assertThat(writer.getCommits(), lessThan(1600L));
+            assertThat(writer.getLatency().getCount(), equalTo(1600L));
+        } finally {
+            executor.shutdown();
+        }
+
+        Set<String> lines = new HashSet<>(Arrays.asList(read("events.log").split("\n")));
+        assertThat(lines.size(), equalTo(1600));
+    }
+
+    @Test
+    public void append_belowBatchBytes_committedWhenBatchFull() throws Exception {
+        HdfsGroupCommit groupCommit = groupCommit(36, 60_000);
+        try (GroupCommitWriter writer = groupCommit.open("events.log")) {
+            List<CompletableFuture<Long>> futures = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                futures.add(writer.append(bytes("record-" + i + "\n")));
+            }
+            Thread.sleep(100);
+            assertThat(futures.stream().anyMatch(CompletableFuture::isDone), is(false));
+
+            futures.add(writer.append(bytes("record-3\n")));
+
+            for (CompletableFuture<Long> future : futures) {
+                assertThat(future.get(10, TimeUnit.SECONDS), equalTo(36L));
+            }
+            assertThat(writer.getCommits(), equalTo(1L));
+        }
+    }
+
+    @Test
+    public void append_belowBatchBytes_committedAfterMaxDelay() throws Exception {
+        HdfsGroupCommit groupCommit = groupCommit(1024 * 1024, 50);
+        try (GroupCommitWriter writer = groupCommit.open("events.log")) {
+            long start = System.nanoTime();
+
+            assertThat(writer.append(bytes("record\n")).get(10, TimeUnit.SECONDS), equalTo(7L));
+
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 50, is(true));
+            assertThat(read("events.log"), equalTo("record\n"));
+        }
+    }
+
+    @Test
+    public void open_existingFile_appendsToIt() throws Exception {
+        HdfsGroupCommit groupCommit = groupCommit(1024 * 1024, 0);
+        try (GroupCommitWriter writer = groupCommit.open("events.log")) {
+            writer.append(bytes("first\n"));
+        }
+
+        try (GroupCommitWriter writer = groupCommit.open("events.log",
+            GroupCommitWriter.Durability.HSYNC)) {
+            assertThat(writer.append(bytes("second\n")).get(10, TimeUnit.SECONDS),
+                equalTo(13L));
+        }
+
+        assertThat(read("events.log"), equalTo("first\nsecond\n"));
+    }
+
+    @Test
+    public void open_existingFileBehindDecorators_appendsToIt() throws Exception {
+        FileSystem decorated = new MetadataCachingFileSystem(new InstrumentedFileSystem(
+            hdfsConfig.getFileSystem(), hdfsConfig.getUser(), new String[0],
+            new SimpleHdfsMetricsRegistry()), 100, 60_000, false);
+        HdfsGroupCommit groupCommit = new HdfsGroupCommit(
+            new HdfsConfig(decorated, hdfsConfig.getUser(), hdfsConfig.getPath()),
+            GroupCommitWriter.Durability.HFLUSH, 16, 1024 * 1024, 0);
+        try (GroupCommitWriter writer = groupCommit.open("events.log")) {
+            writer.append(bytes("first\n"));
+        }
+
+        try (GroupCommitWriter writer = groupCommit.open("events.log")) {
+            assertThat(writer.append(bytes("second\n")).get(10, TimeUnit.SECONDS),
+                equalTo(13L));
+        }
+
+        assertThat(read("events.log"), equalTo("first\nsecond\n"));
+    }
+
+    @Test
+    public void close_durabilityNone_writesQueuedRecords() throws Exception {
+        HdfsGroupCommit groupCommit = groupCommit(1024 * 1024, 60_000);
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+        try (GroupCommitWriter writer = groupCommit.open("events.log",
+            GroupCommitWriter.Durability.NONE)) {
+            for (int i = 0; i < 100; i++) {
+                futures.add(writer.append(bytes("x")));
+            }
+        }
+
+        assertThat(futures.stream().allMatch(CompletableFuture::isDone), is(true));
+        assertThat(read("events.log").length(), equalTo(100));
+    }
+
+    @Test
+    public void append_afterClose_failsFuture() throws Exception {
+        GroupCommitWriter writer = groupCommit(1024 * 1024, 0).open("events.log");
+        writer.close();
+
+        CompletableFuture<Long> future = writer.append(bytes("late\n"));
+
+        try {
+            future.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(IOException.class));
+        }
+        assertThat(future.isCompletedExceptionally(), is(true));
+    }
+
+    @Test
+    public void append_afterCloseMoreThanRingSize_failsWithoutBlocking() throws Exception {
+        GroupCommitWriter writer = groupCommit(1024 * 1024, 0).open("events.log");
+        writer.close();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            List<CompletableFuture<Long>> futures = executor.submit(() -> {
+                List<CompletableFuture<Long>> late = new ArrayList<>();
+                for (int i = 0; i < 100; i++) {
+                    late.add(writer.append(bytes("late\n")));
+                }
+                return late;
+            }).get(10, TimeUnit.SECONDS);
+
+            assertThat(futures.stream().allMatch(CompletableFuture::isCompletedExceptionally),
+                is(true));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private HdfsGroupCommit groupCommit(int batchBytes, long maxDelayMs) {
+        return new HdfsGroupCommit(hdfsConfig, GroupCommitWriter.Durability.HFLUSH, 16,
+            batchBytes, maxDelayMs);
+    }
+
+    private String read(String relativePath) throws IOException {
+        try (FSDataInputStream in = hdfsConfig.getFileSystem()
+            .open(new Path(hdfsConfig.getPath(), relativePath))) {
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] bytes(String record) {
+        return record.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class HdfsHealthProbeTest {
+
+    private TestFileSystems fileSystems;
+
+    @Before
+    public void setUp() throws IOException {
+        fileSystems = TestFileSystems.local();
+        fileSystems.getHdfsConfig().getFileSystem().mkdirs(fileSystems.getHdfsConfig().getPath());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        fileSystems.close();
+    }
+
+    @Test
+    public void probe_keepsLatenciesOfLastWindow() {
+        HdfsHealthProbe probe = new HdfsHealthProbe(fileSystems.getHdfsConfig(), 3);
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(probe.probe(), is(true));
+        }
+
+        assertThat(probe.isHealthy(), is(true));
+        assertThat(probe.getProbes(), equalTo(5L));
+        assertThat(probe.getLatencyMillis().length, equalTo(3));
+        assertThat(probe.getDetails().get("status"), equalTo("UP"));
+    }
+
+    @Test
+    public void probe_pathMissing_unhealthyUntilNextSuccess() throws IOException {
+        HdfsConfig hdfsConfig = fileSystems.getHdfsConfig();
+        HdfsHealthProbe probe = new HdfsHealthProbe(new HdfsConfig(hdfsConfig.getFileSystem(),
+            hdfsConfig.getUser(), new Path(hdfsConfig.getPath(), "missing")), 3);
+
+        assertThat(probe.isHealthy(), is(false));
+        assertThat(probe.probe(), is(false));
+        assertThat(probe.getConsecutiveFailures(), equalTo(1L));
+        assertThat(probe.getDetails().get("status"), equalTo("DOWN"));
+
+        hdfsConfig.getFileSystem().mkdirs(new Path(hdfsConfig.getPath(), "missing"));
+        assertThat(probe.probe(), is(true));
+        assertThat(probe.isHealthy(), is(true));
+        assertThat(probe.getFailures(), equalTo(1L));
+    }
+
+    @Test
+    public void start_probesInBackground() throws Exception {
+        try (HdfsHealthProbe probe = new HdfsHealthProbe(fileSystems.getHdfsConfig(), 10)
+            .start(10)) {
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (probe.getProbes() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(probe.getProbes() >= 3, is(true));
+        }
+    }
+}
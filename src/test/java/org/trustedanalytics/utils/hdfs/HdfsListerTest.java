@@ -0,0 +1,209 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+@RunWith(Parameterized.class)
+public class HdfsListerTest {
+
+    private static final int DIRS = 3;
+
+    private static final int FILES_PER_DIR = 40;
+
+    private static final int NESTED_FILES = 5;
+
+    /**
+     * Every directory has FILES_PER_DIR files, half of them .csv, and a nested directory.
+     */
+    private static final int ENTRIES = DIRS * (FILES_PER_DIR + 1 + NESTED_FILES) + DIRS;
+
+    private static final PathFilter CSV = path -> path.getName().endsWith(".csv");
+
+    private static TestFileSystems local;
+
+    private static TestFileSystems embedded;
+
+    @BeforeClass
+    public static void startFileSystems() throws IOException {
+        local = TestFileSystems.local();
+        // small NameNode listing batches, so listings are really fetched incrementally
+        Configuration config = new Configuration(false);
+        config.setInt(DFSConfigKeys.DFS_LIST_LIMIT, 16);
+        embedded = TestFileSystems.embedded(1, config);
+        createTree(local.getHdfsConfig());
+        createTree(embedded.getHdfsConfig());
+    }
+
+    @AfterClass
+    public static void stopFileSystems() throws IOException {
+        local.close();
+        embedded.close();
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> fileSystems() {
+        return Arrays.asList(new Object[] {"local"}, new Object[] {"embedded"});
+    }
+
+    @Parameterized.Parameter
+    public String fileSystem;
+
+    private HdfsLister lister;
+
+    @Before
+    public void setUp() {
+        HdfsConfig hdfsConfig = ("local".equals(fileSystem) ? local : embedded).getHdfsConfig();
+        lister = new HdfsLister(hdfsConfig, 16, 4);
+    }
+
+    @After
+    public void tearDown() {
+        lister.close();
+    }
+
+    @Test
+    public void list_filter_returnsAcceptedEntriesOfDirectory() throws IOException {
+        assertThat(lister.list(new Path("dir-0"), null).count(),
+            equalTo((long) FILES_PER_DIR + 1));
+        assertThat(lister.list(new Path("dir-0"), CSV).count(),
+            equalTo((long) FILES_PER_DIR / 2));
+    }
+
+    @Test
+    public void forEachPage_returnsBoundedPages() throws IOException {
+        List<Integer> pageSizes = new ArrayList<>();
+
+        long count = lister.forEachPage(new Path("dir-1"), null,
+            page -> pageSizes.add(page.size()));
+
+        assertThat(count, equalTo((long) FILES_PER_DIR + 1));
+        assertThat(pageSizes, equalTo(Arrays.asList(16, 16, 9)));
+    }
+
+    @Test
+    public void walk_visitsWholeTreeLazily() throws IOException {
+        assertThat(lister.walk(new Path("."), null).count(), equalTo((long) ENTRIES));
+        assertThat(lister.walk(new Path("."), CSV).count(),
+            equalTo((long) DIRS * FILES_PER_DIR / 2));
+        assertThat(lister.walk(new Path("."), null).limit(3).count(), equalTo(3L));
+    }
+
+    @Test
+    public void walkParallel_visitsSameEntriesAsWalk() throws IOException {
+        Set<Path> visited = ConcurrentHashMap.newKeySet();
+
+        long count = lister.walkParallel(new Path("."), null, status -> visited.add(
+            status.getPath()));
+
+        assertThat(count, equalTo((long) ENTRIES));
+        assertThat(visited, equalTo(lister.walk(new Path("."), null)
+            .map(FileStatus::getPath)
+            .collect(Collectors.toSet())));
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void walkParallel_missingRoot_throws() throws IOException {
+        lister.walkParallel(new Path("missing"), null, status -> { });
+    }
+
+    @Test
+    public void walkParallel_directoryFailsAfterForking_keepsItsFailure() throws IOException {
+        AtomicInteger dirs = new AtomicInteger();
+        PathFilter failingOnLastDir = path -> {
+            if (path.getName().startsWith("dir-") && dirs.incrementAndGet() == DIRS) {
+                throw new IllegalStateException("root failure");
+            }
+            return true;
+        };
+
+        try {
+            lister.walkParallel(new Path("."), failingOnLastDir, status -> {
+                if (status.getPath().getName().startsWith("file-")) {
+                    throw new IllegalStateException("subtree failure");
+                }
+            });
+            throw new AssertionError("walk succeeded");
+        } catch (IllegalStateException e) {
+            // rethrown by the pool, possibly as a copy caused by the original
+            Throwable failure = "root failure".equals(e.getMessage()) ? e : e.getCause();
+            assertThat(failure.getMessage(), equalTo("root failure"));
+            assertThat(failure.getSuppressed().length, equalTo(DIRS - 1));
+        }
+    }
+
+    @Test
+    public void list_returnsEntriesWithoutBlockLocations() throws IOException {
+        List<FileStatus> entries = lister.list(new Path("dir-0"), null)
+            .collect(Collectors.toList());
+
+        assertThat(entries.size(), equalTo(FILES_PER_DIR + 1));
+        assertThat(entries.stream().anyMatch(LocatedFileStatus.class::isInstance), is(false));
+        assertThat(entries.get(0).getPath().toUri().getScheme(), is(notNullValue()));
+    }
+
+    @Test
+    public void list_relativeAndAbsolutePath_sameEntries() throws IOException {
+        HdfsConfig hdfsConfig = ("local".equals(fileSystem) ? local : embedded).getHdfsConfig();
+        Path absolute = new Path(hdfsConfig.getPath(), "dir-2");
+
+        assertThat(lister.list(absolute, CSV).count(),
+            is(lister.list(new Path("dir-2"), CSV).count()));
+    }
+
+    private static void createTree(HdfsConfig hdfsConfig) throws IOException {
+        FileSystem fs = hdfsConfig.getFileSystem();
+        for (int d = 0; d < DIRS; d++) {
+            Path dir = new Path(hdfsConfig.getPath(), "dir-" + d);
+            for (int f = 0; f < FILES_PER_DIR; f++) {
+                fs.createNewFile(new Path(dir, "file-" + f + (f % 2 == 0 ? ".csv" : ".json")));
+            }
+            Path nested = new Path(dir, "nested");
+            for (int f = 0; f < NESTED_FILES; f++) {
+                fs.createNewFile(new Path(nested, "part-" + f));
+            }
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@RunWith(Parameterized.class)
+public class HdfsRecordsTest {
+
+    private static final RecordFormat FORMAT = new RecordFormat("default", 4096);
+
+    @ClassRule
+    public static final TestFileSystems.Shared FILE_SYSTEMS = new TestFileSystems.Shared();
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> fileSystems() {
+        return TestFileSystems.names();
+    }
+
+    @Parameterized.Parameter
+    public String fileSystem;
+
+    private HdfsConfig hdfsConfig;
+
+    @Before
+    public void setUp() {
+        hdfsConfig = FILE_SYSTEMS.get(fileSystem);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FILE_SYSTEMS.clean();
+    }
+
+    @Test
+    public void openReader_afterWriterClosed_readsRecordsInOrder() throws IOException {
+        HdfsRecords records = new HdfsRecords(hdfsConfig, FORMAT, Long.MAX_VALUE, 0);
+        List<byte[]> rows = rows(1000);
+        try (HdfsRecordWriter writer = records.openWriter("events")) {
+            for (byte[] row : rows) {
+                writer.append(row);
+            }
+        }
+
+        assertThat(strings(records.openReader("events")), equalTo(strings(rows)));
+        FileStatus[] files = hdfsConfig.getFileSystem().listStatus(path("events"));
+        assertThat(files.length, equalTo(1));
+        assertThat(HdfsRecordWriter.isCompleted(files[0].getPath()), is(true));
+        assertThat(files[0].getLen(), lessThan(totalLength(rows)));
+    }
+
+    @Test
+    public void append_aboveRollSize_rollsToNextFile() throws IOException {
+        HdfsRecords records = new HdfsRecords(hdfsConfig, FORMAT, 2048, 0);
+        List<byte[]> rows = rows(2000);
+        long files;
+        try (HdfsRecordWriter writer = records.openWriter("events")) {
+            for (byte[] row : rows) {
+                writer.append(row);
+            }
+            files = writer.getFilesCompleted();
+        }
+
+        assertThat(files, greaterThan(1L));
+        assertThat(hdfsConfig.getFileSystem().listStatus(path("events")).length,
+            equalTo((int) files + 1));
+        assertThat(strings(records.openReader("events")), equalTo(strings(rows)));
+    }
+
+    @Test
+    public void append_afterRollInterval_rollsToNextFile() throws Exception {
+        HdfsRecords records = new HdfsRecords(hdfsConfig, FORMAT, Long.MAX_VALUE, 50);
+        try (HdfsRecordWriter writer = records.openWriter("events")) {
+            writer.append(bytes("first"));
+            Thread.sleep(100);
+            writer.append(bytes("second"));
+            assertThat(writer.getFilesCompleted(), equalTo(1L));
+        }
+
+        assertThat(strings(records.openReader("events")), equalTo(
+            Arrays.asList("first", "second")));
+    }
+
+    @Test
+    public void rollInterval_idleWriter_completesFileInBackground() throws Exception {
+        HdfsRecords records = new HdfsRecords(hdfsConfig, FORMAT, Long.MAX_VALUE, 50);
+        try (HdfsRecordWriter writer = records.openWriter("events")) {
+            writer.append(bytes("idle"));
+            Thread.sleep(300);
+
+            assertThat(writer.getFilesCompleted(), equalTo(1L));
+            assertThat(strings(records.openReader("events")),
+                equalTo(Collections.singletonList("idle")));
+        }
+    }
+
+    @Test
+    public void openReader_fileInProgress_notRead() throws IOException {
+        HdfsRecords records = new HdfsRecords(hdfsConfig, FORMAT, Long.MAX_VALUE, 0);
+        try (HdfsRecordWriter writer = records.openWriter("events")) {
+            writer.append(bytes("completed"));
+            writer.roll();
+            writer.append(bytes("in progress"));
+            writer.flush();
+
+            assertThat(strings(records.openReader("events")),
+                equalTo(Arrays.asList("completed")));
+        }
+    }
+
+    @Test
+    public void openWriter_noCompression_readsBack() throws IOException {
+        HdfsRecords records = new HdfsRecords(hdfsConfig, FORMAT, Long.MAX_VALUE, 0);
+        List<byte[]> rows = rows(100);
+        try (HdfsRecordWriter writer = records.openWriter("plain",
+            new RecordFormat(RecordFormat.NO_COMPRESSION, 4096))) {
+            for (byte[] row : rows) {
+                writer.append(row);
+            }
+        }
+
+        assertThat(strings(records.openReader("plain")), equalTo(strings(rows)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void openWriter_unknownCodec_throwsIllegalArgumentException() {
+        new HdfsRecords(hdfsConfig, FORMAT, Long.MAX_VALUE, 0)
+            .openWriter("events", new RecordFormat("unknown", 4096));
+    }
+
+    @Test
+    public void measure_availableFormats_sortedByThroughput() throws IOException {
+        HdfsRecords records = new HdfsRecords(hdfsConfig, FORMAT, Long.MAX_VALUE, 0);
+
+        List<HdfsRecords.Measurement> measurements = records.measure(rows(100),
+            Arrays.asList(RecordFormat.NO_COMPRESSION, "default", "unknown"),
+            Arrays.asList(4096, 65536), 256 * 1024);
+
+        assertThat(measurements.size(), equalTo(4));
+        for (int i = 1; i < measurements.size(); i++) {
+            assertThat(measurements.get(i - 1).getBytesPerSecond(),
+                greaterThanOrEqualTo(measurements.get(i).getBytesPerSecond()));
+        }
+        for (HdfsRecords.Measurement measurement : measurements) {
+            assertThat(measurement.getFormat().getCodec(), not(equalTo("unknown")));
+            assertThat(measurement.getBytes(), greaterThanOrEqualTo(256 * 1024L));
+            if (measurement.getFormat().isCompressed()) {
+                assertThat(measurement.getCompressionRatio(), greaterThan(2.0));
+            }
+        }
+        assertThat(hdfsConfig.getFileSystem().listStatus(hdfsConfig.getPath()).length,
+            equalTo(0));
+    }
+
+    private Path path(String relativePath) {
+        return new Path(hdfsConfig.getPath(), relativePath);
+    }
+
+    private static List<byte[]> rows(int count) {
+        List<byte[]> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            rows.add(bytes(i + ",user-" + (i % 37) + ",PL," + (i * 31 % 1000) + ".25"));
+        }
+        return rows;
+    }
+
+    private static byte[] bytes(String row) {
+        return row.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long totalLength(List<byte[]> rows) {
+        return rows.stream().mapToLong(row -> row.length).sum();
+    }
+
+    private static List<String> strings(List<byte[]> rows) {
+        return strings(rows.stream());
+    }
+
+    private static List<String> strings(HdfsRecordReader reader) {
+        try (Stream<byte[]> records = reader.stream()) {
+            return strings(records);
+        }
+    }
+
+    private static List<String> strings(Stream<byte[]> rows) {
+        return rows.map(row -> new String(row, StandardCharsets.UTF_8))
+            .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+@RunWith(Parameterized.class)
+public class HdfsSplitPlannerTest {
+
+    private static final int BLOCK_SIZE = 1024 * 1024;
+
+    @ClassRule
+    public static final TestFileSystems.Shared FILE_SYSTEMS =
+        new TestFileSystems.Shared(() -> TestFileSystems.embedded("host-1", "host-2", "host-3"));
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> fileSystems() {
+        return TestFileSystems.names();
+    }
+
+    @Parameterized.Parameter
+    public String fileSystem;
+
+    private HdfsConfig hdfsConfig;
+
+    private HdfsSplitPlanner planner;
+
+    @Before
+    public void setUp() {
+        hdfsConfig = FILE_SYSTEMS.get(fileSystem);
+        planner = new HdfsSplitPlanner(hdfsConfig, 4, BLOCK_SIZE, 256 * 1024);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        planner.close();
+        FILE_SYSTEMS.clean();
+    }
+
+    @Test
+    public void plan_multiBlockFile_splitsAlignedToBlocks() throws IOException {
+        write("data/file", BLOCK_SIZE * 7 / 2);
+
+        List<ReadSplit> splits = planner.plan(new Path("data"));
+
+        assertThat(starts(splits), equalTo(Arrays.asList(0L, 1L * BLOCK_SIZE, 2L * BLOCK_SIZE,
+            3L * BLOCK_SIZE)));
+        assertThat(splits.get(3).getEnd(), equalTo(BLOCK_SIZE * 7 / 2L));
+        FileSystem fs = hdfsConfig.getFileSystem();
+        String hostPrefix = "local".equals(fileSystem) ? "localhost" : "host-";
+        for (ReadSplit split : splits) {
+            assertThat(split.getPath().getName(), equalTo("file"));
+            assertThat(split.getHosts().get(0), startsWith(hostPrefix));
+            assertThat(split.getHosts(), equalTo(Arrays.asList(
+                fs.getFileBlockLocations(split.getPath(), split.getStart(), 1)[0].getHosts())));
+        }
+    }
+
+    @Test
+    public void plan_maxSplitSizeAboveBlockSize_combinesConsecutiveBlocks() throws IOException {
+        write("data/file", BLOCK_SIZE * 7 / 2);
+        try (HdfsSplitPlanner combining = new HdfsSplitPlanner(hdfsConfig, 4, 2 * BLOCK_SIZE,
+            256 * 1024)) {
+
+            List<ReadSplit> splits = combining.plan(new Path("data/file"));
+
+            assertThat(starts(splits), equalTo(Arrays.asList(0L, 2L * BLOCK_SIZE)));
+            assertThat(splits.get(0).getLength(), equalTo(2L * BLOCK_SIZE));
+            assertThat(splits.get(1).getLength(), equalTo(BLOCK_SIZE * 3 / 2L));
+            assertThat(splits.get(0).getHosts().isEmpty(), is(false));
+        }
+    }
+
+    @Test
+    public void plan_directory_skipsHiddenAndEmptyFiles() throws IOException {
+        write("data/a", 100);
+        write("data/sub/b", 100);
+        write("data/.in-progress", 100);
+        write("data/_temporary/c", 100);
+        write("data/_SUCCESS", 0);
+        write("data/empty", 0);
+
+        List<ReadSplit> splits = planner.plan(new Path("data"));
+
+        assertThat(splits.stream().map(split -> split.getPath().getName())
+            .collect(Collectors.toList()), equalTo(Arrays.asList("a", "b")));
+    }
+
+    @Test
+    public void read_ordered_deliversChunksInFileOrderOnCallingThread() throws IOException {
+        byte[] first = write("data/1", BLOCK_SIZE * 7 / 2);
+        byte[] second = write("data/2", BLOCK_SIZE * 3 / 2);
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        Thread caller = Thread.currentThread();
+        AtomicInteger otherThreads = new AtomicInteger();
+
+        long bytes = planner.read(planner.plan(new Path("data")), true,
+            (split, position, data, length) -> {
+                if (Thread.currentThread() != caller) {
+                    otherThreads.incrementAndGet();
+                }
+                read.write(data, 0, length);
+            });
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(first);
+        expected.write(second);
+        assertThat(bytes, equalTo((long) expected.size()));
+        assertThat(Arrays.equals(read.toByteArray(), expected.toByteArray()), is(true));
+        assertThat(otherThreads.get(), equalTo(0));
+    }
+
+    @Test
+    public void read_unordered_deliversAllChunksFromPoolThreads() throws IOException {
+        Map<String, byte[]> expected = new HashMap<>();
+        expected.put("1", write("data/1", BLOCK_SIZE * 7 / 2));
+        expected.put("2", write("data/2", 1000));
+        Map<String, byte[]> read = new ConcurrentHashMap<>();
+        expected.forEach((name, content) -> read.put(name, new byte[content.length]));
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+
+        long bytes = planner.read(planner.plan(new Path("data")), false,
+            (split, position, data, length) -> {
+                threads.add(Thread.currentThread().getName());
+                System.arraycopy(data, 0, read.get(split.getPath().getName()), (int) position,
+                    length);
+            });
+
+        assertThat(bytes, equalTo(BLOCK_SIZE * 7 / 2L + 1000));
+        for (String name : expected.keySet()) {
+            assertThat(Arrays.equals(read.get(name), expected.get(name)), is(true));
+        }
+        assertThat(threads.stream().allMatch(name -> name.startsWith("hdfs-split-")), is(true));
+    }
+
+    @Test
+    public void read_consumerFails_throwsItsExceptionAndStopsReading() throws Exception {
+        write("data/file", BLOCK_SIZE * 7 / 2);
+        List<ReadSplit> splits = planner.plan(new Path("data"));
+
+        for (boolean ordered : Arrays.asList(true, false)) {
+            AtomicInteger calls = new AtomicInteger();
+            String failure = null;
+            try {
+                planner.read(splits, ordered, (split, position, data, length) -> {
+                    calls.incrementAndGet();
+                    throw new IOException("consumer failed");
+                });
+            } catch (IOException e) {
+                failure = e.getMessage();
+            }
+            int callsOnReturn = calls.get();
+            Thread.sleep(100);
+
+            assertThat(failure, equalTo("consumer failed"));
+            assertThat(calls.get(), equalTo(callsOnReturn));
+            assertThat(callsOnReturn, lessThan(14));
+        }
+    }
+
+    @Test
+    public void assign_splitsOnWorkerHosts_localWithinEvenShare() {
+        List<ReadSplit> splits = Arrays.asList(
+            split("a", 0, "host-1"), split("a", 1, "host-1"), split("a", 2, "host-1"),
+            split("a", 3, "host-1"), split("b", 0, "host-2"), split("b", 1, "host-2"));
+
+        Map<String, List<ReadSplit>> assigned = HdfsSplitPlanner.assign(splits,
+            Arrays.asList("host-1", "host-2", "host-3", "host-4"));
+
+        assertThat(assigned.get("host-1"), equalTo(Arrays.asList(splits.get(0), splits.get(1))));
+        assertThat(assigned.get("host-2"), equalTo(Arrays.asList(splits.get(4), splits.get(5))));
+        assertThat(assigned.get("host-3"), equalTo(Collections.singletonList(splits.get(2))));
+        assertThat(assigned.get("host-4"), equalTo(Collections.singletonList(splits.get(3))));
+    }
+
+    private byte[] write(String relativePath, int length) throws IOException {
+        byte[] content = new byte[length];
+        new Random(length).nextBytes(content);
+        try (FSDataOutputStream out = hdfsConfig.getFileSystem().create(
+            new Path(hdfsConfig.getPath(), relativePath), true, 4096, (short) 1, BLOCK_SIZE)) {
+            out.write(content);
+        }
+        return content;
+    }
+
+    private static ReadSplit split(String file, int block, String host) {
+        return new ReadSplit(new Path("/data", file), (long) block * BLOCK_SIZE, BLOCK_SIZE,
+            Collections.singletonList(host));
+    }
+
+    private static List<Long> starts(List<ReadSplit> splits) {
+        return splits.stream().map(ReadSplit::getStart).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Random;
+
+@RunWith(Parameterized.class)
+public class HdfsSyncTest {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    @ClassRule
+    public static final TestFileSystems.Shared FILE_SYSTEMS = new TestFileSystems.Shared();
+
+    @Parameterized.Parameters(name = "local to {0}")
+    public static Collection<Object[]> fileSystems() {
+        return TestFileSystems.names();
+    }
+
+    @Parameterized.Parameter
+    public String fileSystem;
+
+    private TestFileSystems sourceFileSystems;
+
+    private HdfsConfig source;
+
+    private HdfsConfig target;
+
+    private HdfsSync sync;
+
+    @Before
+    public void setUp() throws IOException {
+        sourceFileSystems = TestFileSystems.local();
+        source = sourceFileSystems.getHdfsConfig();
+        target = FILE_SYSTEMS.get(fileSystem);
+        sync = new HdfsSync(4, CHUNK_SIZE, false);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        sync.close();
+        sourceFileSystems.close();
+        FILE_SYSTEMS.clean();
+    }
+
+    @Test
+    public void sync_directoryTree_copiesAllFiles() throws IOException {
+        byte[] large = write(source, "a/large.bin", 5 * CHUNK_SIZE + 123);
+        byte[] small = write(source, "a/b/small.bin", 100);
+        byte[] empty = write(source, "empty.bin", 0);
+
+        SyncReport report = sync.sync(source, target);
+
+        assertThat(report.isSuccessful(), is(true));
+        assertThat(report.getFilesCopied(), equalTo(3L));
+        assertThat(report.getBytesCopied(), equalTo((long) large.length + small.length));
+        assertThat(read(target, "a/large.bin"), equalTo(large));
+        assertThat(read(target, "a/b/small.bin"), equalTo(small));
+        assertThat(read(target, "empty.bin"), equalTo(empty));
+        assertThat(target.getFileSystem().getFileStatus(path(target, "a/large.bin"))
+                .getModificationTime() / 1000,
+            equalTo(source.getFileSystem().getFileStatus(path(source, "a/large.bin"))
+                .getModificationTime() / 1000));
+    }
+
+    @Test
+    public void sync_secondRun_skipsUnchangedFiles() throws IOException {
+        write(source, "a/large.bin", 3 * CHUNK_SIZE);
+        write(source, "small.bin", 100);
+        sync.sync(source, target);
+
+        byte[] changed = write(source, "small.bin", 200);
+        SyncReport report = sync.sync(source, target);
+
+        assertThat(report.getFilesSkipped(), equalTo(1L));
+        assertThat(report.getFilesCopied(), equalTo(1L));
+        assertThat(read(target, "small.bin"), equalTo(changed));
+    }
+
+    @Test
+    public void sync_sameLengthAndTime_copiedOnlyWhenComparingChecksums() throws IOException {
+        write(source, "file.bin", 1000);
+        sync.sync(source, target);
+        long mtime = target.getFileSystem().getFileStatus(path(target, "file.bin"))
+            .getModificationTime();
+        write(target, "file.bin", 1000);
+        target.getFileSystem().setTimes(path(target, "file.bin"), mtime, -1);
+
+        assertThat(sync.sync(source, target).getFilesSkipped(), equalTo(1L));
+
+        try (HdfsSync checksums = new HdfsSync(4, CHUNK_SIZE, true)) {
+            assertThat(checksums.sync(source, target).getFilesCopied(), equalTo(1L));
+            assertThat(read(target, "file.bin"), equalTo(read(source, "file.bin")));
+            assertThat(checksums.sync(source, target).getFilesSkipped(), equalTo(1L));
+        }
+    }
+
+    @Test
+    public void sync_partialCopyLeft_resumesFromItsLength() throws IOException {
+        verifyResumed(target);
+    }
+
+    @Test
+    public void sync_partialCopyLeftInDecoratedTarget_resumesFromItsLength() throws IOException {
+        FileSystem decorated = new MetadataCachingFileSystem(new InstrumentedFileSystem(
+            target.getFileSystem(), target.getUser(), new String[0],
+            new SimpleHdfsMetricsRegistry()), 100, 60_000, false);
+
+        verifyResumed(new HdfsConfig(decorated, target.getUser(), target.getPath()));
+    }
+
+    private void verifyResumed(HdfsConfig syncTarget) throws IOException {
+        byte[] content = write(source, "dir/file.bin", 4 * CHUNK_SIZE + 10);
+        long mtime = source.getFileSystem().getFileStatus(path(source, "dir/file.bin"))
+            .getModificationTime();
+        String partial = "dir/file.bin." + mtime + HdfsSync.PARTIAL_SUFFIX;
+        int copied = CHUNK_SIZE + 5;
+        try (FSDataOutputStream out = target.getFileSystem().create(path(target, partial))) {
+            out.write(content, 0, copied);
+        }
+        write(target, "dir/file.bin.1" + HdfsSync.PARTIAL_SUFFIX, 10);
+
+        SyncReport report = sync.sync(source, syncTarget);
+
+        assertThat(report.getFilesResumed(), equalTo(1L));
+        assertThat(report.getBytesCopied(), equalTo((long) content.length - copied));
+        assertThat(read(target, "dir/file.bin"), equalTo(content));
+        assertThat(target.getFileSystem().listStatus(path(target, "dir")).length, equalTo(1));
+    }
+
+    @Test
+    public void sync_singleFile_copiesToTargetPath() throws IOException {
+        byte[] content = write(source, "file.bin", 2 * CHUNK_SIZE);
+
+        SyncReport report = sync.sync(source, new Path("file.bin"), target, new Path("x/y.bin"));
+
+        assertThat(report.getFilesCopied(), equalTo(1L));
+        assertThat(read(target, "x/y.bin"), equalTo(content));
+    }
+
+    private static Path path(HdfsConfig config, String relativePath) {
+        return new Path(config.getPath(), relativePath);
+    }
+
+    private static byte[] write(HdfsConfig config, String relativePath, int length)
+        throws IOException {
+        byte[] content = new byte[length];
+        new Random().nextBytes(content);
+        try (FSDataOutputStream out = config.getFileSystem()
+            .create(path(config, relativePath), true)) {
+            out.write(content);
+        }
+        return content;
+    }
+
+    private static byte[] read(HdfsConfig config, String relativePath) throws IOException {
+        FileSystem fs = config.getFileSystem();
+        Path path = path(config, relativePath);
+        byte[] content = new byte[(int) fs.getFileStatus(path).getLen()];
+        try (FSDataInputStream in = fs.open(path)) {
+            IOUtils.readFully(in, content, 0, content.length);
+        }
+        return content;
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class HdfsTenantsTest {
+
+    private TestFileSystems fileSystems;
+
+    private HdfsConfig base;
+
+    @Before
+    public void setUp() throws IOException {
+        fileSystems = TestFileSystems.local();
+        base = fileSystems.getHdfsConfig();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        fileSystems.close();
+    }
+
+    @Test
+    public void forTenant_pathsResolvedUnderTenantDirectory() throws IOException {
+        HdfsConfig view = new HdfsTenants(base, 0, 0, 1000).forTenant("alice");
+        FileSystem fs = view.getFileSystem();
+
+        fs.create(new Path("/data/a.csv")).close();
+        fs.create(new Path("relative.csv")).close();
+
+        FileSystem shared = base.getFileSystem();
+        assertThat(shared.exists(new Path(base.getPath(), "alice/data/a.csv")), is(true));
+        assertThat(shared.exists(new Path(base.getPath(), "alice/relative.csv")), is(true));
+        FileStatus[] listed = fs.listStatus(new Path(view.getPath(), "data"));
+        assertThat(listed.length, equalTo(1));
+        assertThat(listed[0].getPath().toUri().getPath(), equalTo("/data/a.csv"));
+        assertThat(fs.getFileStatus(new Path("/")).isDirectory(), is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void forTenant_pathLeavingRoot_rejected() throws IOException {
+        new HdfsTenants(base, 0, 0, 1000).forTenant("alice").getFileSystem()
+            .exists(new Path("/../bob/secret.csv"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void forTenant_nameWithSeparator_rejected() {
+        new HdfsTenants(base, 0, 0, 1000).forTenant("alice/../bob");
+    }
+
+    @Test
+    public void forTenant_viewClosed_sharedFileSystemStillUsable() throws IOException {
+        HdfsTenants tenants = new HdfsTenants(base, 0, 0, 1000);
+        HdfsConfig view = tenants.forTenant("alice");
+
+        view.getFileSystem().close();
+
+        assertThat(tenants.forTenant("alice"), sameInstance(view));
+        assertThat(view.getFileSystem().mkdirs(new Path("dir")), is(true));
+        assertThat(base.getFileSystem().exists(new Path(base.getPath(), "alice/dir")), is(true));
+    }
+
+    @Test
+    public void forTenant_viewClosed_deletesItsDeleteOnExitPaths() throws IOException {
+        FileSystem fs = new HdfsTenants(base, 0, 0, 1000).forTenant("alice").getFileSystem();
+        fs.create(new Path("temporary.csv")).close();
+        fs.deleteOnExit(new Path("temporary.csv"));
+
+        fs.close();
+
+        assertThat(base.getFileSystem().exists(new Path(base.getPath(), "alice/temporary.csv")),
+            is(false));
+        assertThat(base.getFileSystem().exists(base.getPath()), is(true));
+    }
+
+    @Test
+    public void byteQuota_writesThrottledAndCountedPerTenant() throws IOException {
+        HdfsTenants tenants = new HdfsTenants(base, 100_000, 0, 100);
+        HdfsConfig alice = tenants.forTenant("alice");
+
+        long start = System.nanoTime();
+        try (FSDataOutputStream out = alice.getFileSystem().create(new Path("file"))) {
+            for (int i = 0; i < 6; i++) {
+                out.write(new byte[10_000]);
+            }
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        tenants.forTenant("bob").getFileSystem().exists(new Path("file"));
+
+        TenantStats stats = tenants.getStats("alice").get();
+        assertThat("60 KB over a 10 KB burst at 100 KB/s takes 500 ms", elapsedMs >= 450,
+            is(true));
+        assertThat(stats.getBytesWritten(), equalTo(60_000L));
+        assertThat(stats.getThrottled() > 0, is(true));
+        assertThat(tenants.getStats("bob").get().getBytesWritten(), equalTo(0L));
+        assertThat(tenants.getStats("bob").get().getOperations(), equalTo(1L));
+    }
+
+    @Test
+    public void operationQuota_callsThrottled() throws IOException {
+        HdfsTenants tenants = new HdfsTenants(base, 0, 100, 10);
+        FileSystem fs = tenants.forTenant("alice").getFileSystem();
+        fs.mkdirs(new Path("/"));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            fs.getFileStatus(new Path("/"));
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertThat("20 calls at 100 per second take 200 ms", elapsedMs >= 180, is(true));
+        assertThat(tenants.getStats("alice").get().getOperations(), equalTo(21L));
+    }
+
+    @Test
+    public void serverDefaults_countedAsOperation_defaultBlockSizeFree() throws IOException {
+        HdfsTenants tenants = new HdfsTenants(base, 0, 100, 10);
+        FileSystem fs = tenants.forTenant("alice").getFileSystem();
+
+        fs.getServerDefaults(new Path("/"));
+        fs.getDefaultBlockSize(new Path("/"));
+
+        assertThat(tenants.getStats("alice").get().getOperations(), equalTo(1L));
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.hasItems;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class HdfsWarmupTest {
+
+    private TestFileSystems fileSystems;
+
+    private HdfsStartupMetrics startupMetrics;
+
+    @Before
+    public void setUp() throws IOException {
+        fileSystems = TestFileSystems.embedded(1);
+        fileSystems.getHdfsConfig().getFileSystem().mkdirs(fileSystems.getHdfsConfig().getPath());
+        startupMetrics = new HdfsStartupMetrics();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        fileSystems.close();
+    }
+
+    @Test
+    public void afterSingletonsInstantiated_locatesBlocksOfHotFiles() throws IOException {
+        HdfsConfig hdfsConfig = fileSystems.getHdfsConfig();
+        try (FSDataOutputStream out = hdfsConfig.getFileSystem().create(
+            new Path(hdfsConfig.getPath(), "hot.csv"))) {
+            out.write(new byte[1024]);
+        }
+        HdfsWarmup warmup = new HdfsWarmup(hdfsConfig,
+            Arrays.asList(new Path("hot.csv"), new Path("missing.csv")), startupMetrics, true);
+
+        warmup.afterSingletonsInstantiated();
+
+        assertThat(warmup.getBlocksLocated(), equalTo(1));
+        assertThat(startupMetrics.getPhaseMillis().keySet(),
+            hasItems(HdfsWarmup.PHASE_CONNECT, HdfsWarmup.PHASE_HOT_FILES));
+    }
+
+    @Test
+    public void afterSingletonsInstantiated_disabled_doesNothing() {
+        new HdfsWarmup(fileSystems.getHdfsConfig(), Collections.emptyList(), startupMetrics, false)
+            .afterSingletonsInstantiated();
+
+        assertThat(startupMetrics.getPhaseMillis().isEmpty(), equalTo(true));
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.google.common.io.Files;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.ReadOption;
+import org.apache.hadoop.io.ElasticByteBufferPool;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+
+public class InstrumentedFileSystemTest {
+
+    private static final byte[] CONTENT = "instrumented".getBytes();
+
+    private SimpleHdfsMetricsRegistry registry;
+
+    private FileSystem fs;
+
+    private Path data;
+
+    @Before
+    public void setUp() throws IOException {
+        File tmpFolder = Files.createTempDir();
+        tmpFolder.deleteOnExit();
+        Path root = new Path(tmpFolder.getAbsolutePath());
+        data = new Path(root, "data");
+
+        registry = new SimpleHdfsMetricsRegistry();
+        fs = new InstrumentedFileSystem(FileSystem.getLocal(new Configuration()), "alice",
+            new String[] {root.toUri().getPath(), data.toUri().getPath()}, registry);
+        fs.setWorkingDirectory(data);
+    }
+
+    @Test
+    public void readAndWrite_recordedWithBytesUnderLongestPrefix() throws IOException {
+        Path file = new Path(data, "file");
+        try (FSDataOutputStream out = fs.create(file)) {
+            out.write(CONTENT);
+        }
+        try (FSDataInputStream in = fs.open(file)) {
+            IOUtils.toByteArray(in);
+        }
+
+        SimpleHdfsMetricsRegistry.Metrics create = metrics("create", data);
+        assertThat(create.getCount(), equalTo(1L));
+        assertThat(create.getBytes(), equalTo((long) CONTENT.length));
+        assertThat(create.getUser(), equalTo("alice"));
+
+        SimpleHdfsMetricsRegistry.Metrics open = metrics("open", data);
+        assertThat(open.getCount(), equalTo(1L));
+        assertThat(open.getBytes(), equalTo((long) CONTENT.length));
+    }
+
+    @Test
+    public void relativePath_attributedToWorkingDirectoryPrefix() throws IOException {
+        fs.mkdirs(new Path("relative"));
+        fs.listStatus(new Path("relative"));
+
+        assertThat(metrics("mkdirs", data).getCount(), equalTo(1L));
+        assertThat(metrics("list_status", data).getCount(), equalTo(1L));
+    }
+
+    @Test
+    public void siblingSharingPrefixName_notAttributedToPrefix() throws IOException {
+        fs.mkdirs(new Path(data.getParent(), "database"));
+
+        assertThat(metrics("mkdirs", data).getCount(), equalTo(0L));
+        assertThat(metrics("mkdirs", data.getParent()).getCount(), equalTo(1L));
+    }
+
+    @Test
+    public void open_localFile_readsIntoPooledBufferWithoutByteBufferSupport() throws IOException {
+        Path file = new Path(data, "file");
+        try (FSDataOutputStream out = fs.create(file)) {
+            out.write(CONTENT);
+        }
+
+        try (FSDataInputStream in = fs.open(file)) {
+            ByteBuffer buffer = in.read(new ElasticByteBufferPool(), 1024,
+                EnumSet.noneOf(ReadOption.class));
+            assertThat(buffer.remaining(), equalTo(CONTENT.length));
+            in.releaseBuffer(buffer);
+        }
+        assertThat(metrics("open", data).getBytes(), equalTo((long) CONTENT.length));
+    }
+
+    @Test
+    public void failedOperation_countedAsError() throws IOException {
+        try {
+            fs.getFileStatus(new Path("/not/existing/file"));
+        } catch (FileNotFoundException expected) {
+            // recorded as error
+        }
+        SimpleHdfsMetricsRegistry.Metrics status =
+            registry.operation("get_file_status", "alice", InstrumentedFileSystem.OTHER_PREFIX);
+        assertThat(status.getCount(), equalTo(1L));
+        assertThat(status.getErrors(), equalTo(1L));
+    }
+
+    private SimpleHdfsMetricsRegistry.Metrics metrics(String operation, Path prefix) {
+        return registry.operation(operation, "alice", prefix.toUri().getPath());
+    }
+}
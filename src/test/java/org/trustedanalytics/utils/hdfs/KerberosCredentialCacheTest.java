@@ -0,0 +1,268 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenIdentifier;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.security.Credentials;
+import org.apache.hadoop.security.token.Token;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+import javax.security.auth.login.AppConfigurationEntry;
+import javax.security.auth.login.Configuration;
+import javax.security.auth.login.LoginContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+public class KerberosCredentialCacheTest {
+
+    private static final String USER = "user";
+
+    private static final String REALM = "EXAMPLE.COM";
+
+    private static final long HOUR_MS = TimeUnit.HOURS.toMillis(1);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+
+    private KerberosCredentialCache cache;
+
+    @Before
+    public void setUp() {
+        directory = folder.getRoot().toPath().resolve("credentials");
+        cache = new KerberosCredentialCache(directory, 60_000, 24 * HOUR_MS);
+    }
+
+    @Test
+    public void load_nothingStored_returnsEmpty() {
+        assertThat(cache.load(USER, REALM).isPresent(), is(false));
+        assertThat(cache.getMisses(), equalTo(1L));
+    }
+
+    @Test
+    public void storeTicket_load_returnsTicketOfUser() throws Exception {
+        KerberosTicket ticket = ticket(HOUR_MS);
+        cache.storeTicket(USER, REALM, ticket);
+
+        KerberosTicket cached = cache.load(USER, REALM).get().getTicket().get();
+
+        assertThat(cached, equalTo(ticket));
+        assertThat(cache.load("other", REALM).isPresent(), is(false));
+        assertThat(cache.getHits(), equalTo(1L));
+        assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(
+            directory.resolve(USER + "@" + REALM + ".creds"))), equalTo("rw-------"));
+    }
+
+    @Test
+    public void load_ticketExpiringWithinMinRemaining_returnsEmpty() {
+        cache.storeTicket(USER, REALM, ticket(30_000));
+
+        assertThat(cache.load(USER, REALM).isPresent(), is(false));
+    }
+
+    @Test
+    public void storeTokens_keepsTicket_andDropsExpiredTokens() {
+        long now = System.currentTimeMillis();
+        cache.storeTicket(USER, REALM, ticket(HOUR_MS));
+        Credentials tokens = new Credentials();
+        addToken(tokens, "valid:8020", now, now + 7 * 24 * HOUR_MS);
+        addToken(tokens, "renewal-expired:8020", now - 25 * HOUR_MS, now + HOUR_MS);
+        addToken(tokens, "max-date-passed:8020", now - HOUR_MS, now);
+        cache.storeTokens(USER, REALM, tokens);
+
+        KerberosCredentialCache.Entry entry = cache.load(USER, REALM).get();
+
+        assertThat(entry.getTicket().isPresent(), is(true));
+        assertThat(entry.getTokens().numberOfTokens(), equalTo(1));
+        assertThat(entry.getTokens().getToken(new Text("valid:8020")) != null, is(true));
+    }
+
+    @Test
+    public void load_cacheReadableByOthers_returnsEmpty() throws Exception {
+        cache.storeTicket(USER, REALM, ticket(HOUR_MS));
+        Files.setPosixFilePermissions(directory.resolve(USER + "@" + REALM + ".creds"),
+            PosixFilePermissions.fromString("rw-r--r--"));
+
+        assertThat(cache.load(USER, REALM).isPresent(), is(false));
+    }
+
+    @Test
+    public void update_concurrentInstances_keepBothTicketAndTokens() {
+        KerberosCredentialCache other =
+            new KerberosCredentialCache(directory, 60_000, 24 * HOUR_MS);
+        long now = System.currentTimeMillis();
+        Credentials tokens = new Credentials();
+        addToken(tokens, "valid:8020", now, now + 7 * 24 * HOUR_MS);
+
+        IntStream.range(0, 50).parallel().forEach(i -> {
+            if (i % 2 == 0) {
+                cache.storeTicket(USER, REALM, ticket(HOUR_MS));
+            } else {
+                other.storeTokens(USER, REALM, tokens);
+            }
+        });
+
+        Optional<KerberosCredentialCache.Entry> entry = other.load(USER, REALM);
+        assertThat(entry.get().getTicket().isPresent(), is(true));
+        assertThat(entry.get().hasTokens(), is(true));
+    }
+
+    @Test
+    public void writeTicketCache_isReadableByKrb5LoginModule() throws Exception {
+        System.setProperty("java.security.krb5.realm", REALM);
+        System.setProperty("java.security.krb5.kdc", "localhost");
+        Path ticketCache = folder.getRoot().toPath().resolve("krb5cc");
+        KerberosTicket ticket = new KerberosTicket(encodedTicket(),
+            new KerberosPrincipal(USER + "@" + REALM),
+            new KerberosPrincipal("krbtgt/" + REALM + "@" + REALM),
+            new byte[16], 17, new boolean[] {false, true, false, false},
+            new Date(), new Date(), new Date(System.currentTimeMillis() + HOUR_MS), null, null);
+
+        KerberosCredentialCache.writeTicketCache(ticket, ticketCache);
+
+        Subject subject = new Subject();
+        new LoginContext("test", subject, null, ticketCacheLogin(ticketCache)).login();
+        KerberosTicket read =
+            subject.getPrivateCredentials(KerberosTicket.class).iterator().next();
+        assertThat(read.getClient(), equalTo(ticket.getClient()));
+        assertThat(read.getServer(), equalTo(ticket.getServer()));
+        assertThat(read.getEncoded(), equalTo(ticket.getEncoded()));
+        assertThat(read.isForwardable(), is(true));
+    }
+
+    @Test
+    public void writeTicketCache_servicePrincipal_writesPrivateFileInDirectory() throws Exception {
+        cache.storeTicket(USER, REALM, ticket(HOUR_MS));
+        long now = System.currentTimeMillis();
+        KerberosTicket ticket = new KerberosTicket(new byte[] {1, 2, 3},
+            new KerberosPrincipal("service/host.example.com@" + REALM),
+            new KerberosPrincipal("krbtgt/" + REALM + "@" + REALM),
+            new byte[] {4, 5, 6, 7}, 17, null, new Date(now), new Date(now),
+            new Date(now + HOUR_MS), null, null);
+
+        Path ticketCache = cache.writeTicketCache(ticket);
+
+        assertThat(ticketCache, equalTo(
+            directory.resolve("service_host.example.com@" + REALM + ".ccache")));
+        assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(ticketCache)),
+            equalTo("rw-------"));
+    }
+
+    private static KerberosTicket ticket(long lifetimeMs) {
+        long now = System.currentTimeMillis();
+        return new KerberosTicket(new byte[] {1, 2, 3},
+            new KerberosPrincipal(USER + "@" + REALM),
+            new KerberosPrincipal("krbtgt/" + REALM + "@" + REALM),
+            new byte[] {4, 5, 6, 7},
+            17,
+            null,
+            new Date(now),
+            new Date(now),
+            new Date(now + lifetimeMs),
+            null,
+            null);
+    }
+
+    /**
+     * Adds token under its service, as FileSystem does.
+     */
+    private static void addToken(Credentials tokens, String service, long issueDate,
+                                 long maxDate) {
+        DelegationTokenIdentifier identifier =
+            new DelegationTokenIdentifier(new Text(USER), new Text(USER), null);
+        identifier.setIssueDate(issueDate);
+        identifier.setMaxDate(maxDate);
+        tokens.addToken(new Text(service), new Token<>(identifier.getBytes(), new byte[] {1},
+            DelegationTokenIdentifier.HDFS_DELEGATION_KIND, new Text(service)));
+    }
+
+    private static Configuration ticketCacheLogin(Path ticketCache) {
+        Map<String, String> options = new HashMap<>();
+        options.put("useTicketCache", "true");
+        options.put("ticketCache", ticketCache.toString());
+        options.put("doNotPrompt", "true");
+        options.put("refreshKrb5Config", "true");
+        options.put("principal", USER + "@" + REALM);
+        AppConfigurationEntry entry = new AppConfigurationEntry(
+            "com.sun.security.auth.module.Krb5LoginModule",
+            AppConfigurationEntry.LoginModuleControlFlag.REQUIRED, options);
+        return new Configuration() {
+            @Override
+            public AppConfigurationEntry[] getAppConfigurationEntry(String name) {
+                return new AppConfigurationEntry[] {entry};
+            }
+        };
+    }
+
+    /**
+     * DER encoding of a ticket-granting ticket with dummy encrypted part.
+     */
+    private static byte[] encodedTicket() throws IOException {
+        byte[] realm = der(0x1b, REALM.getBytes(StandardCharsets.US_ASCII));
+        return der(0x61, der(0x30,
+            der(0xa0, der(0x02, new byte[] {5})),
+            der(0xa1, realm),
+            der(0xa2, der(0x30,
+                der(0xa0, der(0x02, new byte[] {2})),
+                der(0xa1, der(0x30,
+                    der(0x1b, "krbtgt".getBytes(StandardCharsets.US_ASCII)),
+                    realm)))),
+            der(0xa3, der(0x30,
+                der(0xa0, der(0x02, new byte[] {17})),
+                der(0xa2, der(0x04, new byte[32]))))));
+    }
+
+    private static byte[] der(int tag, byte[]... contents) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (byte[] part : contents) {
+            content.write(part);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(tag);
+        int length = content.size();
+        if (length < 0x80) {
+            out.write(length);
+        } else {
+            out.write(0x82);
+            out.write(length >> 8);
+            out.write(length);
+        }
+        content.writeTo(out);
+        return out.toByteArray();
+    }
+}
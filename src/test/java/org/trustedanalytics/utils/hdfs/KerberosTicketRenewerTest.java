@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+import javax.security.auth.login.LoginException;
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+public class KerberosTicketRenewerTest {
+
+    private static final long TICKET_LIFETIME_MS = 400;
+
+    private KerberosTicketRenewer renewer;
+
+    @After
+    public void tearDown() {
+        if (renewer != null) {
+            renewer.close();
+        }
+    }
+
+    @Test
+    public void start_shortLivedTicket_renewsBeforeExpiry() throws Exception {
+        AtomicInteger logins = new AtomicInteger();
+        KerberosRenewalStats stats = new KerberosRenewalStats();
+        renewer = new KerberosTicketRenewer(() -> {
+            logins.incrementAndGet();
+            return subjectWithTicket(TICKET_LIFETIME_MS);
+        }, 0.5, 0.0, stats, 10, 100);
+
+        Subject initial = subjectWithTicket(TICKET_LIFETIME_MS);
+        renewer.start(initial);
+
+        waitFor(() -> stats.getRenewals() >= 2);
+        assertThat(stats.getFailures(), equalTo(0L));
+        assertThat(logins.get() >= 2, is(true));
+        assertThat(renewer.getSubject() == initial, is(false));
+    }
+
+    @Test
+    public void renewalFailure_isCountedAndRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        KerberosRenewalStats stats = new KerberosRenewalStats();
+        renewer = new KerberosTicketRenewer(() -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new LoginException("KDC unavailable");
+            }
+            return subjectWithTicket(60_000);
+        }, 0.5, 0.0, stats, 10, 100);
+
+        Subject initial = subjectWithTicket(TICKET_LIFETIME_MS);
+        renewer.start(initial);
+        assertThat(renewer.getSubject(), sameInstance(initial));
+
+        waitFor(() -> stats.getRenewals() == 1);
+        assertThat(stats.getFailures(), equalTo(2L));
+        assertThat(stats.getConsecutiveFailures(), equalTo(0L));
+        assertThat(stats.getNextRenewalTime() > System.currentTimeMillis(), is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void new_jitterBeyondExpiry_throwsIllegalArgumentException() {
+        new KerberosTicketRenewer(() -> subjectWithTicket(TICKET_LIFETIME_MS), 0.95, 0.1,
+            new KerberosRenewalStats());
+    }
+
+    private static Subject subjectWithTicket(long lifetimeMs) {
+        long now = System.currentTimeMillis();
+        KerberosPrincipal client = new KerberosPrincipal("user@EXAMPLE.COM");
+        KerberosTicket ticket = new KerberosTicket(new byte[] {1},
+            client,
+            new KerberosPrincipal("krbtgt/EXAMPLE.COM@EXAMPLE.COM"),
+            new byte[] {1, 2, 3, 4},
+            17,
+            null,
+            new Date(now),
+            new Date(now),
+            new Date(now + lifetimeMs),
+            null,
+            (InetAddress[]) null);
+        return new Subject(false, Collections.singleton(client), Collections.emptySet(),
+            Collections.singleton(ticket));
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertThat("condition not met in time", System.currentTimeMillis() < deadline, is(true));
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class LazyHdfsConfigTest {
+
+    @Test
+    public void accessors_waitForBackgroundInitialization() throws Exception {
+        FileSystem fileSystem = FileSystem.getLocal(new Configuration());
+        HdfsConfig initialized = new HdfsConfig(fileSystem, "hdfs", new Path("/tmp"));
+        CompletableFuture<HdfsConfig> future = new CompletableFuture<>();
+        LazyHdfsConfig lazy = new LazyHdfsConfig(future);
+        assertThat(lazy.isInitialized(), is(false));
+
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<FileSystem> access = CompletableFuture.supplyAsync(() -> {
+            started.countDown();
+            return lazy.getFileSystem();
+        });
+        started.await();
+        assertThat(access.isDone(), is(false));
+
+        future.complete(initialized);
+        assertThat(access.get(5, TimeUnit.SECONDS), sameInstance(fileSystem));
+        assertThat(lazy.isInitialized(), is(true));
+        assertThat(lazy.getUser(), equalTo("hdfs"));
+        assertThat(lazy.getPath(), equalTo(new Path("/tmp")));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void accessors_rethrowInitializationFailure() {
+        CompletableFuture<HdfsConfig> future = new CompletableFuture<>();
+        future.completeExceptionally(new IOException("NameNode unreachable"));
+        new LazyHdfsConfig(future).getFileSystem();
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class MetadataCachingFileSystemTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private FileSystem local;
+
+    private MetadataCachingFileSystem fs;
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        local = FileSystem.getLocal(new Configuration());
+        fs = new MetadataCachingFileSystem(local, 100, 60_000, false);
+        dir = new Path(tmp.getRoot().getAbsolutePath());
+    }
+
+    @Test
+    public void getFileStatus_repeated_servedFromCache() throws IOException {
+        fs.getFileStatus(dir);
+        fs.getFileStatus(dir);
+        fs.exists(dir);
+
+        assertThat(fs.getStatusStats().missCount(), equalTo(1L));
+        assertThat(fs.getStatusStats().hitCount(), equalTo(2L));
+    }
+
+    @Test
+    public void exists_missingFile_cachedUntilCreatedThroughSameHandle() throws IOException {
+        Path file = new Path(dir, "file");
+        assertThat(fs.exists(file), is(false));
+        assertThat(fs.exists(file), is(false));
+
+        try (FSDataOutputStream out = fs.create(file)) {
+            out.write(1);
+        }
+        assertThat(fs.exists(file), is(true));
+        assertThat(fs.getFileStatus(file).getLen(), equalTo(1L));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void exists_missingFile_invalidatedByCreateNonRecursive() throws IOException {
+        Path file = new Path(dir, "file");
+        assertThat(fs.exists(file), is(false));
+
+        fs.createNonRecursive(file, false, 4096, (short) 1, 1024 * 1024, null).close();
+
+        assertThat(fs.exists(file), is(true));
+    }
+
+    @Test
+    public void exists_missingDirectory_invalidatedByNestedCreateAndMkdirs() throws IOException {
+        Path parent = new Path(dir, "a/b");
+        assertThat(fs.exists(parent), is(false));
+        assertThat(fs.listStatus(dir).length, equalTo(0));
+
+        fs.create(new Path(parent, "file")).close();
+
+        assertThat(fs.exists(parent), is(true));
+        assertThat(fs.exists(new Path(dir, "a")), is(true));
+        assertThat(fs.listStatus(dir).length, equalTo(1));
+
+        Path other = new Path(dir, "c/d");
+        assertThat(fs.exists(other), is(false));
+        fs.mkdirs(new Path(other, "e"));
+        assertThat(fs.exists(other), is(true));
+    }
+
+    @Test
+    public void getFileStatus_changeWhileLoading_resultNotCached() throws IOException {
+        Path file = new Path(dir, "file");
+        MetadataCachingFileSystem caching = cachingWithWriteDuringLoad(file, file);
+
+        assertThat(caching.exists(file), is(false));
+
+        assertThat(caching.exists(file), is(true));
+    }
+
+    @Test
+    public void getFileStatus_otherPathChangedWhileLoading_resultCached() throws IOException {
+        MetadataCachingFileSystem caching = cachingWithWriteDuringLoad(dir, new Path(dir, "other"));
+
+        caching.getFileStatus(dir);
+        caching.getFileStatus(dir);
+
+        assertThat(caching.getStatusStats().hitCount(), equalTo(1L));
+    }
+
+    @Test
+    public void listStatus_invalidatedByWritesAndRenames() throws IOException {
+        assertThat(fs.listStatus(dir).length, equalTo(0));
+
+        fs.create(new Path(dir, "a")).close();
+        assertThat(fs.listStatus(dir).length, equalTo(1));
+
+        fs.mkdirs(new Path(dir, "sub"));
+        fs.rename(new Path(dir, "a"), new Path(dir, "sub/b"));
+        assertThat(fs.listStatus(dir).length, equalTo(1));
+        assertThat(fs.listStatus(new Path(dir, "sub")).length, equalTo(1));
+        assertThat(fs.exists(new Path(dir, "a")), is(false));
+
+        fs.delete(new Path(dir, "sub"), true);
+        assertThat(fs.listStatus(dir).length, equalTo(0));
+    }
+
+    @Test
+    public void externalChange_visibleOnlyAfterTtlOrInStrictMode() throws IOException {
+        assertThat(fs.listStatus(dir).length, equalTo(0));
+        local.create(new Path(dir, "external")).close();
+        assertThat(fs.listStatus(dir).length, equalTo(0));
+
+        fs.setStrict(true);
+        assertThat(fs.listStatus(dir).length, equalTo(1));
+    }
+
+    @Test
+    public void listStatus_expiresAfterTtl() throws Exception {
+        MetadataCachingFileSystem shortLived = new MetadataCachingFileSystem(local, 100, 50, false);
+        assertThat(shortLived.listStatus(dir).length, equalTo(0));
+        local.create(new Path(dir, "external")).close();
+
+        Thread.sleep(100);
+        FileStatus[] listing = shortLived.listStatus(dir);
+        assertThat(listing.length, equalTo(1));
+    }
+
+    /**
+     * Caching file system whose first load of loaded path creates written path through it, as a
+     * concurrent writer would.
+     */
+    private MetadataCachingFileSystem cachingWithWriteDuringLoad(Path loaded, Path written) {
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicReference<MetadataCachingFileSystem> caching = new AtomicReference<>();
+        FileSystem delegate = new FilterFileSystem(local) {
+            @Override
+            public FileStatus getFileStatus(Path f) throws IOException {
+                try {
+                    return super.getFileStatus(f);
+                } finally {
+                    if (f.equals(loaded) && writing.getAndSet(false)) {
+                        caching.get().create(written).close();
+                    }
+                }
+            }
+        };
+        caching.set(new MetadataCachingFileSystem(delegate, 100, 60_000, false));
+        return caching.get();
+    }
+}
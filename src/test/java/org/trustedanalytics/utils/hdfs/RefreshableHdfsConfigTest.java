@@ -0,0 +1,269 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class RefreshableHdfsConfigTest {
+
+    private static final long NEVER_MS = TimeUnit.HOURS.toMillis(1);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicReference<String> snapshot = new AtomicReference<>("first");
+
+    private final Set<String> closed = ConcurrentHashMap.newKeySet();
+
+    private final HdfsRefreshStats stats = new HdfsRefreshStats();
+
+    private RefreshableHdfsConfig config;
+
+    @Before
+    public void setUp() throws Exception {
+        config = create(NEVER_MS);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        config.close();
+    }
+
+    @Test
+    public void refresh_sourceUnchanged_keepsConfiguration() throws Exception {
+        assertThat(config.refresh(), is(false));
+        assertThat(config.getGeneration(), equalTo(1L));
+        assertThat(stats.getSwaps(), equalTo(0L));
+    }
+
+    @Test
+    public void refresh_sourceChanged_swapsAndClosesPrevious() throws Exception {
+        FileSystem fs = config.getFileSystem();
+        snapshot.set("second");
+
+        assertThat(config.refresh(), is(true));
+
+        assertThat(config.getGeneration(), equalTo(2L));
+        assertThat(config.getPath().getName(), equalTo("second"));
+        assertThat(closed, equalTo(Collections.singleton("first")));
+        assertThat(config.getFileSystem(), is(fs));
+        assertThat(stats.getSwaps(), equalTo(1L));
+    }
+
+    @Test
+    public void refresh_streamOpen_waitsForStreamBeforeClosing() throws Exception {
+        Path file = new Path(config.getPath(), "data.txt");
+        try (FSDataOutputStream out = config.getFileSystem().create(file)) {
+            out.writeUTF("before swap");
+        }
+        FSDataInputStream in = config.getFileSystem().open(file);
+        snapshot.set("second");
+
+        CompletableFuture<Boolean> refresh = refreshAsync();
+        waitFor(() -> config.getGeneration() == 2);
+
+        assertThat(config.getPath().getName(), equalTo("second"));
+        assertThat(in.readUTF(), equalTo("before swap"));
+        assertThat(closed.isEmpty(), is(true));
+
+        in.close();
+        assertThat(refresh.get(10, TimeUnit.SECONDS), is(true));
+        assertThat(closed, equalTo(Collections.singleton("first")));
+        assertThat(stats.getLastInFlightAtSwap(), equalTo(1L));
+        assertThat(stats.getForcedCloses(), equalTo(0L));
+    }
+
+    @Test
+    public void refresh_listingInProgress_waitsForListingBeforeClosing() throws Exception {
+        FileSystem fs = config.getFileSystem();
+        fs.create(new Path(config.getPath(), "a")).close();
+        fs.create(new Path(config.getPath(), "b")).close();
+        RemoteIterator<LocatedFileStatus> listing = fs.listLocatedStatus(config.getPath());
+        listing.next();
+        snapshot.set("second");
+
+        CompletableFuture<Boolean> refresh = refreshAsync();
+        waitFor(() -> config.getGeneration() == 2);
+        Thread.sleep(100);
+
+        assertThat(closed.isEmpty(), is(true));
+        listing.next();
+        assertThat(listing.hasNext(), is(false));
+        assertThat(refresh.get(10, TimeUnit.SECONDS), is(true));
+        assertThat(closed, equalTo(Collections.singleton("first")));
+    }
+
+    @Test
+    public void refresh_previousDraining_doesNotBlockNextRefresh() throws Exception {
+        FSDataOutputStream out = config.getFileSystem().create(
+            new Path(config.getPath(), "data.txt"));
+        snapshot.set("second");
+        CompletableFuture<Boolean> draining = refreshAsync();
+        waitFor(() -> config.getGeneration() == 2);
+        snapshot.set("third");
+
+        assertThat(config.refresh(), is(true));
+
+        assertThat(config.getGeneration(), equalTo(3L));
+        assertThat(closed, equalTo(Collections.singleton("second")));
+        out.close();
+        assertThat(draining.get(10, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void refresh_drainTimeoutElapsed_closesAnyway() throws Exception {
+        config.close();
+        config = create(NEVER_MS, 50);
+        closed.clear();
+        Path file = new Path(config.getPath(), "data.txt");
+        FSDataOutputStream out = config.getFileSystem().create(file);
+        snapshot.set("second");
+
+        assertThat(config.refresh(), is(true));
+
+        assertThat(closed, equalTo(Collections.singleton("first")));
+        assertThat(stats.getForcedCloses(), equalTo(1L));
+        out.close();
+    }
+
+    @Test
+    public void refresh_buildFails_keepsCurrentConfiguration() throws Exception {
+        snapshot.set("broken");
+
+        try {
+            config.refresh();
+        } catch (IllegalStateException expected) {
+            // reported to the caller, watcher logs it
+        }
+
+        assertThat(config.getGeneration(), equalTo(1L));
+        assertThat(config.getPath().getName(), equalTo("first"));
+        assertThat(stats.getFailures(), equalTo(1L));
+        assertThat(config.getFileSystem().exists(config.getPath()), is(true));
+    }
+
+    @Test
+    public void refresh_workingDirectorySet_keptByNextGeneration() throws Exception {
+        Path custom = new Path(folder.newFolder("custom").getAbsolutePath());
+        config.getFileSystem().setWorkingDirectory(custom);
+        snapshot.set("second");
+
+        config.refresh();
+
+        assertThat(config.getFileSystem().getWorkingDirectory(), equalTo(custom));
+    }
+
+    @Test
+    public void refresh_poolOfConfig_opensInstancesOfNewGeneration() throws Exception {
+        try (HdfsFileSystemPool pool =
+                 new HdfsFileSystemPool(config, config::getLoginUser, 4, 60_000)) {
+            config.addSwapListener(pool::invalidateAll);
+            try (HdfsFileSystemPool.Lease lease = pool.acquire("user")) {
+                assertThat(lease.getFileSystem().getConf().get("test.generation"),
+                    equalTo("first"));
+            }
+            snapshot.set("second");
+
+            config.refresh();
+
+            assertThat(pool.size(), equalTo(0L));
+            try (HdfsFileSystemPool.Lease lease = pool.acquire("user")) {
+                assertThat(lease.getFileSystem().getConf().get("test.generation"),
+                    equalTo("second"));
+            }
+        }
+    }
+
+    @Test
+    public void watcher_sourceChanged_swapsInBackground() throws Exception {
+        config.close();
+        config = create(20);
+        snapshot.set("second");
+
+        waitFor(() -> config.getGeneration() == 2);
+        assertThat(config.getPath().getName(), equalTo("second"));
+    }
+
+    private RefreshableHdfsConfig create(long intervalMs) throws Exception {
+        return create(intervalMs, 10_000);
+    }
+
+    private RefreshableHdfsConfig create(long intervalMs, long drainTimeoutMs) throws Exception {
+        return new RefreshableHdfsConfig(snapshot::get, (name, closer) -> {
+            if ("broken".equals(name)) {
+                throw new IllegalStateException("HDFS_URI not found in VCAP_SERVICES");
+            }
+            closer.register(() -> closed.add(name));
+            File dir = new File(folder.getRoot(), name);
+            dir.mkdirs();
+            Path path = new Path(dir.getAbsolutePath());
+            Configuration conf = new Configuration();
+            conf.set("test.generation", name);
+            FileSystem fs = FileSystem.newInstance(URI.create("file:///"), conf);
+            fs.setWorkingDirectory(path);
+            return new HdfsConfigRegistry.Instance(new HdfsConfig(fs, "hdfs", path), null);
+        }, intervalMs, drainTimeoutMs, stats);
+    }
+
+    private CompletableFuture<Boolean> refreshAsync() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return config.refresh();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.met()) {
+            assertThat("condition not met in time", System.currentTimeMillis() < deadline,
+                is(true));
+            Thread.sleep(5);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Condition {
+        boolean met();
+    }
+}
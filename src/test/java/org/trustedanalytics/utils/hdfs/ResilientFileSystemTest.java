@@ -0,0 +1,324 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ResilientFileSystemTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private FaultyFileSystem faulty;
+
+    private ResilientFileSystem fs;
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        faulty = new FaultyFileSystem(FileSystem.getLocal(new Configuration()));
+        dir = new Path(tmp.getRoot().getAbsolutePath());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (fs != null) {
+            fs.close();
+        }
+    }
+
+    @Test
+    public void getFileStatus_transientFailures_retried() throws IOException {
+        fs = create(1_000, 3, 0, 0);
+        faulty.failures.set(2);
+
+        assertThat(fs.getFileStatus(dir).isDirectory(), is(true));
+        assertThat(fs.getRetries(), equalTo(2L));
+        assertThat(faulty.calls.get(), equalTo(3));
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void getFileStatus_missingFile_notRetried() throws IOException {
+        fs = create(1_000, 3, 0, 0);
+        try {
+            fs.getFileStatus(new Path(dir, "missing"));
+        } finally {
+            assertThat(fs.getRetries(), equalTo(0L));
+        }
+    }
+
+    @Test
+    public void delete_failure_notRetried() throws IOException {
+        fs = create(1_000, 3, 0, 0);
+        faulty.failures.set(1);
+
+        assertThat(failureOf(() -> fs.delete(dir, true)), instanceOf(ConnectException.class));
+        assertThat(faulty.calls.get(), equalTo(1));
+    }
+
+    @Test
+    public void getFileStatus_hangs_timesOut() throws IOException {
+        fs = create(100, 1, 0, 0);
+        faulty.delayMs = 5_000;
+
+        long start = System.currentTimeMillis();
+        assertThat(failureOf(() -> fs.getFileStatus(dir)),
+            instanceOf(InterruptedIOException.class));
+        assertThat(System.currentTimeMillis() - start < 5_000, is(true));
+        assertThat(fs.getTimeouts(), equalTo(1L));
+    }
+
+    @Test
+    public void open_respondsAfterTimeout_lateStreamClosed() throws Exception {
+        fs = create(100, 1, 0, 0);
+        Path file = new Path(dir, "file");
+        fs.create(file).close();
+        faulty.openDelayMs = 300;
+
+        assertThat(failureOf(() -> fs.open(file)), instanceOf(InterruptedIOException.class));
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (faulty.closedStreams.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(faulty.closedStreams.get(), equalTo(1));
+    }
+
+    @Test
+    public void consecutiveFailures_openCircuit_failFastUntilTrialSucceeds() throws Exception {
+        fs = create(1_000, 1, 0, 2);
+        faulty.failures.set(2);
+        failureOf(() -> fs.getFileStatus(dir));
+        failureOf(() -> fs.getFileStatus(dir));
+
+        assertThat(failureOf(() -> fs.getFileStatus(dir)),
+            instanceOf(ResilientFileSystem.CircuitOpenException.class));
+        assertThat(faulty.calls.get(), equalTo(2));
+        assertThat(fs.getOpenCircuits(), equalTo(Collections.singleton("file://")));
+
+        Thread.sleep(300);
+        assertThat(fs.getFileStatus(dir).isDirectory(), is(true));
+        assertThat(fs.getOpenCircuits().isEmpty(), is(true));
+    }
+
+    @Test
+    public void trialCall_runtimeException_circuitReopensForNextTrial() throws Exception {
+        fs = create(1_000, 1, 0, 2);
+        faulty.failures.set(2);
+        failureOf(() -> fs.getFileStatus(dir));
+        failureOf(() -> fs.getFileStatus(dir));
+        Thread.sleep(300);
+        faulty.runtimeFailures.set(1);
+
+        assertThat(failureOf(() -> fs.getFileStatus(dir)),
+            instanceOf(IllegalStateException.class));
+        assertThat(failureOf(() -> fs.getFileStatus(dir)),
+            instanceOf(ResilientFileSystem.CircuitOpenException.class));
+
+        Thread.sleep(300);
+        assertThat(fs.getFileStatus(dir).isDirectory(), is(true));
+        assertThat(fs.getOpenCircuits().isEmpty(), is(true));
+    }
+
+    @Test
+    public void positionalRead_slowStream_hedgedOnSecondStream() throws IOException {
+        fs = create(5_000, 1, 50, 0);
+        Path file = new Path(dir, "file");
+        try (FSDataOutputStream out = fs.create(file)) {
+            out.write(new byte[] {1, 2, 3, 4});
+        }
+        faulty.slowStreams.set(1);
+
+        byte[] buffer = new byte[2];
+        try (FSDataInputStream in = fs.open(file)) {
+            long start = System.currentTimeMillis();
+            in.readFully(2, buffer);
+            assertThat(System.currentTimeMillis() - start < 5_000, is(true));
+        }
+
+        assertThat(buffer, equalTo(new byte[] {3, 4}));
+        assertThat(fs.getHedgedReads(), equalTo(1L));
+        assertThat(fs.getHedgeWins(), equalTo(1L));
+    }
+
+    private ResilientFileSystem create(long timeoutMs, int maxAttempts, long hedgeDelayMs,
+                                       int breakerThreshold) {
+        return new ResilientFileSystem(faulty, timeoutMs, maxAttempts, 10, 50, hedgeDelayMs,
+            breakerThreshold, 200, 4);
+    }
+
+    private static Exception failureOf(Failing call) {
+        try {
+            call.run();
+        } catch (Exception e) {
+            return e;
+        }
+        throw new AssertionError("call succeeded");
+    }
+
+    @FunctionalInterface
+    private interface Failing {
+        void run() throws Exception;
+    }
+
+    /**
+     * Local file system failing, hanging or reading slowly on demand.
+     */
+    private static class FaultyFileSystem extends FilterFileSystem {
+
+        final AtomicInteger failures = new AtomicInteger();
+
+        final AtomicInteger runtimeFailures = new AtomicInteger();
+
+        final AtomicInteger calls = new AtomicInteger();
+
+        final AtomicInteger slowStreams = new AtomicInteger();
+
+        final AtomicInteger closedStreams = new AtomicInteger();
+
+        volatile long delayMs;
+
+        volatile long openDelayMs;
+
+        FaultyFileSystem(FileSystem fs) {
+            super(fs);
+        }
+
+        @Override
+        public FileStatus getFileStatus(Path f) throws IOException {
+            inject();
+            return super.getFileStatus(f);
+        }
+
+        @Override
+        public boolean delete(Path f, boolean recursive) throws IOException {
+            inject();
+            return super.delete(f, recursive);
+        }
+
+        @Override
+        public FSDataInputStream open(Path f, int bufferSize) throws IOException {
+            FSDataInputStream in = tracked(super.open(f, bufferSize));
+            if (openDelayMs > 0) {
+                // a late answer, which cancelling the call does not prevent
+                Uninterruptibles.sleepUninterruptibly(openDelayMs, TimeUnit.MILLISECONDS);
+            }
+            if (slowStreams.getAndDecrement() <= 0) {
+                return in;
+            }
+            return new FSDataInputStream(new SlowInputStream(in));
+        }
+
+        private FSDataInputStream tracked(FSDataInputStream in) throws IOException {
+            return new FSDataInputStream(in) {
+                @Override
+                public void close() throws IOException {
+                    closedStreams.incrementAndGet();
+                    super.close();
+                }
+            };
+        }
+
+        private void inject() throws IOException {
+            calls.incrementAndGet();
+            if (failures.getAndDecrement() > 0) {
+                throw new ConnectException("injected failure");
+            }
+            if (runtimeFailures.getAndDecrement() > 0) {
+                throw new IllegalStateException("injected failure");
+            }
+            if (delayMs > 0) {
+                sleep(delayMs);
+            }
+        }
+    }
+
+    private static class SlowInputStream extends FSInputStream {
+
+        private final FSDataInputStream in;
+
+        SlowInputStream(FSDataInputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read(long position, byte[] buffer, int offset, int length)
+            throws IOException {
+            sleep(10_000);
+            return in.read(position, buffer, offset, length);
+        }
+
+        @Override
+        public void seek(long pos) throws IOException {
+            in.seek(pos);
+        }
+
+        @Override
+        public long getPos() throws IOException {
+            return in.getPos();
+        }
+
+        @Override
+        public boolean seekToNewSource(long targetPos) throws IOException {
+            return false;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return in.read();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted");
+        }
+    }
+}
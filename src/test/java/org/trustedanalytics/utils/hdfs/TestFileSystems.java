@@ -0,0 +1,178 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.utils.hdfs;
+
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.junit.rules.ExternalResource;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * HdfsConfig for plain (non Spring) tests, on local file system or embedded MiniDFSCluster.
+ */
+final class TestFileSystems implements Closeable {
+
+    static final String LOCAL = "local";
+
+    static final String EMBEDDED = "embedded";
+
+    private final File tmpDir;
+
+    private final MiniDFSCluster cluster;
+
+    private final HdfsConfig hdfsConfig;
+
+    private TestFileSystems(File tmpDir, MiniDFSCluster cluster, FileSystem fileSystem) {
+        this.tmpDir = tmpDir;
+        this.cluster = cluster;
+        Path folder = new Path(new File(tmpDir, "data").getAbsolutePath());
+        fileSystem.setWorkingDirectory(folder);
+        this.hdfsConfig = new HdfsConfig(fileSystem, "hdfs", folder);
+    }
+
+    static TestFileSystems local() throws IOException {
+        File tmpDir = Files.createTempDir();
+        return new TestFileSystems(tmpDir, null, FileSystem.getLocal(new Configuration()));
+    }
+
+    static TestFileSystems embedded(int dataNodes) throws IOException {
+        return embedded(dataNodes, new Configuration(false));
+    }
+
+    /**
+     * Cluster with a DataNode per host name, so that block locations differ between them.
+     */
+    static TestFileSystems embedded(String... hosts) throws IOException {
+        return embedded(hosts.length, new Configuration(false), hosts);
+    }
+
+    static TestFileSystems embedded(int dataNodes, Configuration config) throws IOException {
+        return embedded(dataNodes, config, null);
+    }
+
+    private static TestFileSystems embedded(int dataNodes, Configuration config, String[] hosts)
+        throws IOException {
+        File tmpDir = Files.createTempDir();
+        config.set(MiniDFSCluster.HDFS_MINIDFS_BASEDIR, tmpDir.getAbsolutePath());
+        // without hdfs-default.xml edits would go to shared /tmp/hadoop/dfs/name
+        if (config.get(DFSConfigKeys.DFS_NAMENODE_EDITS_DIR_KEY) == null) {
+            config.set(DFSConfigKeys.DFS_NAMENODE_EDITS_DIR_KEY,
+                new File(tmpDir, "edits").toURI().toString());
+        }
+        MiniDFSCluster cluster = new MiniDFSCluster.Builder(config)
+            .numDataNodes(dataNodes)
+            .hosts(hosts)
+            .build();
+        return new TestFileSystems(tmpDir, cluster, cluster.getFileSystem());
+    }
+
+    /**
+     * Parameters of tests run on both file systems of {@link Shared}.
+     */
+    static Collection<Object[]> names() {
+        return Arrays.asList(new Object[] {LOCAL}, new Object[] {EMBEDDED});
+    }
+
+    HdfsConfig getHdfsConfig() {
+        return hdfsConfig;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (cluster != null) {
+            cluster.shutdown();
+        }
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    @FunctionalInterface
+    interface Starter {
+        TestFileSystems start() throws IOException;
+    }
+
+    /**
+     * Local file system and embedded cluster started once for a test class, as its
+     * {@code @ClassRule}. Tests share them, so they should call {@link #clean()} when done.
+     */
+    static final class Shared extends ExternalResource {
+
+        private final Starter embeddedStarter;
+
+        private TestFileSystems local;
+
+        private TestFileSystems embedded;
+
+        Shared() {
+            this(() -> embedded(1));
+        }
+
+        Shared(Starter embeddedStarter) {
+            this.embeddedStarter = embeddedStarter;
+        }
+
+        /**
+         * @param name {@link #LOCAL} or {@link #EMBEDDED}
+         */
+        HdfsConfig get(String name) {
+            return (LOCAL.equals(name) ? local : embedded).getHdfsConfig();
+        }
+
+        /**
+         * Deletes everything tests wrote to the data folders.
+         */
+        void clean() throws IOException {
+            for (TestFileSystems fileSystems : Arrays.asList(local, embedded)) {
+                HdfsConfig hdfsConfig = fileSystems.getHdfsConfig();
+                hdfsConfig.getFileSystem().delete(hdfsConfig.getPath(), true);
+            }
+        }
+
+        @Override
+        protected void before() throws IOException {
+            local = local();
+            try {
+                embedded = embeddedStarter.start();
+            } catch (IOException | RuntimeException e) {
+                local.close();
+                throw e;
+            }
+        }
+
+        @Override
+        protected void after() {
+            try {
+                try {
+                    local.close();
+                } finally {
+                    embedded.close();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}